@@ -0,0 +1,535 @@
+package org.smoc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.smoc.exceptions.ConfigurationFileNotFoundException;
+import org.smoc.exceptions.InvalidConfigurationException;
+import org.smoc.exceptions.InvalidMissiveException;
+
+/**
+ * The DropFolderWatcher class sends the missive XML files dropped in an inbox directory for as long as it runs, so
+ * that the configuration, the key material and the connections of a Smoc instance are shared by every missive instead
+ * of being loaded again for each file. The inbox is watched with a WatchService and every file found in it is claimed
+ * by moving it to the processing subdirectory before being submitted to a send pipeline. Files whose missive was sent
+ * are then moved to the done subdirectory and the others to the error subdirectory, next to a file holding the
+ * exception that made them fail. The request of each missive is created from the header of its document, so that the
+ * recipient, priority and idempotency key of the missive are taken from the document.
+ * <p>
+ * A file is only claimed once it has not been modified for the settle delay, so that files still being copied are
+ * left alone. Producers should nevertheless write their files under a name starting with a dot or ending with .tmp
+ * and rename them once complete, those files being ignored. Files left in the processing subdirectory by a watcher
+ * that was stopped abruptly are moved to the done subdirectory if the spool, when one is configured, recorded their
+ * missive as archived, resumed from the spool if their missive was left unfinished, and moved back to the inbox
+ * otherwise. Without a spool, the missive of a file moved back to the inbox may be sent twice.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class DropFolderWatcher {
+
+    private static final String DONE_DIRECTORY = "done";
+    private static final String ERROR_DIRECTORY = "error";
+    private static final String ERROR_SUFFIX = ".error";
+    private static final String PROCESSING_DIRECTORY = "processing";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private static final Claim END_OF_STREAM = new Claim(null, (Future<MissiveResult>) null);
+
+    private final BlockingQueue<Claim> claims;
+    private final File doneDirectory;
+    private final File errorDirectory;
+    private final AtomicLong failedCount;
+    private final File inbox;
+    private final File processingDirectory;
+    private volatile boolean running;
+    private long settleDelay;
+    private final Smoc smoc;
+    private volatile boolean stopped;
+    private final AtomicLong sentCount;
+    private final String subject;
+    private final CountDownLatch terminated;
+
+    /**
+     * Get the number of missives that failed since the watcher was started
+     * 
+     * @return Number of files moved to the error subdirectory
+     */
+    public long getFailedCount() {
+        return this.failedCount.get();
+    }
+
+    /**
+     * Get the number of missives sent since the watcher was started
+     * 
+     * @return Number of files moved to the done subdirectory
+     */
+    public long getSentCount() {
+        return this.sentCount.get();
+    }
+
+    /**
+     * Set the time a file must have been left unmodified in the inbox before it is claimed
+     * 
+     * @param settleDelay Settle delay in milliseconds
+     */
+    public void setSettleDelay(long settleDelay) {
+        this.settleDelay = settleDelay;
+    }
+
+    /**
+     * DropFolderWatcher class constructor
+     * 
+     * @param smoc Smoc instance sending the missives
+     * @param inbox Directory watched for missive XML files
+     * @param subject Subject of the missive document emails, or null for the subject formatted from each document
+     */
+    public DropFolderWatcher(Smoc smoc, File inbox, String subject) {
+
+        // Initialise class attributes
+        this.claims = new LinkedBlockingQueue<>();
+        this.doneDirectory = new File(inbox, DONE_DIRECTORY);
+        this.errorDirectory = new File(inbox, ERROR_DIRECTORY);
+        this.failedCount = new AtomicLong(0);
+        this.inbox = inbox;
+        this.processingDirectory = new File(inbox, PROCESSING_DIRECTORY);
+        this.running = false;
+        this.settleDelay = 1000;
+        this.smoc = smoc;
+        this.stopped = false;
+        this.sentCount = new AtomicLong(0);
+        this.subject = subject;
+        this.terminated = new CountDownLatch(1);
+    }
+
+    /**
+     * Watch the inbox and send the missives dropped in it until stop is called. The missives left unfinished by a
+     * previous run are resumed first, the spool of the Smoc instance being resumed by this method.
+     * 
+     * @throws ConfigurationFileNotFoundException
+     * @throws InvalidConfigurationException
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void run() throws ConfigurationFileNotFoundException, InvalidConfigurationException, IOException,
+            InterruptedException {
+
+        // The watcher can only run once
+        synchronized (this) {
+            if (this.running || this.stopped) {
+                throw new IllegalStateException("The drop folder watcher has already been started.");
+            }
+            this.running = true;
+        }
+
+        try {
+
+            // Create the subdirectories of the inbox
+            for (File directory : new File[] { this.processingDirectory, this.doneDirectory, this.errorDirectory }) {
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    throw new IOException("The drop folder directory " + directory.getPath()
+                            + " could not be created.");
+                }
+            }
+
+            // Finish the files claimed by a previous run
+            this.recover();
+
+            // Send pipeline fed with the claimed files
+            MissivePipeline pipeline = this.smoc.openPipeline();
+
+            // Thread moving the files of the missives as they leave the pipeline
+            Thread completer = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    DropFolderWatcher.this.complete();
+                }
+
+            }, "smoc-drop-folder");
+
+            completer.setDaemon(true);
+            completer.start();
+
+            try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+
+                // Be notified of the files dropped in the inbox or still being written to
+                this.inbox.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+
+                // Look at the files already in the inbox first
+                boolean changed = true;
+                boolean unsettled = false;
+
+                while (!this.stopped) {
+
+                    // Claim the settled files when the inbox has changed or files were still being written
+                    if (changed || unsettled) {
+                        unsettled = this.claimFiles(pipeline);
+                    }
+
+                    // Wait for the inbox to change, waking up regularly to check if the watcher is being stopped
+                    WatchKey key = watchService.poll(unsettled ? Math.min(this.settleDelay, 500) : 500,
+                            TimeUnit.MILLISECONDS);
+                    changed = null != key;
+
+                    if (changed) {
+
+                        // The events only tell that the inbox has to be listed again
+                        key.pollEvents();
+
+                        // Check that the inbox is still there
+                        if (!key.reset()) {
+                            throw new IOException("The drop folder " + this.inbox.getPath() + " is no longer "
+                                    + "accessible.");
+                        }
+                    }
+                }
+
+            } finally {
+
+                // Let the missives already submitted leave the pipeline and their files be moved
+                pipeline.close();
+                this.claims.put(END_OF_STREAM);
+                completer.join();
+            }
+
+        } finally {
+            this.terminated.countDown();
+        }
+    }
+
+    /**
+     * Stop watching the inbox and wait for the missives already claimed to be sent and their files to be moved. This
+     * method can be called from any thread, including a shutdown hook.
+     * 
+     * @throws InterruptedException
+     */
+    public void stop() throws InterruptedException {
+
+        // Stop claiming files
+        synchronized (this) {
+            this.stopped = true;
+            if (!this.running) {
+                return;
+            }
+        }
+
+        // Wait for the watcher to finish the files it claimed
+        this.terminated.await();
+    }
+
+    /**
+     * Claim the files of the inbox that have settled and submit their missives to the pipeline
+     * 
+     * @param pipeline Send pipeline
+     * @return Whether some files were left in the inbox because they were still being written or could not be claimed
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private boolean claimFiles(MissivePipeline pipeline) throws IOException, InterruptedException {
+
+        // Whether some files have not settled yet
+        boolean unsettled = false;
+
+        // Last modification time of a settled file
+        long settledTime = System.currentTimeMillis() - this.settleDelay;
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.inbox.toPath())) {
+
+            for (Path path : files) {
+
+                // Stop claiming files as soon as the watcher is being stopped
+                if (this.stopped) {
+                    break;
+                }
+
+                // Ignore the subdirectories and the files still being written under a temporary name
+                File file = path.toFile();
+                if (!file.isFile() || file.getName().startsWith(".") || file.getName().endsWith(TEMPORARY_SUFFIX)) {
+                    continue;
+                }
+
+                // Leave the files that were modified too recently for the next pass
+                if (file.lastModified() > settledTime) {
+                    unsettled = true;
+                    continue;
+                }
+
+                // Claim the file and submit its missive
+                File claimed = this.claim(file);
+                if (null != claimed) {
+                    this.claims.put(this.submit(pipeline, claimed));
+                } else {
+
+                    // Look at the inbox again once the file of the same name has been processed
+                    unsettled = true;
+                }
+            }
+        }
+
+        return unsettled;
+    }
+
+    /**
+     * Submit the missive of a claimed file to the pipeline, its request being created from the header of the file
+     * 
+     * @param pipeline Send pipeline
+     * @param claimed Claimed file
+     * @return Claim of the file
+     * @throws InterruptedException
+     */
+    private Claim submit(MissivePipeline pipeline, File claimed) throws InterruptedException {
+
+        // Request of the missive, read from the header of its document
+        MissiveRequest request;
+        try {
+            request = this.smoc.createRequest(this.subject, claimed.getPath());
+        } catch (IOException | InvalidMissiveException ex) {
+
+            // The file goes to the error subdirectory without being submitted
+            return new Claim(claimed, new MissiveResult(new MissiveRequest(this.subject, claimed.getPath()), ex));
+        }
+
+        return new Claim(claimed, pipeline.submit(request));
+    }
+
+    /**
+     * Claim a file of the inbox by moving it to the processing subdirectory, so that it is handled only once
+     * 
+     * @param file File of the inbox
+     * @return Claimed file or null if the file could not be claimed
+     * @throws IOException
+     */
+    private File claim(File file) throws IOException {
+
+        // Claimed file
+        File claimed = new File(this.processingDirectory, file.getName());
+
+        // A file of the same name is still being processed, the file is claimed once it is finished
+        if (claimed.exists()) {
+            return null;
+        }
+
+        try {
+            Files.move(file.toPath(), claimed.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException ex) {
+
+            // The file was claimed or removed by someone else
+            return null;
+        }
+
+        return claimed;
+    }
+
+    /**
+     * Completion thread loop, moving the files of the missives to the done or error subdirectory in the order in
+     * which they were claimed
+     */
+    private void complete() {
+
+        while (true) {
+
+            // Next claimed file
+            Claim claim;
+            try {
+                claim = this.claims.take();
+            } catch (InterruptedException ex) {
+
+                // Files are only left unmoved at the end of the stream
+                continue;
+            }
+
+            // Check if the watcher has stopped
+            if (END_OF_STREAM == claim) {
+                return;
+            }
+
+            // Move the file once its missive has left the pipeline
+            this.finish(claim.file, null != claim.result ? claim.result : this.getResult(claim.future));
+        }
+    }
+
+    /**
+     * Wait for the result of a missive submitted to the pipeline
+     * 
+     * @param future Future result of the missive
+     * @return Result of the missive
+     */
+    private MissiveResult getResult(Future<MissiveResult> future) {
+
+        while (true) {
+            try {
+                return future.get();
+            } catch (InterruptedException ex) {
+
+                // Every missive submitted leaves the pipeline, its file is only moved once it has
+            } catch (ExecutionException ex) {
+
+                // The pipeline reports failures in the results, an execution failure is reported the same way
+                return new MissiveResult(null, ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex);
+            }
+        }
+    }
+
+    /**
+     * Finish the files left in the processing subdirectory by a previous run: the files whose missive was archived are
+     * moved to the done subdirectory, the missives left unfinished in the spool are resumed and the other files are
+     * claimed again
+     * 
+     * @throws ConfigurationFileNotFoundException
+     * @throws InvalidConfigurationException
+     * @throws IOException
+     */
+    private void recover() throws ConfigurationFileNotFoundException, InvalidConfigurationException, IOException {
+
+        // Files whose missive was archived before they could be moved, the files claimed from now on being recorded
+        for (String filename : this.smoc.retainSpooledFiles(this.processingDirectory)) {
+            File file = new File(filename);
+            if (file.isFile()) {
+                this.finish(file, new MissiveResult(new MissiveRequest(this.subject, filename), (String) null));
+            }
+        }
+
+        // Missives left unfinished in the spool, which include the claimed files that had been read
+        for (MissiveResult result : this.smoc.resumeSpool()) {
+
+            // Move the files of the resumed missives claimed by this watcher
+            File file = new File(result.getRequest().getFilename());
+            if (file.isFile() && file.getAbsoluteFile().getParentFile().equals(
+                    this.processingDirectory.getAbsoluteFile())) {
+                this.finish(file, result);
+            }
+        }
+
+        // Files claimed but not spooled are claimed again, under a new name if a file of the same name has been
+        // dropped in the inbox since
+        File[] files = this.processingDirectory.listFiles();
+        if (null != files) {
+            for (File file : files) {
+                if (file.isFile()) {
+                    try {
+                        Files.move(file.toPath(), this.getTarget(this.inbox, file.getName()).toPath(),
+                                StandardCopyOption.ATOMIC_MOVE);
+                    } catch (FileAlreadyExistsException ex) {
+
+                        // A file of the same name was dropped meanwhile, the file is claimed again on the next run
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Move a claimed file to the done subdirectory if its missive was sent, or to the error subdirectory with the
+     * exception that made it fail otherwise
+     * 
+     * @param file Claimed file
+     * @param result Result of the missive
+     */
+    private void finish(File file, MissiveResult result) {
+
+        try {
+
+            if (result.isSent()) {
+
+                // Missive sent
+                Files.move(file.toPath(), this.getTarget(this.doneDirectory, file.getName()).toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+                this.sentCount.incrementAndGet();
+
+            } else {
+
+                // Missive failed, the exception is kept next to the file
+                File target = this.getTarget(this.errorDirectory, file.getName());
+                try (PrintWriter writer = new PrintWriter(new File(target.getPath() + ERROR_SUFFIX), "UTF-8")) {
+                    result.getException().printStackTrace(writer);
+                }
+
+                Files.move(file.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                this.failedCount.incrementAndGet();
+            }
+
+        } catch (IOException ex) {
+
+            // The file stays in the processing subdirectory for the next run, which moves it to the done subdirectory
+            // if the spool recorded its missive as archived and claims it again otherwise
+        }
+    }
+
+    /**
+     * Get a file name of a directory that is not used yet, numbering the name if a file of the same name was
+     * already moved there
+     * 
+     * @param directory Done or error subdirectory, or the inbox
+     * @param name Name of the claimed file
+     * @return Unused file of the subdirectory
+     */
+    private File getTarget(File directory, String name) {
+
+        // Name of the file and its extension
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+
+        // First name that is not used
+        File target = new File(directory, name);
+        for (int i = 1; target.exists() || new File(target.getPath() + ERROR_SUFFIX).exists(); i++) {
+            target = new File(directory, base + "-" + i + extension);
+        }
+
+        return target;
+    }
+
+    /**
+     * The Claim class holds a claimed file and the future result of its missive, or its result if the missive could
+     * not be submitted
+     */
+    private static class Claim {
+
+        private final File file;
+        private final Future<MissiveResult> future;
+        private final MissiveResult result;
+
+        /**
+         * Claim class constructor
+         * 
+         * @param file Claimed file
+         * @param future Future result of the missive of the file
+         */
+        Claim(File file, Future<MissiveResult> future) {
+            this.file = file;
+            this.future = future;
+            this.result = null;
+        }
+
+        /**
+         * Claim class constructor for a file whose missive could not be submitted
+         * 
+         * @param file Claimed file
+         * @param result Failed result of the missive of the file
+         */
+        Claim(File file, MissiveResult result) {
+            this.file = file;
+            this.future = null;
+            this.result = result;
+        }
+    }
+}
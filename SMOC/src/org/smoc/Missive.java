@@ -0,0 +1,481 @@
+package org.smoc;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import javax.mail.internet.MimeMessage;
+import org.smoc.cryptograhy.KeyMaterial;
+import org.smoc.cryptograhy.RecipientKeyStore;
+import org.smoc.metrics.SmocMetrics;
+import org.smoc.spool.MissiveSpool;
+import org.smoc.spool.SpoolEntry;
+import org.smoc.utils.MemoryBudget;
+import org.smoc.utils.SpillDirectory;
+import org.smoc.utils.SpillFiles;
+
+/**
+ * The Missive class holds the state of a missive request as it goes through the stages of the send process: the key
+ * material it is signed and encrypted with, its email body, its signed email and the encrypted emails generated for
+ * the recipient and for the Sent Items folder of the sender. A missive whose signed email is compressed before it is
+ * encrypted also holds its compressed email and the sizes of its signed and compressed emails.
+ * <p>
+ * A missive either reserves its footprint in the memory budget of the SMOC instance and keeps its emails in memory,
+ * or spills its emails to temporary files. Both are given back once the missive has been archived or has failed.
+ * <p>
+ * A missive is only ever handled by one thread at a time, the stage queues publishing its state from one stage to the
+ * next.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+class Missive {
+
+    private MimeMessage body;
+    private MimeMessage compressedMessage;
+    private long compressedSize;
+    private SpillFiles encryptedSpillFiles;
+    private MissiveFuture future;
+    private KeyMaterial keyMaterial;
+    private MemoryBudget memoryBudget;
+    private long memoryReservation;
+    private String messageId;
+    private final SmocMetrics metrics;
+    private long payloadSize;
+    private RecipientKeyStore recipientKeyStore;
+    private MimeMessage recipientMessage;
+    private final MissiveRequest request;
+    private MimeMessage senderMessage;
+    private MimeMessage signedMessage;
+    private SpillFiles spillFiles;
+    private MissiveSpool spool;
+    private SpoolEntry spoolEntry;
+    private final EnumMap<MissiveStage, Long> stageTimes;
+    private long uncompressedSize;
+
+    /**
+     * Get the unsigned email body of the missive
+     * 
+     * @return Unsigned email body
+     */
+    public MimeMessage getBody() {
+        return this.body;
+    }
+
+    /**
+     * Set the unsigned email body of the missive
+     * 
+     * @param body Unsigned email body
+     */
+    void setBody(MimeMessage body) {
+        this.body = body;
+    }
+
+    /**
+     * Get the compressed email of the missive, encrypted in place of its signed email
+     * 
+     * @return Compressed email or null if the signed email is encrypted as it is
+     */
+    public MimeMessage getCompressedMessage() {
+        return this.compressedMessage;
+    }
+
+    /**
+     * Set the compressed email of the missive, encrypted in place of its signed email
+     * 
+     * @param compressedMessage Compressed email
+     * @param uncompressedSize Size of the signed email in bytes
+     * @param compressedSize Size of the compressed email in bytes
+     */
+    void setCompressedMessage(MimeMessage compressedMessage, long uncompressedSize, long compressedSize) {
+        this.compressedMessage = compressedMessage;
+        this.compressedSize = compressedSize;
+        this.uncompressedSize = uncompressedSize;
+    }
+
+    /**
+     * Get the size of the compressed email of the missive
+     * 
+     * @return Size of the compressed email in bytes, or -1 if the signed email was not compressed
+     */
+    public long getCompressedSize() {
+        return this.compressedSize;
+    }
+
+    /**
+     * Get the size of the signed email of the missive before it was compressed
+     * 
+     * @return Size of the signed email in bytes, or -1 if the signed email was not compressed
+     */
+    public long getUncompressedSize() {
+        return this.uncompressedSize;
+    }
+
+    /**
+     * Estimate the time saved by compressing the signed email of the missive: the encrypt and send stages are assumed
+     * to take time in proportion to the size of the email they handle, so that without compression they would have
+     * taken the compression ratio times longer, and the time spent in the compress stage is deducted
+     * 
+     * @return Estimated time saved in nanoseconds, negative if compressing took longer than it saved, or 0 if the
+     * signed email was not compressed
+     */
+    long getCompressionTimeSaved() {
+
+        // Nothing saved if the signed email was not compressed
+        if (this.compressedSize <= 0 || this.uncompressedSize < 0) {
+            return 0;
+        }
+
+        // Time spent handling the compressed email
+        long handled = 0;
+        for (MissiveStage stage : new MissiveStage[] { MissiveStage.ENCRYPT, MissiveStage.SEND }) {
+            Long time = this.stageTimes.get(stage);
+            handled += null == time ? 0 : time;
+        }
+        Long compressTime = this.stageTimes.get(MissiveStage.COMPRESS);
+
+        return (long) (handled * ((double) this.uncompressedSize / this.compressedSize - 1))
+                - (null == compressTime ? 0 : compressTime);
+    }
+
+    /**
+     * Get the spill files the encrypted emails of the missive are written to
+     * 
+     * @return Spill files of the encrypted emails, or null if the missive runs in memory
+     */
+    public SpillFiles getEncryptedSpillFiles() {
+        return this.encryptedSpillFiles;
+    }
+
+    /**
+     * Get the future completed when the missive leaves the send pipeline
+     * 
+     * @return Future of the missive result or null if the missive is not sent through a pipeline
+     */
+    MissiveFuture getFuture() {
+        return this.future;
+    }
+
+    /**
+     * Set the future completed when the missive leaves the send pipeline
+     * 
+     * @param future Future of the missive result
+     */
+    void setFuture(MissiveFuture future) {
+        this.future = future;
+    }
+
+    /**
+     * Get the id of the missive in the events recorded for it: the idempotency key of its request, or its subject if
+     * it has none
+     * 
+     * @return Id of the missive
+     */
+    public String getId() {
+        return null == this.request.getIdempotencyKey() ? this.request.getSubject()
+                : this.request.getIdempotencyKey();
+    }
+
+    /**
+     * Get the key material the missive is signed and encrypted with
+     * 
+     * @return Sender and recipient key stores
+     */
+    public KeyMaterial getKeyMaterial() {
+        return this.keyMaterial;
+    }
+
+    /**
+     * Set the key material the missive is signed and encrypted with
+     * 
+     * @param keyMaterial Sender and recipient key stores
+     */
+    void setKeyMaterial(KeyMaterial keyMaterial) {
+        this.keyMaterial = keyMaterial;
+    }
+
+    /**
+     * Get the Message-ID of the email sent to the recipient
+     * 
+     * @return Message-ID of the email sent or null if the missive has not been sent yet
+     */
+    public String getMessageId() {
+        return this.messageId;
+    }
+
+    /**
+     * Set the Message-ID of the email sent to the recipient
+     * 
+     * @param messageId Message-ID of the email sent
+     */
+    void setMessageId(String messageId) {
+        this.messageId = messageId;
+    }
+
+    /**
+     * Get the size of the missive XML file
+     * 
+     * @return Size of the missive XML file in bytes, or -1 if the file has not been read
+     */
+    public long getPayloadSize() {
+        return this.payloadSize;
+    }
+
+    /**
+     * Set the size of the missive XML file
+     * 
+     * @param payloadSize Size of the missive XML file in bytes
+     */
+    void setPayloadSize(long payloadSize) {
+        this.payloadSize = payloadSize;
+    }
+
+    /**
+     * Get the key store of the recipient the missive is encrypted for
+     * 
+     * @return Recipient key store
+     */
+    public RecipientKeyStore getRecipientKeyStore() {
+        return this.recipientKeyStore;
+    }
+
+    /**
+     * Set the key store of the recipient the missive is encrypted for
+     * 
+     * @param recipientKeyStore Recipient key store
+     */
+    void setRecipientKeyStore(RecipientKeyStore recipientKeyStore) {
+        this.recipientKeyStore = recipientKeyStore;
+    }
+
+    /**
+     * Get the encrypted message that will be sent to the missive email recipient
+     * 
+     * @return Encrypted message for the recipient
+     */
+    public MimeMessage getRecipientMessage() {
+        return this.recipientMessage;
+    }
+
+    /**
+     * Get the request the missive was generated from
+     * 
+     * @return Missive request
+     */
+    public MissiveRequest getRequest() {
+        return this.request;
+    }
+
+    /**
+     * Get the encrypted message that will be stored in the Sent items folder of the email sender
+     * 
+     * @return Encrypted message for the sender
+     */
+    public MimeMessage getSenderMessage() {
+        return this.senderMessage;
+    }
+
+    /**
+     * Set the encrypted messages generated for the recipient and for the Sent Items folder of the sender
+     * 
+     * @param recipientMessage Encrypted message for the recipient
+     * @param senderMessage Encrypted message for the sender
+     */
+    void setEncryptedMessages(MimeMessage recipientMessage, MimeMessage senderMessage) {
+        this.recipientMessage = recipientMessage;
+        this.senderMessage = senderMessage;
+    }
+
+    /**
+     * Get the signed email of the missive
+     * 
+     * @return Signed email
+     */
+    public MimeMessage getSignedMessage() {
+        return this.signedMessage;
+    }
+
+    /**
+     * Set the signed email of the missive
+     * 
+     * @param signedMessage Signed email
+     */
+    void setSignedMessage(MimeMessage signedMessage) {
+        this.signedMessage = signedMessage;
+    }
+
+    /**
+     * Get the spill files the signed and compressed emails of the missive are written to
+     * 
+     * @return Spill files of the intermediate emails, or null if the missive runs in memory
+     */
+    public SpillFiles getSpillFiles() {
+        return this.spillFiles;
+    }
+
+    /**
+     * Spill the emails of the missive to temporary files of the given directory instead of keeping them in memory
+     * 
+     * @param directory Spill directory of the SMOC instance
+     */
+    void spillTo(SpillDirectory directory) {
+        this.encryptedSpillFiles = directory.newSpillFiles();
+        this.spillFiles = directory.newSpillFiles();
+    }
+
+    /**
+     * Set the bytes of the memory budget reserved by the missive to keep its emails in memory
+     * 
+     * @param memoryBudget Memory budget of the SMOC instance
+     * @param memoryReservation Number of bytes reserved
+     */
+    void setMemoryReservation(MemoryBudget memoryBudget, long memoryReservation) {
+        this.memoryBudget = memoryBudget;
+        this.memoryReservation = memoryReservation;
+    }
+
+    /**
+     * Get the spool entry tracking the missive on disk
+     * 
+     * @return Spool entry or null if missives are not spooled
+     */
+    SpoolEntry getSpoolEntry() {
+        return this.spoolEntry;
+    }
+
+    /**
+     * Set the spool entry tracking the missive on disk
+     * 
+     * @param spool Spool the missive is tracked in
+     * @param spoolEntry Spool entry of the missive
+     */
+    void setSpoolEntry(MissiveSpool spool, SpoolEntry spoolEntry) {
+        this.spool = spool;
+        this.spoolEntry = spoolEntry;
+    }
+
+    /**
+     * Get the time spent by the missive in each of the stages it has gone through
+     * 
+     * @return Time spent in each stage, in nanoseconds
+     */
+    EnumMap<MissiveStage, Long> getStageTimes() {
+        return this.stageTimes;
+    }
+
+    /**
+     * Record the time spent by the missive in a stage
+     * 
+     * @param stage Stage the missive has gone through
+     * @param startTime Value of System.nanoTime when the stage was started
+     */
+    void recordStageTime(MissiveStage stage, long startTime) {
+
+        long duration = System.nanoTime() - startTime;
+        this.stageTimes.put(stage, duration);
+
+        // Stage latency of the SMOC instance
+        if (null != this.metrics) {
+            this.metrics.recordStage(stage, duration);
+
+            // Compression savings, known once the compressed email has been sent
+            if (MissiveStage.SEND == stage && this.compressedSize > 0) {
+                this.metrics.recordCompression(this.uncompressedSize, this.compressedSize,
+                        this.getCompressionTimeSaved());
+            }
+        }
+    }
+
+    /**
+     * Missive class constructor
+     * 
+     * @param request Missive request
+     */
+    Missive(MissiveRequest request) {
+        this(request, null);
+    }
+
+    /**
+     * Missive class constructor
+     * 
+     * @param request Missive request
+     * @param metrics Metrics the stage latencies and failure of the missive are recorded in, or null
+     */
+    Missive(MissiveRequest request, SmocMetrics metrics) {
+
+        // Initialise class attributes
+        this.compressedSize = -1;
+        this.metrics = metrics;
+        this.payloadSize = -1;
+        this.request = request;
+        this.stageTimes = new EnumMap<>(MissiveStage.class);
+        this.uncompressedSize = -1;
+    }
+
+    /**
+     * Release the intermediate emails of the missive once it has been encrypted, so that a missive waiting to be sent
+     * only holds on to its encrypted emails
+     */
+    void releaseIntermediateMessages() {
+        this.body = null;
+        this.compressedMessage = null;
+        this.signedMessage = null;
+
+        // Delete the spill files of the signed and compressed emails
+        if (null != this.spillFiles) {
+            this.spillFiles.release();
+        }
+    }
+
+    /**
+     * Give back the memory reserved by the missive, delete its spill files and close the files of the emails read
+     * back from the spool once it has been archived or has failed. The encrypted emails of the missive must not be
+     * used afterwards.
+     */
+    void releaseMemory() {
+
+        // Reservation in the memory budget, given back once
+        if (null != this.memoryBudget) {
+            this.memoryBudget.release(this.memoryReservation);
+            this.memoryBudget = null;
+        }
+
+        // Spill files of the intermediate and encrypted emails
+        if (null != this.spillFiles) {
+            this.spillFiles.release();
+            this.encryptedSpillFiles.release();
+        }
+
+        // Files of the emails read back from the spool
+        if (null != this.spoolEntry) {
+            this.spool.release(this.spoolEntry);
+        }
+    }
+
+    /**
+     * Remove a missive that has failed from the spool, so that it is not resumed once its failure has been reported
+     * to the caller, count its failure and give back the memory and spill files it holds
+     * 
+     * @param ex Exception the failure of the missive is reported with
+     */
+    void failed(Exception ex) {
+
+        // Failure count of the SMOC instance
+        if (null != this.metrics) {
+            this.metrics.recordError(ex);
+        }
+
+        // The emails of the missive are no longer needed
+        this.releaseMemory();
+
+        // Nothing to do if the missive is not spooled
+        if (null == this.spoolEntry) {
+            return;
+        }
+
+        try {
+            this.spool.discard(this.spoolEntry);
+        } catch (IOException discardException) {
+
+            // The missive stays in the spool and is resumed the next time the spool is opened
+        }
+    }
+}
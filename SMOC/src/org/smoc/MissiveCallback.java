@@ -0,0 +1,18 @@
+package org.smoc;
+
+/**
+ * The MissiveCallback interface is implemented by the callers of Smoc.sendMissiveAsync that want to be notified when a
+ * missive has been processed rather than wait on its future.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public interface MissiveCallback {
+
+    /**
+     * Called on the thread that processed the missive, once it has been sent and archived or has failed
+     * 
+     * @param receipt Receipt of the missive
+     */
+    void completed(MissiveReceipt receipt);
+}
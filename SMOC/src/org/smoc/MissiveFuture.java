@@ -0,0 +1,111 @@
+package org.smoc;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The MissiveFuture class is the pending result of a missive submitted to a send pipeline. It is completed by the
+ * pipeline once the missive has been archived or has failed. The failure of a missive is reported in its result, so
+ * the get methods never throw an ExecutionException. A missive cannot be cancelled once it has been submitted.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+class MissiveFuture implements Future<MissiveResult> {
+
+    private final CountDownLatch done;
+    private volatile MissiveResult result;
+
+    /**
+     * MissiveFuture class constructor
+     */
+    MissiveFuture() {
+
+        // Initialise class attributes
+        this.done = new CountDownLatch(1);
+    }
+
+    /**
+     * Complete the future with the result of the missive
+     * 
+     * @param result Result of the missive
+     */
+    void complete(MissiveResult result) {
+
+        // Publish the result before waking the waiting threads
+        this.result = result;
+        this.done.countDown();
+    }
+
+    /**
+     * Missives cannot be cancelled once they have been submitted
+     * 
+     * @param mayInterruptIfRunning Ignored
+     * @return Always false
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    /**
+     * Wait for the result of the missive
+     * 
+     * @return Result of the missive
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    @Override
+    public MissiveResult get() throws InterruptedException, ExecutionException {
+
+        // Wait for the pipeline to complete the missive
+        this.done.await();
+
+        return this.result;
+    }
+
+    /**
+     * Wait at most the given time for the result of the missive
+     * 
+     * @param timeout Maximum time to wait
+     * @param unit Unit of the timeout
+     * @return Result of the missive
+     * @throws InterruptedException
+     * @throws ExecutionException
+     * @throws TimeoutException 
+     */
+    @Override
+    public MissiveResult get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+            TimeoutException {
+
+        // Wait for the pipeline to complete the missive
+        if (!this.done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+
+        return this.result;
+    }
+
+    /**
+     * Missives cannot be cancelled once they have been submitted
+     * 
+     * @return Always false
+     */
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    /**
+     * Check whether the missive has left the pipeline
+     * 
+     * @return Whether the result of the missive is available
+     */
+    @Override
+    public boolean isDone() {
+        return 0 == this.done.getCount();
+    }
+}
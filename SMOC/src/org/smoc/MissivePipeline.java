@@ -0,0 +1,247 @@
+package org.smoc;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.mail.MessagingException;
+import org.smoc.mail.SMTPConnection;
+import org.smoc.metrics.SmocMetrics;
+
+/**
+ * The MissivePipeline class sends missives through a pipeline of stages: validating and reading the missive XML
+ * file, signing, compressing, encrypting, sending via SMTP and archiving via IMAP. Every stage has its own worker
+ * threads and is fed by a bounded queue, so that the CPU bound stages and the network bound stages run at the same
+ * time and can be sized independently. When a stage falls behind, its queue fills up and the stages before it, and
+ * eventually the callers of submit, wait for room.
+ * <p>
+ * A pipeline is obtained from Smoc.openPipeline and can be shared between threads. It must be closed once all the
+ * missives have been submitted.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class MissivePipeline {
+
+    private boolean closed;
+    private final ReadWriteLock closeLock;
+    private final SmocMetrics metrics;
+    private final List<PipelineStage> stages;
+
+    /**
+     * MissivePipeline class constructor
+     * 
+     * @param smoc SMOC instance running the stages of the missives
+     * @param workers Number of worker threads of each stage
+     * @param queueSize Maximum number of missives waiting for each stage
+     */
+    MissivePipeline(final Smoc smoc, Map<MissiveStage, Integer> workers, int queueSize) {
+
+        // Initialise class attributes
+        this.closed = false;
+        this.closeLock = new ReentrantReadWriteLock();
+        this.metrics = smoc.getMetrics();
+        this.stages = new ArrayList<>();
+
+        // Append the encrypted email of the sender to the Sent Items folder
+        PipelineStage archive = new PipelineStage(MissiveStage.ARCHIVE, workers.get(MissiveStage.ARCHIVE), queueSize,
+                null) {
+
+            @Override
+            void process(Missive missive) throws Exception {
+                smoc.archiveMissive(missive);
+            }
+        };
+
+        // Send the encrypted email to the recipient, each worker keeping its own SMTP connection open
+        final ThreadLocal<SMTPConnection> connections = new ThreadLocal<>();
+        PipelineStage send = new PipelineStage(MissiveStage.SEND, workers.get(MissiveStage.SEND), queueSize,
+                archive) {
+
+            @Override
+            void process(Missive missive) throws Exception {
+
+                // Open the SMTP connection of the worker on its first missive
+                if (null == connections.get()) {
+                    connections.set(smoc.openSmtpConnection());
+                }
+
+                // Send encrypted and signed missive XML document to recipient
+                smoc.deliverMissive(missive, connections.get());
+            }
+
+            @Override
+            void workerStopped() {
+
+                // Close the SMTP connection of the worker
+                if (null != connections.get()) {
+                    try {
+                        connections.get().close();
+                    } catch (MessagingException ex) {
+
+                        // The connection is no longer usable, there is nothing left to release
+                    }
+                }
+            }
+        };
+
+        // Encrypt the signed email for the recipient and for the sender
+        PipelineStage encrypt = new PipelineStage(MissiveStage.ENCRYPT, workers.get(MissiveStage.ENCRYPT), queueSize,
+                send) {
+
+            @Override
+            void process(Missive missive) throws Exception {
+                smoc.encryptMissive(missive);
+            }
+        };
+
+        // Compress the signed email, when compression is enabled
+        PipelineStage compress = new PipelineStage(MissiveStage.COMPRESS, workers.get(MissiveStage.COMPRESS),
+                queueSize, encrypt) {
+
+            @Override
+            void process(Missive missive) throws Exception {
+                smoc.compressMissive(missive);
+            }
+        };
+
+        // Sign the email body
+        PipelineStage sign = new PipelineStage(MissiveStage.SIGN, workers.get(MissiveStage.SIGN), queueSize,
+                compress) {
+
+            @Override
+            void process(Missive missive) throws Exception {
+                smoc.signMissive(missive);
+            }
+        };
+
+        // Open the missive XML file and create the email body
+        PipelineStage read = new PipelineStage(MissiveStage.READ, workers.get(MissiveStage.READ), queueSize, sign) {
+
+            @Override
+            void process(Missive missive) throws Exception {
+                smoc.readMissive(missive);
+            }
+        };
+
+        // Validate the missive XML file against the missive XML schema
+        PipelineStage validate = new PipelineStage(MissiveStage.VALIDATE, workers.get(MissiveStage.VALIDATE),
+                queueSize, read) {
+
+            @Override
+            void process(Missive missive) throws Exception {
+                smoc.validateMissive(missive);
+            }
+        };
+
+        // Stages in the order in which missives go through them
+        Collections.addAll(this.stages, validate, read, sign, compress, encrypt, send, archive);
+
+        // Start the worker threads of every stage
+        for (PipelineStage stage : this.stages) {
+            stage.start();
+        }
+    }
+
+    /**
+     * Submit a missive to the pipeline, waiting for room if the pipeline is full
+     * 
+     * @param request Missive document to send
+     * @return Future result of the missive, completed once the missive has been archived or has failed
+     * @throws InterruptedException 
+     */
+    public Future<MissiveResult> submit(MissiveRequest request) throws InterruptedException {
+
+        // Missive and its pending result
+        Missive missive = new Missive(request, this.metrics);
+        missive.setFuture(new MissiveFuture());
+
+        // Prevent the pipeline from being closed while the missive is being queued
+        this.closeLock.readLock().lock();
+
+        try {
+
+            // Check that the pipeline still accepts missives
+            if (this.closed) {
+                throw new IllegalStateException("The missive pipeline has been closed.");
+            }
+
+            // Queue the missive for the first stage
+            this.stages.get(0).put(missive);
+
+        } finally {
+            this.closeLock.readLock().unlock();
+        }
+
+        return missive.getFuture();
+    }
+
+    /**
+     * Send a collection of missives through the pipeline and wait for all of them to leave it. A missive that fails
+     * does not stop the others; its exception is reported in its result instead.
+     * 
+     * @param requests Missive documents to send
+     * @return Result of each missive, in the order of the requests
+     * @throws InterruptedException 
+     */
+    public List<MissiveResult> send(Collection<MissiveRequest> requests) throws InterruptedException {
+
+        // Pending results of the missives
+        List<Future<MissiveResult>> futures = new ArrayList<>(requests.size());
+
+        // Submit all the missives
+        for (MissiveRequest request : requests) {
+            futures.add(this.submit(request));
+        }
+
+        // Results of the missives
+        List<MissiveResult> results = new ArrayList<>(requests.size());
+
+        // Wait for each missive to leave the pipeline
+        for (Future<MissiveResult> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException ex) {
+
+                // Failures are reported in the results of the missives, never through the future
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Stop accepting missives, let the missives already submitted go through every stage and stop the worker threads
+     * 
+     * @throws InterruptedException 
+     */
+    public void close() throws InterruptedException {
+
+        // Stop accepting missives once the submissions in progress have been queued
+        this.closeLock.writeLock().lock();
+
+        try {
+
+            // Check if the pipeline has already been closed
+            if (this.closed) {
+                return;
+            }
+
+            this.closed = true;
+
+        } finally {
+            this.closeLock.writeLock().unlock();
+        }
+
+        // Drain the stages one after the other so that every missive reaches the last stage
+        for (PipelineStage stage : this.stages) {
+            stage.stop();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.smoc;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The MissiveReceipt class holds the outcome of a missive sent asynchronously: the Message-ID of the email sent to the
+ * recipient, the outcome of the IMAP append of the copy of the sender, the time spent in each stage and, when its
+ * signed email was compressed, the compression ratio and the time it saved. A missive that was delivered to the
+ * recipient but could not be archived is still reported as sent.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class MissiveReceipt {
+
+    private final Exception archiveException;
+    private final boolean archiveQueued;
+    private final boolean archived;
+    private final long compressedSize;
+    private final long compressionTimeSaved;
+    private final Exception exception;
+    private final String messageId;
+    private final MissiveRequest request;
+    private final Map<MissiveStage, Long> stageTimes;
+    private final long uncompressedSize;
+
+    /**
+     * Get the exception raised while appending the copy of the sender to the Sent Items folder
+     * 
+     * @return Exception raised by the IMAP append or null if the copy was archived or the missive was not sent
+     */
+    public Exception getArchiveException() {
+        return this.archiveException;
+    }
+
+    /**
+     * Check whether the copy of the sender was appended to the Sent Items folder
+     * 
+     * @return Whether the copy of the sender was archived
+     */
+    public boolean isArchived() {
+        return this.archived;
+    }
+
+    /**
+     * Check whether the copy of the sender was written to the archive queue, to be appended to the Sent Items folder
+     * in the background
+     * 
+     * @return Whether the copy of the sender was queued
+     */
+    public boolean isArchiveQueued() {
+        return this.archiveQueued;
+    }
+
+    /**
+     * Get the size of the compressed email encrypted in place of the signed email
+     * 
+     * @return Size of the compressed email in bytes, or -1 if the signed email was not compressed
+     */
+    public long getCompressedSize() {
+        return this.compressedSize;
+    }
+
+    /**
+     * Get the compression ratio of the signed email
+     * 
+     * @return Size of the signed email divided by the size of the compressed email, or -1 if the signed email was not
+     * compressed
+     */
+    public double getCompressionRatio() {
+        return this.compressedSize > 0 ? (double) this.uncompressedSize / this.compressedSize : -1;
+    }
+
+    /**
+     * Get the estimated time saved by compressing the signed email: the encrypt and send stages are assumed to take
+     * time in proportion to the size of the email they handle, and the time spent in the compress stage is deducted
+     * 
+     * @return Estimated time saved in nanoseconds, negative if compressing took longer than it saved, or 0 if the
+     * signed email was not compressed or the missive was not sent
+     */
+    public long getCompressionTimeSaved() {
+        return this.compressionTimeSaved;
+    }
+
+    /**
+     * Get the exception that prevented the missive from being sent to the recipient
+     * 
+     * @return Exception raised while reading, signing, encrypting or sending the missive or null if it was sent
+     */
+    public Exception getException() {
+        return this.exception;
+    }
+
+    /**
+     * Get the Message-ID of the email sent to the recipient
+     * 
+     * @return Message-ID of the email sent to the recipient or null if the missive was not sent
+     */
+    public String getMessageId() {
+        return this.messageId;
+    }
+
+    /**
+     * Get the request this receipt relates to
+     * 
+     * @return Missive request
+     */
+    public MissiveRequest getRequest() {
+        return this.request;
+    }
+
+    /**
+     * Get the time spent by the missive in each of the stages it has gone through
+     * 
+     * @return Read only map of the time spent in each stage, in nanoseconds
+     */
+    public Map<MissiveStage, Long> getStageTimes() {
+        return this.stageTimes;
+    }
+
+    /**
+     * Get the time spent by the missive in a stage
+     * 
+     * @param stage Stage of the missive
+     * @return Time spent in the stage in nanoseconds or -1 if the missive did not go through the stage
+     */
+    public long getStageTime(MissiveStage stage) {
+
+        // Time spent in the stage
+        Long time = this.stageTimes.get(stage);
+
+        return null == time ? -1 : time;
+    }
+
+    /**
+     * Get the size of the signed email before it was compressed
+     * 
+     * @return Size of the signed email in bytes, or -1 if the signed email was not compressed
+     */
+    public long getUncompressedSize() {
+        return this.uncompressedSize;
+    }
+
+    /**
+     * Check whether the missive was successfully sent to the recipient
+     * 
+     * @return Whether the missive was successfully sent
+     */
+    public boolean isSent() {
+        return null == this.exception;
+    }
+
+    /**
+     * MissiveReceipt class constructor
+     * 
+     * @param missive Missive, holding its request, the time spent in each stage and its compression sizes
+     * @param messageId Message-ID of the email sent to the recipient or null if the missive was not sent
+     * @param exception Exception that prevented the missive from being sent or null if it was sent
+     * @param archived Whether the copy of the sender was archived
+     * @param archiveQueued Whether the copy of the sender was written to the archive queue
+     * @param archiveException Exception raised by the IMAP append or null
+     */
+    MissiveReceipt(Missive missive, String messageId, Exception exception, boolean archived, boolean archiveQueued,
+            Exception archiveException) {
+
+        // Initialise class attributes
+        this.archiveException = archiveException;
+        this.archiveQueued = archiveQueued;
+        this.archived = archived;
+        this.compressedSize = missive.getCompressedSize();
+        this.compressionTimeSaved = null == exception ? missive.getCompressionTimeSaved() : 0;
+        this.exception = exception;
+        this.messageId = messageId;
+        this.request = missive.getRequest();
+        this.stageTimes = Collections.unmodifiableMap(new EnumMap<>(missive.getStageTimes()));
+        this.uncompressedSize = missive.getUncompressedSize();
+    }
+}
@@ -0,0 +1,104 @@
+package org.smoc;
+
+/**
+ * The MissiveRequest class describes a missive XML document that needs to be signed, encrypted and sent to the
+ * recipient.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class MissiveRequest {
+
+    private final String filename;
+    private final String idempotencyKey;
+    private final String priority;
+    private final String recipient;
+    private final String subject;
+
+    /**
+     * Get the path and name of the missive XML file
+     * 
+     * @return Path and name of the missive XML file
+     */
+    public String getFilename() {
+        return this.filename;
+    }
+
+    /**
+     * Get the key identifying the missive across submissions, such as the MsvId of the missive XML document
+     * 
+     * @return Idempotency key of the missive or null if the missive does not have one
+     */
+    public String getIdempotencyKey() {
+        return this.idempotencyKey;
+    }
+
+    /**
+     * Get the priority of the missive, such as the MsvPri of the missive XML document
+     * 
+     * @return Priority of the missive or null for a normal priority
+     */
+    public String getPriority() {
+        return this.priority;
+    }
+
+    /**
+     * Get the email address or BIC of the recipient, looked up in the recipient certificate directory
+     * 
+     * @return Email address or BIC of the recipient, or null if the missive is sent to the configured recipient
+     */
+    public String getRecipient() {
+        return this.recipient;
+    }
+
+    /**
+     * Get the subject of the missive document email
+     * 
+     * @return Subject of the missive document email
+     */
+    public String getSubject() {
+        return this.subject;
+    }
+
+    /**
+     * MissiveRequest class constructor
+     * 
+     * @param subject Subject of the missive document email
+     * @param filename Path and name of missive XML file
+     */
+    public MissiveRequest(String subject, String filename) {
+        this(subject, filename, null);
+    }
+
+    /**
+     * MissiveRequest class constructor for a missive sent to a recipient of the recipient certificate directory
+     * 
+     * @param subject Subject of the missive document email
+     * @param filename Path and name of missive XML file
+     * @param recipient Email address or BIC of the recipient, or null for the configured recipient
+     */
+    public MissiveRequest(String subject, String filename, String recipient) {
+        this(subject, filename, recipient, null, null);
+    }
+
+    /**
+     * MissiveRequest class constructor for a missive whose priority and idempotency key are known, usually read from
+     * the header of the missive XML document
+     * 
+     * @param subject Subject of the missive document email
+     * @param filename Path and name of missive XML file
+     * @param recipient Email address or BIC of the recipient, or null for the configured recipient
+     * @param priority Priority of the missive, such as NORMAL or HIGH, or null for a normal priority
+     * @param idempotencyKey Key identifying the missive across submissions or null
+     */
+    public MissiveRequest(String subject, String filename, String recipient, String priority,
+            String idempotencyKey) {
+
+        // Initialise class attributes
+        this.filename = filename;
+        this.idempotencyKey = idempotencyKey;
+        this.priority = priority;
+        this.recipient = recipient;
+        this.subject = subject;
+    }
+}
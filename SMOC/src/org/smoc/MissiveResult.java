@@ -0,0 +1,104 @@
+package org.smoc;
+
+/**
+ * The MissiveResult class holds the outcome of sending a single missive as part of a batch. A missive that was
+ * delivered to the recipient but whose copy could not be archived is still reported as sent, along with the exception
+ * raised while archiving it.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class MissiveResult {
+
+    private final Exception archiveException;
+    private final Exception exception;
+    private final String messageId;
+    private final MissiveRequest request;
+
+    /**
+     * Get the exception raised while appending the copy of the sender to the Sent Items folder or to the archive queue
+     * 
+     * @return Exception raised while archiving the missive or null if the copy was archived or the missive was not
+     * sent
+     */
+    public Exception getArchiveException() {
+        return this.archiveException;
+    }
+
+    /**
+     * Get the exception raised while processing the missive
+     * 
+     * @return Exception raised while processing the missive or null if the missive was sent
+     */
+    public Exception getException() {
+        return this.exception;
+    }
+
+    /**
+     * Get the Message-ID of the email sent to the recipient
+     * 
+     * @return Message-ID of the email sent to the recipient or null if the missive was not sent
+     */
+    public String getMessageId() {
+        return this.messageId;
+    }
+
+    /**
+     * Get the request this result relates to
+     * 
+     * @return Missive request
+     */
+    public MissiveRequest getRequest() {
+        return this.request;
+    }
+
+    /**
+     * Check whether the missive was successfully sent
+     * 
+     * @return Whether the missive was successfully sent
+     */
+    public boolean isSent() {
+        return null == this.exception;
+    }
+
+    /**
+     * MissiveResult class constructor for a missive that was successfully sent
+     * 
+     * @param request Missive request
+     * @param messageId Message-ID of the email sent to the recipient
+     */
+    public MissiveResult(MissiveRequest request, String messageId) {
+        this(request, messageId, null);
+    }
+
+    /**
+     * MissiveResult class constructor for a missive that was sent, whose copy may not have been archived
+     * 
+     * @param request Missive request
+     * @param messageId Message-ID of the email sent to the recipient
+     * @param archiveException Exception raised while archiving the missive or null if it was archived
+     */
+    public MissiveResult(MissiveRequest request, String messageId, Exception archiveException) {
+
+        // Initialise class attributes
+        this.archiveException = archiveException;
+        this.exception = null;
+        this.messageId = messageId;
+        this.request = request;
+    }
+
+    /**
+     * MissiveResult class constructor for a missive that could not be sent
+     * 
+     * @param request Missive request
+     * @param exception Exception raised while processing the missive
+     */
+    public MissiveResult(MissiveRequest request, Exception exception) {
+
+        // Initialise class attributes
+        this.archiveException = null;
+        this.exception = exception;
+        this.messageId = null;
+        this.request = request;
+    }
+}
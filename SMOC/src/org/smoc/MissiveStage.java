@@ -0,0 +1,66 @@
+package org.smoc;
+
+/**
+ * The MissiveStage enumeration lists the stages a missive goes through when it is sent, in the order in which they are
+ * run.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public enum MissiveStage {
+
+    /**
+     * Validate the missive XML file against the missive XML schema, when one is configured
+     */
+    VALIDATE("validate"),
+
+    /**
+     * Open the missive XML file and create the email body
+     */
+    READ("read"),
+
+    /**
+     * Sign the email body
+     */
+    SIGN("sign"),
+
+    /**
+     * Compress the signed email, when compression is enabled and the signed email reaches the compression threshold
+     */
+    COMPRESS("compress"),
+
+    /**
+     * Encrypt the signed email for the recipient and for the sender
+     */
+    ENCRYPT("encrypt"),
+
+    /**
+     * Send the encrypted email to the recipient via SMTP
+     */
+    SEND("send"),
+
+    /**
+     * Append the encrypted email of the sender to the Sent Items folder via IMAP
+     */
+    ARCHIVE("archive");
+
+    private final String settingName;
+
+    /**
+     * Get the name used for the stage in the configuration settings
+     * 
+     * @return Name of the stage in the configuration settings
+     */
+    public String getSettingName() {
+        return this.settingName;
+    }
+
+    /**
+     * MissiveStage enumeration constructor
+     * 
+     * @param settingName Name used for the stage in the configuration settings
+     */
+    private MissiveStage(String settingName) {
+        this.settingName = settingName;
+    }
+}
@@ -0,0 +1,210 @@
+package org.smoc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The PipelineStage class runs one stage of a send pipeline. Missives waiting for the stage are held in a bounded
+ * queue, which blocks the previous stage when it is full, and are processed by a fixed number of worker threads. A
+ * processed missive is handed to the next stage, or completed when this is the last stage. A missive that fails is
+ * completed straight away with its exception and leaves the spool, unless it had already been sent.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+abstract class PipelineStage {
+
+    private static final Missive END_OF_STREAM = new Missive(null);
+
+    private final PipelineStage next;
+    private final BlockingQueue<Missive> queue;
+    private final MissiveStage stage;
+    private final List<Thread> workers;
+
+    /**
+     * PipelineStage class constructor
+     * 
+     * @param stage Stage run by this instance
+     * @param workerCount Number of worker threads of the stage
+     * @param queueSize Maximum number of missives waiting for the stage
+     * @param next Next stage of the pipeline or null if this is the last stage
+     */
+    PipelineStage(MissiveStage stage, int workerCount, int queueSize, PipelineStage next) {
+
+        // Initialise class attributes
+        this.next = next;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.stage = stage;
+        this.workers = new ArrayList<>(workerCount);
+
+        // Create the worker threads of the stage
+        for (int i = 1; i <= workerCount; i++) {
+
+            // Worker thread taking missives from the queue until the end of the stream
+            Thread worker = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    PipelineStage.this.work();
+                }
+
+            }, "smoc-" + stage.getSettingName() + "-" + i);
+
+            // Workers must not keep the JVM alive if the pipeline is never closed
+            worker.setDaemon(true);
+
+            this.workers.add(worker);
+        }
+    }
+
+    /**
+     * Get the stage run by this instance
+     * 
+     * @return Stage run by this instance
+     */
+    MissiveStage getStage() {
+        return this.stage;
+    }
+
+    /**
+     * Start the worker threads of the stage
+     */
+    void start() {
+
+        // Start every worker thread
+        for (Thread worker : this.workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * Queue a missive for this stage, waiting for room in the queue if the stage is lagging behind
+     * 
+     * @param missive Missive to process
+     * @throws InterruptedException 
+     */
+    void put(Missive missive) throws InterruptedException {
+        this.queue.put(missive);
+    }
+
+    /**
+     * Let the workers finish the missives already queued for the stage and wait for them to stop
+     * 
+     * @throws InterruptedException 
+     */
+    void stop() throws InterruptedException {
+
+        // One end of stream marker per worker, queued behind the missives still waiting
+        for (int i = 0; i < this.workers.size(); i++) {
+            this.queue.put(END_OF_STREAM);
+        }
+
+        // Wait for all the workers to stop
+        for (Thread worker : this.workers) {
+            worker.join();
+        }
+    }
+
+    /**
+     * Process a missive for this stage
+     * 
+     * @param missive Missive to process
+     * @throws Exception 
+     */
+    abstract void process(Missive missive) throws Exception;
+
+    /**
+     * Release the resources held by the current worker thread once it has processed its last missive
+     */
+    void workerStopped() {
+    }
+
+    /**
+     * Worker thread loop, taking missives from the queue until the end of stream marker is found
+     */
+    private void work() {
+
+        try {
+
+            while (true) {
+
+                // Next missive waiting for the stage
+                Missive missive;
+                try {
+                    missive = this.queue.take();
+                } catch (InterruptedException ex) {
+
+                    // Workers only stop at the end of the stream so that no queued missive is lost
+                    continue;
+                }
+
+                // Check if the stage is being stopped
+                if (END_OF_STREAM == missive) {
+                    return;
+                }
+
+                try {
+
+                    // Process the missive for this stage
+                    long startTime = System.nanoTime();
+                    this.process(missive);
+                    missive.recordStageTime(this.stage, startTime);
+
+                    // Hand the missive to the next stage, or complete it after the last stage
+                    if (null == this.next) {
+                        missive.getFuture().complete(new MissiveResult(missive.getRequest(),
+                                missive.getMessageId()));
+                    } else {
+                        this.putUninterruptibly(this.next, missive);
+                    }
+
+                } catch (Exception ex) {
+
+                    // The missive leaves the pipeline with the exception raised by this stage, as an archive failure
+                    // if the missive was delivered
+                    missive.failed(ex);
+                    missive.getFuture().complete(null == missive.getMessageId()
+                            ? new MissiveResult(missive.getRequest(), ex)
+                            : new MissiveResult(missive.getRequest(), missive.getMessageId(), ex));
+                }
+            }
+
+        } finally {
+            this.workerStopped();
+        }
+    }
+
+    /**
+     * Queue a missive for the given stage, restoring the interrupted status of the worker if it was interrupted while
+     * waiting for room in the queue
+     * 
+     * @param stage Stage to queue the missive for
+     * @param missive Missive to queue
+     */
+    private void putUninterruptibly(PipelineStage stage, Missive missive) {
+
+        // Whether the worker has been interrupted while waiting
+        boolean interrupted = false;
+
+        try {
+
+            while (true) {
+                try {
+                    stage.put(missive);
+                    return;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+
+        } finally {
+
+            // Restore the interrupted status of the worker
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -1,12 +1,22 @@
 package org.smoc;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.security.*;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import javax.activation.CommandMap;
 import javax.activation.MailcapCommandMap;
 import javax.mail.MessagingException;
@@ -16,15 +26,34 @@ import org.bouncycastle.cms.CMSException;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.mail.smime.SMIMEException;
 import org.bouncycastle.operator.OperatorCreationException;
+import org.smoc.cryptograhy.KeyMaterial;
+import org.smoc.cryptograhy.KeyMaterialCache;
+import org.smoc.cryptograhy.ProviderCalibrator;
+import org.smoc.cryptograhy.RecipientDirectory;
 import org.smoc.cryptograhy.RecipientKeyStore;
-import org.smoc.cryptograhy.SenderKeyStore;
 import org.smoc.cryptograhy.Smime;
-import org.smoc.cryptograhy.SmocSigner;
+import org.smoc.cryptograhy.SmimeCompressor;
+import org.smoc.cryptograhy.SenderKeyStore;
+import org.smoc.cryptograhy.SmocSignerPool;
 import org.smoc.exceptions.*;
+import org.smoc.mail.ArchiveQueue;
+import org.smoc.mail.HostConnectionLimiter;
 import org.smoc.mail.IMAPSynchronizer;
+import org.smoc.mail.SMTPConnection;
 import org.smoc.mail.SMTPMailer;
+import org.smoc.metrics.FlightRecorderEvent;
+import org.smoc.metrics.SmocMetrics;
+import org.smoc.spool.MissiveSpool;
+import org.smoc.spool.SpoolEntry;
+import org.smoc.spool.SpoolState;
 import org.smoc.utils.ConfigReader;
-import org.smoc.utils.SmocFileUtils;
+import org.smoc.utils.FileChannelDataSource;
+import org.smoc.utils.MemoryBudget;
+import org.smoc.utils.MissiveHeader;
+import org.smoc.utils.MissiveSchema;
+import org.smoc.utils.SmocExecutors;
+import org.smoc.utils.SpillDirectory;
+import org.xml.sax.SAXException;
 
 /**
  * The Smoc class provides methods which allow to sign and hash a missive XML file, send the signed and hashed missive
@@ -35,12 +64,68 @@ import org.smoc.utils.SmocFileUtils;
  */
 public class Smoc {
 
+    private static final long MEGABYTE = 1024 * 1024;
+    private static final String PROVIDER_CALIBRATION = "auto";
+
+    private ArchiveQueue archiveQueue;
+    private int asyncCpuThreads;
+    private ExecutorService asyncExecutor;
+    private int asyncShutdownTimeout;
+    private int asyncThreads;
+    private boolean asyncVirtualThreads;
+    private HostConnectionLimiter connectionLimiter;
+    private SmimeCompressor compressor;
+    private ExecutorService cpuExecutor;
+    private String encryptProvider;
     private boolean hasConfiguration;
     private boolean hasValidConfiguration;
     private IMAPSynchronizer imapSynchronizer;
+    private KeyMaterialCache keyMaterialCache;
     private MailcapCommandMap mailcap;
+    private MemoryBudget memoryBudget;
+    private final SmocMetrics metrics;
+    private MissiveSchema missiveSchema;
+    private String missiveSubject;
+    private boolean ownsAsyncExecutor;
+    private int pipelineQueueSize;
+    private EnumMap<MissiveStage, Integer> pipelineWorkers;
+    private RecipientDirectory recipientDirectory;
     private HashMap<String, String> smocConfig;
+    private SmocSignerPool signerPool;
+    private int signerPoolSize;
+    private String signProvider;
+    private boolean singleEnvelope;
     private SMTPMailer smtpMailer;
+    private SpillDirectory spillDirectory;
+    private MissiveSpool spool;
+
+    /**
+     * Get the metrics of this instance: latency histogram of each stage, bytes read and sent and failures by exception
+     * type
+     * 
+     * @return Metrics of this instance
+     */
+    public SmocMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Get the provider encrypting the content of the missives and wrapping their content encryption keys
+     * 
+     * @return Name of the provider, or default for the provider picked by the JCA
+     */
+    public String getEncryptProvider() {
+        return null == this.encryptProvider ? ProviderCalibrator.DEFAULT_PROVIDER : this.encryptProvider;
+    }
+
+    /**
+     * Get the provider computing the signatures and digests of the missives
+     * 
+     * @return Name of the provider, or default for the provider picked by the JCA
+     */
+    public String getSignProvider() {
+        return null == this.signProvider ? ProviderCalibrator.DEFAULT_PROVIDER : this.signProvider;
+    }
 
     /**
      * Smoc class default constructor
@@ -49,14 +134,23 @@ public class Smoc {
      * @throws ConfigurationFileNotFoundException
      * @throws InvalidConfigurationException
      * @throws IOException
+     * @throws KeyStoreException
+     * @throws NoSuchProviderException
+     * @throws NoSuchAlgorithmException
+     * @throws CertificateException
+     * @throws UnrecoverableKeyException
+     * @throws NoSuchCertificateException
      */
     public Smoc(String configFilename) throws ConfigurationFileNotFoundException, IOException,
-            InvalidConfigurationException {
+            InvalidConfigurationException, KeyStoreException, NoSuchProviderException, NoSuchAlgorithmException,
+            CertificateException, UnrecoverableKeyException, NoSuchCertificateException {
 
         // Initialise class attributes
         this.hasConfiguration = false;
         this.hasValidConfiguration = false;
         this.mailcap = (MailcapCommandMap) CommandMap.getDefaultCommandMap();
+        this.metrics = new SmocMetrics();
+        this.pipelineWorkers = new EnumMap<>(MissiveStage.class);
         this.smocConfig = new HashMap<>();
 
         // Set the default command map
@@ -68,6 +162,7 @@ public class Smoc {
         try {
 
             // Configuration file reader instance
+            Object configLoadEvent = FlightRecorderEvent.CONFIG_LOAD.begin();
             ConfigReader configReader = new ConfigReader(configFilename);
 
             // Configuration has been found
@@ -75,6 +170,7 @@ public class Smoc {
 
             // Parse the configuration file
             this.smocConfig = configReader.parse();
+            FlightRecorderEvent.commit(configLoadEvent, null, new File(configFilename).length(), null);
 
             // Configuration file is valid
             this.hasValidConfiguration = true;
@@ -104,6 +200,158 @@ public class Smoc {
             this.imapSynchronizer = new IMAPSynchronizer(smocConfig.get("imap.host"), smocConfig.get("imap.username"),
                     smocConfig.get("imap.password"), smocConfig.get("imap.protocol"), smocConfig.get("imap.folder"));
 
+            // Port of the IMAP server, the default port of the protocol being used if not defined
+            this.imapSynchronizer.setPort(this.getIntegerSetting("imap.port", -1));
+
+            // IMAP connection pool, APPEND batching and keep-alive settings
+            this.imapSynchronizer.setPoolSize(this.getIntegerSetting("imap.pool.size", 1));
+            this.imapSynchronizer.setBatchSize(this.getIntegerSetting("imap.batch.size", 50));
+            this.imapSynchronizer.setBatchWindow(this.getIntegerSetting("imap.batch.window", 0));
+            this.imapSynchronizer.setKeepAliveInterval(this.getIntegerSetting("imap.keepalive", 60));
+
+            // Durable queue taking the synchronization of the Sent Items folder off the send path, if configured
+            if (smocConfig.containsKey("archive.queue.dir")) {
+                this.archiveQueue = new ArchiveQueue(new File(smocConfig.get("archive.queue.dir")),
+                        this.imapSynchronizer, this.metrics);
+                this.archiveQueue.setBatchSize(this.getIntegerSetting("imap.batch.size", 50));
+                this.archiveQueue.setMaxAttempts(this.getPositiveIntegerSetting("archive.queue.max.attempts", 10));
+                this.archiveQueue.setRetryDelay(this.getIntegerSetting("archive.queue.retry.delay", 1000),
+                        this.getIntegerSetting("archive.queue.max.retry.delay", 60000));
+            }
+
+            // On-disk spool tracking each missive until it has been archived, if configured
+            if (smocConfig.containsKey("spool.dir")) {
+                this.spool = new MissiveSpool(new File(smocConfig.get("spool.dir")), this.smtpMailer.getSession());
+            }
+
+            // Subject of the emails of the missives whose request is created from their document
+            this.missiveSubject = smocConfig.containsKey("missive.subject") ? smocConfig.get("missive.subject")
+                    : "Missive SEPAmail {MsvTyp} {MsvId}";
+
+            // Missive XML schema the missives are validated against before being signed, if configured
+            if (smocConfig.containsKey("missive.schema.file")) {
+                try {
+                    this.missiveSchema = new MissiveSchema(smocConfig.get("missive.schema.file"));
+                } catch (SAXException ex) {
+                    throw new InvalidConfigurationException("missive.schema.file", smocConfig.get(
+                            "missive.schema.file"));
+                }
+            }
+
+            // Whether a single envelope is generated for both the recipient and the sender
+            this.singleEnvelope = this.getBooleanSetting("smime.single.envelope", false);
+
+            // Compression of the signed emails reaching the threshold before they are encrypted, if enabled
+            this.compressor = null;
+            if (this.getBooleanSetting("smime.compress", false)) {
+
+                // Compression level, from 1 for the fastest to 9 for the smallest
+                int level = this.getIntegerSetting("smime.compress.level", 6);
+                if (level < 1 || level > 9) {
+                    throw new InvalidConfigurationException("smime.compress.level",
+                            smocConfig.get("smime.compress.level"));
+                }
+
+                // Size from which the signed emails are compressed
+                int threshold = this.getIntegerSetting("smime.compress.threshold", 65536);
+                if (threshold < 0) {
+                    throw new InvalidConfigurationException("smime.compress.threshold",
+                            smocConfig.get("smime.compress.threshold"));
+                }
+
+                this.compressor = new SmimeCompressor(level, threshold);
+            }
+
+            // Directory the emails of the missives exceeding the memory budget are spilled to, if configured, the
+            // budget being a quarter of the maximum heap size unless set in megabytes by spill.memory.budget
+            this.spillDirectory = null;
+            if (smocConfig.containsKey("spill.directory")) {
+
+                File spillDirectory = new File(smocConfig.get("spill.directory"));
+                if (!spillDirectory.isDirectory() && !spillDirectory.mkdirs()) {
+                    throw new InvalidConfigurationException("spill.directory", smocConfig.get("spill.directory"));
+                }
+
+                // Lock the directory for this instance, deleting the files left by the instances that were stopped
+                // before releasing them
+                this.spillDirectory = new SpillDirectory(spillDirectory);
+
+                this.memoryBudget = new MemoryBudget(MEGABYTE * this.getPositiveIntegerSetting("spill.memory.budget",
+                        (int) Math.max(1, Runtime.getRuntime().maxMemory() / 4 / MEGABYTE)));
+            }
+
+            // Number of missives that can be signed concurrently, one per available processor by default
+            this.signerPoolSize = this.getIntegerSetting("sign.pool.size",
+                    Runtime.getRuntime().availableProcessors());
+
+            // Threads running the missives sent asynchronously, virtual threads being used if requested and available
+            this.asyncThreads = this.getPositiveIntegerSetting("async.threads",
+                    2 * Runtime.getRuntime().availableProcessors());
+            this.asyncVirtualThreads = this.getBooleanSetting("async.virtual.threads", false);
+
+            // Threads signing and encrypting the missives run on virtual threads, one per available processor
+            this.asyncCpuThreads = this.getPositiveIntegerSetting("async.cpu.threads",
+                    Runtime.getRuntime().availableProcessors());
+
+            // Time given to the missives sent asynchronously to finish when this instance is closed, in seconds
+            this.asyncShutdownTimeout = this.getPositiveIntegerSetting("async.shutdown.timeout", 60);
+
+            // Maximum number of connections opened at the same time to each mail server by asynchronous missives
+            this.connectionLimiter = new HostConnectionLimiter(this.getPositiveIntegerSetting(
+                    "async.connections.per.host", 16));
+
+            // Size of the queues of the send pipeline stages
+            this.pipelineQueueSize = this.getPositiveIntegerSetting("pipeline.queue.size", 16);
+
+            // Number of worker threads of each send pipeline stage, the crypto stages using every processor
+            this.setPipelineWorkers(MissiveStage.VALIDATE, Runtime.getRuntime().availableProcessors());
+            this.setPipelineWorkers(MissiveStage.READ, 1);
+            this.setPipelineWorkers(MissiveStage.SIGN, this.signerPoolSize);
+            this.setPipelineWorkers(MissiveStage.COMPRESS, Runtime.getRuntime().availableProcessors());
+            this.setPipelineWorkers(MissiveStage.ENCRYPT, Runtime.getRuntime().availableProcessors());
+            this.setPipelineWorkers(MissiveStage.SEND, 2);
+            this.setPipelineWorkers(MissiveStage.ARCHIVE, 2);
+
+            // Load the sender and recipient key material once for all the missives sent by this instance
+            this.keyMaterialCache = new KeyMaterialCache(smocConfig.get("sender.keystore.file"),
+                    smocConfig.get("sender.keystore.alias"), smocConfig.get("sender.keystore.provider"),
+                    smocConfig.get("sender.keystore.type"), smocConfig.get("sender.keystore.password"),
+                    smocConfig.get("recipient.key.file"));
+
+            // Providers computing the signatures and encrypting the content of the missives, the key store provider
+            // being used unless another provider, default for the JCA default or auto for the fastest one is set
+            this.signProvider = this.getProviderSetting("sign.provider");
+            this.encryptProvider = this.getProviderSetting("smime.cms.provider");
+
+            // Time the candidate providers with the key of the sender if the fastest provider is requested
+            boolean calibrateSign = PROVIDER_CALIBRATION.equals(smocConfig.get("sign.provider"));
+            boolean calibrateEncrypt = PROVIDER_CALIBRATION.equals(smocConfig.get("smime.cms.provider"));
+
+            if (calibrateSign || calibrateEncrypt) {
+
+                ProviderCalibrator calibrator = new ProviderCalibrator(
+                        this.keyMaterialCache.getKeyMaterial().getSenderKeyStore());
+
+                if (calibrateSign) {
+                    this.signProvider = calibrator.calibrateSign(smocConfig.get("sign.algorithm"),
+                            smocConfig.get("sender.keystore.provider"));
+                }
+
+                if (calibrateEncrypt) {
+                    this.encryptProvider = calibrator.calibrateEncrypt(smocConfig.get("smime.cms.algorithm"),
+                            smocConfig.get("sender.keystore.provider"));
+                }
+            }
+
+            // Directory of the certificates of the recipients missives can be addressed to, if configured
+            if (smocConfig.containsKey("recipient.key.dir")) {
+                this.recipientDirectory = new RecipientDirectory(smocConfig.get("recipient.key.dir"),
+                        this.getPositiveIntegerSetting("recipient.cache.size", 256));
+            }
+
+            // Publish the metrics of this instance on the platform MBean server
+            this.metrics.register(smocConfig.get("metrics.name"));
+
         } catch (ConfigurationFileNotFoundException ex) {
 
             // Configuration file was not found
@@ -124,7 +372,11 @@ public class Smoc {
 
     /**
      * Get the contents of missive XML document, sign and encrypt the missive email and send the email via SMTP and
-     * synchronize the sent email with Sent Items folder of the email account via IMAP
+     * synchronize the sent email with Sent Items folder of the email account via IMAP. When archive.queue.dir is set,
+     * the sent email is written to the archive queue and appended in the background, so that the method returns as
+     * soon as the email has been delivered. When spool.dir is set, the missive is tracked in the spool until it has
+     * been archived, so that it can be resumed by resumeSpool if the process stops before then. When
+     * missive.schema.file is set, the missive XML document is validated against the schema before being signed.
      * 
      * @param subject Subject of the missive document email
      * @param filename Path and name of missive XML file
@@ -132,6 +384,7 @@ public class Smoc {
      * @throws ConfigurationFileNotFoundException
      * @throws InvalidConfigurationException
      * @throws FileNotFoundException
+     * @throws InvalidMissiveException
      * @throws IOException
      * @throws KeyStoreException
      * @throws NoSuchProviderException
@@ -151,45 +404,83 @@ public class Smoc {
      * @throws UnsupportedEncodingException 
      */
     public boolean sendMissive(String subject, String filename) throws ConfigurationFileNotFoundException,
-            InvalidConfigurationException, FileNotFoundException, IOException, KeyStoreException,
-            NoSuchProviderException, NoSuchAlgorithmException, CertificateException, UnrecoverableKeyException,
-            NoSuchCertificateException, AddressException, MessagingException, OperatorCreationException,
-            SMIMEException, CertificateEncodingException, InvalidCMSAlgorithmException, CMSException,
-            javax.mail.NoSuchProviderException, SentItemsFolderNotFoundException, UnsupportedEncodingException {
+            InvalidConfigurationException, FileNotFoundException, InvalidMissiveException, IOException,
+            KeyStoreException, NoSuchProviderException, NoSuchAlgorithmException, CertificateException,
+            UnrecoverableKeyException, NoSuchCertificateException, AddressException, MessagingException,
+            OperatorCreationException, SMIMEException, CertificateEncodingException, InvalidCMSAlgorithmException,
+            CMSException, javax.mail.NoSuchProviderException, SentItemsFolderNotFoundException,
+            UnsupportedEncodingException {
+        return this.sendMissive(subject, filename, null);
+    }
+
+    /**
+     * Get the contents of missive XML document, sign and encrypt the missive email for the given recipient, send the
+     * email via SMTP and synchronize the sent email with Sent Items folder of the email account via IMAP. The
+     * recipient is looked up in the recipient certificate directory set by recipient.key.dir, a recipient given by BIC
+     * being sent the email at the first email address of its certificate.
+     * 
+     * @param subject Subject of the missive document email
+     * @param filename Path and name of missive XML file
+     * @param recipient Email address or BIC of the recipient, looked up in the recipient certificate directory
+     * @return Whether the missive XML email was successfully sent
+     * @throws ConfigurationFileNotFoundException
+     * @throws InvalidConfigurationException
+     * @throws FileNotFoundException
+     * @throws InvalidMissiveException
+     * @throws IOException
+     * @throws KeyStoreException
+     * @throws NoSuchProviderException
+     * @throws NoSuchAlgorithmException
+     * @throws CertificateException
+     * @throws UnrecoverableKeyException
+     * @throws NoSuchCertificateException
+     * @throws AddressException
+     * @throws MessagingException
+     * @throws OperatorCreationException
+     * @throws SMIMEException
+     * @throws CertificateEncodingException
+     * @throws InvalidCMSAlgorithmException
+     * @throws CMSException
+     * @throws javax.mail.NoSuchProviderException
+     * @throws SentItemsFolderNotFoundException
+     * @throws UnsupportedEncodingException 
+     */
+    public boolean sendMissive(String subject, String filename, String recipient) throws
+            ConfigurationFileNotFoundException, InvalidConfigurationException, FileNotFoundException,
+            InvalidMissiveException, IOException, KeyStoreException, NoSuchProviderException, NoSuchAlgorithmException,
+            CertificateException, UnrecoverableKeyException, NoSuchCertificateException, AddressException,
+            MessagingException, OperatorCreationException, SMIMEException, CertificateEncodingException,
+            InvalidCMSAlgorithmException, CMSException, javax.mail.NoSuchProviderException,
+            SentItemsFolderNotFoundException, UnsupportedEncodingException {
 
         // Check if we have valid configuration settings
         if (this.validateConfiguration()) {
 
-            // XML missive file content
-            String missiveContent = SmocFileUtils.readFile(filename);
-
-            // Sender key store
-            SenderKeyStore senderKeyStore = new SenderKeyStore(smocConfig.get("sender.keystore.file"),
-                    smocConfig.get("sender.keystore.alias"), smocConfig.get("sender.keystore.provider"),
-                    smocConfig.get("sender.keystore.type"), smocConfig.get("sender.keystore.password"));
+            // Missive going through every stage
+            Missive missive = new Missive(new MissiveRequest(subject, filename, recipient), this.metrics);
 
-            // Recipient key store
-            RecipientKeyStore recipientKeyStore = new RecipientKeyStore(smocConfig.get("recipient.key.file"));
+            try {
 
-            // Get message body
-            MimeMessage body = this.smtpMailer.createSmtpMessageBody(subject, missiveContent);
+                // Read, sign and encrypt the missive
+                this.prepareMissive(missive);
 
-            // Missive email content signer instance
-            SmocSigner signer = new SmocSigner(senderKeyStore, smocConfig.get("sign.algorithm"));
+                // Send encrypted and signed missive XML document to recipient
+                long startTime = System.nanoTime();
+                this.deliverMissive(missive, null);
+                missive.recordStageTime(MissiveStage.SEND, startTime);
 
-            // Sign missive email content
-            MimeMessage signedMessage = signer.sign(body, this.smtpMailer.getSession());
+                // Synchronize Sent Items folder of IMAP account
+                startTime = System.nanoTime();
+                this.archiveMissive(missive);
+                missive.recordStageTime(MissiveStage.ARCHIVE, startTime);
 
-            // SMIME message encryptor instance
-            Smime smime = new Smime(recipientKeyStore, senderKeyStore);
+            } catch (Exception ex) {
 
-            // Send encrypted and signed missive XML document to recipient
-            this.smtpMailer.send(smime.encryptForRecipient(signedMessage, body, this.smtpMailer.getSession(),
-                    this.smocConfig.get("smime.cms.algorithm")));
+                // The failure is reported to the caller, the missive is not resumed unless it has been delivered
+                missive.failed(ex);
 
-            // Synchronize Sent Items folder of IMAP account
-            this.imapSynchronizer.synchronize(smime.encryptForSender(signedMessage, body, this.smtpMailer.getSession(),
-                    this.smocConfig.get("smime.cms.algorithm")));
+                throw ex;
+            }
 
             // Missive document was successfully sent
             return true;
@@ -199,30 +490,1297 @@ public class Smoc {
     }
 
     /**
-     * Check if the SMOC configuration file was successfully read and parsed
+     * Create the request of a missive from the header of its XML document, which is read up to the end of its MsvHdr
+     * element only. The missive is sent to the receiver BIC of the document when recipient.key.dir is set, and to the
+     * configured recipient otherwise or if the document does not have one. Its priority and idempotency key are given
+     * by the MsvPri and MsvId of the document, and its subject is formatted from the missive.subject setting unless
+     * one is given.
      * 
-     * @return Whether the SMOC configuration file was successfully read and parsed
+     * @param subject Subject of the missive document email, or null for the subject formatted from the document
+     * @param filename Path and name of missive XML file
+     * @return Request of the missive
+     * @throws FileNotFoundException
+     * @throws IOException
+     * @throws InvalidMissiveException
+     */
+    public MissiveRequest createRequest(String subject, String filename) throws FileNotFoundException,
+            IOException, InvalidMissiveException {
+
+        // Routing metadata of the missive
+        MissiveHeader header = MissiveHeader.read(filename);
+
+        // Receivers can only be looked up when a certificate directory is configured
+        String recipient = null != this.recipientDirectory ? header.getReceiverBic() : null;
+
+        return new MissiveRequest(null != subject ? subject : header.format(this.missiveSubject), filename,
+                recipient, header.getPriority(), header.getId());
+    }
+
+    /**
+     * Sign, encrypt and send a missive XML document in the background and synchronize the sent email with the Sent
+     * Items folder of the email account via IMAP
+     * 
+     * @param subject Subject of the missive document email
+     * @param filename Path and name of missive XML file
+     * @return Future receipt of the missive
      * @throws ConfigurationFileNotFoundException
      * @throws InvalidConfigurationException
      */
-    private boolean validateConfiguration() throws ConfigurationFileNotFoundException, InvalidConfigurationException {
+    public Future<MissiveReceipt> sendMissiveAsync(String subject, String filename) throws
+            ConfigurationFileNotFoundException, InvalidConfigurationException {
+        return this.sendMissiveAsync(new MissiveRequest(subject, filename), null);
+    }
 
-        // Check if configuration file was not found
-        if (!this.hasConfiguration) {
-            throw new ConfigurationFileNotFoundException();
+    /**
+     * Sign, encrypt and send a missive XML document in the background and synchronize the sent email with the Sent
+     * Items folder of the email account via IMAP. The missive is run on the executor set with setAsyncExecutor, or on
+     * a pool of async.threads threads owned by this instance, made of virtual threads when async.virtual.threads is
+     * set and the JVM supports them. At most async.connections.per.host missives talk to each mail server at the same
+     * time.
+     * <p>
+     * The exceptions raised while sending the missive are reported in its receipt, the future only fails if the
+     * callback throws an exception.
+     * 
+     * @param request Missive document to send
+     * @param callback Callback notified with the receipt of the missive, or null
+     * @return Future receipt of the missive
+     * @throws ConfigurationFileNotFoundException
+     * @throws InvalidConfigurationException
+     */
+    public Future<MissiveReceipt> sendMissiveAsync(final MissiveRequest request, final MissiveCallback callback)
+            throws ConfigurationFileNotFoundException, InvalidConfigurationException {
+
+        // Check if we have valid configuration settings
+        this.validateConfiguration();
+
+        return this.getAsyncExecutor().submit(new Callable<MissiveReceipt>() {
+
+            @Override
+            public MissiveReceipt call() {
+
+                // Send and archive the missive
+                MissiveReceipt receipt = Smoc.this.processMissive(request);
+
+                // Notify the caller
+                if (null != callback) {
+                    callback.completed(receipt);
+                }
+
+                return receipt;
+            }
+        });
+    }
+
+    /**
+     * Set the executor running the missives sent asynchronously. The executor remains owned by the caller and is not
+     * shut down when this instance is closed.
+     * 
+     * @param executor Executor running the missives sent asynchronously
+     */
+    public synchronized void setAsyncExecutor(ExecutorService executor) {
+
+        // Release the executors created by this instance
+        this.shutdownAsyncExecutors();
+
+        this.asyncExecutor = executor;
+    }
+
+    /**
+     * Choose whether the missives sent asynchronously run on virtual threads, their signing and encryption being run
+     * on a pool of async.cpu.threads platform threads, or on a pool of async.threads platform threads. The setting
+     * overrides async.virtual.threads and replaces any executor set with setAsyncExecutor. Virtual threads are only
+     * used if the JVM supports them.
+     * <p>
+     * JavaMail holds monitors while it waits on its sockets, which pins a virtual thread to its carrier thread for the
+     * duration of an SMTP or IMAP exchange. The number of exchanges in progress at the same time is therefore also
+     * bounded by the number of carrier threads, set with the jdk.virtualThreadScheduler.parallelism system property.
+     * 
+     * @param virtualThreads Whether the missives sent asynchronously run on virtual threads
+     */
+    public synchronized void setAsyncVirtualThreads(boolean virtualThreads) {
+
+        // Release the executors created by this instance, they are created again on the next missive
+        this.shutdownAsyncExecutors();
+
+        this.asyncExecutor = null;
+        this.asyncVirtualThreads = virtualThreads;
+    }
+
+    /**
+     * Sign, encrypt and send a batch of missive XML documents over a single SMTP connection and synchronize the sent
+     * emails with the Sent Items folder of the email account via IMAP, appending them together once the batch has
+     * been sent. A missive that fails does not stop the batch; its exception is reported in its result instead. A
+     * missive delivered to the recipient whose copy could not be archived is reported as sent, with its archive
+     * exception.
+     * 
+     * @param requests Missive documents to send
+     * @return Result of each missive, in the order of the requests
+     * @throws ConfigurationFileNotFoundException
+     * @throws InvalidConfigurationException
+     * @throws javax.mail.NoSuchProviderException
+     */
+    public List<MissiveResult> sendMissives(Collection<MissiveRequest> requests) throws
+            ConfigurationFileNotFoundException, InvalidConfigurationException, javax.mail.NoSuchProviderException {
+
+        // Results of the missives of the batch
+        List<MissiveResult> results = new ArrayList<>(requests.size());
+
+        // Check if we have valid configuration settings
+        if (this.validateConfiguration()) {
+
+            // SMTP connection shared by all the missives of the batch
+            SMTPConnection connection = this.openSmtpConnection();
+
+            // Sent missives waiting to be synchronized with the Sent Items folder, and the position of their results
+            List<Missive> sentMissives = new ArrayList<>();
+            List<Integer> sentPositions = new ArrayList<>();
+
+            try {
+
+                // Process the missives one after the other
+                for (MissiveRequest request : requests) {
+
+                    // Missive going through every stage
+                    Missive missive = new Missive(request, this.metrics);
+
+                    try {
+
+                        // Read, sign and encrypt the missive
+                        this.prepareMissive(missive);
+
+                        // Send encrypted and signed missive XML document to recipient
+                        long startTime = System.nanoTime();
+                        this.deliverMissive(missive, connection);
+                        missive.recordStageTime(MissiveStage.SEND, startTime);
+
+                        // Keep the copy of the sender for the Sent Items folder
+                        sentMissives.add(missive);
+                        sentPositions.add(results.size());
+
+                        // Missive document was successfully sent
+                        results.add(new MissiveResult(request, missive.getMessageId()));
+
+                    } catch (Exception ex) {
+
+                        // Report the failure and carry on with the rest of the batch
+                        missive.failed(ex);
+                        results.add(new MissiveResult(request, ex));
+                    }
+                }
+
+            } finally {
+
+                try {
+                    connection.close();
+                } catch (MessagingException ex) {
+
+                    // The connection is no longer usable, there is nothing left to release
+                }
+            }
+
+            // Check if the emails are appended to the Sent Items folder in the background
+            if (null != this.archiveQueue) {
+
+                for (int i = 0; i < sentMissives.size(); i++) {
+
+                    try {
+
+                        // Queue the email to be appended to the Sent Items folder
+                        long startTime = System.nanoTime();
+                        this.archiveMissive(sentMissives.get(i));
+                        sentMissives.get(i).recordStageTime(MissiveStage.ARCHIVE, startTime);
+
+                    } catch (Exception ex) {
+
+                        // The missive was delivered, the failure is reported as an archive failure of its result
+                        this.metrics.recordError(ex);
+                        sentMissives.get(i).releaseMemory();
+                        int position = sentPositions.get(i);
+                        results.set(position, new MissiveResult(results.get(position).getRequest(),
+                                results.get(position).getMessageId(), ex));
+                    }
+                }
+
+            } else {
+
+                try {
+
+                    // Copies of the sender of the missives of the batch, and the append event of each of them
+                    List<MimeMessage> sentMessages = new ArrayList<>(sentMissives.size());
+                    List<Object> events = new ArrayList<>(sentMissives.size());
+                    for (Missive missive : sentMissives) {
+                        sentMessages.add(missive.getSenderMessage());
+                        events.add(FlightRecorderEvent.APPEND.begin());
+                    }
+
+                    // Synchronize Sent Items folder of IMAP account with all the emails of the batch
+                    long startTime = System.nanoTime();
+                    this.imapSynchronizer.synchronize(sentMessages);
+
+                    // The missives of the batch leave the spool, each of them having waited for the whole batch
+                    for (int i = 0; i < sentMissives.size(); i++) {
+                        Missive missive = sentMissives.get(i);
+                        FlightRecorderEvent.commit(events.get(i), missive.getId(),
+                                missive.getSenderMessage().getSize(), null);
+                        this.markArchived(missive);
+                        missive.recordStageTime(MissiveStage.ARCHIVE, startTime);
+                    }
+
+                } catch (Exception ex) {
+
+                    // The missives were delivered, the failure is reported as an archive failure of their results
+                    this.metrics.recordError(ex);
+                    for (Integer position : sentPositions) {
+                        results.set(position, new MissiveResult(results.get(position).getRequest(),
+                                results.get(position).getMessageId(), ex));
+                    }
+                    for (Missive missive : sentMissives) {
+                        missive.releaseMemory();
+                    }
+                }
+            }
         }
 
-        // Check if configuration file is not valid
-        if (!this.hasValidConfiguration) {
-            throw new InvalidConfigurationException();
+        return results;
+    }
+
+    /**
+     * Open a pipeline sending missives concurrently through the validate, read, sign, encrypt, send and archive
+     * stages. The number of worker threads of each stage is set by the pipeline.&lt;stage&gt;.workers configuration
+     * settings and the size of the queue in front of each stage by the pipeline.queue.size setting.
+     * 
+     * @return Missive pipeline, which must be closed once all the missives have been submitted
+     * @throws ConfigurationFileNotFoundException
+     * @throws InvalidConfigurationException
+     */
+    public MissivePipeline openPipeline() throws ConfigurationFileNotFoundException, InvalidConfigurationException {
+
+        // Check if we have valid configuration settings
+        this.validateConfiguration();
+
+        return new MissivePipeline(this, this.pipelineWorkers, this.pipelineQueueSize);
+    }
+
+    /**
+     * Validate and get the contents of missive XML document and generate the signed and encrypted emails for the
+     * recipient and for the Sent Items folder of the sender, timing each stage
+     * 
+     * @param missive Missive to prepare
+     * @throws FileNotFoundException
+     * @throws IOException
+     * @throws InvalidMissiveException
+     * @throws KeyStoreException
+     * @throws NoSuchProviderException
+     * @throws NoSuchAlgorithmException
+     * @throws CertificateException
+     * @throws UnrecoverableKeyException
+     * @throws NoSuchCertificateException
+     * @throws AddressException
+     * @throws MessagingException
+     * @throws OperatorCreationException
+     * @throws SMIMEException
+     * @throws CertificateEncodingException
+     * @throws InvalidCMSAlgorithmException
+     * @throws CMSException
+     * @throws UnsupportedEncodingException
+     */
+    private void prepareMissive(Missive missive) throws FileNotFoundException, IOException, InvalidMissiveException,
+            KeyStoreException, NoSuchProviderException, NoSuchAlgorithmException, CertificateException,
+            UnrecoverableKeyException, NoSuchCertificateException, AddressException, MessagingException,
+            OperatorCreationException, SMIMEException, CertificateEncodingException, InvalidCMSAlgorithmException,
+            CMSException, UnsupportedEncodingException {
+
+        // Validate the missive XML file against the missive XML schema
+        long startTime = System.nanoTime();
+        this.validateMissive(missive);
+        missive.recordStageTime(MissiveStage.VALIDATE, startTime);
+
+        // Open the missive XML file and create the email body
+        startTime = System.nanoTime();
+        this.readMissive(missive);
+        missive.recordStageTime(MissiveStage.READ, startTime);
+
+        // Sign the email body
+        startTime = System.nanoTime();
+        this.signMissive(missive);
+        missive.recordStageTime(MissiveStage.SIGN, startTime);
+
+        // Compress the signed email, when compression is enabled
+        startTime = System.nanoTime();
+        this.compressMissive(missive);
+        missive.recordStageTime(MissiveStage.COMPRESS, startTime);
+
+        // Encrypt the signed email
+        startTime = System.nanoTime();
+        this.encryptMissive(missive);
+        missive.recordStageTime(MissiveStage.ENCRYPT, startTime);
+    }
+
+    /**
+     * Validate stage of a missive: check the missive XML file against the missive XML schema set by
+     * missive.schema.file, so that a malformed missive fails before it is accepted in the spool and signed. The
+     * missives resumed from the spool after they were signed are not validated again.
+     * 
+     * @param missive Missive to validate
+     * @throws FileNotFoundException
+     * @throws IOException
+     * @throws InvalidMissiveException
+     */
+    void validateMissive(Missive missive) throws FileNotFoundException, IOException, InvalidMissiveException {
+
+        // Nothing to do without a schema or if the missive was validated before it was signed
+        if (null == this.missiveSchema || isResumedFrom(missive, SpoolState.SIGNED)) {
+            return;
         }
 
-        // Check if we have the configuration file and that it is valid
-        if (this.hasConfiguration && this.hasValidConfiguration) {
-            return true;
+        this.missiveSchema.validate(missive.getRequest().getFilename());
+    }
+
+    /**
+     * Read stage of a missive: look up the key store of the recipient, open the missive XML file and create the email
+     * body. The missive is accepted in the spool once its file has been found, and a missive resumed from the spool
+     * after it was signed is not read again.
+     * 
+     * @param missive Missive to read
+     * @throws FileNotFoundException
+     * @throws IOException
+     * @throws KeyStoreException
+     * @throws NoSuchProviderException
+     * @throws NoSuchAlgorithmException
+     * @throws CertificateException
+     * @throws UnrecoverableKeyException
+     * @throws NoSuchCertificateException
+     * @throws AddressException
+     * @throws MessagingException
+     * @throws UnsupportedEncodingException
+     */
+    void readMissive(Missive missive) throws FileNotFoundException, IOException, KeyStoreException,
+            NoSuchProviderException, NoSuchAlgorithmException, CertificateException, UnrecoverableKeyException,
+            NoSuchCertificateException, AddressException, MessagingException, UnsupportedEncodingException {
+
+        // Sender and recipient key stores, reloaded only if the key files have changed
+        long startTime = System.nanoTime();
+        missive.setKeyMaterial(this.keyMaterialCache.getKeyMaterial());
+
+        // Key store of the recipient, unless the missive is resumed from the spool after it was encrypted
+        if (!isResumedFrom(missive, SpoolState.ENCRYPTED)) {
+            missive.setRecipientKeyStore(this.getRecipientKeyStore(missive));
         }
+        this.metrics.recordKeyStore(startTime);
 
-        return false;
+        // A missive resumed from the spool after it was signed does not need its body, its emails being about the size
+        // of its signed email
+        if (isResumedFrom(missive, SpoolState.SIGNED)) {
+            missive.setPayloadSize(this.spool.getSignedLength(missive.getSpoolEntry()));
+            this.reserveMemory(missive);
+            return;
+        }
+
+        // XML missive file content, streamed from the file whenever the message body is written
+        Object event = FlightRecorderEvent.READ.begin();
+        FileChannelDataSource missiveContent = new FileChannelDataSource(missive.getRequest().getFilename(),
+                "text/plain; charset=utf-8");
+        missive.setPayloadSize(new File(missive.getRequest().getFilename()).length());
+        this.metrics.addPlaintextBytesIn(missive.getPayloadSize());
+
+        // Keep the emails of the missive in memory if they fit in the memory budget, and spill them to disk otherwise
+        this.reserveMemory(missive);
+
+        // Track the missive in the spool, unless it is resumed from it
+        if (null != this.spool && null == missive.getSpoolEntry()) {
+            missive.setSpoolEntry(this.spool, this.spool.accept(missive.getRequest().getSubject(),
+                    missive.getRequest().getFilename(), missive.getRequest().getRecipient(),
+                    missive.getRequest().getPriority(), missive.getRequest().getIdempotencyKey()));
+        }
+
+        // Get message body, addressed to the recipient of the request if there is one
+        MimeMessage body = this.smtpMailer.createSmtpMessageBody(missive.getRequest().getSubject(), missiveContent,
+                this.getRecipientAddress(missive));
+
+        // Priority headers, copied to the signed and encrypted emails
+        setPriority(body, missive.getRequest().getPriority());
+
+        missive.setBody(body);
+        FlightRecorderEvent.commit(event, missive.getId(), missive.getPayloadSize(), null);
+    }
+
+    /**
+     * Reserve the estimated footprint of the emails of a missive in the memory budget, or spill the emails of the
+     * missive to disk if the footprint does not fit in what is left of the budget. Every missive runs in memory when
+     * no spill directory is configured.
+     * 
+     * @param missive Missive whose missive XML file has been found
+     */
+    private void reserveMemory(Missive missive) {
+
+        // Nothing to decide without a spill directory
+        if (null == this.spillDirectory) {
+            return;
+        }
+
+        // Signed email about the size of the missive XML file, and each encrypted email a third larger once base64
+        // encoded
+        long footprint = missive.getPayloadSize() * 105 / 100 * (100 + 137 * (this.singleEnvelope ? 1 : 2)) / 100;
+
+        if (this.memoryBudget.tryReserve(footprint)) {
+            missive.setMemoryReservation(this.memoryBudget, footprint);
+        } else {
+            missive.spillTo(this.spillDirectory);
+            this.metrics.recordSpill(missive.getPayloadSize());
+        }
+    }
+
+    /**
+     * Set the priority headers of an email from the priority of its missive. A HIGH or URGENT priority makes the email
+     * high priority and a LOW priority makes it low priority, while any other priority leaves the email unchanged.
+     * 
+     * @param body Email body of the missive
+     * @param priority Priority of the missive or null
+     * @throws MessagingException 
+     */
+    private static void setPriority(MimeMessage body, String priority) throws MessagingException {
+
+        // Normal priority
+        if (null == priority) {
+            return;
+        }
+
+        switch (priority.toUpperCase()) {
+            case "HIGH":
+            case "URGENT":
+                body.setHeader("X-Priority", "1 (Highest)");
+                body.setHeader("Importance", "high");
+                break;
+            case "LOW":
+                body.setHeader("X-Priority", "5 (Lowest)");
+                body.setHeader("Importance", "low");
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Get the key store of the recipient of a missive: the configured recipient key store, or the key store of the
+     * recipient of the request found in the recipient certificate directory
+     * 
+     * @param missive Missive to encrypt
+     * @return Key store of the recipient
+     * @throws NoSuchCertificateException
+     * @throws IOException 
+     */
+    private RecipientKeyStore getRecipientKeyStore(Missive missive) throws NoSuchCertificateException, IOException {
+
+        // Recipient of the request
+        String recipient = missive.getRequest().getRecipient();
+
+        // Configured recipient
+        if (null == recipient) {
+            return missive.getKeyMaterial().getRecipientKeyStore();
+        }
+
+        // A recipient can only be looked up when a certificate directory is configured
+        if (null == this.recipientDirectory) {
+            throw new NoSuchCertificateException(recipient);
+        }
+
+        return this.recipientDirectory.getRecipientKeyStore(recipient);
+    }
+
+    /**
+     * Get the email address the missive email is sent to
+     * 
+     * @param missive Missive to send
+     * @return Email address of the recipient of the request, or null for the configured recipient
+     * @throws AddressException 
+     */
+    private String getRecipientAddress(Missive missive) throws AddressException {
+
+        // Recipient of the request
+        String recipient = missive.getRequest().getRecipient();
+
+        // Configured recipient, or recipient given by email address
+        if (null == recipient || recipient.contains("@")) {
+            return recipient;
+        }
+
+        // Recipient given by BIC, sent to the first email address of its certificate
+        if (missive.getRecipientKeyStore().getEmailAddresses().isEmpty()) {
+            throw new AddressException("The certificate of the recipient " + recipient
+                    + " does not hold any email address.");
+        }
+
+        return missive.getRecipientKeyStore().getEmailAddresses().get(0);
+    }
+
+    /**
+     * Sign stage of a missive: sign the email body with a signer borrowed from the pool and write the signed email to
+     * the spool
+     * 
+     * @param missive Missive to sign
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     * @throws NoSuchProviderException
+     * @throws MessagingException
+     * @throws OperatorCreationException
+     * @throws SMIMEException
+     * @throws CertificateEncodingException
+     */
+    void signMissive(Missive missive) throws IOException, NoSuchAlgorithmException, NoSuchProviderException,
+            MessagingException, OperatorCreationException, SMIMEException, CertificateEncodingException {
+
+        // A missive resumed from the spool after it was signed is not signed again
+        if (isResumedFrom(missive, SpoolState.SIGNED)) {
+            return;
+        }
+
+        // Sign missive email content with a signer borrowed from the pool
+        Object event = FlightRecorderEvent.SIGN.begin();
+        missive.setSignedMessage(this.getSignerPool(missive.getKeyMaterial().getSenderKeyStore()).sign(
+                missive.getBody(), this.smtpMailer.getSession(), missive.getSpillFiles()));
+        FlightRecorderEvent.commit(event, missive.getId(), missive.getPayloadSize(),
+                this.smocConfig.get("sign.algorithm"));
+
+        // Record the signed email in the spool
+        if (null != missive.getSpoolEntry()) {
+            this.spool.saveSigned(missive.getSpoolEntry(), missive.getSignedMessage());
+        }
+    }
+
+    /**
+     * Compress stage of a missive: wrap the signed email in an SMIME compressed-data email, encrypted in place of the
+     * signed email, when compression is enabled by smime.compress and the signed email reaches the size set by
+     * smime.compress.threshold. A missive resumed from the spool after it was encrypted is not compressed again.
+     * 
+     * @param missive Missive to compress
+     * @throws IOException
+     * @throws MessagingException
+     */
+    void compressMissive(Missive missive) throws IOException, MessagingException {
+
+        // Nothing to do if compression is disabled or if the missive was encrypted before it was resumed
+        if (null == this.compressor || isResumedFrom(missive, SpoolState.ENCRYPTED)) {
+            return;
+        }
+
+        // A missive resumed from the spool after it was signed reads its signed email back
+        if (null == missive.getSignedMessage()) {
+            missive.setSignedMessage(this.spool.loadSignedMessage(missive.getSpoolEntry()));
+        }
+
+        // Signed emails below the threshold are encrypted as they are
+        MimeMessage signedMessage = missive.getSignedMessage();
+        if (!this.compressor.accepts(signedMessage)) {
+            return;
+        }
+
+        // Compress the signed email
+        Object event = FlightRecorderEvent.COMPRESS.begin();
+        MimeMessage compressedMessage = this.compressor.compress(signedMessage, this.smtpMailer.getSession(),
+                missive.getSpillFiles());
+        FlightRecorderEvent.commit(event, missive.getId(), signedMessage.getSize(),
+                "ZLIB-" + this.compressor.getLevel());
+
+        missive.setCompressedMessage(compressedMessage, signedMessage.getSize(), compressedMessage.getSize());
+    }
+
+    /**
+     * Encrypt stage of a missive: encrypt the signed email for the recipient and for the Sent Items folder of the
+     * sender and write the encrypted emails to the spool. A missive resumed from the spool after it was encrypted
+     * reads its encrypted emails back instead.
+     * 
+     * @param missive Missive to encrypt
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     * @throws NoSuchProviderException
+     * @throws MessagingException
+     * @throws SMIMEException
+     * @throws CertificateEncodingException
+     * @throws InvalidCMSAlgorithmException
+     * @throws CMSException
+     */
+    void encryptMissive(Missive missive) throws IOException, NoSuchAlgorithmException, NoSuchProviderException,
+            MessagingException, SMIMEException, CertificateEncodingException, InvalidCMSAlgorithmException,
+            CMSException {
+
+        // A missive resumed from the spool after it was encrypted is not encrypted again
+        if (isResumedFrom(missive, SpoolState.ENCRYPTED)) {
+            missive.setEncryptedMessages(this.spool.loadRecipientMessage(missive.getSpoolEntry()),
+                    this.spool.loadSenderMessage(missive.getSpoolEntry()));
+            return;
+        }
+
+        // A missive resumed from the spool after it was signed reads its signed email back
+        if (null == missive.getSignedMessage()) {
+            missive.setSignedMessage(this.spool.loadSignedMessage(missive.getSpoolEntry()));
+        }
+
+        // Email whose headers are copied to the encrypted emails, the signed email carrying them when there is no body
+        MimeMessage originalMessage = null == missive.getBody() ? missive.getSignedMessage() : missive.getBody();
+
+        // Email to encrypt, the compressed email taking the place of the signed email when there is one
+        MimeMessage content = null == missive.getCompressedMessage() ? missive.getSignedMessage()
+                : missive.getCompressedMessage();
+
+        // Key material the missive was signed with
+        KeyMaterial keyMaterial = missive.getKeyMaterial();
+
+        // SMIME message encryptor instance
+        Smime smime = new Smime(missive.getRecipientKeyStore(), keyMaterial.getSenderKeyStore(),
+                this.encryptProvider);
+        smime.setSpillFiles(missive.getEncryptedSpillFiles());
+
+        // Check if the recipient and the sender share a single envelope
+        if (this.singleEnvelope) {
+
+            // Encrypt the signed message once for both the recipient and the Sent Items folder of the sender
+            Object event = FlightRecorderEvent.ENCRYPT.begin();
+            MimeMessage encryptedMessage = smime.encryptForRecipientAndSender(content,
+                    originalMessage, this.smtpMailer.getSession(), this.smocConfig.get("smime.cms.algorithm"));
+            FlightRecorderEvent.commit(event, missive.getId(), encryptedMessage.getSize(),
+                    this.smocConfig.get("smime.cms.algorithm"));
+
+            missive.setEncryptedMessages(encryptedMessage, encryptedMessage);
+
+        } else {
+
+            // Encrypt the signed message for the recipient
+            Object event = FlightRecorderEvent.ENCRYPT.begin();
+            MimeMessage recipientMessage = smime.encryptForRecipient(content, originalMessage,
+                    this.smtpMailer.getSession(), this.smocConfig.get("smime.cms.algorithm"));
+            FlightRecorderEvent.commit(event, missive.getId(), recipientMessage.getSize(),
+                    this.smocConfig.get("smime.cms.algorithm"));
+
+            // Encrypt the signed message for the Sent Items folder of the sender
+            event = FlightRecorderEvent.ENCRYPT.begin();
+            MimeMessage senderMessage = smime.encryptForSender(content, originalMessage,
+                    this.smtpMailer.getSession(), this.smocConfig.get("smime.cms.algorithm"));
+            FlightRecorderEvent.commit(event, missive.getId(), senderMessage.getSize(),
+                    this.smocConfig.get("smime.cms.algorithm"));
+
+            missive.setEncryptedMessages(recipientMessage, senderMessage);
+        }
+
+        // Record the encrypted emails in the spool
+        if (null != missive.getSpoolEntry()) {
+            this.spool.saveEncrypted(missive.getSpoolEntry(), missive.getRecipientMessage(),
+                    missive.getSenderMessage());
+        }
+
+        // The missive only needs its encrypted emails from now on
+        missive.releaseIntermediateMessages();
+    }
+
+    /**
+     * Read, sign, encrypt, send and archive a missive, timing each stage
+     * 
+     * @param request Missive document to send
+     * @return Receipt of the missive
+     */
+    private MissiveReceipt processMissive(MissiveRequest request) {
+
+        // Missive going through every stage
+        Missive missive = new Missive(request, this.metrics);
+
+        try {
+
+            // Read, sign and encrypt the missive
+            this.runCpuStages(missive);
+
+            // Send encrypted and signed missive XML document to recipient, within the connection limit of the host
+            this.connectionLimiter.acquire(this.smocConfig.get("smtp.host"));
+            try {
+                long startTime = System.nanoTime();
+                this.deliverMissive(missive, null);
+                missive.recordStageTime(MissiveStage.SEND, startTime);
+            } finally {
+                this.connectionLimiter.release(this.smocConfig.get("smtp.host"));
+            }
+
+        } catch (Exception ex) {
+
+            // The missive could not be sent
+            missive.failed(ex);
+            return new MissiveReceipt(missive, null, ex, false, false, null);
+        }
+
+        // Message-ID of the email sent to the recipient
+        String messageId = missive.getMessageId();
+
+        // Whether the copy of the sender is appended in the background by the archive queue
+        boolean queued = null != this.archiveQueue;
+
+        try {
+
+            // Synchronize Sent Items folder of IMAP account, within the connection limit of the host unless the copy
+            // is only queued
+            if (!queued) {
+                this.connectionLimiter.acquire(this.smocConfig.get("imap.host"));
+            }
+
+            try {
+                long startTime = System.nanoTime();
+                this.archiveMissive(missive);
+                missive.recordStageTime(MissiveStage.ARCHIVE, startTime);
+            } finally {
+                if (!queued) {
+                    this.connectionLimiter.release(this.smocConfig.get("imap.host"));
+                }
+            }
+
+        } catch (Exception ex) {
+
+            // The missive has been delivered, only its copy in the Sent Items folder is missing
+            this.metrics.recordError(ex);
+            missive.releaseMemory();
+            return new MissiveReceipt(missive, messageId, null, false, false, ex);
+        }
+
+        return new MissiveReceipt(missive, messageId, null, !queued, queued, null);
+    }
+
+    /**
+     * Validate, read, sign and encrypt a missive sent asynchronously, timing each stage. Missives run on virtual
+     * threads hand this CPU bound work to the pool of CPU threads and wait for it, so that the number of missives
+     * signed and encrypted at the same time stays bounded however many missives are in flight.
+     * 
+     * @param missive Missive to validate, read, sign and encrypt
+     * @throws Exception 
+     */
+    private void runCpuStages(final Missive missive) throws Exception {
+
+        // Pool of CPU threads, only used when missives run on virtual threads
+        ExecutorService cpu;
+        synchronized (this) {
+            cpu = this.cpuExecutor;
+        }
+
+        // Run the stages on the current thread
+        if (null == cpu) {
+            this.prepareMissive(missive);
+            return;
+        }
+
+        // Run the stages on the pool of CPU threads and wait for them
+        Future<Void> stages = cpu.submit(new Callable<Void>() {
+
+            @Override
+            public Void call() throws Exception {
+
+                // The pool runs the stages on the current thread of the pool
+                Smoc.this.prepareMissive(missive);
+
+                return null;
+            }
+        });
+
+        try {
+            stages.get();
+        } catch (ExecutionException ex) {
+
+            // Rethrow the exception raised by the stages
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+
+            throw ex;
+        }
+    }
+
+    /**
+     * Open an SMTP connection for the send stage of missives
+     * 
+     * @return SMTP connection, connected when the first missive is sent
+     * @throws javax.mail.NoSuchProviderException
+     */
+    SMTPConnection openSmtpConnection() throws javax.mail.NoSuchProviderException {
+        return this.smtpMailer.openConnection();
+    }
+
+    /**
+     * Send stage of a missive: send the encrypted email to the recipient and record the missive as sent in the spool.
+     * A missive resumed from the spool after it was sent is not sent again.
+     * 
+     * @param missive Missive to send
+     * @param connection SMTP connection to send the email over or null to open a connection for this email only
+     * @throws IOException
+     * @throws MessagingException 
+     */
+    void deliverMissive(Missive missive, SMTPConnection connection) throws IOException, MessagingException {
+
+        // A missive resumed from the spool after it was sent keeps the Message-ID it was sent with
+        if (null != missive.getSpoolEntry() && missive.getSpoolEntry().getState().compareTo(SpoolState.SENT) >= 0) {
+            missive.setMessageId(missive.getSpoolEntry().getMessageId());
+            return;
+        }
+
+        // Send encrypted and signed missive XML document to recipient
+        Object event = FlightRecorderEvent.SEND.begin();
+        if (null == connection) {
+            this.smtpMailer.send(missive.getRecipientMessage());
+        } else {
+            connection.send(missive.getRecipientMessage());
+        }
+        FlightRecorderEvent.commit(event, missive.getId(), missive.getRecipientMessage().getSize(), null);
+
+        // Message-ID and size of the email sent to the recipient
+        missive.setMessageId(missive.getRecipientMessage().getMessageID());
+        this.metrics.addCiphertextBytesOut(missive.getRecipientMessage().getSize());
+
+        // Record the missive as sent, a crash before the record is durable sending the missive again on resume
+        if (null != missive.getSpoolEntry()) {
+            this.spool.markSent(missive.getSpoolEntry(), missive.getMessageId());
+        }
+    }
+
+    /**
+     * Archive stage of a missive: synchronize the Sent Items folder of the IMAP account with the email of the sender,
+     * or write the email to the archive queue if one is configured, in which case it is appended in the background.
+     * The missive then leaves the spool.
+     * 
+     * @param missive Missive to archive
+     * @throws IOException
+     * @throws MessagingException
+     * @throws SentItemsFolderNotFoundException
+     */
+    void archiveMissive(Missive missive) throws IOException, MessagingException, SentItemsFolderNotFoundException {
+
+        // Check if the email is appended to the Sent Items folder in the background
+        if (null != this.archiveQueue) {
+            this.archiveQueue.enqueue(missive.getSenderMessage());
+        } else {
+            Object event = FlightRecorderEvent.APPEND.begin();
+            this.imapSynchronizer.synchronize(missive.getSenderMessage());
+            FlightRecorderEvent.commit(event, missive.getId(), missive.getSenderMessage().getSize(), null);
+        }
+
+        // The missive leaves the spool
+        this.markArchived(missive);
+    }
+
+    /**
+     * Send the missives left unfinished in the spool when this instance was created, one after the other. Each
+     * missive resumes from the last stage whose output was found intact in the spool: a missive that was recorded as
+     * sent is only archived, so that it is never sent twice once the record is durable. A missive whose file was
+     * deleted before it was signed fails and leaves the spool.
+     * <p>
+     * This method must be called once, before missives are submitted to a pipeline.
+     * 
+     * @return Result of each resumed missive, in the order in which the missives were accepted
+     * @throws ConfigurationFileNotFoundException
+     * @throws InvalidConfigurationException
+     */
+    public List<MissiveResult> resumeSpool() throws ConfigurationFileNotFoundException,
+            InvalidConfigurationException {
+
+        // Results of the resumed missives
+        List<MissiveResult> results = new ArrayList<>();
+
+        // Check if we have valid configuration settings and a spool
+        if (this.validateConfiguration() && null != this.spool) {
+
+            for (SpoolEntry entry : this.spool.getPendingEntries()) {
+
+                // Skip the missives already finished by a previous call
+                if (entry.getState().compareTo(SpoolState.ARCHIVED) >= 0) {
+                    continue;
+                }
+
+                // Missive resumed from its spool entry
+                Missive missive = new Missive(new MissiveRequest(entry.getSubject(), entry.getFilename(),
+                        entry.getRecipient(), entry.getPriority(), entry.getIdempotencyKey()), this.metrics);
+                missive.setSpoolEntry(this.spool, entry);
+
+                try {
+
+                    // Complete the stages the missive had not gone through
+                    this.prepareMissive(missive);
+                    long startTime = System.nanoTime();
+                    this.deliverMissive(missive, null);
+                    missive.recordStageTime(MissiveStage.SEND, startTime);
+                    startTime = System.nanoTime();
+                    this.archiveMissive(missive);
+                    missive.recordStageTime(MissiveStage.ARCHIVE, startTime);
+
+                    // Missive document was successfully sent
+                    results.add(new MissiveResult(missive.getRequest(), missive.getMessageId()));
+
+                } catch (Exception ex) {
+
+                    // Report the failure and carry on with the rest of the spool, a missive that was delivered being
+                    // reported as sent
+                    missive.failed(ex);
+                    results.add(null == missive.getMessageId() ? new MissiveResult(missive.getRequest(), ex)
+                            : new MissiveResult(missive.getRequest(), missive.getMessageId(), ex));
+                }
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Record the missive XML files of a directory in the spool once their missive is archived, so that the files of
+     * the missives archived before a crash can still be told apart from those that were never sent
+     * 
+     * @param directory Directory of the missive XML files
+     * @return Files of the directory whose missive was found archived when the spool was opened, empty if there is no
+     * spool
+     */
+    List<String> retainSpooledFiles(File directory) {
+
+        // Nothing is retained if the missives are not spooled
+        if (null == this.spool) {
+            return new ArrayList<>();
+        }
+
+        this.spool.setRetainedDirectory(directory);
+
+        return this.spool.getArchivedFilenames();
+    }
+
+    /**
+     * Remove a missive that has been archived from the spool, once the memory and spill files it holds have been
+     * given back
+     * 
+     * @param missive Missive that has been archived
+     * @throws IOException 
+     */
+    private void markArchived(Missive missive) throws IOException {
+
+        // The encrypted emails of the missive are no longer needed
+        missive.releaseMemory();
+
+        // Nothing to do if the missive is not spooled
+        if (null != missive.getSpoolEntry()) {
+            this.spool.markArchived(missive.getSpoolEntry());
+        }
+    }
+
+    /**
+     * Check if a missive resumed from the spool has already gone through a stage
+     * 
+     * @param missive Missive to check
+     * @param state State reached at the end of the stage
+     * @return Whether the output of the stage can be read from the spool
+     */
+    private static boolean isResumedFrom(Missive missive, SpoolState state) {
+        return null != missive.getSpoolEntry() && missive.getSpoolEntry().getResumeState().compareTo(state) >= 0;
+    }
+
+    /**
+     * Release the connections held by this instance. The instance must not be used afterwards.
+     * <p>
+     * The missives sent asynchronously on the threads of this instance are given async.shutdown.timeout seconds to
+     * finish before the archive queue, the spool and the IMAP connections are closed, so that a missive that has been
+     * delivered is not reported as failed because its copy could no longer be archived. Missives run on an executor
+     * set with setAsyncExecutor must be completed by the caller before this instance is closed.
+     */
+    public void close() {
+
+        // Stop the threads running the missives sent asynchronously once the missives in flight have finished
+        this.closeAsyncExecutors();
+
+        // Stop the archive queue once it has tried to append the emails already queued
+        if (null != this.archiveQueue) {
+            try {
+                this.archiveQueue.close();
+            } catch (InterruptedException ex) {
+
+                // The emails left in the queue directory are appended on the next run
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Close the journal of the spool, the unfinished missives being resumed on the next run
+        if (null != this.spool) {
+            try {
+                this.spool.close();
+            } catch (IOException ex) {
+
+                // Every record was forced to disk when it was appended, there is nothing left to save
+            }
+        }
+
+        // Close the connections to the IMAP server
+        if (null != this.imapSynchronizer) {
+            this.imapSynchronizer.close();
+        }
+
+        // Release the spill directory, the missives in flight having given back their files
+        if (null != this.spillDirectory) {
+            this.spillDirectory.close();
+        }
+
+        // Remove the metrics of this instance from the platform MBean server
+        this.metrics.unregister();
+    }
+
+    /**
+     * Check if the SMOC configuration file was successfully read and parsed
+     * 
+     * @return Whether the SMOC configuration file was successfully read and parsed
+     * @throws ConfigurationFileNotFoundException
+     * @throws InvalidConfigurationException
+     */
+    private boolean validateConfiguration() throws ConfigurationFileNotFoundException, InvalidConfigurationException {
+
+        // Check if configuration file was not found
+        if (!this.hasConfiguration) {
+            throw new ConfigurationFileNotFoundException();
+        }
+
+        // Check if configuration file is not valid
+        if (!this.hasValidConfiguration) {
+            throw new InvalidConfigurationException();
+        }
+
+        // Check if we have the configuration file and that it is valid
+        if (this.hasConfiguration && this.hasValidConfiguration) {
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Get the executor running the missives sent asynchronously, creating it on first use if none has been set
+     * 
+     * @return Executor running the missives sent asynchronously
+     */
+    private synchronized ExecutorService getAsyncExecutor() {
+
+        // Check if the executor needs to be created
+        if (null == this.asyncExecutor) {
+
+            // Virtual threads if requested and supported by the JVM, with a bounded pool for signing and encryption
+            if (this.asyncVirtualThreads) {
+
+                this.asyncExecutor = SmocExecutors.newVirtualThreadPerTaskExecutor();
+
+                if (null != this.asyncExecutor) {
+                    this.cpuExecutor = SmocExecutors.newPlatformThreadPool("smoc-cpu", this.asyncCpuThreads);
+                }
+            }
+
+            // Pool of platform threads otherwise
+            if (null == this.asyncExecutor) {
+                this.asyncExecutor = SmocExecutors.newPlatformThreadPool("smoc-async", this.asyncThreads);
+            }
+
+            this.ownsAsyncExecutor = true;
+        }
+
+        return this.asyncExecutor;
+    }
+
+    /**
+     * Shut down the executors created by this instance to run the missives sent asynchronously and wait for the
+     * missives in flight to finish. The pool of CPU threads is only shut down once the missives run on virtual threads
+     * no longer need it.
+     */
+    private void closeAsyncExecutors() {
+
+        ExecutorService executor = null;
+
+        // Executor running the missives, which no longer accepts new missives
+        synchronized (this) {
+            if (this.ownsAsyncExecutor) {
+                executor = this.asyncExecutor;
+                executor.shutdown();
+                this.asyncExecutor = null;
+                this.ownsAsyncExecutor = false;
+            }
+        }
+
+        this.awaitTermination(executor);
+
+        // Executor signing and encrypting the missives run on virtual threads, idle once the missives have finished
+        synchronized (this) {
+            executor = this.cpuExecutor;
+            this.cpuExecutor = null;
+        }
+
+        if (null != executor) {
+            executor.shutdown();
+            this.awaitTermination(executor);
+        }
+    }
+
+    /**
+     * Wait at most async.shutdown.timeout seconds for the tasks of an executor that has been shut down to finish
+     * 
+     * @param executor Executor that has been shut down, or null
+     */
+    private void awaitTermination(ExecutorService executor) {
+
+        // Nothing to wait for
+        if (null == executor) {
+            return;
+        }
+
+        try {
+
+            // Missives still running after the timeout go on, but their copies may no longer be archived
+            executor.awaitTermination(this.asyncShutdownTimeout, TimeUnit.SECONDS);
+
+        } catch (InterruptedException ex) {
+
+            // Stop waiting, the missives still running may no longer be archived
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Shut down the executors created by this instance to run the missives sent asynchronously
+     */
+    private synchronized void shutdownAsyncExecutors() {
+
+        // Executor running the missives
+        if (this.ownsAsyncExecutor) {
+            this.asyncExecutor.shutdown();
+            this.ownsAsyncExecutor = false;
+        }
+
+        // Executor signing and encrypting the missives run on virtual threads
+        if (null != this.cpuExecutor) {
+            this.cpuExecutor.shutdown();
+            this.cpuExecutor = null;
+        }
+    }
+
+    /**
+     * Get the pool of signers for the given sender key store, rebuilding the pool if the key store has been reloaded
+     * since the pool was created
+     * 
+     * @param senderKeyStore Current sender key store
+     * @return Pool of signers built from the given sender key store
+     * @throws OperatorCreationException
+     * @throws CertificateEncodingException
+     */
+    private synchronized SmocSignerPool getSignerPool(SenderKeyStore senderKeyStore) throws
+            OperatorCreationException, CertificateEncodingException {
+
+        // Check if the pool needs to be created or was built from a previous key store
+        if (null == this.signerPool || this.signerPool.getSenderKeyStore() != senderKeyStore) {
+            this.signerPool = new SmocSignerPool(senderKeyStore, this.smocConfig.get("sign.algorithm"),
+                    this.signerPoolSize, this.signProvider);
+        }
+
+        return this.signerPool;
+    }
+
+    /**
+     * Get the value of an optional boolean configuration setting
+     * 
+     * @param key Name of the configuration setting
+     * @param defaultValue Value used when the setting is not defined
+     * @return Value of the configuration setting
+     * @throws InvalidConfigurationException
+     */
+    private boolean getBooleanSetting(String key, boolean defaultValue) throws InvalidConfigurationException {
+
+        // Check if the setting has been defined in the configuration file
+        if (!this.smocConfig.containsKey(key)) {
+            return defaultValue;
+        }
+
+        // Value of the setting
+        String value = this.smocConfig.get(key).trim();
+
+        // Check that the setting is either true or false
+        if (!"true".equalsIgnoreCase(value) && !"false".equalsIgnoreCase(value)) {
+            throw new InvalidConfigurationException(key, value);
+        }
+
+        return Boolean.parseBoolean(value);
+    }
+
+    /**
+     * Get the provider set by an optional provider configuration setting: the provider of the sender key store if the
+     * setting is not defined or is set to auto, in which case the calibration picks the provider afterwards, null if
+     * it is set to default, and the provider named by the setting otherwise
+     * 
+     * @param key Name of the configuration setting
+     * @return Name of the provider, or null for the provider picked by the JCA
+     * @throws InvalidConfigurationException if the setting names a provider that is not installed
+     */
+    private String getProviderSetting(String key) throws InvalidConfigurationException {
+
+        // Check if the setting has been defined in the configuration file
+        String provider = this.smocConfig.get(key);
+        if (null == provider || PROVIDER_CALIBRATION.equals(provider)) {
+            return this.smocConfig.get("sender.keystore.provider");
+        }
+
+        // Providers picked by the JCA in the order of preference of the installed providers
+        if (ProviderCalibrator.DEFAULT_PROVIDER.equals(provider)) {
+            return null;
+        }
+
+        // Check that the provider is installed
+        if (null == Security.getProvider(provider)) {
+            throw new InvalidConfigurationException(key, provider);
+        }
+
+        return provider;
+    }
+
+    /**
+     * Get the value of an optional integer configuration setting
+     * 
+     * @param key Name of the configuration setting
+     * @param defaultValue Value used when the setting is not defined
+     * @return Value of the configuration setting
+     * @throws InvalidConfigurationException
+     */
+    private int getIntegerSetting(String key, int defaultValue) throws InvalidConfigurationException {
+
+        // Check if the setting has been defined in the configuration file
+        if (!this.smocConfig.containsKey(key)) {
+            return defaultValue;
+        }
+
+        try {
+            return Integer.parseInt(this.smocConfig.get(key).trim());
+        } catch (NumberFormatException ex) {
+
+            // Setting is not a valid number
+            throw new InvalidConfigurationException(key, this.smocConfig.get(key));
+        }
+    }
+
+    /**
+     * Get the value of an optional configuration setting that must be a strictly positive integer
+     * 
+     * @param key Name of the configuration setting
+     * @param defaultValue Value used when the setting is not defined
+     * @return Value of the configuration setting
+     * @throws InvalidConfigurationException
+     */
+    private int getPositiveIntegerSetting(String key, int defaultValue) throws InvalidConfigurationException {
+
+        // Value of the setting
+        int value = this.getIntegerSetting(key, defaultValue);
+
+        // Check that the setting is strictly positive
+        if (value < 1) {
+            throw new InvalidConfigurationException(key, this.smocConfig.get(key));
+        }
+
+        return value;
+    }
+
+    /**
+     * Set the number of worker threads of a send pipeline stage from its pipeline.&lt;stage&gt;.workers setting
+     * 
+     * @param stage Send pipeline stage
+     * @param defaultValue Number of worker threads used when the setting is not defined
+     * @throws InvalidConfigurationException
+     */
+    private void setPipelineWorkers(MissiveStage stage, int defaultValue) throws InvalidConfigurationException {
+        this.pipelineWorkers.put(stage, this.getPositiveIntegerSetting("pipeline." + stage.getSettingName()
+                + ".workers", Math.max(1, defaultValue)));
     }
 
     /**
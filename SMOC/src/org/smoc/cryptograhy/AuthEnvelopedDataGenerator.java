@@ -0,0 +1,386 @@
+package org.smoc.cryptograhy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.BEROctetStringGenerator;
+import org.bouncycastle.asn1.BERSequenceGenerator;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERSet;
+import org.bouncycastle.asn1.cms.AuthEnvelopedData;
+import org.bouncycastle.asn1.cms.CMSObjectIdentifiers;
+import org.bouncycastle.asn1.cms.ContentInfo;
+import org.bouncycastle.asn1.cms.EncryptedContentInfo;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.smime.SMIMECapability;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.RecipientInfoGenerator;
+import org.bouncycastle.operator.GenericKey;
+import org.smoc.exceptions.InvalidCMSAlgorithmException;
+
+/**
+ * The AuthEnvelopedDataGenerator class generates the CMS AuthEnvelopedData of an SMIME envelope whose content is
+ * encrypted and authenticated with AES-GCM, as set out by RFC 5083 and RFC 5084. The content is encrypted with the
+ * AES/GCM/NoPadding cipher of the JCA, which the providers of the JDK run on the AES and carry-less multiplication
+ * instructions of the processor, and the content encryption key is wrapped by the same recipient info generators as
+ * the key of the enveloped data.
+ * <p>
+ * Thread safety: the recipient info generators are only added before the first envelope is generated, and the
+ * content encryption key, the nonce and the cipher are created for each envelope.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+class AuthEnvelopedDataGenerator {
+
+    private static final String CIPHER_ALGORITHM = "AES/GCM/NoPadding";
+    private static final String KEY_ALGORITHM = "AES";
+    private static final int BUFFER_SIZE = 65536;
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_LENGTH = 16;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final ASN1ObjectIdentifier algorithm;
+    private final int keySize;
+    private final String provider;
+    private final List<RecipientInfoGenerator> recipientInfoGenerators;
+
+    /**
+     * AuthEnvelopedDataGenerator class constructor
+     * 
+     * @param cmsAlgorithm AES-GCM algorithm name: AES128_GCM, AES192_GCM or AES256_GCM
+     * @param provider Name of the provider encrypting the content, or null for the provider picked by the JCA in the
+     * order of preference of the installed providers
+     * @throws InvalidCMSAlgorithmException if the algorithm is not an AES-GCM algorithm
+     */
+    AuthEnvelopedDataGenerator(String cmsAlgorithm, String provider) throws InvalidCMSAlgorithmException {
+
+        // Initialise class attributes
+        this.algorithm = getAlgorithm(cmsAlgorithm);
+        this.keySize = getKeySize(cmsAlgorithm);
+        this.provider = provider;
+        this.recipientInfoGenerators = new ArrayList<>();
+    }
+
+    /**
+     * Check whether a CMS algorithm name stands for an AES-GCM algorithm, whose envelopes are AuthEnvelopedData
+     * 
+     * @param cmsAlgorithm CMS algorithm name
+     * @return Whether the algorithm is AES128_GCM, AES192_GCM or AES256_GCM
+     */
+    static boolean isAuthEnveloped(String cmsAlgorithm) {
+        return null != cmsAlgorithm && cmsAlgorithm.startsWith("AES") && cmsAlgorithm.endsWith("_GCM");
+    }
+
+    /**
+     * Get the AES-CBC algorithm with the key size of an AES-GCM algorithm, used for the parties not advertising
+     * AES-GCM
+     * 
+     * @param cmsAlgorithm AES-GCM algorithm name
+     * @return AES-CBC algorithm name
+     */
+    static String getFallbackAlgorithm(String cmsAlgorithm) {
+        return cmsAlgorithm.substring(0, cmsAlgorithm.length() - "GCM".length()) + "CBC";
+    }
+
+    /**
+     * Get the object identifier of an AES-GCM algorithm
+     * 
+     * @param cmsAlgorithm AES-GCM algorithm name
+     * @return Object identifier of the algorithm
+     * @throws InvalidCMSAlgorithmException if the algorithm is not an AES-GCM algorithm
+     */
+    static ASN1ObjectIdentifier getAlgorithm(String cmsAlgorithm) throws InvalidCMSAlgorithmException {
+
+        switch (cmsAlgorithm) {
+
+            case "AES128_GCM":
+                return NISTObjectIdentifiers.id_aes128_GCM;
+
+            case "AES192_GCM":
+                return NISTObjectIdentifiers.id_aes192_GCM;
+
+            case "AES256_GCM":
+                return NISTObjectIdentifiers.id_aes256_GCM;
+
+            default:
+                throw new InvalidCMSAlgorithmException(cmsAlgorithm);
+        }
+    }
+
+    /**
+     * Read the SMIME capabilities advertised by a certificate in its sMIMECapabilities extension, as set out by
+     * RFC 4262
+     * 
+     * @param certificate X509 certificate
+     * @return Object identifiers of the advertised capabilities, empty if the certificate has no such extension
+     */
+    static Set<ASN1ObjectIdentifier> readCapabilities(X509Certificate certificate) {
+
+        // Extension value, wrapped in an octet string
+        byte[] extension = certificate.getExtensionValue(
+                PKCSObjectIdentifiers.pkcs_9_at_smimeCapabilities.getId());
+        if (null == extension) {
+            return Collections.emptySet();
+        }
+
+        Set<ASN1ObjectIdentifier> capabilities = new HashSet<>();
+
+        try {
+
+            // Sequence of capabilities, each one identified by its first element
+            ASN1Sequence sequence = ASN1Sequence.getInstance(ASN1Primitive.fromByteArray(
+                    ASN1OctetString.getInstance(extension).getOctets()));
+            for (int i = 0; i < sequence.size(); i++) {
+                capabilities.add(SMIMECapability.getInstance(sequence.getObjectAt(i)).getCapabilityID());
+            }
+
+        } catch (IOException | IllegalArgumentException ex) {
+
+            // A malformed extension advertises nothing
+            return Collections.emptySet();
+        }
+
+        return Collections.unmodifiableSet(capabilities);
+    }
+
+    /**
+     * Add the recipient info generator of a party allowed to decrypt the envelopes
+     * 
+     * @param recipientInfoGenerator Recipient info generator of the party
+     */
+    void addRecipientInfoGenerator(RecipientInfoGenerator recipientInfoGenerator) {
+        this.recipientInfoGenerators.add(recipientInfoGenerator);
+    }
+
+    /**
+     * Encrypt and authenticate the given content
+     * 
+     * @param content Content to encrypt
+     * @param length Number of bytes of the content to encrypt
+     * @return DER encoded content info holding the AuthEnvelopedData
+     * @throws CMSException
+     * @throws IOException
+     */
+    byte[] generate(byte[] content, int length) throws CMSException, IOException {
+
+        try {
+
+            // Content encryption key and nonce of the envelope
+            SecretKey contentEncryptionKey = this.generateKey();
+            byte[] nonce = new byte[NONCE_LENGTH];
+            RANDOM.nextBytes(nonce);
+
+            // Encrypt the content, the authentication tag being appended to the ciphertext
+            byte[] output = this.createCipher(contentEncryptionKey, nonce).doFinal(content, 0, length);
+            int ciphertextLength = output.length - TAG_LENGTH;
+            byte[] ciphertext = new byte[ciphertextLength];
+            byte[] tag = new byte[TAG_LENGTH];
+            System.arraycopy(output, 0, ciphertext, 0, ciphertextLength);
+            System.arraycopy(output, ciphertextLength, tag, 0, TAG_LENGTH);
+
+            EncryptedContentInfo encryptedContentInfo = new EncryptedContentInfo(CMSObjectIdentifiers.data,
+                    this.getAlgorithmIdentifier(nonce), new DEROctetString(ciphertext));
+
+            AuthEnvelopedData authEnvelopedData = new AuthEnvelopedData(null,
+                    this.generateRecipientInfos(contentEncryptionKey), encryptedContentInfo, null,
+                    new DEROctetString(tag), null);
+
+            return new ContentInfo(CMSObjectIdentifiers.authEnvelopedData, authEnvelopedData).getEncoded("DER");
+
+        } catch (GeneralSecurityException ex) {
+
+            // Report the failure as the enveloped data generators do
+            throw new CMSException("Cannot encrypt content with " + this.algorithm.getId() + ": " + ex.getMessage(),
+                    ex);
+        }
+    }
+
+    /**
+     * Encrypt and authenticate content read from a stream. The content info is BER encoded with indefinite lengths
+     * and the ciphertext is written as it is produced, so that neither the content nor the ciphertext is ever held in
+     * memory.
+     * 
+     * @param content Input stream of the content to encrypt, read to its end
+     * @param out Output stream the BER encoded content info holding the AuthEnvelopedData is written to
+     * @throws CMSException
+     * @throws IOException
+     */
+    void generate(InputStream content, OutputStream out) throws CMSException, IOException {
+
+        try {
+
+            // Content encryption key, nonce and cipher of the envelope
+            SecretKey contentEncryptionKey = this.generateKey();
+            byte[] nonce = new byte[NONCE_LENGTH];
+            RANDOM.nextBytes(nonce);
+            Cipher cipher = this.createCipher(contentEncryptionKey, nonce);
+
+            // Content info and AuthEnvelopedData, up to the recipient infos
+            BERSequenceGenerator contentInfo = new BERSequenceGenerator(out);
+            contentInfo.addObject(CMSObjectIdentifiers.authEnvelopedData);
+            BERSequenceGenerator authEnvelopedData = new BERSequenceGenerator(contentInfo.getRawOutputStream(), 0,
+                    true);
+            authEnvelopedData.addObject(new ASN1Integer(0));
+            authEnvelopedData.addObject(this.generateRecipientInfos(contentEncryptionKey));
+
+            // Encrypted content info, the ciphertext being written in the chunks of a constructed octet string
+            BERSequenceGenerator encryptedContentInfo = new BERSequenceGenerator(
+                    authEnvelopedData.getRawOutputStream());
+            encryptedContentInfo.addObject(CMSObjectIdentifiers.data);
+            encryptedContentInfo.addObject(this.getAlgorithmIdentifier(nonce));
+            BEROctetStringGenerator encryptedContent = new BEROctetStringGenerator(
+                    encryptedContentInfo.getRawOutputStream(), 0, false);
+
+            byte[] tag = new byte[TAG_LENGTH];
+            try (OutputStream ciphertext = encryptedContent.getOctetOutputStream(new byte[BUFFER_SIZE])) {
+
+                // Encrypt the content as it is read
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = content.read(buffer)) > 0) {
+                    byte[] output = cipher.update(buffer, 0, read);
+                    if (null != output) {
+                        ciphertext.write(output);
+                    }
+                }
+
+                // Last block of ciphertext, followed by the authentication tag
+                byte[] output = cipher.doFinal();
+                int ciphertextLength = output.length - TAG_LENGTH;
+                ciphertext.write(output, 0, ciphertextLength);
+                System.arraycopy(output, ciphertextLength, tag, 0, TAG_LENGTH);
+            }
+            encryptedContentInfo.close();
+
+            // Authentication tag, after the encrypted content info
+            authEnvelopedData.addObject(new DEROctetString(tag));
+            authEnvelopedData.close();
+            contentInfo.close();
+
+        } catch (GeneralSecurityException ex) {
+
+            // Report the failure as the enveloped data generators do
+            throw new CMSException("Cannot encrypt content with " + this.algorithm.getId() + ": " + ex.getMessage(),
+                    ex);
+        }
+    }
+
+    /**
+     * Generate a content encryption key
+     * 
+     * @return AES key of the key size of the algorithm
+     * @throws GeneralSecurityException
+     */
+    private SecretKey generateKey() throws GeneralSecurityException {
+
+        KeyGenerator keyGenerator = null == this.provider ? KeyGenerator.getInstance(KEY_ALGORITHM)
+                : KeyGenerator.getInstance(KEY_ALGORITHM, this.provider);
+        keyGenerator.init(this.keySize, RANDOM);
+
+        return keyGenerator.generateKey();
+    }
+
+    /**
+     * Create the cipher encrypting the content of an envelope
+     * 
+     * @param contentEncryptionKey Content encryption key
+     * @param nonce Nonce of the envelope
+     * @return AES/GCM/NoPadding cipher initialised for encryption
+     * @throws GeneralSecurityException
+     */
+    private Cipher createCipher(SecretKey contentEncryptionKey, byte[] nonce) throws GeneralSecurityException {
+
+        Cipher cipher = null == this.provider ? Cipher.getInstance(CIPHER_ALGORITHM)
+                : Cipher.getInstance(CIPHER_ALGORITHM, this.provider);
+        initCipher(cipher, Cipher.ENCRYPT_MODE, contentEncryptionKey, nonce);
+
+        return cipher;
+    }
+
+    /**
+     * Wrap the content encryption key for each party
+     * 
+     * @param contentEncryptionKey Content encryption key
+     * @return Set of the recipient infos
+     * @throws CMSException
+     */
+    private DERSet generateRecipientInfos(SecretKey contentEncryptionKey) throws CMSException {
+
+        ASN1EncodableVector recipientInfos = new ASN1EncodableVector();
+        GenericKey key = new GenericKey(contentEncryptionKey);
+        for (RecipientInfoGenerator recipientInfoGenerator : this.recipientInfoGenerators) {
+            recipientInfos.add(recipientInfoGenerator.generate(key));
+        }
+
+        return new DERSet(recipientInfos);
+    }
+
+    /**
+     * Get the content encryption algorithm identifier of an envelope
+     * 
+     * @param nonce Nonce of the envelope
+     * @return Algorithm identifier with the GCM parameters: nonce and length of the authentication tag
+     */
+    private AlgorithmIdentifier getAlgorithmIdentifier(byte[] nonce) {
+
+        ASN1EncodableVector parameters = new ASN1EncodableVector();
+        parameters.add(new DEROctetString(nonce));
+        parameters.add(new ASN1Integer(TAG_LENGTH));
+
+        return new AlgorithmIdentifier(this.algorithm, new DERSequence(parameters));
+    }
+
+    /**
+     * Initialise an AES-GCM cipher with a 128 bit authentication tag
+     * 
+     * @param cipher AES/GCM/NoPadding cipher
+     * @param mode Cipher mode
+     * @param key Content encryption key
+     * @param nonce Nonce of the envelope
+     * @throws GeneralSecurityException
+     */
+    static void initCipher(Cipher cipher, int mode, SecretKey key, byte[] nonce) throws GeneralSecurityException {
+
+        try {
+            cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+        } catch (InvalidAlgorithmParameterException ex) {
+
+            // Providers predating GCMParameterSpec take the nonce alone and produce a tag of the block size
+            cipher.init(mode, key, new IvParameterSpec(nonce));
+        }
+    }
+
+    /**
+     * Get the key size of an AES-GCM algorithm
+     * 
+     * @param cmsAlgorithm AES-GCM algorithm name
+     * @return Key size in bits
+     */
+    private static int getKeySize(String cmsAlgorithm) {
+        return Integer.parseInt(cmsAlgorithm.substring("AES".length(), "AES".length() + 3));
+    }
+}
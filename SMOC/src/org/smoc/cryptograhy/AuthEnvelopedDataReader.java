@@ -0,0 +1,227 @@
+package org.smoc.cryptograhy;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.PrivateKey;
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.cms.AuthEnvelopedData;
+import org.bouncycastle.asn1.cms.CMSObjectIdentifiers;
+import org.bouncycastle.asn1.cms.ContentInfo;
+import org.bouncycastle.asn1.cms.EncryptedContentInfo;
+import org.bouncycastle.asn1.cms.KeyAgreeRecipientInfo;
+import org.bouncycastle.asn1.cms.KeyTransRecipientInfo;
+import org.bouncycastle.asn1.cms.OriginatorPublicKey;
+import org.bouncycastle.asn1.cms.RecipientEncryptedKey;
+import org.bouncycastle.asn1.cms.RecipientInfo;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.RecipientOperator;
+import org.bouncycastle.cms.jcajce.JceKeyAgreeRecipient;
+import org.bouncycastle.cms.jcajce.JceKeyTransRecipient;
+
+/**
+ * The AuthEnvelopedDataReader class decrypts the AES-GCM SMIME envelopes generated by SMOC, the CMS AuthEnvelopedData
+ * of RFC 5083 and RFC 5084, with the private key of one of their parties. The content encryption key is unwrapped by
+ * the BouncyCastle recipients of the enveloped data and the content is decrypted and authenticated with the
+ * AES/GCM/NoPadding cipher of the JCA.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class AuthEnvelopedDataReader {
+
+    private static final String CIPHER_ALGORITHM = "AES/GCM/NoPadding";
+
+    private final AuthEnvelopedData authEnvelopedData;
+
+    /**
+     * AuthEnvelopedDataReader class constructor
+     * 
+     * @param encoded DER encoded content info holding an AuthEnvelopedData
+     * @throws CMSException if the content info does not hold an AuthEnvelopedData
+     */
+    public AuthEnvelopedDataReader(byte[] encoded) throws CMSException {
+
+        try {
+
+            ContentInfo contentInfo = ContentInfo.getInstance(ASN1Sequence.fromByteArray(encoded));
+            if (!CMSObjectIdentifiers.authEnvelopedData.equals(contentInfo.getContentType())) {
+                throw new CMSException("Not an AuthEnvelopedData: " + contentInfo.getContentType().getId());
+            }
+
+            // Initialise class attributes
+            this.authEnvelopedData = AuthEnvelopedData.getInstance(contentInfo.getContent());
+
+        } catch (IOException | IllegalArgumentException ex) {
+            throw new CMSException("Malformed AuthEnvelopedData: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Decrypt and authenticate the content of the envelope with the private key of one of its parties
+     * 
+     * @param privateKey Private key of the party, RSA or elliptic curve
+     * @param provider Name of the provider unwrapping the key and decrypting the content, or null for the provider
+     * picked by the JCA in the order of preference of the installed providers
+     * @return Decrypted content
+     * @throws CMSException if none of the recipient infos can be unwrapped with the key, or if the content does not
+     * authenticate
+     */
+    public byte[] getContent(PrivateKey privateKey, String provider) throws CMSException {
+
+        EncryptedContentInfo contentInfo = this.authEnvelopedData.getAuthEncryptedContentInfo();
+        AlgorithmIdentifier contentAlgorithm = contentInfo.getContentEncryptionAlgorithm();
+
+        // Content encryption key, from the first recipient info the private key can unwrap
+        Key contentEncryptionKey = this.extractContentEncryptionKey(privateKey, provider, contentAlgorithm);
+
+        try {
+
+            // Nonce of the envelope, the tag length being the one SMOC generates
+            byte[] nonce = ASN1OctetString.getInstance(ASN1Sequence.getInstance(contentAlgorithm.getParameters())
+                    .getObjectAt(0)).getOctets();
+
+            // Ciphertext followed by its authentication tag, as the cipher expects them
+            byte[] ciphertext = contentInfo.getEncryptedContent().getOctets();
+            byte[] tag = this.authEnvelopedData.getMac().getOctets();
+            byte[] input = new byte[ciphertext.length + tag.length];
+            System.arraycopy(ciphertext, 0, input, 0, ciphertext.length);
+            System.arraycopy(tag, 0, input, ciphertext.length, tag.length);
+
+            Cipher cipher = null == provider ? Cipher.getInstance(CIPHER_ALGORITHM)
+                    : Cipher.getInstance(CIPHER_ALGORITHM, provider);
+            AuthEnvelopedDataGenerator.initCipher(cipher, Cipher.DECRYPT_MODE,
+                    new SecretKeySpec(contentEncryptionKey.getEncoded(), "AES"), nonce);
+
+            return cipher.doFinal(input);
+
+        } catch (GeneralSecurityException ex) {
+            throw new CMSException("Cannot decrypt AuthEnvelopedData: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Unwrap the content encryption key from the first recipient info the private key can unwrap
+     * 
+     * @param privateKey Private key of the party
+     * @param provider Name of the provider unwrapping the key, or null for the JCA default
+     * @param contentAlgorithm Content encryption algorithm of the envelope
+     * @return Content encryption key
+     * @throws CMSException if none of the recipient infos can be unwrapped with the key
+     */
+    private Key extractContentEncryptionKey(PrivateKey privateKey, String provider,
+            AlgorithmIdentifier contentAlgorithm) throws CMSException {
+
+        CMSException failure = new CMSException("No recipient info of the AuthEnvelopedData matches the key");
+
+        for (ASN1Encodable encodable : this.authEnvelopedData.getRecipientInfos().toArray()) {
+
+            ASN1Encodable info = RecipientInfo.getInstance(encodable).getInfo();
+
+            try {
+
+                if (info instanceof KeyTransRecipientInfo) {
+
+                    // Content encryption key encrypted with the public key of the party
+                    KeyTransRecipientInfo keyTrans = (KeyTransRecipientInfo) info;
+                    return new KeyExtractor(privateKey, provider).extract(keyTrans.getKeyEncryptionAlgorithm(),
+                            contentAlgorithm, keyTrans.getEncryptedKey().getOctets());
+
+                } else if (info instanceof KeyAgreeRecipientInfo) {
+
+                    // Content encryption key wrapped with a key agreed with the ephemeral key of the originator
+                    KeyAgreeRecipientInfo keyAgree = (KeyAgreeRecipientInfo) info;
+                    AgreedKeyExtractor extractor = new AgreedKeyExtractor(privateKey, provider);
+
+                    // The originator key leaves out the curve, which is the one of the private key
+                    OriginatorPublicKey originator = keyAgree.getOriginator().getOriginatorKey();
+                    SubjectPublicKeyInfo originatorKey = new SubjectPublicKeyInfo(
+                            extractor.getPrivateKeyAlgorithmIdentifier(), originator.getPublicKey().getBytes());
+
+                    for (ASN1Encodable encryptedKey : keyAgree.getRecipientEncryptedKeys().toArray()) {
+                        try {
+                            return extractor.extract(
+                                    keyAgree.getKeyEncryptionAlgorithm(), contentAlgorithm, originatorKey,
+                                    keyAgree.getUserKeyingMaterial(), RecipientEncryptedKey.getInstance(encryptedKey)
+                                    .getEncryptedKey().getOctets());
+                        } catch (CMSException ex) {
+                            failure = ex;
+                        } catch (RuntimeException ex) {
+                            failure = new CMSException("Cannot unwrap content encryption key: " + ex.getMessage(),
+                                    ex);
+                        }
+                    }
+                }
+
+            } catch (CMSException ex) {
+
+                // Recipient info of another party, try the next one
+                failure = ex;
+
+            } catch (RuntimeException ex) {
+
+                // Key of another party, rejected by the provider while unwrapping
+                failure = new CMSException("Cannot unwrap content encryption key: " + ex.getMessage(), ex);
+            }
+        }
+
+        throw failure;
+    }
+
+    /**
+     * The KeyExtractor class exposes the key transport unwrapping of the BouncyCastle recipient
+     */
+    private static class KeyExtractor extends JceKeyTransRecipient {
+
+        KeyExtractor(PrivateKey privateKey, String provider) {
+            super(privateKey);
+            if (null != provider) {
+                this.setProvider(provider);
+            }
+        }
+
+        Key extract(AlgorithmIdentifier keyAlgorithm, AlgorithmIdentifier contentAlgorithm, byte[] encryptedKey)
+                throws CMSException {
+            return this.extractSecretKey(keyAlgorithm, contentAlgorithm, encryptedKey);
+        }
+
+        @Override
+        public RecipientOperator getRecipientOperator(AlgorithmIdentifier keyAlgorithm,
+                AlgorithmIdentifier contentAlgorithm, byte[] encryptedKey) throws CMSException {
+            throw new CMSException("AuthEnvelopedData content is decrypted by AuthEnvelopedDataReader");
+        }
+    }
+
+    /**
+     * The AgreedKeyExtractor class exposes the key agreement unwrapping of the BouncyCastle recipient
+     */
+    private static class AgreedKeyExtractor extends JceKeyAgreeRecipient {
+
+        AgreedKeyExtractor(PrivateKey privateKey, String provider) {
+            super(privateKey);
+            if (null != provider) {
+                this.setProvider(provider);
+            }
+        }
+
+        Key extract(AlgorithmIdentifier keyAlgorithm, AlgorithmIdentifier contentAlgorithm,
+                SubjectPublicKeyInfo originatorKey, ASN1OctetString userKeyingMaterial, byte[] encryptedKey)
+                throws CMSException {
+            return this.extractSecretKey(keyAlgorithm, contentAlgorithm, originatorKey, userKeyingMaterial,
+                    encryptedKey);
+        }
+
+        @Override
+        public RecipientOperator getRecipientOperator(AlgorithmIdentifier keyAlgorithm,
+                AlgorithmIdentifier contentAlgorithm, SubjectPublicKeyInfo originatorKey,
+                ASN1OctetString userKeyingMaterial, byte[] encryptedKey) throws CMSException {
+            throw new CMSException("AuthEnvelopedData content is decrypted by AuthEnvelopedDataReader");
+        }
+    }
+}
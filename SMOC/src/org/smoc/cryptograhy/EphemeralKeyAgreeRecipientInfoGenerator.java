@@ -0,0 +1,136 @@
+package org.smoc.cryptograhy;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECParameterSpec;
+import javax.crypto.KeyAgreement;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.cms.RecipientInfo;
+import org.bouncycastle.cms.CMSAlgorithm;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.RecipientInfoGenerator;
+import org.bouncycastle.cms.jcajce.JceKeyAgreeRecipientInfoGenerator;
+import org.bouncycastle.cms.jcajce.JceKeyTransRecipientInfoGenerator;
+import org.bouncycastle.operator.GenericKey;
+
+/**
+ * The EphemeralKeyAgreeRecipientInfoGenerator class wraps the content encryption key of an SMIME envelope for a party
+ * holding an elliptic curve certificate, as set out by RFC 5753: a new key pair is generated on the curve of the
+ * certificate for every envelope, the key encryption key is agreed between its private key and the public key of the
+ * certificate with ECDH, and its public key is carried by the envelope as the originator key.
+ * <p>
+ * Thread safety: the ephemeral key pair and the underlying BouncyCastle generator are created for each envelope, so a
+ * single instance can be shared by all the envelopes encrypted for the party, in the same way as the key transport
+ * generators of RSA certificates.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+class EphemeralKeyAgreeRecipientInfoGenerator implements RecipientInfoGenerator {
+
+    private static final String KEY_ALGORITHM = "EC";
+
+    private final X509Certificate certificate;
+    private final ASN1ObjectIdentifier keyWrapAlgorithm;
+    private final ECParameterSpec parameters;
+    private final String provider;
+
+    /**
+     * EphemeralKeyAgreeRecipientInfoGenerator class constructor
+     * 
+     * @param certificate Elliptic curve certificate of the party allowed to decrypt the envelopes
+     * @param provider Name of the provider generating the ephemeral keys, agreeing and wrapping the keys, or null for
+     * the provider picked by the JCA in the order of preference of the installed providers
+     */
+    EphemeralKeyAgreeRecipientInfoGenerator(X509Certificate certificate, String provider) {
+
+        // Initialise class attributes
+        this.certificate = certificate;
+        this.parameters = ((ECPublicKey) certificate.getPublicKey()).getParams();
+        this.provider = provider;
+
+        // Key wrap matching the strength of the curve, AES-128 up to P-256 and AES-256 above
+        this.keyWrapAlgorithm = this.parameters.getOrder().bitLength() <= 256 ? CMSAlgorithm.AES128_WRAP
+                : CMSAlgorithm.AES256_WRAP;
+    }
+
+    /**
+     * Get the recipient info generator of a certificate: key agreement for an elliptic curve certificate and key
+     * transport otherwise
+     * 
+     * @param certificate Certificate of the party allowed to decrypt the envelopes
+     * @param provider Name of the provider wrapping the content encryption key, or null for the provider picked by
+     * the JCA in the order of preference of the installed providers
+     * @return Recipient info generator of the certificate
+     * @throws CertificateEncodingException
+     */
+    static RecipientInfoGenerator forCertificate(X509Certificate certificate, String provider) throws
+            CertificateEncodingException {
+
+        // Elliptic curve keys cannot encrypt, the key encryption key is agreed instead
+        if (isKeyAgreement(certificate)) {
+            return new EphemeralKeyAgreeRecipientInfoGenerator(certificate, provider);
+        }
+
+        // Content encryption key encrypted with the public key of the certificate
+        JceKeyTransRecipientInfoGenerator generator = new JceKeyTransRecipientInfoGenerator(certificate);
+        if (null != provider) {
+            generator.setProvider(provider);
+        }
+
+        return generator;
+    }
+
+    /**
+     * Check whether the content encryption key of the envelopes is agreed with the key of a certificate rather than
+     * encrypted with it
+     * 
+     * @param certificate Certificate of the party allowed to decrypt the envelopes
+     * @return Whether the certificate holds an elliptic curve key
+     */
+    static boolean isKeyAgreement(X509Certificate certificate) {
+        return certificate.getPublicKey() instanceof ECPublicKey;
+    }
+
+    /**
+     * Generate the recipient info of an envelope with a new ephemeral key pair
+     * 
+     * @param contentEncryptionKey Content encryption key of the envelope
+     * @return Key agreement recipient info
+     * @throws CMSException
+     */
+    @Override
+    public RecipientInfo generate(GenericKey contentEncryptionKey) throws CMSException {
+
+        try {
+
+            // Ephemeral key pair on the curve of the certificate, generated by the provider agreeing the keys since
+            // the key agreement only accepts the private keys of its own provider
+            String keyProvider = null == this.provider ? KeyAgreement.getInstance(
+                    CMSAlgorithm.ECDH_SHA1KDF.getId()).getProvider().getName() : this.provider;
+            KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(KEY_ALGORITHM, keyProvider);
+            keyPairGenerator.initialize(this.parameters);
+            KeyPair ephemeralKeyPair = keyPairGenerator.generateKeyPair();
+
+            // Key agreement with the public key of the certificate
+            JceKeyAgreeRecipientInfoGenerator generator = new JceKeyAgreeRecipientInfoGenerator(
+                    CMSAlgorithm.ECDH_SHA1KDF, ephemeralKeyPair.getPrivate(), ephemeralKeyPair.getPublic(),
+                    this.keyWrapAlgorithm);
+            if (null != this.provider) {
+                generator.setProvider(this.provider);
+            }
+            generator.addRecipient(this.certificate);
+
+            return generator.generate(contentEncryptionKey);
+
+        } catch (GeneralSecurityException ex) {
+
+            // Report the failure as the other recipient info generators do
+            throw new CMSException("Cannot generate ephemeral key agreement: " + ex.getMessage(), ex);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.smoc.cryptograhy;
+
+import org.smoc.utils.FileFingerprint;
+
+/**
+ * The KeyMaterial class is an immutable snapshot of the sender key store and the recipient key store, together with
+ * the fingerprints of the files they were loaded from. A KeyMaterial instance can be shared freely between threads.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class KeyMaterial {
+
+    private final RecipientKeyStore recipientKeyStore;
+    private final FileFingerprint recipientKeyFingerprint;
+    private final SenderKeyStore senderKeyStore;
+    private final FileFingerprint senderKeyStoreFingerprint;
+
+    /**
+     * Get the recipient key store
+     * 
+     * @return Recipient key store
+     */
+    public RecipientKeyStore getRecipientKeyStore() {
+        return this.recipientKeyStore;
+    }
+
+    /**
+     * Get the fingerprint of the recipient public key file
+     * 
+     * @return Fingerprint of the recipient public key file
+     */
+    public FileFingerprint getRecipientKeyFingerprint() {
+        return this.recipientKeyFingerprint;
+    }
+
+    /**
+     * Get the sender key store
+     * 
+     * @return Sender key store
+     */
+    public SenderKeyStore getSenderKeyStore() {
+        return this.senderKeyStore;
+    }
+
+    /**
+     * Get the fingerprint of the sender key store file
+     * 
+     * @return Fingerprint of the sender key store file
+     */
+    public FileFingerprint getSenderKeyStoreFingerprint() {
+        return this.senderKeyStoreFingerprint;
+    }
+
+    /**
+     * KeyMaterial class constructor
+     * 
+     * @param senderKeyStore Sender key store
+     * @param senderKeyStoreFingerprint Fingerprint of the sender key store file
+     * @param recipientKeyStore Recipient key store
+     * @param recipientKeyFingerprint Fingerprint of the recipient public key file
+     */
+    public KeyMaterial(SenderKeyStore senderKeyStore, FileFingerprint senderKeyStoreFingerprint,
+            RecipientKeyStore recipientKeyStore, FileFingerprint recipientKeyFingerprint) {
+
+        // Initialise class attributes
+        this.recipientKeyStore = recipientKeyStore;
+        this.recipientKeyFingerprint = recipientKeyFingerprint;
+        this.senderKeyStore = senderKeyStore;
+        this.senderKeyStoreFingerprint = senderKeyStoreFingerprint;
+    }
+}
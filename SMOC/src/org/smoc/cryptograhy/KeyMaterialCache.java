@@ -0,0 +1,225 @@
+package org.smoc.cryptograhy;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.CertificateException;
+import org.smoc.exceptions.NoSuchCertificateException;
+import org.smoc.exceptions.PublicKeyFileNotFoundException;
+import org.smoc.metrics.FlightRecorderEvent;
+import org.smoc.utils.FileFingerprint;
+
+/**
+ * The KeyMaterialCache class loads the sender key store and the recipient public key once and hands out the same
+ * immutable KeyMaterial snapshot to every caller. The key files are checked on each access by modification time and
+ * size only; their content is hashed, and the affected key store reloaded, only when those attributes change.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class KeyMaterialCache {
+
+    private volatile KeyMaterial keyMaterial;
+    private String keyAlias;
+    private String keyStoreFilename;
+    private String keyStoreProvider;
+    private String keyStoreType;
+    private String passphrase;
+    private String recipientKeyFilename;
+
+    /**
+     * KeyMaterialCache class constructor
+     * 
+     * @param keyStoreFilename Sender key store path and filename
+     * @param keyAlias Sender key alias
+     * @param keyStoreProvider Sender key store provider name
+     * @param keyStoreType Sender key store provider type
+     * @param passphrase Sender key store pass phrase
+     * @param recipientKeyFilename Recipient public key path and filename
+     * @throws KeyStoreException
+     * @throws NoSuchProviderException
+     * @throws NoSuchAlgorithmException
+     * @throws CertificateException
+     * @throws UnrecoverableKeyException
+     * @throws NoSuchCertificateException
+     * @throws PublicKeyFileNotFoundException
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    public KeyMaterialCache(String keyStoreFilename, String keyAlias, String keyStoreProvider, String keyStoreType,
+            String passphrase, String recipientKeyFilename) throws KeyStoreException, NoSuchProviderException,
+            NoSuchAlgorithmException, CertificateException, UnrecoverableKeyException, NoSuchCertificateException,
+            PublicKeyFileNotFoundException, FileNotFoundException, IOException {
+
+        // Initialise class attributes
+        this.keyAlias = keyAlias;
+        this.keyStoreFilename = keyStoreFilename;
+        this.keyStoreProvider = keyStoreProvider;
+        this.keyStoreType = keyStoreType;
+        this.passphrase = passphrase;
+        this.recipientKeyFilename = recipientKeyFilename;
+
+        // Fingerprints of the key files, computed before loading so that a later write is not missed
+        FileFingerprint senderFingerprint = FileFingerprint.of(keyStoreFilename);
+        FileFingerprint recipientFingerprint = this.fingerprintRecipientKey();
+
+        // Load the key material a first time
+        this.keyMaterial = new KeyMaterial(this.loadSenderKeyStore(), senderFingerprint,
+                this.loadRecipientKeyStore(), recipientFingerprint);
+    }
+
+    /**
+     * Get the current key material, reloading the key files that have changed since they were last loaded
+     * 
+     * @return Current key material
+     * @throws KeyStoreException
+     * @throws NoSuchProviderException
+     * @throws NoSuchAlgorithmException
+     * @throws CertificateException
+     * @throws UnrecoverableKeyException
+     * @throws NoSuchCertificateException
+     * @throws PublicKeyFileNotFoundException
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    public KeyMaterial getKeyMaterial() throws KeyStoreException, NoSuchProviderException, NoSuchAlgorithmException,
+            CertificateException, UnrecoverableKeyException, NoSuchCertificateException,
+            PublicKeyFileNotFoundException, FileNotFoundException, IOException {
+
+        // Current snapshot
+        KeyMaterial current = this.keyMaterial;
+
+        // Check if the key files are untouched since the snapshot was taken
+        if (this.isCurrent(current)) {
+            return current;
+        }
+
+        return this.reload();
+    }
+
+    /**
+     * Check whether the given key material still matches the attributes of the key files
+     * 
+     * @param material Key material snapshot
+     * @return Whether the key files have not been touched since the snapshot was taken
+     */
+    private boolean isCurrent(KeyMaterial material) {
+        return material.getSenderKeyStoreFingerprint().matches(this.keyStoreFilename)
+                && material.getRecipientKeyFingerprint().matches(this.recipientKeyFilename);
+    }
+
+    /**
+     * Reload the key files whose content has changed and publish a new key material snapshot
+     * 
+     * @return New key material snapshot
+     * @throws KeyStoreException
+     * @throws NoSuchProviderException
+     * @throws NoSuchAlgorithmException
+     * @throws CertificateException
+     * @throws UnrecoverableKeyException
+     * @throws NoSuchCertificateException
+     * @throws PublicKeyFileNotFoundException
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    private synchronized KeyMaterial reload() throws KeyStoreException, NoSuchProviderException,
+            NoSuchAlgorithmException, CertificateException, UnrecoverableKeyException, NoSuchCertificateException,
+            PublicKeyFileNotFoundException, FileNotFoundException, IOException {
+
+        // Current snapshot
+        KeyMaterial current = this.keyMaterial;
+
+        // Another thread may have reloaded the key material while we were waiting for the lock
+        if (this.isCurrent(current)) {
+            return current;
+        }
+
+        // Fingerprints of the key files as they are now, computed before loading so a later write is not missed
+        FileFingerprint senderFingerprint = FileFingerprint.of(this.keyStoreFilename);
+        FileFingerprint recipientFingerprint = this.fingerprintRecipientKey();
+
+        // Only reload the sender key store if its content has changed
+        SenderKeyStore senderKeyStore = current.getSenderKeyStore();
+        if (!senderFingerprint.hasSameContent(current.getSenderKeyStoreFingerprint())) {
+            senderKeyStore = this.loadSenderKeyStore();
+        }
+
+        // Only reload the recipient key store if its content has changed
+        RecipientKeyStore recipientKeyStore = current.getRecipientKeyStore();
+        if (!recipientFingerprint.hasSameContent(current.getRecipientKeyFingerprint())) {
+            recipientKeyStore = this.loadRecipientKeyStore();
+        }
+
+        // Publish the new snapshot
+        this.keyMaterial = new KeyMaterial(senderKeyStore, senderFingerprint, recipientKeyStore,
+                recipientFingerprint);
+
+        return this.keyMaterial;
+    }
+
+    /**
+     * Compute the fingerprint of the recipient public key file
+     * 
+     * @return Fingerprint of the recipient public key file
+     * @throws PublicKeyFileNotFoundException
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    private FileFingerprint fingerprintRecipientKey() throws PublicKeyFileNotFoundException, IOException,
+            NoSuchAlgorithmException {
+
+        try {
+            return FileFingerprint.of(this.recipientKeyFilename);
+        } catch (FileNotFoundException ex) {
+
+            // We throw an exception since the public key file could not be found
+            throw new PublicKeyFileNotFoundException(this.recipientKeyFilename);
+        }
+    }
+
+    /**
+     * Load the sender key store from the configured key store file
+     * 
+     * @return Sender key store
+     * @throws KeyStoreException
+     * @throws NoSuchProviderException
+     * @throws NoSuchAlgorithmException
+     * @throws CertificateException
+     * @throws UnrecoverableKeyException
+     * @throws NoSuchCertificateException
+     * @throws IOException
+     */
+    private SenderKeyStore loadSenderKeyStore() throws KeyStoreException, NoSuchProviderException,
+            NoSuchAlgorithmException, CertificateException, UnrecoverableKeyException, NoSuchCertificateException,
+            IOException {
+
+        Object event = FlightRecorderEvent.KEY_LOAD.begin();
+        SenderKeyStore senderKeyStore = new SenderKeyStore(this.keyStoreFilename, this.keyAlias,
+                this.keyStoreProvider, this.keyStoreType, this.passphrase);
+        FlightRecorderEvent.commit(event, null, new File(this.keyStoreFilename).length(), this.keyStoreType);
+
+        return senderKeyStore;
+    }
+
+    /**
+     * Load the recipient key store from the configured public key file
+     * 
+     * @return Recipient key store
+     * @throws PublicKeyFileNotFoundException
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    private RecipientKeyStore loadRecipientKeyStore() throws PublicKeyFileNotFoundException, FileNotFoundException,
+            IOException {
+
+        Object event = FlightRecorderEvent.KEY_LOAD.begin();
+        RecipientKeyStore recipientKeyStore = new RecipientKeyStore(this.recipientKeyFilename);
+        FlightRecorderEvent.commit(event, null, new File(this.recipientKeyFilename).length(), "X.509");
+
+        return recipientKeyStore;
+    }
+}
@@ -0,0 +1,440 @@
+package org.smoc.cryptograhy;
+
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.bouncycastle.cert.jcajce.JcaCertStore;
+import org.bouncycastle.cms.CMSEnvelopedData;
+import org.bouncycastle.cms.CMSEnvelopedDataGenerator;
+import org.bouncycastle.cms.CMSProcessableByteArray;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.CMSSignedDataGenerator;
+import org.bouncycastle.cms.KeyAgreeRecipientInformation;
+import org.bouncycastle.cms.RecipientInfoGenerator;
+import org.bouncycastle.cms.RecipientInformation;
+import org.bouncycastle.cms.SignerInformation;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoGeneratorBuilder;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoVerifierBuilder;
+import org.bouncycastle.cms.jcajce.JceCMSContentEncryptorBuilder;
+import org.bouncycastle.cms.jcajce.JceKeyAgreeEnvelopedRecipient;
+import org.bouncycastle.cms.jcajce.JceKeyTransEnvelopedRecipient;
+
+/**
+ * The ProviderCalibrator class times each candidate JCA provider on the signatures and on the envelopes generated by
+ * SMOC, so that the fastest provider of each role can be picked when the application starts. Bouncy Castle runs AES
+ * and RSA in pure Java, whereas the providers of the JDK use the AES-NI, GHASH and multiply intrinsics of the JVM when
+ * the processor has them.
+ * <p>
+ * A candidate is only kept if its output is correct: its signatures must verify and its envelopes must decrypt back
+ * to the sample content with Bouncy Castle, which is also what the recipients of the missives use. The envelopes are
+ * encrypted for the sender, whose private key is the only one available to check them.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class ProviderCalibrator {
+
+    /**
+     * Name standing for the provider picked by the JCA in the order of preference of the installed providers
+     */
+    public static final String DEFAULT_PROVIDER = "default";
+
+    private static final String REFERENCE_PROVIDER = "BC";
+    private static final int SAMPLE_SIZE = 64 * 1024;
+
+    private final Map<String, Double> encryptResults;
+    private final long measureTime;
+    private final byte[] sample;
+    private final SenderKeyStore senderKeyStore;
+    private final Map<String, Double> signResults;
+    private final long warmUpTime;
+
+    /**
+     * Get the throughput measured for each candidate of the last encryption calibration
+     * 
+     * @return Envelopes per second by provider name, DEFAULT_PROVIDER for the JCA default, or -1 for the candidates
+     * whose envelopes failed or could not be decrypted
+     */
+    public Map<String, Double> getEncryptResults() {
+        return Collections.unmodifiableMap(this.encryptResults);
+    }
+
+    /**
+     * Get the throughput measured for each candidate of the last signing calibration
+     * 
+     * @return Signatures per second by provider name, DEFAULT_PROVIDER for the JCA default, or -1 for the candidates
+     * whose signatures failed or did not verify
+     */
+    public Map<String, Double> getSignResults() {
+        return Collections.unmodifiableMap(this.signResults);
+    }
+
+    /**
+     * ProviderCalibrator class constructor timing each candidate for 100 milliseconds after a 50 millisecond warm-up
+     * 
+     * @param senderKeyStore Sender key store whose keys are used to sign and to decrypt the samples
+     */
+    public ProviderCalibrator(SenderKeyStore senderKeyStore) {
+        this(senderKeyStore, 50, 100);
+    }
+
+    /**
+     * ProviderCalibrator class constructor
+     * 
+     * @param senderKeyStore Sender key store whose keys are used to sign and to decrypt the samples
+     * @param warmUpTime Time each candidate runs before being timed, in milliseconds
+     * @param measureTime Time each candidate is timed for, in milliseconds
+     */
+    public ProviderCalibrator(SenderKeyStore senderKeyStore, long warmUpTime, long measureTime) {
+
+        // Initialise class attributes
+        this.encryptResults = new LinkedHashMap<>();
+        this.measureTime = measureTime * 1000000L;
+        this.sample = new byte[SAMPLE_SIZE];
+        this.senderKeyStore = senderKeyStore;
+        this.signResults = new LinkedHashMap<>();
+        this.warmUpTime = warmUpTime * 1000000L;
+
+        // Sample content, random so that no provider can take a shortcut on it
+        new SecureRandom().nextBytes(this.sample);
+    }
+
+    /**
+     * Get the fastest provider generating correct envelopes for the given CMS algorithm
+     * 
+     * @param cmsAlgorithm CMS encryption algorithm, as set by smime.cms.algorithm
+     * @param fallback Provider returned if no candidate generates correct envelopes
+     * @return Name of the fastest provider, null for the JCA default, or the fallback provider
+     */
+    public String calibrateEncrypt(String cmsAlgorithm, String fallback) {
+
+        // Operation of each candidate providing ciphers
+        Map<String, Operation> operations = new LinkedHashMap<>();
+
+        for (String provider : getCandidates("Cipher", null)) {
+
+            try {
+
+                // Authenticated envelopes are generated and checked on their own
+                if (AuthEnvelopedDataGenerator.isAuthEnveloped(cmsAlgorithm)) {
+                    operations.put(provider, this.createAuthEnvelopedOperation(cmsAlgorithm, provider));
+                    continue;
+                }
+
+                // Content encryptor and key wrapper of the candidate
+                final JceCMSContentEncryptorBuilder encryptorBuilder = Smime.getCmsContentEncryptor(cmsAlgorithm);
+                final RecipientInfoGenerator recipientInfoGenerator = EphemeralKeyAgreeRecipientInfoGenerator
+                        .forCertificate(this.senderKeyStore.getCertificate(), provider);
+                if (null != provider) {
+                    encryptorBuilder.setProvider(provider);
+                }
+
+                operations.put(provider, new Operation() {
+
+                    @Override
+                    public byte[] run() throws Exception {
+
+                        // Envelope the sample for the sender
+                        CMSEnvelopedDataGenerator generator = new CMSEnvelopedDataGenerator();
+                        generator.addRecipientInfoGenerator(recipientInfoGenerator);
+
+                        return generator.generate(new CMSProcessableByteArray(ProviderCalibrator.this.sample),
+                                encryptorBuilder.build()).getEncoded();
+                    }
+
+                    @Override
+                    public boolean check(byte[] output) throws Exception {
+
+                        // Decrypt the envelope with the reference provider
+                        RecipientInformation recipient = (RecipientInformation) new CMSEnvelopedData(output)
+                                .getRecipientInfos().getRecipients().iterator().next();
+                        PrivateKey privateKey = ProviderCalibrator.this.senderKeyStore.getPrivateKey();
+                        byte[] content = recipient.getContent(recipient instanceof KeyAgreeRecipientInformation
+                                ? new JceKeyAgreeEnvelopedRecipient(privateKey).setProvider(REFERENCE_PROVIDER)
+                                : new JceKeyTransEnvelopedRecipient(privateKey).setProvider(REFERENCE_PROVIDER));
+
+                        return Arrays.equals(ProviderCalibrator.this.sample, content);
+                    }
+                });
+
+            } catch (Exception ex) {
+
+                // The candidate cannot generate the envelopes
+                operations.put(provider, null);
+            }
+        }
+
+        return this.pickFastest(operations, this.encryptResults, fallback);
+    }
+
+    /**
+     * Get the fastest provider generating correct signatures with the given algorithm
+     * 
+     * @param signAlgorithm Signature algorithm, as set by sign.algorithm
+     * @param fallback Provider returned if no candidate generates correct signatures
+     * @return Name of the fastest provider, null for the JCA default, or the fallback provider
+     */
+    public String calibrateSign(String signAlgorithm, String fallback) {
+
+        // Operation of each candidate providing the signature algorithm
+        Map<String, Operation> operations = new LinkedHashMap<>();
+
+        for (String provider : getCandidates("Signature", signAlgorithm)) {
+
+            try {
+
+                // Signed data generator of the candidate, built once as SmocSigner does
+                JcaSimpleSignerInfoGeneratorBuilder signerInfoGenerator = new JcaSimpleSignerInfoGeneratorBuilder();
+                if (null != provider) {
+                    signerInfoGenerator.setProvider(provider);
+                }
+
+                final CMSSignedDataGenerator generator = new CMSSignedDataGenerator();
+                generator.addSignerInfoGenerator(signerInfoGenerator.build(signAlgorithm,
+                        this.senderKeyStore.getPrivateKey(), this.senderKeyStore.getCertificate()));
+                generator.addCertificates(new JcaCertStore(Arrays.asList(this.senderKeyStore.getCertificate())));
+
+                operations.put(provider, new Operation() {
+
+                    @Override
+                    public byte[] run() throws Exception {
+
+                        // Sign the sample
+                        return generator.generate(new CMSProcessableByteArray(ProviderCalibrator.this.sample), true)
+                                .getEncoded();
+                    }
+
+                    @Override
+                    public boolean check(byte[] output) throws Exception {
+
+                        // Verify the signature with the reference provider
+                        SignerInformation signer = (SignerInformation) new CMSSignedData(output).getSignerInfos()
+                                .getSigners().iterator().next();
+
+                        return signer.verify(new JcaSimpleSignerInfoVerifierBuilder().setProvider(REFERENCE_PROVIDER)
+                                .build(ProviderCalibrator.this.senderKeyStore.getCertificate()));
+                    }
+                });
+
+            } catch (Exception ex) {
+
+                // The candidate cannot generate the signatures
+                operations.put(provider, null);
+            }
+        }
+
+        return this.pickFastest(operations, this.signResults, fallback);
+    }
+
+    /**
+     * Create the operation of a candidate generating AES-GCM AuthEnvelopedData envelopes for the sender
+     * 
+     * @param cmsAlgorithm AES-GCM algorithm name
+     * @param provider Name of the candidate, or null for the JCA default
+     * @return Operation of the candidate
+     * @throws Exception if the candidate cannot be set up
+     */
+    private Operation createAuthEnvelopedOperation(String cmsAlgorithm, String provider) throws Exception {
+
+        // Envelope generator of the candidate
+        final AuthEnvelopedDataGenerator generator = new AuthEnvelopedDataGenerator(cmsAlgorithm, provider);
+        generator.addRecipientInfoGenerator(EphemeralKeyAgreeRecipientInfoGenerator.forCertificate(
+                this.senderKeyStore.getCertificate(), provider));
+
+        return new Operation() {
+
+            @Override
+            public byte[] run() throws Exception {
+                return generator.generate(ProviderCalibrator.this.sample, ProviderCalibrator.this.sample.length);
+            }
+
+            @Override
+            public boolean check(byte[] output) throws Exception {
+
+                // Decrypt and authenticate the envelope with the reference provider
+                byte[] content = new AuthEnvelopedDataReader(output).getContent(
+                        ProviderCalibrator.this.senderKeyStore.getPrivateKey(), REFERENCE_PROVIDER);
+
+                return Arrays.equals(ProviderCalibrator.this.sample, content);
+            }
+        };
+    }
+
+    /**
+     * Get the candidate providers of a role: the JCA default, then every installed provider offering the service
+     * 
+     * @param serviceType Type of the JCA service, such as Signature or Cipher
+     * @param algorithm Algorithm the provider must offer, or null for any algorithm of the service type
+     * @return Names of the candidate providers, null standing for the JCA default
+     */
+    private static List<String> getCandidates(String serviceType, String algorithm) {
+
+        List<String> candidates = new ArrayList<>();
+        candidates.add(null);
+
+        for (Provider provider : Security.getProviders()) {
+            if (null != algorithm ? null != provider.getService(serviceType, algorithm)
+                    : hasService(provider, serviceType)) {
+                candidates.add(provider.getName());
+            }
+        }
+
+        return candidates;
+    }
+
+    /**
+     * Check whether a provider offers any algorithm of a service type
+     * 
+     * @param provider JCA provider
+     * @param serviceType Type of the JCA service
+     * @return Whether the provider offers the service type
+     */
+    private static boolean hasService(Provider provider, String serviceType) {
+
+        for (Provider.Service service : provider.getServices()) {
+            if (serviceType.equals(service.getType())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Time the operation of each candidate and get the fastest candidate whose output is correct. Every candidate is
+     * warmed up before the first one is timed, so that the candidates timed first are not slowed down by code shared
+     * with the others still being compiled.
+     * 
+     * @param operations Operation of each candidate, null for the candidates that cannot run it
+     * @param results Number of runs per second of each candidate, filled in
+     * @param fallback Provider returned if no candidate is correct
+     * @return Name of the fastest provider, null for the JCA default, or the fallback provider
+     */
+    private String pickFastest(Map<String, Operation> operations, Map<String, Double> results, String fallback) {
+
+        results.clear();
+
+        // Warm up every candidate, checking each of its outputs
+        for (Map.Entry<String, Operation> entry : operations.entrySet()) {
+            try {
+                if (null != entry.getValue()) {
+                    this.warmUp(entry.getValue());
+                }
+            } catch (Exception ex) {
+
+                // The output of the candidate is not correct
+                entry.setValue(null);
+            }
+        }
+
+        String fastest = fallback;
+        double fastestRate = 0;
+
+        // Time every correct candidate
+        for (Map.Entry<String, Operation> entry : operations.entrySet()) {
+
+            double rate;
+
+            try {
+                rate = null == entry.getValue() ? -1 : this.measure(entry.getValue());
+            } catch (Exception ex) {
+
+                // The candidate failed while being timed
+                rate = -1;
+            }
+
+            results.put(null == entry.getKey() ? DEFAULT_PROVIDER : entry.getKey(), rate);
+
+            // Keep the fastest correct candidate
+            if (rate > fastestRate) {
+                fastest = entry.getKey();
+                fastestRate = rate;
+            }
+        }
+
+        return fastest;
+    }
+
+    /**
+     * Run an operation for the warm-up time, checking each of its outputs
+     * 
+     * @param operation Operation to warm up
+     * @throws Exception if the operation fails or one of its outputs is not correct
+     */
+    private void warmUp(Operation operation) throws Exception {
+
+        long start = System.nanoTime();
+        do {
+            check(operation, operation.run());
+        } while (System.nanoTime() - start < this.warmUpTime);
+    }
+
+    /**
+     * Time an operation. Only the output of the last run is checked, so that the checks do not weigh on the time
+     * measured.
+     * 
+     * @param operation Operation to time
+     * @return Number of runs per second
+     * @throws Exception if the operation fails or its last output is not correct
+     */
+    private double measure(Operation operation) throws Exception {
+
+        // Timed runs
+        byte[] output;
+        long runs = 0;
+        long elapsed;
+        long start = System.nanoTime();
+        do {
+            output = operation.run();
+            runs++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < this.measureTime);
+
+        check(operation, output);
+
+        return runs * 1e9 / elapsed;
+    }
+
+    /**
+     * Check the output of an operation
+     * 
+     * @param operation Operation
+     * @param output Output of a run of the operation
+     * @throws Exception if the output is not correct
+     */
+    private static void check(Operation operation, byte[] output) throws Exception {
+        if (!operation.check(output)) {
+            throw new SecurityException("The output of the provider could not be verified");
+        }
+    }
+
+    /**
+     * The Operation interface is a cryptographic operation timed by the calibration
+     */
+    private interface Operation {
+
+        /**
+         * Run the operation once
+         * 
+         * @return Encoded output of the operation
+         * @throws Exception
+         */
+        byte[] run() throws Exception;
+
+        /**
+         * Check the output of a run with the reference provider
+         * 
+         * @param output Encoded output of a run
+         * @return Whether the output is correct
+         * @throws Exception
+         */
+        boolean check(byte[] output) throws Exception;
+    }
+}
@@ -0,0 +1,83 @@
+package org.smoc.cryptograhy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import javax.activation.DataSource;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * The RawContentDataSource class exposes the raw content of a parsed MIME message, exactly as it was read and without
+ * decoding it, so that the content can be written again without going through its content handler.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+class RawContentDataSource implements DataSource {
+
+    private MimeMessage message;
+
+    /**
+     * RawContentDataSource class constructor
+     * 
+     * @param message Parsed MIME message
+     */
+    RawContentDataSource(MimeMessage message) {
+
+        // Initialise class attributes
+        this.message = message;
+    }
+
+    /**
+     * Get the content type of the MIME message
+     * 
+     * @return Content type of the MIME message
+     */
+    @Override
+    public String getContentType() {
+
+        try {
+            return this.message.getContentType();
+        } catch (MessagingException ex) {
+            return "application/octet-stream";
+        }
+    }
+
+    /**
+     * Get a new stream over the raw content of the MIME message
+     * 
+     * @return Stream over the raw content of the MIME message
+     * @throws IOException
+     */
+    @Override
+    public InputStream getInputStream() throws IOException {
+
+        try {
+            return this.message.getRawInputStream();
+        } catch (MessagingException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Get the name of the data source
+     * 
+     * @return Name of the data source
+     */
+    @Override
+    public String getName() {
+        return null;
+    }
+
+    /**
+     * The raw content of a MIME message cannot be written to
+     * 
+     * @return Never returns
+     * @throws IOException
+     */
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        throw new IOException("The raw content of a MIME message is read only.");
+    }
+}
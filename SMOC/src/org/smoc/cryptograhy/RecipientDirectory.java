@@ -0,0 +1,491 @@
+package org.smoc.cryptograhy;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.x500.RDN;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.bouncycastle.asn1.x500.style.IETFUtils;
+import org.smoc.exceptions.NoSuchCertificateException;
+import org.smoc.metrics.FlightRecorderEvent;
+
+/**
+ * The RecipientDirectory class looks up the certificates of the missive recipients in a directory holding one PEM
+ * certificate file per recipient. The directory is indexed by the email addresses and the BICs of the recipients: the
+ * email addresses are read from the certificates, the BICs from the certificate file names and from the OU and UID
+ * attributes of the certificate subjects. When two certificates share a key, the file whose name sorts first wins.
+ * <p>
+ * The index is saved in the directory, so that only the certificate files added or modified since the index was last
+ * saved are parsed when the directory is opened again. Certificates are only loaded when a missive is sent to their
+ * recipient and are then kept, with their prepared recipient info generator, in a cache holding the certificates used
+ * most recently. The directory is indexed again whenever a certificate file is added, removed or modified. All the
+ * public methods of this class are safe to call concurrently.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class RecipientDirectory {
+
+    private static final Pattern BIC_PATTERN = Pattern.compile("[A-Z]{6}[A-Z0-9]{2}([A-Z0-9]{3})?");
+    private static final String INDEX_FILE = ".smoc-index";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final KeyStoreCache cache;
+    private final File directory;
+    private volatile Index index;
+
+    /**
+     * Get the number of certificates in the directory
+     * 
+     * @return Number of indexed certificates
+     */
+    public int size() {
+        return this.index.files.size();
+    }
+
+    /**
+     * RecipientDirectory class constructor, indexing the certificates of the directory
+     * 
+     * @param directory Directory holding the recipient certificate files
+     * @param cacheSize Maximum number of certificates kept in memory
+     * @throws IOException
+     */
+    public RecipientDirectory(String directory, int cacheSize) throws IOException {
+
+        // Initialise class attributes
+        this.directory = new File(directory);
+
+        // Certificates used most recently, the least recently used one being evicted when the cache is full
+        this.cache = new KeyStoreCache(cacheSize);
+
+        // Check that the directory exists
+        if (!this.directory.isDirectory()) {
+            throw new IOException("The recipient certificate directory " + directory + " could not be found.");
+        }
+
+        // Index the certificates, starting from the index saved by a previous run
+        this.index = this.reindex(this.readIndexFile());
+    }
+
+    /**
+     * Get the key store of a recipient
+     * 
+     * @param recipient Email address or BIC of the recipient
+     * @return Key store of the recipient
+     * @throws NoSuchCertificateException
+     * @throws IOException
+     */
+    public RecipientKeyStore getRecipientKeyStore(String recipient) throws NoSuchCertificateException,
+            IOException {
+
+        // Index the directory again if certificate files were added or removed
+        Index current = this.index;
+        if (this.directory.lastModified() != current.directoryModified) {
+            current = this.reindex(current);
+        }
+
+        // Certificate file of the recipient
+        IndexedFile indexedFile = current.find(recipient);
+        File file = null == indexedFile ? null : new File(this.directory, indexedFile.name);
+
+        // Index the directory again if the certificate file was modified in place
+        if (null != indexedFile && !indexedFile.matches(file)) {
+            current = this.reindex(current);
+            indexedFile = current.find(recipient);
+            file = null == indexedFile ? null : new File(this.directory, indexedFile.name);
+        }
+
+        // Check that the recipient has a certificate
+        if (null == indexedFile) {
+            throw new NoSuchCertificateException(recipient);
+        }
+
+        // Certificate already loaded
+        synchronized (this.cache) {
+            CachedKeyStore cached = this.cache.get(indexedFile.name);
+            if (null != cached && cached.indexedFile == indexedFile) {
+                return cached.keyStore;
+            }
+        }
+
+        // Load the certificate outside the lock, so that lookups of other recipients are not held up
+        Object event = FlightRecorderEvent.KEY_LOAD.begin();
+        RecipientKeyStore keyStore = new RecipientKeyStore(file.getPath());
+        FlightRecorderEvent.commit(event, recipient, file.length(), "X.509");
+
+        synchronized (this.cache) {
+            this.cache.put(indexedFile.name, new CachedKeyStore(indexedFile, keyStore));
+        }
+
+        return keyStore;
+    }
+
+    /**
+     * Index the certificate files of the directory, only parsing the files that were added or modified since the
+     * previous index, and save the index if it has changed
+     * 
+     * @param previous Previous index
+     * @return New index
+     */
+    private synchronized Index reindex(Index previous) {
+
+        // Another thread may have indexed the directory while we were waiting for the lock
+        if (null != this.index && this.index != previous) {
+            return this.index;
+        }
+
+        // Modification time of the directory, read before it is listed so that a later change is not missed
+        long directoryModified = this.directory.lastModified();
+
+        // Certificate files, in the order of their names
+        File[] files = this.directory.listFiles(new FileFilter() {
+
+            @Override
+            public boolean accept(File file) {
+                String name = file.getName().toLowerCase();
+                return file.isFile() && (name.endsWith(".pem") || name.endsWith(".crt") || name.endsWith(".cer"));
+            }
+        });
+
+        if (null == files) {
+            files = new File[0];
+        }
+
+        Arrays.sort(files);
+
+        // Index entries of the certificate files
+        Map<String, IndexedFile> indexedFiles = new LinkedHashMap<>();
+        boolean changed = false;
+
+        for (File file : files) {
+
+            // Entry of the file in the previous index, kept if the file is untouched
+            IndexedFile indexedFile = previous.files.get(file.getName());
+
+            if (null == indexedFile || !indexedFile.matches(file)) {
+
+                // Attributes of the file, read before its content so that a concurrent write is caught later
+                long lastModified = file.lastModified();
+                long length = file.length();
+
+                // Parse the certificate to find the keys of its recipient
+                RecipientKeyStore keyStore;
+                try {
+                    keyStore = new RecipientKeyStore(file.getPath());
+                } catch (IOException | RuntimeException ex) {
+
+                    // Files that do not hold a certificate are left out of the index
+                    continue;
+                }
+
+                indexedFile = new IndexedFile(file.getName(), lastModified, length, getKeys(file.getName(),
+                        keyStore));
+                changed = true;
+
+                // The certificate has just been loaded, it is cached straight away
+                synchronized (this.cache) {
+                    this.cache.put(indexedFile.name, new CachedKeyStore(indexedFile, keyStore));
+                }
+            }
+
+            indexedFiles.put(indexedFile.name, indexedFile);
+        }
+
+        // Publish the new index
+        this.index = new Index(directoryModified, indexedFiles);
+
+        // Save the index for the next run if certificates were added, modified or removed
+        if (changed || indexedFiles.size() != previous.files.size()) {
+            this.writeIndexFile(this.index);
+        }
+
+        return this.index;
+    }
+
+    /**
+     * Read the index saved in the directory by a previous run
+     * 
+     * @return Saved index, or an empty index if none could be read
+     */
+    private Index readIndexFile() {
+
+        // Index entries of the certificate files
+        Map<String, IndexedFile> indexedFiles = new LinkedHashMap<>();
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(
+                new File(this.directory, INDEX_FILE)), StandardCharsets.UTF_8))) {
+
+            String line;
+            while (null != (line = reader.readLine())) {
+
+                // File name, modification time, size and keys of the certificate
+                String[] fields = line.split("\t", -1);
+                if (4 != fields.length) {
+                    continue;
+                }
+
+                try {
+                    indexedFiles.put(fields[0], new IndexedFile(fields[0], Long.parseLong(fields[1]),
+                            Long.parseLong(fields[2]), fields[3].isEmpty() ? Collections.<String>emptyList()
+                            : Arrays.asList(fields[3].split(","))));
+                } catch (NumberFormatException ex) {
+
+                    // The certificate of a damaged entry is parsed again
+                }
+            }
+
+        } catch (IOException ex) {
+
+            // Without a saved index, every certificate of the directory is parsed
+        }
+
+        return new Index(-1, indexedFiles);
+    }
+
+    /**
+     * Save the index in the directory, leaving the previous index in place if the directory is read only
+     * 
+     * @param index Index to save
+     */
+    private void writeIndexFile(Index index) {
+
+        // Index written under a temporary name, then published under its final name
+        File temporaryFile = new File(this.directory, INDEX_FILE + TEMPORARY_SUFFIX);
+
+        try {
+
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(temporaryFile),
+                    StandardCharsets.UTF_8)) {
+
+                for (IndexedFile indexedFile : index.files.values()) {
+
+                    // Keys of the certificate
+                    StringBuilder keys = new StringBuilder();
+                    for (String key : indexedFile.keys) {
+                        keys.append(keys.length() > 0 ? "," : "").append(key);
+                    }
+
+                    writer.write(indexedFile.name + "\t" + indexedFile.lastModified + "\t" + indexedFile.length
+                            + "\t" + keys + "\n");
+                }
+            }
+
+            Files.move(temporaryFile.toPath(), new File(this.directory, INDEX_FILE).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        } catch (IOException ex) {
+
+            // The index is only an optimisation, the certificates are parsed again on the next run
+            temporaryFile.delete();
+        }
+    }
+
+    /**
+     * Get the keys a certificate is looked up by: the email addresses of its recipient and the BICs found in its file
+     * name and in the OU and UID attributes of its subject
+     * 
+     * @param filename Name of the certificate file
+     * @param keyStore Key store of the certificate
+     * @return Email addresses in lower case and BICs in upper case
+     */
+    private static List<String> getKeys(String filename, RecipientKeyStore keyStore) {
+
+        // Email addresses of the recipient
+        List<String> keys = new ArrayList<>(keyStore.getEmailAddresses());
+
+        // BIC used as the name of the file
+        addBic(keys, filename.substring(0, filename.lastIndexOf('.')));
+
+        // BICs of the subject attributes
+        X500Name subject = X500Name.getInstance(keyStore.getCertificate().getSubjectX500Principal().getEncoded());
+        for (ASN1ObjectIdentifier attribute : new ASN1ObjectIdentifier[] { BCStyle.OU, BCStyle.UID }) {
+            for (RDN rdn : subject.getRDNs(attribute)) {
+                addBic(keys, IETFUtils.valueToString(rdn.getFirst().getValue()));
+            }
+        }
+
+        return keys;
+    }
+
+    /**
+     * Add a value to the keys of a certificate if it is a BIC
+     * 
+     * @param keys Keys of the certificate
+     * @param value Value that may be a BIC
+     */
+    private static void addBic(List<String> keys, String value) {
+
+        // BICs are compared in upper case
+        String bic = value.trim().toUpperCase();
+
+        if (BIC_PATTERN.matcher(bic).matches() && !keys.contains(bic)) {
+            keys.add(bic);
+        }
+    }
+
+    /**
+     * The Index class is an immutable snapshot of the index of the directory
+     */
+    private static class Index {
+
+        private final long directoryModified;
+        private final Map<String, IndexedFile> files;
+        private final Map<String, IndexedFile> keys;
+
+        /**
+         * Index class constructor
+         * 
+         * @param directoryModified Modification time of the directory when it was indexed
+         * @param files Index entries of the certificate files, in the order of their names
+         */
+        Index(long directoryModified, Map<String, IndexedFile> files) {
+
+            // Initialise class attributes
+            this.directoryModified = directoryModified;
+            this.files = files;
+            this.keys = new HashMap<>();
+
+            // The first certificate of a key wins
+            for (IndexedFile indexedFile : files.values()) {
+                for (String key : indexedFile.keys) {
+                    if (!this.keys.containsKey(key)) {
+                        this.keys.put(key, indexedFile);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Find the certificate file of a recipient, a BIC of 8 characters matching the same BIC followed by XXX
+         * 
+         * @param recipient Email address or BIC of the recipient
+         * @return Index entry of the certificate file or null if the recipient has no certificate
+         */
+        IndexedFile find(String recipient) {
+
+            // Email addresses are looked up in lower case
+            String key = recipient.trim();
+            if (key.contains("@")) {
+                return this.keys.get(key.toLowerCase());
+            }
+
+            // BICs are looked up in upper case, with or without the primary office branch code
+            key = key.toUpperCase();
+            IndexedFile indexedFile = this.keys.get(key);
+            if (null == indexedFile && 8 == key.length()) {
+                indexedFile = this.keys.get(key + "XXX");
+            } else if (null == indexedFile && 11 == key.length() && key.endsWith("XXX")) {
+                indexedFile = this.keys.get(key.substring(0, 8));
+            }
+
+            return indexedFile;
+        }
+    }
+
+    /**
+     * The IndexedFile class is the index entry of a certificate file
+     */
+    private static class IndexedFile {
+
+        private final List<String> keys;
+        private final long lastModified;
+        private final long length;
+        private final String name;
+
+        /**
+         * IndexedFile class constructor
+         * 
+         * @param name Name of the certificate file
+         * @param lastModified Modification time of the file when it was indexed
+         * @param length Size of the file when it was indexed
+         * @param keys Email addresses and BICs of the certificate
+         */
+        IndexedFile(String name, long lastModified, long length, List<String> keys) {
+
+            // Initialise class attributes
+            this.keys = keys;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.name = name;
+        }
+
+        /**
+         * Check whether a file is unchanged since it was indexed
+         * 
+         * @param file Certificate file
+         * @return Whether the modification time and the size of the file still match the index entry
+         */
+        boolean matches(File file) {
+            return file.lastModified() == this.lastModified && file.length() == this.length;
+        }
+    }
+
+    /**
+     * The CachedKeyStore class holds a loaded certificate and the index entry it was loaded for
+     */
+    private static class CachedKeyStore {
+
+        private final IndexedFile indexedFile;
+        private final RecipientKeyStore keyStore;
+
+        /**
+         * CachedKeyStore class constructor
+         * 
+         * @param indexedFile Index entry of the certificate file
+         * @param keyStore Key store loaded from the file
+         */
+        CachedKeyStore(IndexedFile indexedFile, RecipientKeyStore keyStore) {
+            this.indexedFile = indexedFile;
+            this.keyStore = keyStore;
+        }
+    }
+
+    /**
+     * The KeyStoreCache class holds the certificates used most recently, by certificate file name, the least recently
+     * used one being evicted when the cache is full
+     */
+    private static class KeyStoreCache extends LinkedHashMap<String, CachedKeyStore> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maximumSize;
+
+        /**
+         * KeyStoreCache class constructor
+         * 
+         * @param maximumSize Maximum number of certificates kept in the cache
+         */
+        KeyStoreCache(int maximumSize) {
+
+            // Initialise parent class in access order
+            super(16, 0.75f, true);
+
+            // Initialise class attributes
+            this.maximumSize = maximumSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedKeyStore> eldest) {
+            return this.size() > this.maximumSize;
+        }
+    }
+}
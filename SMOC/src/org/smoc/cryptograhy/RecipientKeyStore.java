@@ -5,7 +5,22 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.security.PublicKey;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateParsingException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.x500.RDN;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.bouncycastle.asn1.x500.style.IETFUtils;
+import org.bouncycastle.cms.RecipientInfoGenerator;
 import org.bouncycastle.jce.provider.X509CertificateObject;
 import org.bouncycastle.openssl.PEMReader;
 import org.smoc.exceptions.PublicKeyFileNotFoundException;
@@ -19,8 +34,22 @@ import org.smoc.exceptions.PublicKeyFileNotFoundException;
  */
 public class RecipientKeyStore {
 
+    private List<String> emailAddresses;
     private PublicKey publicKey;
     private X509CertificateObject certificateObject;
+    private RecipientInfoGenerator recipientInfoGenerator;
+    private String recipientInfoProvider;
+    private Set<ASN1ObjectIdentifier> smimeCapabilities;
+
+    /**
+     * Get the email addresses of the recipient found in the certificate, in its subject alternative names and in the
+     * email address attribute of its subject
+     * 
+     * @return Email addresses of the recipient, in lower case
+     */
+    public List<String> getEmailAddresses() {
+        return this.emailAddresses;
+    }
 
     /**
      * Get the public key of the email recipient
@@ -40,6 +69,38 @@ public class RecipientKeyStore {
         return this.certificateObject;
     }
 
+    /**
+     * Get the SMIME capabilities the recipient advertises in the sMIMECapabilities extension of its certificate
+     * 
+     * @return Object identifiers of the algorithms the recipient can decrypt, empty if none are advertised
+     */
+    public Set<ASN1ObjectIdentifier> getSmimeCapabilities() {
+        return this.smimeCapabilities;
+    }
+
+    /**
+     * Get the recipient info generator wrapping the content encryption key of an SMIME envelope for the recipient: the
+     * key is encrypted with an RSA certificate and agreed with an ephemeral key for an elliptic curve certificate. The
+     * generator is prepared once and shared by all the envelopes encrypted for the recipient.
+     * 
+     * @param provider Name of the provider wrapping the content encryption key, or null for the provider picked by
+     * the JCA in the order of preference of the installed providers
+     * @return Recipient info generator of the recipient
+     * @throws CertificateEncodingException 
+     */
+    public synchronized RecipientInfoGenerator getRecipientInfoGenerator(String provider) throws
+            CertificateEncodingException {
+
+        // Prepare the generator on first use, or again if another provider is requested
+        if (null == this.recipientInfoGenerator || !Objects.equals(provider, this.recipientInfoProvider)) {
+            this.recipientInfoGenerator = EphemeralKeyAgreeRecipientInfoGenerator.forCertificate(this.certificateObject,
+                    provider);
+            this.recipientInfoProvider = provider;
+        }
+
+        return this.recipientInfoGenerator;
+    }
+
     /**
      * RecipientKeyStore class constructor
      * 
@@ -60,22 +121,80 @@ public class RecipientKeyStore {
         // Check if public key file exists
         if (publicKeyFile.exists()) {
 
-            // Public key file reader
-            FileReader fr = new FileReader(publicKeyFile);
-
             // PEMReader instance to read content of public key file
-            PEMReader pr = new PEMReader(fr);
+            try (PEMReader pr = new PEMReader(new FileReader(publicKeyFile))) {
 
-            // Get X509 certificate
-            this.certificateObject = (X509CertificateObject) pr.readObject();
+                // Get X509 certificate
+                this.certificateObject = (X509CertificateObject) pr.readObject();
+            }
 
             // Public key
             this.publicKey = this.certificateObject.getPublicKey();
 
+            // Email addresses the certificate was issued for
+            this.emailAddresses = Collections.unmodifiableList(readEmailAddresses(this.certificateObject));
+
+            // Encryption algorithms the recipient advertises
+            this.smimeCapabilities = AuthEnvelopedDataGenerator.readCapabilities(this.certificateObject);
+
         } else {
 
             // We throw an exception since the public key file could not be found
             throw new PublicKeyFileNotFoundException(keyFilename);
         }
     }
+
+    /**
+     * Read the email addresses a certificate was issued for
+     * 
+     * @param certificate X509 certificate
+     * @return Email addresses of the certificate, in lower case
+     * @throws IOException 
+     */
+    private static List<String> readEmailAddresses(X509Certificate certificate) throws IOException {
+
+        // Email addresses found in the certificate
+        List<String> addresses = new ArrayList<>();
+
+        // RFC 822 names of the subject alternative names
+        Collection<List<?>> alternativeNames;
+        try {
+            alternativeNames = certificate.getSubjectAlternativeNames();
+        } catch (CertificateParsingException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+
+        if (null != alternativeNames) {
+            for (List<?> alternativeName : alternativeNames) {
+                if (Integer.valueOf(1).equals(alternativeName.get(0))) {
+                    addAddress(addresses, (String) alternativeName.get(1));
+                }
+            }
+        }
+
+        // Email address attribute of the subject
+        X500Name subject = X500Name.getInstance(certificate.getSubjectX500Principal().getEncoded());
+        for (RDN rdn : subject.getRDNs(BCStyle.EmailAddress)) {
+            ASN1Encodable value = rdn.getFirst().getValue();
+            addAddress(addresses, IETFUtils.valueToString(value));
+        }
+
+        return addresses;
+    }
+
+    /**
+     * Add an email address to a list of addresses, unless it is already there
+     * 
+     * @param addresses List of email addresses
+     * @param address Email address to add
+     */
+    private static void addAddress(List<String> addresses, String address) {
+
+        // Addresses are compared in lower case
+        String lowerCaseAddress = address.trim().toLowerCase();
+
+        if (!lowerCaseAddress.isEmpty() && !addresses.contains(lowerCaseAddress)) {
+            addresses.add(lowerCaseAddress);
+        }
+    }
 }
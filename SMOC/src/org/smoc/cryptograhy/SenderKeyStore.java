@@ -5,12 +5,18 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.security.*;
 import java.security.cert.CertificateException;
+import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
+import java.util.Objects;
+import java.util.Set;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.cms.RecipientInfoGenerator;
 import org.smoc.exceptions.NoSuchCertificateException;
 
 /**
  * The SenderKeyStore class reads a given key store file secured with a password and gets an instance of the associated
- * private and public key of the email sender.
+ * private and public key of the email sender. The key pair can be an RSA or an elliptic curve key pair, the latter
+ * being used with an ECDSA signature algorithm.
  * 
  * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
  * @version 1.0
@@ -21,6 +27,9 @@ public class SenderKeyStore {
     private String keyStoreProvider;
     private PrivateKey privateKey;
     private PublicKey publicKey;
+    private RecipientInfoGenerator recipientInfoGenerator;
+    private String recipientInfoProvider;
+    private Set<ASN1ObjectIdentifier> smimeCapabilities;
 
     /**
      * Get the name of the key store provider
@@ -31,6 +40,16 @@ public class SenderKeyStore {
         return this.keyStoreProvider;
     }
 
+    /**
+     * Get the algorithm of the key pair of the mail sender, which the signature algorithm must match
+     * 
+     * @return EC for an elliptic curve key, or the standard name of the key algorithm such as RSA
+     */
+    public String getKeyAlgorithm() {
+        return EphemeralKeyAgreeRecipientInfoGenerator.isKeyAgreement(this.certificate) ? "EC"
+                : this.publicKey.getAlgorithm();
+    }
+
     /**
      * Get the private key of the mail sender
      * 
@@ -49,6 +68,15 @@ public class SenderKeyStore {
         return this.publicKey;
     }
 
+    /**
+     * Get the SMIME capabilities the sender advertises in the sMIMECapabilities extension of its certificate
+     * 
+     * @return Object identifiers of the algorithms the sender can decrypt, empty if none are advertised
+     */
+    public Set<ASN1ObjectIdentifier> getSmimeCapabilities() {
+        return this.smimeCapabilities;
+    }
+
     /**
      * Get the certificate
      * @return 
@@ -57,6 +85,42 @@ public class SenderKeyStore {
         return this.certificate;
     }
 
+    /**
+     * Get the recipient info generator wrapping the content encryption key of an SMIME envelope for the sender, so
+     * that the sender can decrypt the copy kept in its Sent Items folder. The generator is prepared once and shared by
+     * all the envelopes.
+     * 
+     * @return Recipient info generator of the sender
+     * @throws CertificateEncodingException 
+     */
+    public RecipientInfoGenerator getRecipientInfoGenerator() throws CertificateEncodingException {
+        return this.getRecipientInfoGenerator(this.keyStoreProvider);
+    }
+
+    /**
+     * Get the recipient info generator wrapping the content encryption key of an SMIME envelope for the sender with
+     * the given provider: the key is encrypted with an RSA certificate and agreed with an ephemeral key for an
+     * elliptic curve certificate. The generator is prepared once and shared by all the envelopes, unless another
+     * provider is requested.
+     * 
+     * @param provider Name of the provider wrapping the content encryption key, or null for the provider picked by
+     * the JCA in the order of preference of the installed providers
+     * @return Recipient info generator of the sender
+     * @throws CertificateEncodingException 
+     */
+    public synchronized RecipientInfoGenerator getRecipientInfoGenerator(String provider) throws
+            CertificateEncodingException {
+
+        // Prepare the generator on first use, or again if another provider is requested
+        if (null == this.recipientInfoGenerator || !Objects.equals(provider, this.recipientInfoProvider)) {
+            this.recipientInfoGenerator = EphemeralKeyAgreeRecipientInfoGenerator.forCertificate(this.certificate,
+                    provider);
+            this.recipientInfoProvider = provider;
+        }
+
+        return this.recipientInfoGenerator;
+    }
+
     /**
      * SenderKeyStore constructor
      * 
@@ -101,6 +165,9 @@ public class SenderKeyStore {
                 // Get the required public key
                 this.publicKey = this.certificate.getPublicKey();
 
+                // Encryption algorithms the sender advertises
+                this.smimeCapabilities = AuthEnvelopedDataGenerator.readCapabilities(this.certificate);
+
                 // Get the required private key
                 this.privateKey = (PrivateKey) keystore.getKey(keyAlias, passphrase.toCharArray());
 
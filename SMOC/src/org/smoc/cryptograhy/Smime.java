@@ -1,44 +1,82 @@
 package org.smoc.cryptograhy;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.security.cert.CertificateEncodingException;
 import java.util.Enumeration;
+import java.util.Set;
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
 import javax.mail.MessagingException;
 import javax.mail.Session;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
+import javax.mail.util.ByteArrayDataSource;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.cms.CMSAlgorithm;
 import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.RecipientInfoGenerator;
 import org.bouncycastle.cms.jcajce.JceCMSContentEncryptorBuilder;
-import org.bouncycastle.cms.jcajce.JceKeyTransRecipientInfoGenerator;
 import org.bouncycastle.mail.smime.SMIMEEnvelopedGenerator;
 import org.bouncycastle.mail.smime.SMIMEException;
 import org.bouncycastle.util.Strings;
 import org.smoc.exceptions.InvalidCMSAlgorithmException;
+import org.smoc.utils.MessageBuffer;
+import org.smoc.utils.SpillFiles;
 
 /**
  * The Smime class creates the SMIME envelope that will be mailed to the recipient of the missive document and
  * synchronized with the Sent Items folder of the email sender.
+ * <p>
+ * The AES128_GCM, AES192_GCM and AES256_GCM algorithms generate authenticated AuthEnvelopedData envelopes, provided
+ * that every party of the envelope advertises the algorithm in the sMIMECapabilities extension of its certificate.
+ * The envelopes of the other parties are encrypted with AES-CBC of the same key size instead.
+ * <p>
+ * Once spill files are set, the encrypted messages are written to temporary files instead of memory, and the
+ * authenticated envelopes are encrypted as a stream, so that the envelope of a very large missive is never held on
+ * the heap.
  * 
  * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
  * @version 1.0
  */
 public class Smime {
 
+    private String provider;
     private SenderKeyStore senderKeyStore;
     private RecipientKeyStore recipientKeyStore;
+    private SpillFiles spillFiles;
 
     /**
-     * Smime class constructor
+     * Set the spill files the encrypted messages are written to
+     * 
+     * @param spillFiles Spill files of the missive, or null to keep the encrypted messages in memory
+     */
+    public void setSpillFiles(SpillFiles spillFiles) {
+        this.spillFiles = spillFiles;
+    }
+
+    /**
+     * Smime class constructor for envelopes encrypted with the provider of the sender key store
      * 
      * @param recipientKeyStore  Email recipient key store
      * @param senderKeyStore Email sender key store
      */
     public Smime(RecipientKeyStore recipientKeyStore, SenderKeyStore senderKeyStore) {
+        this(recipientKeyStore, senderKeyStore, senderKeyStore.getKeyStoreProvider());
+    }
+
+    /**
+     * Smime class constructor for envelopes whose content is encrypted and whose content encryption key is wrapped
+     * with the given provider
+     * 
+     * @param recipientKeyStore  Email recipient key store
+     * @param senderKeyStore Email sender key store
+     * @param provider Name of the encryption provider, or null for the provider picked by the JCA in the order of
+     * preference of the installed providers
+     */
+    public Smime(RecipientKeyStore recipientKeyStore, SenderKeyStore senderKeyStore, String provider) {
 
         // Initialise class attributes
+        this.provider = provider;
         this.recipientKeyStore = recipientKeyStore;
         this.senderKeyStore = senderKeyStore;
     }
@@ -62,27 +100,124 @@ public class Smime {
             String cmsAlgorithm) throws CertificateEncodingException, InvalidCMSAlgorithmException, SMIMEException,
             CMSException, IOException, MessagingException {
 
-        // Create the MIME encryptor
-        SMIMEEnvelopedGenerator encryptor = new SMIMEEnvelopedGenerator();
+        return this.encrypt(signedMessage, originalMessage, session,
+                selectAlgorithm(cmsAlgorithm, this.recipientKeyStore.getSmimeCapabilities(), null),
+                this.recipientKeyStore.getRecipientInfoGenerator(this.provider));
+    }
 
-        // Add recipient info generator to the encryptor
-        encryptor.addRecipientInfoGenerator(
-                new JceKeyTransRecipientInfoGenerator(this.recipientKeyStore.getCertificate())
-                .setProvider(this.senderKeyStore.getKeyStoreProvider()));
+    /**
+     * Generate the encrypted message that will be stored in the Sent items folder of the email sender
+     * 
+     * @param signedMessage Signed message
+     * @param originalMessage Original message
+     * @param session IMAP session
+     * @param cmsAlgorithm CMS encryption algorithm
+     * @return Encrypted message that will be sent to the missive email recipient
+     * @throws CertificateEncodingException
+     * @throws InvalidCMSAlgorithmException
+     * @throws SMIMEException
+     * @throws CMSException
+     * @throws IOException
+     * @throws MessagingException 
+     */
+    public MimeMessage encryptForSender(MimeMessage signedMessage, MimeMessage originalMessage, Session session,
+            String cmsAlgorithm) throws CertificateEncodingException, InvalidCMSAlgorithmException, SMIMEException,
+            CMSException, IOException, MessagingException {
 
-        // Get the content encryptor based on the given CMS algorithm name
-        JceCMSContentEncryptorBuilder algorithm = this.getCmsContentEncryptor(cmsAlgorithm);
+        return this.encrypt(signedMessage, originalMessage, session,
+                selectAlgorithm(cmsAlgorithm, this.senderKeyStore.getSmimeCapabilities(), null),
+                this.senderKeyStore.getRecipientInfoGenerator(this.provider));
+    }
+
+    /**
+     * Generate a single encrypted message that can be decrypted both by the missive email recipient and by the email
+     * sender, so that the same message can be sent to the recipient and stored in the Sent items folder of the sender.
+     * The content is encrypted once and the content key is wrapped once for each of them.
+     * 
+     * @param signedMessage Signed message
+     * @param originalMessage Original message
+     * @param session SMTP session
+     * @param cmsAlgorithm CMS encryption algorithm
+     * @return Encrypted message for both the missive email recipient and the email sender
+     * @throws CertificateEncodingException
+     * @throws InvalidCMSAlgorithmException
+     * @throws SMIMEException
+     * @throws CMSException
+     * @throws IOException
+     * @throws MessagingException 
+     */
+    public MimeMessage encryptForRecipientAndSender(MimeMessage signedMessage, MimeMessage originalMessage,
+            Session session, String cmsAlgorithm) throws CertificateEncodingException, InvalidCMSAlgorithmException,
+            SMIMEException, CMSException, IOException, MessagingException {
+
+        return this.encrypt(signedMessage, originalMessage, session, selectAlgorithm(cmsAlgorithm,
+                this.recipientKeyStore.getSmimeCapabilities(), this.senderKeyStore.getSmimeCapabilities()),
+                this.recipientKeyStore.getRecipientInfoGenerator(this.provider),
+                this.senderKeyStore.getRecipientInfoGenerator(this.provider));
+    }
+
+    /**
+     * Generate an encrypted message that can be decrypted by any of the parties of the given recipient info generators
+     * 
+     * @param signedMessage Signed message
+     * @param originalMessage Original message
+     * @param session Mail session
+     * @param cmsAlgorithm CMS encryption algorithm
+     * @param recipientInfoGenerators Recipient info generators of the parties allowed to decrypt the message
+     * @return Encrypted message
+     * @throws CertificateEncodingException
+     * @throws InvalidCMSAlgorithmException
+     * @throws SMIMEException
+     * @throws CMSException
+     * @throws IOException
+     * @throws MessagingException 
+     */
+    private MimeMessage encrypt(MimeMessage signedMessage, MimeMessage originalMessage, Session session,
+            String cmsAlgorithm, RecipientInfoGenerator... recipientInfoGenerators) throws
+            CertificateEncodingException, InvalidCMSAlgorithmException, SMIMEException, CMSException, IOException,
+            MessagingException {
 
         // Encrypt the signed message
-        MimeBodyPart encryptedPart = encryptor.generate(signedMessage,
-                algorithm.setProvider(this.senderKeyStore.getKeyStoreProvider()).build());
+        MimeBodyPart encryptedPart;
+        if (AuthEnvelopedDataGenerator.isAuthEnveloped(cmsAlgorithm)) {
+
+            // Authenticated envelope, generated from the serialized signed message
+            encryptedPart = this.generateAuthEnveloped(signedMessage, cmsAlgorithm, recipientInfoGenerators);
+
+        } else {
+
+            // Create the MIME encryptor
+            SMIMEEnvelopedGenerator encryptor = new SMIMEEnvelopedGenerator();
 
-        // Add encrypted part to byte array
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
+            // Add the prepared recipient info generator of each party allowed to decrypt the message
+            for (RecipientInfoGenerator recipientInfoGenerator : recipientInfoGenerators) {
+                encryptor.addRecipientInfoGenerator(recipientInfoGenerator);
+            }
+
+            // Get the content encryptor based on the given CMS algorithm name
+            JceCMSContentEncryptorBuilder algorithm = getCmsContentEncryptor(cmsAlgorithm);
+            if (null != this.provider) {
+                algorithm.setProvider(this.provider);
+            }
+
+            if (hasRawContent(signedMessage)) {
+
+                // Stream the signed bytes as they are instead of letting the generator re-serialize the message
+                encryptedPart = encryptor.generate(createContentBodyPart(signedMessage), algorithm.build());
+
+            } else {
+
+                // Message built in memory, the generator serializes it
+                encryptedPart = encryptor.generate(signedMessage, algorithm.build());
+            }
+        }
+
+        // Write encrypted part once into a buffer sized for the base64 encoded ciphertext, or into a spill file
+        MessageBuffer out = MessageBuffer.create(this.spillFiles, this.estimateEncryptedSize(signedMessage));
         encryptedPart.writeTo(out);
 
-        // Create MIME message for encrypted and signed content
-        MimeMessage encryptedMessage = new MimeMessage(session, new ByteArrayInputStream(out.toByteArray()));
+        // Create MIME message for encrypted and signed content on top of the buffer, without copying it
+        MimeMessage encryptedMessage = new MimeMessage(session, out.toSharedInputStream());
 
         // Get all original headers in the original message
         Enumeration headers = originalMessage.getAllHeaderLines();
@@ -106,65 +241,175 @@ public class Smime {
     }
 
     /**
-     * Generate the encrypted message that will be stored in the Sent items folder of the email sender
+     * Generate the SMIME body part holding an AES-GCM AuthEnvelopedData of the signed message
      * 
      * @param signedMessage Signed message
-     * @param originalMessage Original message
-     * @param session IMAP session
-     * @param cmsAlgorithm CMS encryption algorithm
-     * @return Encrypted message that will be sent to the missive email recipient
-     * @throws CertificateEncodingException
+     * @param cmsAlgorithm AES-GCM algorithm name
+     * @param recipientInfoGenerators Recipient info generators of the parties allowed to decrypt the message
+     * @return SMIME body part of type application/pkcs7-mime; smime-type=authEnveloped-data
      * @throws InvalidCMSAlgorithmException
-     * @throws SMIMEException
      * @throws CMSException
      * @throws IOException
      * @throws MessagingException 
      */
-    public MimeMessage encryptForSender(MimeMessage signedMessage, MimeMessage originalMessage, Session session,
-            String cmsAlgorithm) throws CertificateEncodingException, InvalidCMSAlgorithmException, SMIMEException,
-            CMSException, IOException, MessagingException {
+    private MimeBodyPart generateAuthEnveloped(MimeMessage signedMessage, String cmsAlgorithm,
+            RecipientInfoGenerator... recipientInfoGenerators) throws InvalidCMSAlgorithmException, CMSException,
+            IOException, MessagingException {
+
+        // Generator of the envelope
+        AuthEnvelopedDataGenerator generator = new AuthEnvelopedDataGenerator(cmsAlgorithm, this.provider);
+        for (RecipientInfoGenerator recipientInfoGenerator : recipientInfoGenerators) {
+            generator.addRecipientInfoGenerator(recipientInfoGenerator);
+        }
 
-        // Create the MIME encryptor
-        SMIMEEnvelopedGenerator encryptor = new SMIMEEnvelopedGenerator();
+        // Serialize the content once, the raw signed bytes being written as they are when available
+        MimeBodyPart content = hasRawContent(signedMessage) ? createContentBodyPart(signedMessage)
+                : createMessageBodyPart(signedMessage);
+        MessageBuffer out = MessageBuffer.create(this.spillFiles, this.estimateEncryptedSize(signedMessage));
+        content.writeTo(out);
 
-        // Add recipient info generator to the encryptor
-        encryptor.addRecipientInfoGenerator(
-                new JceKeyTransRecipientInfoGenerator(this.senderKeyStore.getCertificate())
-                .setProvider(this.senderKeyStore.getKeyStoreProvider()));
+        DataSource envelope;
+        if (out.isSpilled()) {
 
-        // Get the content encryptor based on the given CMS algorithm name
-        JceCMSContentEncryptorBuilder algorithm = this.getCmsContentEncryptor(cmsAlgorithm);
+            // Encrypt the serialized content as a stream from its spill file into another spill file
+            MessageBuffer envelopeOut = this.spillFiles.newBuffer();
+            generator.generate(out.toSharedInputStream(), envelopeOut);
+            envelope = envelopeOut.toDataSource(
+                    "application/pkcs7-mime; name=\"smime.p7m\"; smime-type=authEnveloped-data");
 
-        // Encrypt the signed message
-        MimeBodyPart encryptedPart = encryptor.generate(signedMessage,
-                algorithm.setProvider(this.senderKeyStore.getKeyStoreProvider()).build());
+        } else {
 
-        // Add encrypted part to byte array
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        encryptedPart.writeTo(out);
+            // Encrypt the serialized content straight from the buffer of the output stream
+            envelope = new ByteArrayDataSource(generator.generate(out.getBuffer(), (int) out.size()),
+                    "application/pkcs7-mime; name=\"smime.p7m\"; smime-type=authEnveloped-data");
+        }
 
-        // Create MIME message for encrypted and signed content
-        MimeMessage encryptedMessage = new MimeMessage(session, new ByteArrayInputStream(out.toByteArray()));
+        // SMIME body part of the envelope, with the headers of the enveloped data body parts
+        MimeBodyPart encryptedPart = new MimeBodyPart();
+        encryptedPart.setDataHandler(new DataHandler(envelope));
+        encryptedPart.setHeader("Content-Type",
+                "application/pkcs7-mime; name=\"smime.p7m\"; smime-type=authEnveloped-data");
+        encryptedPart.setHeader("Content-Disposition", "attachment; filename=\"smime.p7m\"");
+        encryptedPart.setHeader("Content-Description", "S/MIME Encrypted Message");
+        encryptedPart.setHeader("Content-Transfer-Encoding", "base64");
 
-        // Get all original headers in the original message
-        Enumeration headers = originalMessage.getAllHeaderLines();
+        return encryptedPart;
+    }
 
-        // Set all original MIME headers in the encrypted message
+    /**
+     * Select the algorithm of an envelope: an AES-GCM algorithm is kept only if every party of the envelope advertises
+     * it, and is replaced by AES-CBC of the same key size otherwise
+     * 
+     * @param cmsAlgorithm CMS encryption algorithm, as set by smime.cms.algorithm
+     * @param capabilities SMIME capabilities advertised by the first party
+     * @param otherCapabilities SMIME capabilities advertised by the second party, or null if there is none
+     * @return CMS encryption algorithm of the envelope
+     * @throws InvalidCMSAlgorithmException 
+     */
+    static String selectAlgorithm(String cmsAlgorithm, Set<ASN1ObjectIdentifier> capabilities,
+            Set<ASN1ObjectIdentifier> otherCapabilities) throws InvalidCMSAlgorithmException {
+
+        // Only authenticated envelopes depend on the capabilities of the parties
+        if (!AuthEnvelopedDataGenerator.isAuthEnveloped(cmsAlgorithm)) {
+            return cmsAlgorithm;
+        }
+
+        // Fall back to CBC unless every party can decrypt GCM
+        ASN1ObjectIdentifier algorithm = AuthEnvelopedDataGenerator.getAlgorithm(cmsAlgorithm);
+        if (!capabilities.contains(algorithm) || (null != otherCapabilities
+                && !otherCapabilities.contains(algorithm))) {
+            return AuthEnvelopedDataGenerator.getFallbackAlgorithm(cmsAlgorithm);
+        }
+
+        return cmsAlgorithm;
+    }
+
+    /**
+     * Create the body part that will be encrypted from a signed message that was parsed from its bytes. The body part
+     * carries the headers of the signed message, except its Message-ID and MIME-Version, and streams its raw content
+     * so that the signed bytes are encrypted exactly as they are, without being decoded and encoded again.
+     * 
+     * @param signedMessage Signed message
+     * @return Body part holding the signed message
+     * @throws MessagingException 
+     */
+    static MimeBodyPart createContentBodyPart(MimeMessage signedMessage) throws MessagingException {
+
+        // Body part streaming the raw content of the signed message
+        MimeBodyPart content = new MimeBodyPart();
+        content.setDataHandler(new DataHandler(new RawContentDataSource(signedMessage)));
+
+        // Get all headers of the signed message
+        Enumeration headers = signedMessage.getAllHeaderLines();
+
+        // Set the headers of the signed message in the body part
         while (headers.hasMoreElements()) {
 
             // Current header
             String headerLine = (String) headers.nextElement();
+            String lowerCaseHeaderLine = Strings.toLowerCase(headerLine);
 
-            // Check that we are not overriding any content-* headers from the original message
-            if (!Strings.toLowerCase(headerLine).startsWith("content-")) {
-                encryptedMessage.addHeaderLine(headerLine);
+            // Message identifier and MIME version only belong to the outer message
+            if (!lowerCaseHeaderLine.startsWith("message-id") && !lowerCaseHeaderLine.startsWith("mime-version")) {
+                content.addHeaderLine(headerLine);
             }
         }
 
-        // Save encrypted message
-        encryptedMessage.saveChanges();
+        return content;
+    }
 
-        return encryptedMessage;
+    /**
+     * Create the body part that will be encrypted from a signed message built in memory, the body part serializing
+     * the content of the message with its content type
+     * 
+     * @param signedMessage Signed message
+     * @return Body part holding the signed message
+     * @throws MessagingException 
+     */
+    static MimeBodyPart createMessageBodyPart(MimeMessage signedMessage) throws MessagingException {
+
+        signedMessage.saveChanges();
+        MimeBodyPart content = new MimeBodyPart();
+        content.setDataHandler(signedMessage.getDataHandler());
+        content.setHeader("Content-Type", signedMessage.getContentType());
+
+        return content;
+    }
+
+    /**
+     * Estimate the size of the encrypted message generated for a signed message, base64 encoding included
+     * 
+     * @param signedMessage Signed message
+     * @return Estimated size of the encrypted message in bytes
+     * @throws MessagingException 
+     */
+    private int estimateEncryptedSize(MimeMessage signedMessage) throws MessagingException {
+
+        // Size of the signed content, if known
+        long size = signedMessage.getSize();
+        if (size < 0) {
+            return 8192;
+        }
+
+        // Base64 adds a third and a line break every 76 characters, plus room for headers and recipient infos
+        return (int) Math.min(Integer.MAX_VALUE - 8, size * 137 / 100 + 8192);
+    }
+
+    /**
+     * Check whether the given message was parsed from its bytes and still holds them, in which case its raw content
+     * can be streamed as it is
+     * 
+     * @param message MIME message
+     * @return Whether the raw content of the message is available
+     */
+    static boolean hasRawContent(MimeMessage message) {
+
+        try {
+            message.getRawInputStream().close();
+            return true;
+        } catch (MessagingException | IOException ex) {
+            return false;
+        }
     }
 
     /**
@@ -174,7 +419,7 @@ public class Smime {
      * @return SMIME content encryptor instance
      * @throws InvalidCMSAlgorithmException 
      */
-    private JceCMSContentEncryptorBuilder getCmsContentEncryptor(String cmsAlgorithm) throws 
+    static JceCMSContentEncryptorBuilder getCmsContentEncryptor(String cmsAlgorithm) throws 
             InvalidCMSAlgorithmException {
 
         // Content encryptor
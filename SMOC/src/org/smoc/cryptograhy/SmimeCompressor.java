@@ -0,0 +1,178 @@
+package org.smoc.cryptograhy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cms.CMSCompressedDataGenerator;
+import org.bouncycastle.cms.CMSCompressedDataStreamGenerator;
+import org.bouncycastle.operator.OutputCompressor;
+import org.smoc.utils.MessageBuffer;
+import org.smoc.utils.SpillFiles;
+
+/**
+ * The SmimeCompressor class wraps the signed email of a missive in an SMIME compressed-data body part, as set out by
+ * RFC 3274, before it is encrypted. The body part is the one SMIMECompressedGenerator generates, except that the zlib
+ * compression level can be chosen and that the compressed bytes are not base64 encoded, since the body part is only
+ * ever carried inside an encrypted envelope which is base64 encoded on its own.
+ * <p>
+ * Thread safety: the compressor only holds its settings, and a new deflater is created for each email.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class SmimeCompressor {
+
+    private static final String CONTENT_TYPE = "application/pkcs7-mime; name=\"smime.p7z\"; smime-type=compressed-data";
+
+    private final int level;
+    private final long threshold;
+
+    /**
+     * Get the zlib compression level
+     * 
+     * @return Compression level, from 1 for the fastest to 9 for the smallest
+     */
+    public int getLevel() {
+        return this.level;
+    }
+
+    /**
+     * Get the size from which the signed emails are compressed
+     * 
+     * @return Minimum size of a signed email for it to be compressed, in bytes
+     */
+    public long getThreshold() {
+        return this.threshold;
+    }
+
+    /**
+     * SmimeCompressor class constructor
+     * 
+     * @param level Compression level, from 1 for the fastest to 9 for the smallest
+     * @param threshold Minimum size of a signed email for it to be compressed, in bytes
+     */
+    public SmimeCompressor(int level, long threshold) {
+
+        // Check the compression level
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+
+        // Initialise class attributes
+        this.level = level;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Check whether a signed email is large enough to be compressed
+     * 
+     * @param signedMessage Signed email
+     * @return Whether the size of the signed email reaches the threshold
+     * @throws MessagingException
+     */
+    public boolean accepts(MimeMessage signedMessage) throws MessagingException {
+        return signedMessage.getSize() >= this.threshold;
+    }
+
+    /**
+     * Compress a signed email into an SMIME compressed-data email, to be encrypted in place of the signed email
+     * 
+     * @param signedMessage Signed email
+     * @param session Mail session
+     * @return Compressed email, parsed from its bytes so that its content is encrypted as it is
+     * @throws IOException
+     * @throws MessagingException
+     */
+    public MimeMessage compress(MimeMessage signedMessage, Session session) throws IOException, MessagingException {
+        return this.compress(signedMessage, session, null);
+    }
+
+    /**
+     * Compress a signed email into an SMIME compressed-data email, the compressed email being written to a temporary
+     * file instead of memory when spill files are given
+     * 
+     * @param signedMessage Signed email
+     * @param session Mail session
+     * @param spillFiles Spill files of the missive, or null to keep the compressed email in memory
+     * @return Compressed email, parsed from its bytes so that its content is encrypted as it is
+     * @throws IOException
+     * @throws MessagingException
+     */
+    public MimeMessage compress(MimeMessage signedMessage, Session session, SpillFiles spillFiles) throws IOException,
+            MessagingException {
+
+        // Body part holding the signed email, streaming the signed bytes as they are when available
+        MimeBodyPart content = Smime.hasRawContent(signedMessage) ? Smime.createContentBodyPart(signedMessage)
+                : Smime.createMessageBodyPart(signedMessage);
+
+        // Compressed data, sized for a missive XML document shrinking to about a tenth of its size
+        MessageBuffer out = MessageBuffer.create(spillFiles, Math.max(0, signedMessage.getSize() / 8) + 1024);
+        writeHeaders(out);
+        try (OutputStream compressed = new CMSCompressedDataStreamGenerator().open(out,
+                new LevelZlibCompressor(this.level))) {
+            content.writeTo(compressed);
+        }
+
+        return new MimeMessage(session, out.toSharedInputStream());
+    }
+
+    /**
+     * Write the headers of the compressed-data body part, followed by the blank line ending them
+     * 
+     * @param out Output stream of the body part
+     * @throws IOException
+     */
+    private static void writeHeaders(OutputStream out) throws IOException {
+
+        String headers = "Content-Type: " + CONTENT_TYPE + "\r\n"
+                + "Content-Disposition: attachment; filename=\"smime.p7z\"\r\n"
+                + "Content-Transfer-Encoding: binary\r\n"
+                + "\r\n";
+
+        out.write(headers.getBytes("US-ASCII"));
+    }
+
+    /**
+     * The LevelZlibCompressor class is the zlib compressor of the compressed data, with a given compression level
+     */
+    private static class LevelZlibCompressor implements OutputCompressor {
+
+        private final int level;
+
+        LevelZlibCompressor(int level) {
+            this.level = level;
+        }
+
+        @Override
+        public AlgorithmIdentifier getAlgorithmIdentifier() {
+            return new AlgorithmIdentifier(new ASN1ObjectIdentifier(CMSCompressedDataGenerator.ZLIB));
+        }
+
+        @Override
+        public OutputStream getOutputStream(OutputStream out) {
+
+            final Deflater deflater = new Deflater(this.level);
+
+            return new DeflaterOutputStream(out, deflater, 8192) {
+
+                @Override
+                public void close() throws IOException {
+
+                    // Release the native memory of the deflater, which the stream only does for its own deflater
+                    try {
+                        super.close();
+                    } finally {
+                        deflater.end();
+                    }
+                }
+            };
+        }
+    }
+}
@@ -1,13 +1,16 @@
 package org.smoc.cryptograhy;
 
+import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.cert.CertificateEncodingException;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
+import javax.mail.Header;
 import javax.mail.MessagingException;
 import javax.mail.Session;
+import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
 import org.bouncycastle.asn1.ASN1EncodableVector;
@@ -24,9 +27,20 @@ import org.bouncycastle.mail.smime.SMIMEException;
 import org.bouncycastle.mail.smime.SMIMESignedGenerator;
 import org.bouncycastle.operator.OperatorCreationException;
 import org.bouncycastle.util.Store;
+import org.smoc.utils.FileChannelDataSource;
+import org.smoc.utils.MessageBuffer;
+import org.smoc.utils.SpillFiles;
 
 /**
- * The SmocSigner class signs the MIME message of an email with the X509 private key of the email sender.
+ * The SmocSigner class signs the MIME message of an email with the X509 private key of the email sender, RSA or
+ * elliptic curve, with a signature algorithm matching the key such as SHA256withRSA or SHA256withECDSA.
+ * <p>
+ * Thread safety: the SMIME capabilities, the signed attribute table, the signer info generator and the certificate
+ * store are all built once by the constructor and never modified afterwards. The signer info generator however wraps
+ * a single JCA Signature instance, so {@link #sign(MimeMessage, Session)} must not be called concurrently on the same
+ * SmocSigner instance. Use one instance per thread or borrow instances from a {@link SmocSignerPool}. The signed
+ * message returned by {@link #sign(MimeMessage, Session)} is fully materialised and no longer depends on the signer,
+ * so it can be used by any thread once the signer has been handed back.
  * 
  * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
  * @version 1.0
@@ -36,6 +50,15 @@ public class SmocSigner {
     private SenderKeyStore senderKeyStore;
     private SMIMESignedGenerator signer;
 
+    /**
+     * Get the sender key store this signer was built from
+     * 
+     * @return Mail sender key store instance
+     */
+    public SenderKeyStore getSenderKeyStore() {
+        return this.senderKeyStore;
+    }
+
     /**
      * SmocSigner class constructor
      * 
@@ -47,9 +70,33 @@ public class SmocSigner {
     public SmocSigner(SenderKeyStore senderKeyStore, String signAlgorithm) throws OperatorCreationException,
             CertificateEncodingException {
 
+        // Sign with the provider of the key store
+        this(senderKeyStore, signAlgorithm, senderKeyStore.getKeyStoreProvider());
+    }
+
+    /**
+     * SmocSigner class constructor for a signer computing its signatures and digests with the given provider
+     * 
+     * @param senderKeyStore Mail sender key store instance
+     * @param signAlgorithm Message signature algorithm
+     * @param provider Name of the signing provider, or null for the provider picked by the JCA in the order of
+     * preference of the installed providers
+     * @throws OperatorCreationException if the signature algorithm does not match the key of the sender or is not
+     * supported by the provider
+     * @throws CertificateEncodingException
+     */
+    public SmocSigner(SenderKeyStore senderKeyStore, String signAlgorithm, String provider) throws
+            OperatorCreationException, CertificateEncodingException {
+
         // Initialise class attributes
         this.senderKeyStore = senderKeyStore;
 
+        // ECDSA signatures need an elliptic curve key and the other signatures cannot use one
+        if (signAlgorithm.toUpperCase().endsWith("ECDSA") != "EC".equals(senderKeyStore.getKeyAlgorithm())) {
+            throw new OperatorCreationException("Signature algorithm " + signAlgorithm + " cannot be used with the "
+                    + senderKeyStore.getKeyAlgorithm() + " key of the sender");
+        }
+
         // SMIME signer capabilities
         SMIMECapabilityVector capabilities = new SMIMECapabilityVector();
 
@@ -84,7 +131,9 @@ public class SmocSigner {
         JcaSimpleSignerInfoGeneratorBuilder signerInfoGenerator = new JcaSimpleSignerInfoGeneratorBuilder();
 
         // Set the attributes of the signer info generator
-        signerInfoGenerator.setProvider(this.senderKeyStore.getKeyStoreProvider());
+        if (null != provider) {
+            signerInfoGenerator.setProvider(provider);
+        }
         signerInfoGenerator.setSignedAttributeGenerator(new AttributeTable(attributes));
 
         // Set the signer info generator
@@ -108,12 +157,33 @@ public class SmocSigner {
      * @throws NoSuchProviderException
      * @throws SMIMEException
      * @throws MessagingException 
+     * @throws IOException
      */
     public MimeMessage sign(MimeMessage body, Session session) throws NoSuchAlgorithmException, NoSuchProviderException,
-            SMIMEException, MessagingException {
+            SMIMEException, MessagingException, IOException {
+        return this.sign(body, session, null);
+    }
+
+    /**
+     * Sign the MIME message content of an email for the given SMTP session, the signed message being written to a
+     * temporary file instead of memory when spill files are given
+     * 
+     * @param body MIME message content of an email that needs to be signed
+     * @param session SMTP session
+     * @param spillFiles Spill files of the missive, or null to keep the signed message in memory
+     * @return Signed the MIME message content of an email
+     * @throws NoSuchAlgorithmException
+     * @throws NoSuchProviderException
+     * @throws SMIMEException
+     * @throws MessagingException 
+     * @throws IOException
+     */
+    public MimeMessage sign(MimeMessage body, Session session, SpillFiles spillFiles) throws NoSuchAlgorithmException,
+            NoSuchProviderException, SMIMEException, MessagingException, IOException {
 
-        // Sign the given MIME message
-        MimeMultipart mm = this.signer.generate(body, this.senderKeyStore.getKeyStoreProvider());
+        // Sign the content of the given MIME message, streamed from the data handler of the message, with the provider
+        // set on the signer info generator
+        MimeMultipart mm = this.signer.generate(this.createContentBodyPart(body));
         MimeMessage signedMessage = new MimeMessage(session);
 
         // Get all original MIME headers
@@ -130,6 +200,66 @@ public class SmocSigner {
         // Save changes made to the signed message body
         signedMessage.saveChanges();
 
-        return signedMessage;
+        // The signature is only computed when the multipart is written, so we write it once here while the caller
+        // still owns this signer and keep the signed bytes
+        MessageBuffer out = MessageBuffer.create(spillFiles, this.estimateSignedSize(body));
+        signedMessage.writeTo(out);
+
+        return new MimeMessage(session, out.toSharedInputStream());
+    }
+
+    /**
+     * Create the body part that will be signed from a MIME message. The body part shares the data handler of the
+     * message and carries its headers, except its Message-ID and MIME-Version, so that the content is never copied.
+     * 
+     * @param body MIME message content of an email that needs to be signed
+     * @return Body part with the content and headers of the MIME message
+     * @throws MessagingException 
+     */
+    private MimeBodyPart createContentBodyPart(MimeMessage body) throws MessagingException {
+
+        // Body part sharing the content of the MIME message
+        MimeBodyPart content = new MimeBodyPart();
+        content.setDataHandler(body.getDataHandler());
+
+        // Get all headers of the MIME message
+        Enumeration headers = body.getAllHeaders();
+
+        // Set the headers of the MIME message in the body part
+        while (headers.hasMoreElements()) {
+
+            // Current header
+            Header header = (Header) headers.nextElement();
+
+            // Message identifier and MIME version only belong to the outer message
+            if (!header.getName().equalsIgnoreCase("Message-ID")
+                    && !header.getName().equalsIgnoreCase("MIME-Version")) {
+                content.addHeader(header.getName(), header.getValue());
+            }
+        }
+
+        return content;
+    }
+
+    /**
+     * Estimate the size of the signed message so that its buffer does not need to grow while it is written. Content
+     * streamed from a file is not held by the message, so its size is taken from the file.
+     * 
+     * @param body MIME message content of an email that needs to be signed
+     * @return Estimated size of the signed message in bytes
+     * @throws MessagingException 
+     */
+    private int estimateSignedSize(MimeMessage body) throws MessagingException {
+
+        // Size of the content held by the message
+        long size = body.getSize();
+
+        // Content streamed from a file
+        if (body.getDataHandler().getDataSource() instanceof FileChannelDataSource) {
+            size = ((FileChannelDataSource) body.getDataHandler().getDataSource()).getSize();
+        }
+
+        // Leave room for the transfer encoding of the content, the headers and the signature
+        return (int) Math.min(Integer.MAX_VALUE - 8, Math.max(0, size) * 105 / 100 + 8192);
     }
 }
@@ -0,0 +1,216 @@
+package org.smoc.cryptograhy;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.cert.CertificateEncodingException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import org.bouncycastle.mail.smime.SMIMEException;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.smoc.utils.SpillFiles;
+
+/**
+ * The SmocSignerPool class keeps a bounded set of SmocSigner instances built from the same sender key store so that
+ * the cost of setting up a signer is paid once per pooled instance instead of once per missive. Signers are created
+ * lazily, up to the size of the pool, and a thread that finds every signer in use waits for one to be handed back.
+ * All the methods of this class are safe to call concurrently.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class SmocSignerPool {
+
+    private AtomicInteger createdSigners;
+    private BlockingQueue<SmocSigner> idleSigners;
+    private SenderKeyStore senderKeyStore;
+    private String signAlgorithm;
+    private String signProvider;
+    private int size;
+
+    /**
+     * Get the sender key store the pooled signers are built from
+     * 
+     * @return Mail sender key store instance
+     */
+    public SenderKeyStore getSenderKeyStore() {
+        return this.senderKeyStore;
+    }
+
+    /**
+     * Get the maximum number of signers held by the pool
+     * 
+     * @return Maximum number of signers
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * SmocSignerPool class constructor for a pool sized to the number of available processors
+     * 
+     * @param senderKeyStore Mail sender key store instance
+     * @param signAlgorithm Message signature algorithm
+     * @throws OperatorCreationException
+     * @throws CertificateEncodingException
+     */
+    public SmocSignerPool(SenderKeyStore senderKeyStore, String signAlgorithm) throws OperatorCreationException,
+            CertificateEncodingException {
+
+        // Initialise pool with one signer per available processor
+        this(senderKeyStore, signAlgorithm, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * SmocSignerPool class constructor
+     * 
+     * @param senderKeyStore Mail sender key store instance
+     * @param signAlgorithm Message signature algorithm
+     * @param size Maximum number of signers held by the pool
+     * @throws OperatorCreationException
+     * @throws CertificateEncodingException
+     */
+    public SmocSignerPool(SenderKeyStore senderKeyStore, String signAlgorithm, int size) throws
+            OperatorCreationException, CertificateEncodingException {
+
+        // Sign with the provider of the key store
+        this(senderKeyStore, signAlgorithm, size, senderKeyStore.getKeyStoreProvider());
+    }
+
+    /**
+     * SmocSignerPool class constructor for signers computing their signatures and digests with the given provider
+     * 
+     * @param senderKeyStore Mail sender key store instance
+     * @param signAlgorithm Message signature algorithm
+     * @param size Maximum number of signers held by the pool
+     * @param signProvider Name of the signing provider, or null for the provider picked by the JCA in the order of
+     * preference of the installed providers
+     * @throws OperatorCreationException
+     * @throws CertificateEncodingException
+     */
+    public SmocSignerPool(SenderKeyStore senderKeyStore, String signAlgorithm, int size, String signProvider) throws
+            OperatorCreationException, CertificateEncodingException {
+
+        // Initialise class attributes
+        this.createdSigners = new AtomicInteger(0);
+        this.senderKeyStore = senderKeyStore;
+        this.signAlgorithm = signAlgorithm;
+        this.signProvider = signProvider;
+        this.size = Math.max(1, size);
+        this.idleSigners = new ArrayBlockingQueue<>(this.size);
+
+        // Build a first signer straight away so that an invalid configuration is reported early
+        this.createdSigners.incrementAndGet();
+        this.idleSigners.add(new SmocSigner(this.senderKeyStore, this.signAlgorithm, this.signProvider));
+    }
+
+    /**
+     * Borrow a signer from the pool, creating one if the pool is not full yet or waiting for one to be released
+     * otherwise. The signer must be handed back with {@link #release(SmocSigner)}.
+     * 
+     * @return Signer for the exclusive use of the calling thread
+     * @throws OperatorCreationException
+     * @throws CertificateEncodingException
+     */
+    public SmocSigner borrow() throws OperatorCreationException, CertificateEncodingException {
+
+        // Use an idle signer if there is one
+        SmocSigner signer = this.idleSigners.poll();
+        if (signer != null) {
+            return signer;
+        }
+
+        // Create a new signer if the pool has not reached its size yet
+        if (this.createdSigners.incrementAndGet() <= this.size) {
+            try {
+                return new SmocSigner(this.senderKeyStore, this.signAlgorithm, this.signProvider);
+            } catch (OperatorCreationException | CertificateEncodingException | RuntimeException ex) {
+
+                // Give the slot back since the signer could not be created
+                this.createdSigners.decrementAndGet();
+                throw ex;
+            }
+        }
+        this.createdSigners.decrementAndGet();
+
+        // Wait for another thread to release its signer
+        boolean interrupted = false;
+        while (signer == null) {
+            try {
+                signer = this.idleSigners.take();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+
+        // Restore the interrupt status of the thread
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        return signer;
+    }
+
+    /**
+     * Hand a borrowed signer back to the pool
+     * 
+     * @param signer Signer obtained from {@link #borrow()}
+     */
+    public void release(SmocSigner signer) {
+        this.idleSigners.offer(signer);
+    }
+
+    /**
+     * Sign the MIME message content of an email with a signer borrowed from the pool for the duration of the call
+     * 
+     * @param body MIME message content of an email that needs to be signed
+     * @param session SMTP session
+     * @return Signed the MIME message content of an email
+     * @throws OperatorCreationException
+     * @throws CertificateEncodingException
+     * @throws NoSuchAlgorithmException
+     * @throws NoSuchProviderException
+     * @throws SMIMEException
+     * @throws MessagingException
+     * @throws IOException
+     */
+    public MimeMessage sign(MimeMessage body, Session session) throws OperatorCreationException,
+            CertificateEncodingException, NoSuchAlgorithmException, NoSuchProviderException, SMIMEException,
+            MessagingException, IOException {
+        return this.sign(body, session, null);
+    }
+
+    /**
+     * Sign the MIME message content of an email with a signer borrowed from the pool, the signed message being
+     * written to a temporary file instead of memory when spill files are given
+     * 
+     * @param body MIME message content of an email that needs to be signed
+     * @param session SMTP session
+     * @param spillFiles Spill files of the missive, or null to keep the signed message in memory
+     * @return Signed the MIME message content of an email
+     * @throws OperatorCreationException
+     * @throws CertificateEncodingException
+     * @throws NoSuchAlgorithmException
+     * @throws NoSuchProviderException
+     * @throws SMIMEException
+     * @throws MessagingException
+     * @throws IOException
+     */
+    public MimeMessage sign(MimeMessage body, Session session, SpillFiles spillFiles) throws
+            OperatorCreationException, CertificateEncodingException, NoSuchAlgorithmException, NoSuchProviderException,
+            SMIMEException, MessagingException, IOException {
+
+        // Borrow a signer for the exclusive use of this thread
+        SmocSigner signer = this.borrow();
+
+        try {
+            return signer.sign(body, session, spillFiles);
+        } finally {
+            this.release(signer);
+        }
+    }
+}
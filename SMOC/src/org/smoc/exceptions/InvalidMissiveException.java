@@ -0,0 +1,35 @@
+package org.smoc.exceptions;
+
+/**
+ * The InvalidMissiveException class is the exception raised when the header of a missive XML document could not be
+ * read.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class InvalidMissiveException extends Exception {
+
+    /**
+     * InvalidMissiveException constructor
+     * 
+     * @param filename Path and name of the missive XML file
+     * @param reason Reason why the missive header could not be read
+     */
+    public InvalidMissiveException(String filename, String reason) {
+
+        // Initialise the parent class
+        super("The missive XML file " + filename + " is not valid: " + reason);
+    }
+
+    /**
+     * InvalidMissiveException constructor
+     * 
+     * @param filename Path and name of the missive XML file
+     * @param cause Parsing error raised while reading the missive header
+     */
+    public InvalidMissiveException(String filename, Throwable cause) {
+
+        // Initialise the parent class
+        super("The missive XML file " + filename + " is not valid: " + cause.getMessage(), cause);
+    }
+}
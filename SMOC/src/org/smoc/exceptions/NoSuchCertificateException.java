@@ -21,4 +21,16 @@ public class NoSuchCertificateException extends Exception {
         super("The certificate with the alias " + keyAlias + " could not be found in the key store at "
                 + keyStoreFilename + ".");
     }
+
+    /**
+     * NoSuchCertificateException class constructor
+     * 
+     * @param recipient Email address or BIC of the missive recipient
+     */
+    public NoSuchCertificateException(String recipient) {
+
+        // Initialise parent class
+        super("The certificate of the recipient " + recipient + " could not be found in the recipient certificate "
+                + "directory.");
+    }
 }
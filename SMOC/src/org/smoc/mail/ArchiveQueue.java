@@ -0,0 +1,419 @@
+package org.smoc.mail;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import javax.mail.util.SharedFileInputStream;
+import org.smoc.metrics.FlightRecorderEvent;
+import org.smoc.metrics.SmocMetrics;
+
+/**
+ * The ArchiveQueue class takes the synchronization of sent emails with the Sent Items folder off the send path. Each
+ * email is written to a file of the queue directory, flushed to disk, and appended to the Sent Items folder later on
+ * by a background worker, in batches. When an append fails, the failure is counted in the metrics of the instance and
+ * the worker tries the emails of the batch that were not appended again after a delay that doubles with each attempt.
+ * Once the maximum number of attempts has been reached, those emails are appended one by one, so that an email
+ * refused by the server does not hold back the others, and the emails that still fail are moved to the failed
+ * sub-directory.
+ * <p>
+ * The emails still in the queue directory when the queue is created, left there by a previous run, are appended
+ * first. All the public methods of this class are safe to call concurrently.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class ArchiveQueue {
+
+    private static final String MESSAGE_SUFFIX = ".eml";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private int batchSize;
+    private final CountDownLatch closing;
+    private volatile boolean closed;
+    private final File directory;
+    private final File failedDirectory;
+    private int maxAttempts;
+    private long maxRetryDelay;
+    private final SmocMetrics metrics;
+    private final BlockingQueue<File> pendingFiles;
+    private long retryDelay;
+    private final AtomicLong sequence;
+    private final Session session;
+    private final IMAPSynchronizer synchronizer;
+    private final Thread worker;
+
+    /**
+     * Set the maximum number of emails appended to the Sent Items folder together
+     * 
+     * @param batchSize Maximum number of emails per batch
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Set the number of times a batch is appended before its emails are moved to the failed sub-directory
+     * 
+     * @param maxAttempts Maximum number of attempts per batch
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    /**
+     * Set the delay before a failed batch is appended again. The delay doubles with each attempt, up to the given
+     * maximum.
+     * 
+     * @param retryDelay Delay before the first retry in milliseconds
+     * @param maxRetryDelay Maximum delay between two retries in milliseconds
+     */
+    public void setRetryDelay(long retryDelay, long maxRetryDelay) {
+        this.retryDelay = Math.max(0, retryDelay);
+        this.maxRetryDelay = Math.max(this.retryDelay, maxRetryDelay);
+    }
+
+    /**
+     * Get the number of emails waiting to be appended to the Sent Items folder
+     * 
+     * @return Number of emails in the queue
+     */
+    public int size() {
+        return this.pendingFiles.size();
+    }
+
+    /**
+     * ArchiveQueue class constructor
+     * 
+     * @param directory Directory holding the emails waiting to be appended
+     * @param synchronizer Synchronizer appending the emails to the Sent Items folder
+     * @param metrics Metrics of the SMOC instance, counting the failed appends
+     * @throws IOException 
+     */
+    public ArchiveQueue(File directory, IMAPSynchronizer synchronizer, SmocMetrics metrics) throws IOException {
+
+        // Initialise class attributes
+        this.batchSize = 50;
+        this.closing = new CountDownLatch(1);
+        this.closed = false;
+        this.directory = directory;
+        this.failedDirectory = new File(directory, "failed");
+        this.maxAttempts = 10;
+        this.maxRetryDelay = 60000;
+        this.metrics = metrics;
+        this.pendingFiles = new LinkedBlockingQueue<>();
+        this.retryDelay = 1000;
+        this.sequence = new AtomicLong(0);
+        this.session = Session.getInstance(new Properties());
+        this.synchronizer = synchronizer;
+
+        // Create the queue directories
+        if (!this.failedDirectory.isDirectory() && !this.failedDirectory.mkdirs()) {
+            throw new IOException("The archive queue directory " + this.failedDirectory.getPath()
+                    + " could not be created.");
+        }
+
+        // Recover the emails left in the queue directory, in the order in which they were queued
+        this.recover();
+
+        // Background worker appending the emails
+        this.worker = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                ArchiveQueue.this.work();
+            }
+
+        }, "smoc-archive-queue");
+
+        // The worker must not keep the JVM alive if the queue is never closed
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Write an email to the queue directory and queue it to be appended to the Sent Items folder. The email is on disk
+     * when this method returns.
+     * 
+     * @param message Email sent via SMTP
+     * @throws IOException
+     * @throws MessagingException 
+     */
+    public void enqueue(MimeMessage message) throws IOException, MessagingException {
+
+        // Check that the queue still accepts emails
+        if (this.closed) {
+            throw new IllegalStateException("The archive queue has been closed.");
+        }
+
+        // Queue file name, ordered by time and then by sequence
+        String name = String.format("%013d-%09d", System.currentTimeMillis(), this.sequence.incrementAndGet());
+        File temporaryFile = new File(this.directory, name + TEMPORARY_SUFFIX);
+        File messageFile = new File(this.directory, name + MESSAGE_SUFFIX);
+
+        // Write the email to a temporary file and flush it to disk
+        FileOutputStream file = new FileOutputStream(temporaryFile);
+        try (OutputStream out = new BufferedOutputStream(file, 65536)) {
+            message.writeTo(out);
+            out.flush();
+            file.getFD().sync();
+        }
+
+        // Publish the complete email under its final name, and make the rename durable before the caller removes
+        // the missive from the spool, a lost rename leaving a temporary file that recover would delete
+        Files.move(temporaryFile.toPath(), messageFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        this.syncDirectory();
+
+        this.pendingFiles.add(messageFile);
+    }
+
+    /**
+     * Stop accepting emails and stop the worker once it has tried to append the emails already queued. The emails
+     * that could not be appended stay in the queue directory and are appended when the queue is created again.
+     * 
+     * @throws InterruptedException 
+     */
+    public void close() throws InterruptedException {
+
+        // Stop accepting emails and cut the retry delays short
+        this.closed = true;
+        this.closing.countDown();
+
+        // Wait for the worker to stop
+        this.worker.join();
+    }
+
+    /**
+     * Queue the emails left in the queue directory by a previous run and remove the files that were never completed
+     */
+    private void recover() {
+
+        // Emails and incomplete files left in the queue directory
+        File[] files = this.directory.listFiles(new FilenameFilter() {
+
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(MESSAGE_SUFFIX) || name.endsWith(TEMPORARY_SUFFIX);
+            }
+        });
+
+        // Check if the queue directory could be listed
+        if (null == files) {
+            return;
+        }
+
+        // File names sort in the order in which the emails were queued
+        Arrays.sort(files);
+
+        for (File file : files) {
+
+            // Emails that were completely written are queued again, the others were never acknowledged
+            if (file.getName().endsWith(MESSAGE_SUFFIX)) {
+                this.pendingFiles.add(file);
+            } else {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Flush the entries of the queue directory to disk, so that the files renamed in it keep their final name after a
+     * crash
+     * 
+     * @throws IOException
+     */
+    private void syncDirectory() throws IOException {
+
+        try (FileChannel channel = FileChannel.open(this.directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException ex) {
+
+            // Directories cannot be opened on Windows, where the file system journals the rename itself
+        }
+    }
+
+    /**
+     * Worker loop, appending the queued emails batch by batch until the queue is closed and empty
+     */
+    private void work() {
+
+        while (true) {
+
+            // Next email waiting to be appended
+            File first;
+            try {
+                first = this.pendingFiles.poll(200, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                return;
+            }
+
+            // Check if the queue has been closed and emptied
+            if (null == first) {
+                if (this.closed) {
+                    return;
+                }
+                continue;
+            }
+
+            // Emails appended together
+            List<File> batch = new ArrayList<>(this.batchSize);
+            batch.add(first);
+            this.pendingFiles.drainTo(batch, this.batchSize - 1);
+
+            this.archive(batch);
+        }
+    }
+
+    /**
+     * Append a batch of emails to the Sent Items folder, trying again after a growing delay when the append fails
+     * 
+     * @param batch Files of the emails of the batch
+     */
+    private void archive(List<File> batch) {
+
+        // Delay before the next attempt
+        long delay = this.retryDelay;
+
+        for (int attempt = 1; ; attempt++) {
+
+            try {
+
+                // Append the emails of the batch and remove them from the queue
+                this.append(batch);
+                return;
+
+            } catch (Exception ex) {
+
+                // Count the failure, so that an IMAP outage shows before the emails reach the failed sub-directory
+                this.metrics.recordError(ex);
+
+                // Give up on the batch once the maximum number of attempts has been reached
+                if (attempt >= this.maxAttempts) {
+                    this.archiveEach(batch);
+                    return;
+                }
+
+                // Leave the batch in the queue directory if the queue is closed while waiting for the next attempt
+                try {
+                    if (this.closed || this.closing.await(delay, TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+
+                delay = Math.min(this.maxRetryDelay, 2 * delay);
+            }
+        }
+    }
+
+    /**
+     * Append the emails of a batch that could not be appended together one by one, moving those that fail again to
+     * the failed sub-directory
+     * 
+     * @param batch Files of the emails of the batch
+     */
+    private void archiveEach(List<File> batch) {
+
+        // An email appended on its own has already failed every attempt
+        if (batch.size() == 1) {
+            this.moveToFailed(batch);
+            return;
+        }
+
+        for (File file : batch) {
+
+            List<File> single = new ArrayList<>(1);
+            single.add(file);
+
+            try {
+                this.append(single);
+            } catch (Exception ex) {
+                this.metrics.recordError(ex);
+                this.moveToFailed(single);
+            }
+        }
+    }
+
+    /**
+     * Append the emails of a batch to the Sent Items folder one after the other. The file of each email is deleted
+     * and removed from the batch as soon as the server has stored the email, so that a batch that fails part way is
+     * tried again from the first email that was not appended.
+     * 
+     * @param batch Files of the emails of the batch, the files appended being removed from the list
+     * @throws Exception 
+     */
+    private void append(List<File> batch) throws Exception {
+
+        for (Iterator<File> files = batch.iterator(); files.hasNext();) {
+
+            File file = files.next();
+
+            // Email read from its file when it is appended
+            SharedFileInputStream stream = new SharedFileInputStream(file);
+
+            try {
+
+                MimeMessage message = new MimeMessage(this.session, stream);
+
+                // The missive id is not kept in the queue, the event carries the subject of the email instead
+                Object event = FlightRecorderEvent.APPEND.begin();
+                this.synchronizer.synchronize(Collections.singletonList(message));
+                FlightRecorderEvent.commit(event, message.getSubject(), file.length(), null);
+
+            } finally {
+
+                // Release the file
+                try {
+                    stream.close();
+                } catch (IOException ex) {
+
+                    // The file is about to be deleted or appended again, there is nothing else to release
+                }
+            }
+
+            // The email is in the Sent Items folder
+            file.delete();
+            files.remove();
+        }
+    }
+
+    /**
+     * Move the emails of a batch that could not be appended to the failed sub-directory
+     * 
+     * @param batch Files of the emails of the batch
+     */
+    private void moveToFailed(List<File> batch) {
+
+        for (File file : batch) {
+            try {
+                Files.move(file.toPath(), new File(this.failedDirectory, file.getName()).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException ex) {
+
+                // The email stays in the queue directory and is appended again on the next run
+            }
+        }
+    }
+}
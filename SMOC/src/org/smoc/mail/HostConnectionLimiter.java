@@ -0,0 +1,89 @@
+package org.smoc.mail;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * The HostConnectionLimiter class limits the number of connections opened at the same time to each mail server. A
+ * thread acquires a permit for the host before connecting to it and releases the permit once it is done with the
+ * connection, waiting for a permit when the limit of the host has been reached. The limiter can be shared freely
+ * between threads.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class HostConnectionLimiter {
+
+    private final int maxConnectionsPerHost;
+    private final ConcurrentMap<String, Semaphore> permits;
+
+    /**
+     * Get the maximum number of connections opened at the same time to a host
+     * 
+     * @return Maximum number of connections per host
+     */
+    public int getMaxConnectionsPerHost() {
+        return this.maxConnectionsPerHost;
+    }
+
+    /**
+     * HostConnectionLimiter class constructor
+     * 
+     * @param maxConnectionsPerHost Maximum number of connections opened at the same time to a host
+     */
+    public HostConnectionLimiter(int maxConnectionsPerHost) {
+
+        // Initialise class attributes
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.permits = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Acquire a connection permit for a host, waiting until one is available
+     * 
+     * @param host Name of the mail server
+     * @throws InterruptedException 
+     */
+    public void acquire(String host) throws InterruptedException {
+        this.getPermits(host).acquire();
+    }
+
+    /**
+     * Release a connection permit acquired for a host
+     * 
+     * @param host Name of the mail server
+     */
+    public void release(String host) {
+        this.getPermits(host).release();
+    }
+
+    /**
+     * Get the connection permits of a host, creating them on first use
+     * 
+     * @param host Name of the mail server
+     * @return Connection permits of the host
+     */
+    private Semaphore getPermits(String host) {
+
+        // Host names are not case sensitive
+        String key = host.toLowerCase();
+
+        // Permits of the host
+        Semaphore hostPermits = this.permits.get(key);
+
+        // Check if the permits of the host need to be created
+        if (null == hostPermits) {
+
+            // Keep the permits created by another thread if it got there first
+            Semaphore created = new Semaphore(this.maxConnectionsPerHost, true);
+            hostPermits = this.permits.putIfAbsent(key, created);
+
+            if (null == hostPermits) {
+                hostPermits = created;
+            }
+        }
+
+        return hostPermits;
+    }
+}
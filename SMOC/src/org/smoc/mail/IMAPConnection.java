@@ -0,0 +1,131 @@
+package org.smoc.mail;
+
+import javax.mail.Folder;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.NoSuchProviderException;
+import javax.mail.Session;
+import javax.mail.Store;
+import org.smoc.exceptions.SentItemsFolderNotFoundException;
+
+/**
+ * The IMAPConnection class keeps an IMAP store connected to the server together with the Sent Items folder so that
+ * sent messages can be appended to the folder without reconnecting and looking the folder up each time.
+ * <p>
+ * An IMAPConnection instance must not be shared between threads.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class IMAPConnection {
+
+    private String folder;
+    private String host;
+    private String password;
+    private int port;
+    private Folder sentItemsFolder;
+    private Store store;
+    private String username;
+
+    /**
+     * IMAPConnection class constructor
+     * 
+     * @param session Session for accessing IMAP store
+     * @param protocol Protocol required to connect to the IMAP server (imap or imaps)
+     * @param host Address of the IMAP server
+     * @param port Port of the IMAP server, or -1 for the default port of the protocol
+     * @param username User name required to log onto the IMAP server
+     * @param password Password required to log onto the IMAP server
+     * @param folder Name of the "Sent items" folder
+     * @throws NoSuchProviderException
+     */
+    public IMAPConnection(Session session, String protocol, String host, int port, String username, String password,
+            String folder) throws NoSuchProviderException {
+
+        // Initialise class attributes
+        this.folder = folder;
+        this.host = host;
+        this.password = password;
+        this.port = port;
+        this.sentItemsFolder = null;
+        this.store = session.getStore(protocol);
+        this.username = username;
+    }
+
+    /**
+     * Append the given message to the Sent Items folder, connecting to the server first if required. The message has
+     * been stored by the server once this method returns.
+     * 
+     * @param message Message sent via SMTP
+     * @throws MessagingException
+     * @throws SentItemsFolderNotFoundException
+     */
+    public void append(Message message) throws MessagingException, SentItemsFolderNotFoundException {
+
+        // Connect to the IMAP server on first use
+        if (null == this.sentItemsFolder) {
+            this.connect();
+        }
+
+        // Append the message to the Sent Items folder
+        this.sentItemsFolder.appendMessages(new Message[] { message });
+    }
+
+    /**
+     * Check whether the connection to the IMAP server is still alive. For IMAP stores this sends a NOOP command, which
+     * also stops the server from closing an idle connection.
+     * 
+     * @return Whether the connection to the IMAP server is alive
+     */
+    public boolean keepAlive() {
+        return null != this.sentItemsFolder && this.store.isConnected();
+    }
+
+    /**
+     * Close the connection to the IMAP server
+     */
+    public void close() {
+
+        // Forget the folder so that the next append reconnects
+        this.sentItemsFolder = null;
+
+        try {
+            this.store.close();
+        } catch (MessagingException ex) {
+
+            // The connection is no longer usable, there is nothing left to release
+        }
+    }
+
+    /**
+     * Connect to the IMAP server and look up the Sent Items folder
+     * 
+     * @throws MessagingException
+     * @throws SentItemsFolderNotFoundException
+     */
+    private void connect() throws MessagingException, SentItemsFolderNotFoundException {
+
+        // Make sure a half-closed store does not refuse to connect again
+        if (this.store.isConnected()) {
+            this.store.close();
+        }
+
+        // Connect to the IMAP server
+        this.store.connect(this.host, this.port, this.username, this.password);
+
+        // Get the Sent Items folder
+        Folder folder = this.store.getFolder(this.folder);
+
+        // Check if the configured Sent Items folder exists
+        if (!folder.exists()) {
+
+            // Release the connection since it cannot be used
+            this.store.close();
+
+            // We throw an exception to indicate that the folder does not exist
+            throw new SentItemsFolderNotFoundException(this.folder, this.host, this.username);
+        }
+
+        this.sentItemsFolder = folder;
+    }
+}
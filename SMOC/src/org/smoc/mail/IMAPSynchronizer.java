@@ -1,6 +1,16 @@
 package org.smoc.mail;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.mail.*;
 import javax.mail.internet.MimeMessage;
 import org.smoc.exceptions.SentItemsFolderNotFoundException;
@@ -8,19 +18,111 @@ import org.smoc.exceptions.SentItemsFolderNotFoundException;
 /**
  * The IMAPSynchronizer class synchronizes the Sent Items content of the pre-defined IMAP account with the missive
  * document sent to the recipient via SMTP.
+ * <p>
+ * Connections to the IMAP server are kept open in a pool and reused from one synchronization to the next. Idle
+ * connections are kept alive with a periodic NOOP. When a batch window is set, messages synchronized concurrently
+ * within that window are appended to the Sent Items folder together over one connection, one APPEND command after the
+ * other, so that a batch interrupted by a dropped connection resumes after the last message stored by the server.
+ * All the public methods of this class are safe to call concurrently. Connections still in use when the synchronizer
+ * is closed are closed as soon as they are handed back.
  *
  * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
  * @version 0.1
  */
 public class IMAPSynchronizer {
 
+    private final Object batchLock;
+    private int batchSize;
+    private long batchWindow;
+    private volatile boolean closed;
+    private AtomicInteger createdConnections;
     private String folder;
     private String host;
+    private BlockingQueue<IMAPConnection> idleConnections;
+    private ScheduledExecutorService keepAliveExecutor;
     private String password;
+    private PendingAppend pendingAppend;
+    private int poolSize;
+    private int port;
     private Properties properties;
     private String protocol;
+    private Session session;
     private String username;
 
+    /**
+     * Set the maximum number of messages appended to the Sent Items folder together
+     * 
+     * @param batchSize Maximum number of messages per batch
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Set the time during which messages synchronized concurrently are gathered before being appended to the Sent
+     * Items folder together. A window of zero appends each message as soon as it is synchronized.
+     * 
+     * @param batchWindow Batch window in milliseconds
+     */
+    public void setBatchWindow(long batchWindow) {
+        this.batchWindow = Math.max(0, batchWindow);
+    }
+
+    /**
+     * Set the interval at which idle connections to the IMAP server are kept alive with a NOOP command. An interval
+     * of zero disables the keep-alive.
+     * 
+     * @param keepAliveInterval Keep-alive interval in seconds
+     */
+    public synchronized void setKeepAliveInterval(long keepAliveInterval) {
+
+        // Stop the current keep-alive task
+        if (null != this.keepAliveExecutor) {
+            this.keepAliveExecutor.shutdownNow();
+            this.keepAliveExecutor = null;
+        }
+
+        // Schedule the keep-alive task on a daemon thread
+        if (keepAliveInterval > 0) {
+
+            this.keepAliveExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "smoc-imap-keepalive");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+            this.keepAliveExecutor.scheduleWithFixedDelay(new Runnable() {
+
+                @Override
+                public void run() {
+                    keepAlive();
+                }
+            }, keepAliveInterval, keepAliveInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Set the maximum number of connections kept open to the IMAP server
+     * 
+     * @param poolSize Maximum number of connections
+     */
+    public void setPoolSize(int poolSize) {
+        this.poolSize = Math.max(1, poolSize);
+    }
+
+    /**
+     * Set the port of the IMAP server, used by the connections opened afterwards
+     * 
+     * @param port Port of the IMAP server, or -1 for the default port of the protocol
+     */
+    public void setPort(int port) {
+        this.port = port;
+    }
+
     /**
      * IMAPSynchronizer class constructor
      * 
@@ -33,15 +135,28 @@ public class IMAPSynchronizer {
     public IMAPSynchronizer(String host, String username, String password, String protocol, String folder) {
 
         // Initialise the class attributes of the class
+        this.batchLock = new Object();
+        this.batchSize = 50;
+        this.batchWindow = 0;
+        this.closed = false;
+        this.createdConnections = new AtomicInteger(0);
         this.folder = folder;
         this.host = host;
+        this.idleConnections = new LinkedBlockingQueue<>();
+        this.keepAliveExecutor = null;
         this.password = password;
+        this.pendingAppend = null;
+        this.poolSize = 1;
+        this.port = -1;
         this.properties = System.getProperties();
         this.protocol = protocol;
         this.username = username;
 
         // Set the properties for the IMAP connection session
         this.properties.setProperty("mail.store.protocol", protocol);
+
+        // Session for accessing IMAP store
+        this.session = Session.getInstance(this.properties, null);
     }
 
     /**
@@ -55,40 +170,348 @@ public class IMAPSynchronizer {
     public void synchronize(MimeMessage message) throws NoSuchProviderException,
             MessagingException, SentItemsFolderNotFoundException {
 
-        // Session for accessing IMAP store
-        Session session = Session.getInstance(this.properties, null);
+        // Append the message straight away if batching is disabled
+        if (this.batchWindow <= 0) {
+            this.append(new Message[] { message });
+            return;
+        }
 
-        // IMAP store
-        Store store = session.getStore(this.protocol);
+        PendingAppend batch;
+        boolean leader;
 
-        // Connect to the IMAP server
-        store.connect(this.host, this.username, this.password);
-        
-        // Get the Sent Items folder
-        Folder sentItemsFolder = store.getFolder(this.folder);
+        // Add the message to the batch being gathered, the first thread of a batch being in charge of appending it
+        synchronized (this.batchLock) {
 
-        // Check if the configured Sent Items folder exists
-        if (sentItemsFolder.exists()) {
+            // Start a new batch if there is none being gathered
+            leader = null == this.pendingAppend;
+            if (leader) {
+                this.pendingAppend = new PendingAppend();
+            }
 
-            // Open the Sent Items folder for reading and writing
-            sentItemsFolder.open(Folder.READ_WRITE);
+            // Add the message to the batch
+            batch = this.pendingAppend;
+            batch.messages.add(message);
 
-            // Messages array
-            Message[] messages = new Message[1];
+            // Close the batch if it is full
+            if (batch.messages.size() >= this.batchSize) {
+                this.pendingAppend = null;
+                this.batchLock.notifyAll();
+            }
+        }
 
-            // Add message sent to the message array
-            messages[0] = message;
+        // Append the batch or wait for it to be appended by its leader
+        if (leader) {
+            this.awaitBatchWindow(batch);
+            batch.append(this);
+        } else {
+            batch.await();
+        }
 
-            // Append the message to the Sent Items folder
-            sentItemsFolder.appendMessages(messages);
+        // Report the outcome of the batch to each of its callers
+        batch.rethrow();
+    }
 
-            // Close the folder
-            sentItemsFolder.close(true);
+    /**
+     * Synchronize several sent missive XML messages with the "Sent items" folder of the IMAP account, appending each
+     * batch of messages in one go over one connection
+     * 
+     * @param messages Messages sent via SMTP
+     * @throws NoSuchProviderException
+     * @throws MessagingException
+     * @throws SentItemsFolderNotFoundException
+     */
+    public void synchronize(List<MimeMessage> messages) throws NoSuchProviderException, MessagingException,
+            SentItemsFolderNotFoundException {
 
-        } else {
+        // Append the messages batch by batch
+        for (int start = 0; start < messages.size(); start += this.batchSize) {
+
+            // Messages of the current batch
+            List<MimeMessage> batch = messages.subList(start, Math.min(messages.size(), start + this.batchSize));
+
+            this.append(batch.toArray(new Message[batch.size()]));
+        }
+    }
+
+    /**
+     * Close all the connections to the IMAP server and stop the keep-alive task. Connections in use by other threads
+     * are closed when they are handed back.
+     */
+    public void close() {
+
+        // Connections handed back from now on are closed rather than pooled
+        this.closed = true;
+
+        // Stop the keep-alive task
+        this.setKeepAliveInterval(0);
+
+        // Close idle connections
+        this.closeIdleConnections();
+    }
+
+    /**
+     * Append messages to the Sent Items folder using a pooled connection, reconnecting once if the server dropped the
+     * connection. After a reconnection only the messages the server had not yet confirmed are appended, so that the
+     * messages stored before the connection dropped are not duplicated.
+     * 
+     * @param messages Messages sent via SMTP
+     * @throws NoSuchProviderException
+     * @throws MessagingException
+     * @throws SentItemsFolderNotFoundException
+     */
+    private void append(Message[] messages) throws NoSuchProviderException, MessagingException,
+            SentItemsFolderNotFoundException {
+
+        // Borrow a connection from the pool
+        IMAPConnection connection = this.borrow();
+
+        // Number of messages stored by the server so far
+        int appended = 0;
+
+        try {
+
+            // Append the messages over the open connection, one APPEND command each as appendMessages does
+            for (; appended < messages.length; appended++) {
+                connection.append(messages[appended]);
+            }
+
+        } catch (MessagingException ex) {
+
+            // Check if the server is still there, in which case it refused the message and appending it again would
+            // not help
+            if (connection.keepAlive()) {
+                throw ex;
+            }
+
+            // The connection was dropped so we reconnect and try once more, from the message that was not confirmed
+            connection.close();
+            for (; appended < messages.length; appended++) {
+                connection.append(messages[appended]);
+            }
+
+        } finally {
+
+            // Hand the connection back to the pool
+            this.release(connection);
+        }
+    }
+
+    /**
+     * Wait until the batch window of the given batch has elapsed or the batch is full
+     * 
+     * @param batch Batch being gathered
+     */
+    private void awaitBatchWindow(PendingAppend batch) {
+
+        boolean interrupted = false;
+
+        synchronized (this.batchLock) {
+
+            // Time at which the batch has to be closed
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.batchWindow);
+
+            // Wait while the batch is still open
+            while (this.pendingAppend == batch) {
+
+                // Time left before closing the batch
+                long remaining = deadline - System.nanoTime();
+
+                if (remaining <= 0 || interrupted) {
+
+                    // Close the batch so that no more messages are added to it
+                    this.pendingAppend = null;
+
+                } else {
+
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(this.batchLock, remaining);
+                    } catch (InterruptedException ex) {
+                        interrupted = true;
+                    }
+                }
+            }
+        }
+
+        // Restore the interrupt status of the thread
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Borrow a connection from the pool, creating one if the pool is not full yet or waiting for one to be released
+     * otherwise
+     * 
+     * @return Connection for the exclusive use of the calling thread
+     * @throws NoSuchProviderException
+     */
+    private IMAPConnection borrow() throws NoSuchProviderException {
+
+        // Use an idle connection if there is one
+        IMAPConnection connection = this.idleConnections.poll();
+        if (connection != null) {
+            return connection;
+        }
+
+        // Create a new connection if the pool has not reached its size yet
+        if (this.createdConnections.incrementAndGet() <= this.poolSize) {
+            try {
+                return new IMAPConnection(this.session, this.protocol, this.host, this.port, this.username,
+                        this.password, this.folder);
+            } catch (NoSuchProviderException | RuntimeException ex) {
+
+                // Give the slot back since the connection could not be created
+                this.createdConnections.decrementAndGet();
+                throw ex;
+            }
+        }
+        this.createdConnections.decrementAndGet();
+
+        // Wait for another thread to release its connection
+        boolean interrupted = false;
+        while (connection == null) {
+            try {
+                connection = this.idleConnections.take();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+
+        // Restore the interrupt status of the thread
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        return connection;
+    }
+
+    /**
+     * Send a NOOP over each idle connection so that the server does not close it, and close the connections that the
+     * server has already dropped so that they reconnect on their next use
+     */
+    private void keepAlive() {
+
+        // Only visit the connections that are idle right now
+        int count = this.idleConnections.size();
+
+        for (int i = 0; i < count; i++) {
+
+            // Take the connection out of the pool while it is being checked
+            IMAPConnection connection = this.idleConnections.poll();
+            if (null == connection) {
+                break;
+            }
+
+            // Check the connection, closing it if it is dead
+            if (!connection.keepAlive()) {
+                connection.close();
+            }
+
+            // Put the connection back in the pool
+            this.release(connection);
+        }
+    }
+
+    /**
+     * Hand a connection back to the pool, closing it instead if the synchronizer has been closed meanwhile
+     * 
+     * @param connection Connection borrowed from the pool
+     */
+    private void release(IMAPConnection connection) {
+
+        this.idleConnections.offer(connection);
+
+        // Close the connection if the synchronizer was closed while it was in use, either here or by close
+        if (this.closed) {
+            this.closeIdleConnections();
+        }
+    }
+
+    /**
+     * Close the connections that are idle in the pool
+     */
+    private void closeIdleConnections() {
+
+        IMAPConnection connection;
+        while ((connection = this.idleConnections.poll()) != null) {
+            connection.close();
+            this.createdConnections.decrementAndGet();
+        }
+    }
+
+    /**
+     * The PendingAppend class gathers the messages that will be appended to the Sent Items folder together and the
+     * outcome of appending them.
+     */
+    private static class PendingAppend {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final List<Message> messages = new ArrayList<>();
+        private MessagingException messagingException;
+        private SentItemsFolderNotFoundException folderException;
+        private RuntimeException runtimeException;
+
+        /**
+         * Append the messages of the batch and record the outcome
+         * 
+         * @param synchronizer IMAP synchronizer used to append the messages
+         */
+        void append(IMAPSynchronizer synchronizer) {
+
+            try {
+                synchronizer.append(this.messages.toArray(new Message[this.messages.size()]));
+            } catch (MessagingException ex) {
+                this.messagingException = ex;
+            } catch (SentItemsFolderNotFoundException ex) {
+                this.folderException = ex;
+            } catch (RuntimeException ex) {
+                this.runtimeException = ex;
+            } finally {
+                this.done.countDown();
+            }
+        }
+
+        /**
+         * Wait for the messages of the batch to be appended
+         */
+        void await() {
+
+            boolean interrupted = false;
+
+            // Wait until the leader of the batch has appended it
+            while (this.done.getCount() > 0) {
+                try {
+                    this.done.await();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+
+            // Restore the interrupt status of the thread
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Throw the exception raised while appending the batch, if any
+         * 
+         * @throws MessagingException
+         * @throws SentItemsFolderNotFoundException
+         */
+        void rethrow() throws MessagingException, SentItemsFolderNotFoundException {
+
+            if (null != this.messagingException) {
+                throw this.messagingException;
+            }
+
+            if (null != this.folderException) {
+                throw this.folderException;
+            }
 
-            // We throw an exception to indicate that the folder does not exist
-            throw new SentItemsFolderNotFoundException(this.folder, this.host, this.username);
+            if (null != this.runtimeException) {
+                throw this.runtimeException;
+            }
         }
     }
 }
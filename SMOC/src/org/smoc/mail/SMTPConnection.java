@@ -0,0 +1,98 @@
+package org.smoc.mail;
+
+import javax.mail.MessagingException;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * The SMTPConnection class keeps a single SMTP transport connection open so that several MIME messages can be sent
+ * without paying the connection, greeting and authentication round trips for each of them. When the server drops the
+ * connection, the connection is re-established and the message is sent again once.
+ * <p>
+ * An SMTPConnection instance must not be shared between threads.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class SMTPConnection {
+
+    private boolean connected;
+    private Transport transport;
+
+    /**
+     * SMTPConnection class constructor
+     * 
+     * @param transport SMTP transport obtained from the mail session
+     */
+    public SMTPConnection(Transport transport) {
+
+        // Initialise class attributes
+        this.connected = false;
+        this.transport = transport;
+    }
+
+    /**
+     * Send MIME message to its recipients over this connection, connecting or reconnecting to the SMTP server if
+     * required
+     * 
+     * @param message Signed and encrypted message
+     * @throws MessagingException
+     */
+    public void send(MimeMessage message) throws MessagingException {
+
+        // Connect to the SMTP server on first use
+        if (!this.connected) {
+            this.connect();
+        }
+
+        try {
+
+            // Send the message over the open connection
+            this.transport.sendMessage(message, message.getAllRecipients());
+
+        } catch (MessagingException ex) {
+
+            // Check if the server is still there, in which case it refused the message and sending it again would
+            // not help
+            if (this.transport.isConnected()) {
+                throw ex;
+            }
+
+            // The connection was dropped so we reconnect and try once more
+            this.connected = false;
+            this.connect();
+            this.transport.sendMessage(message, message.getAllRecipients());
+        }
+    }
+
+    /**
+     * Close the connection to the SMTP server
+     * 
+     * @throws MessagingException
+     */
+    public void close() throws MessagingException {
+
+        // Check if there is anything to close
+        if (this.connected) {
+            this.connected = false;
+            this.transport.close();
+        }
+    }
+
+    /**
+     * Connect to the SMTP server using the host, port and credentials of the mail session
+     * 
+     * @throws MessagingException
+     */
+    private void connect() throws MessagingException {
+
+        // Make sure a half-closed transport does not refuse to connect again
+        if (this.transport.isConnected()) {
+            this.transport.close();
+        }
+
+        // Connect to the SMTP server
+        this.transport.connect();
+        this.connected = true;
+    }
+}
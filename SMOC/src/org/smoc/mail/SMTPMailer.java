@@ -2,6 +2,7 @@ package org.smoc.mail;
 
 import java.io.UnsupportedEncodingException;
 import java.util.Properties;
+import javax.activation.DataSource;
 import javax.mail.*;
 import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
@@ -132,29 +133,55 @@ public class SMTPMailer {
     public MimeMessage createSmtpMessageBody(String subject, String content) throws AddressException,
             MessagingException, UnsupportedEncodingException {
 
-        // Email sender address
-        Address sender = new InternetAddress("\"" + this.senderName + "\"< " + this.senderAddress + " >");
+        // MIME message body with sender, recipient and subject
+        MimeMessage body = this.createSmtpMessage(subject, null);
 
-        // Email recipient address
-        Address recipient;
-        if (null == this.recipientName) {
-            recipient = new InternetAddress(this.recipientAddress);
-        } else {
-            recipient = new InternetAddress("\"" + this.recipientName + "\"< " + this.recipientAddress + " >");
-        }
+        // Set the content of the MIME message
+        body.setContent(content, "text/plain; charset=utf-8");
 
-        // MIME message body
-        MimeMessage body = new MimeMessage(this.session);
+        // Save MIME message body
+        body.saveChanges();
 
-        // Set MIME message sender and recipient
-        body.setFrom(sender);
-        body.setRecipient(Message.RecipientType.TO, recipient);
+        return body;
+    }
 
-        // Set the subject of the MIME message
-        body.setSubject(subject);
+    /**
+     * Create the SMTP MIME message body using the specified subject and the content of the given data source. The
+     * content is streamed from the data source whenever the message is written and is never loaded in memory.
+     * 
+     * @param subject Subject of the missive document email
+     * @param content Data source of the missive document content
+     * @return MIME message body with the given subject and content
+     * @throws AddressException
+     * @throws MessagingException 
+     * @throws UnsupportedEncodingException
+     */
+    public MimeMessage createSmtpMessageBody(String subject, DataSource content) throws AddressException,
+            MessagingException, UnsupportedEncodingException {
+        return this.createSmtpMessageBody(subject, content, null);
+    }
+
+    /**
+     * Create the SMTP MIME message body using the specified subject and the content of the given data source,
+     * addressed to the given recipient. The content is streamed from the data source whenever the message is written
+     * and is never loaded in memory.
+     * 
+     * @param subject Subject of the missive document email
+     * @param content Data source of the missive document content
+     * @param recipientAddress Email address of the recipient or null for the configured recipient
+     * @return MIME message body with the given subject and content
+     * @throws AddressException
+     * @throws MessagingException 
+     * @throws UnsupportedEncodingException
+     */
+    public MimeMessage createSmtpMessageBody(String subject, DataSource content, String recipientAddress) throws
+            AddressException, MessagingException, UnsupportedEncodingException {
+
+        // MIME message body with sender, recipient and subject
+        MimeMessage body = this.createSmtpMessage(subject, recipientAddress);
 
         // Set the content of the MIME message
-        body.setContent(content, "text/plain; charset=utf-8");
+        body.setDataHandler(new StreamingDataHandler(content));
 
         // Save MIME message body
         body.saveChanges();
@@ -174,6 +201,54 @@ public class SMTPMailer {
         Transport.send(encryptedSignedContent);
     }
 
+    /**
+     * Open a connection to the SMTP server that can be used to send several MIME messages in a row
+     * 
+     * @return SMTP connection which connects on first use
+     * @throws NoSuchProviderException
+     */
+    public SMTPConnection openConnection() throws NoSuchProviderException {
+        return new SMTPConnection(this.session.getTransport("smtp"));
+    }
+
+    /**
+     * Create an SMTP MIME message without content, addressed from the missive sender to the missive recipient
+     * 
+     * @param subject Subject of the missive document email
+     * @param recipientAddress Email address of the recipient or null for the configured recipient
+     * @return MIME message with sender, recipient and subject set
+     * @throws AddressException
+     * @throws MessagingException 
+     */
+    private MimeMessage createSmtpMessage(String subject, String recipientAddress) throws AddressException,
+            MessagingException {
+
+        // Email sender address
+        Address sender = new InternetAddress("\"" + this.senderName + "\"< " + this.senderAddress + " >");
+
+        // Email recipient address
+        Address recipient;
+        if (null != recipientAddress) {
+            recipient = new InternetAddress(recipientAddress);
+        } else if (null == this.recipientName) {
+            recipient = new InternetAddress(this.recipientAddress);
+        } else {
+            recipient = new InternetAddress("\"" + this.recipientName + "\"< " + this.recipientAddress + " >");
+        }
+
+        // MIME message body
+        MimeMessage body = new MimeMessage(this.session);
+
+        // Set MIME message sender and recipient
+        body.setFrom(sender);
+        body.setRecipient(Message.RecipientType.TO, recipient);
+
+        // Set the subject of the MIME message
+        body.setSubject(subject);
+
+        return body;
+    }
+
     /**
      * Set the properties of the mail session
      */
@@ -0,0 +1,35 @@
+package org.smoc.mail;
+
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+
+/**
+ * The StreamingDataHandler class is a data handler for message content that must only ever be streamed from its data
+ * source. The S/MIME generators look at the content object of the parts they sign to find out whether they are
+ * multipart, which for text content would decode the whole data source into a String. This data handler returns the
+ * data source itself as its content object, so the content is only read when the part is written.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+class StreamingDataHandler extends DataHandler {
+
+    /**
+     * StreamingDataHandler class constructor
+     * 
+     * @param dataSource Data source of the message content
+     */
+    StreamingDataHandler(DataSource dataSource) {
+        super(dataSource);
+    }
+
+    /**
+     * Get the content object of the data handler, which is the data source of the content
+     * 
+     * @return Data source of the content
+     */
+    @Override
+    public Object getContent() {
+        return this.getDataSource();
+    }
+}
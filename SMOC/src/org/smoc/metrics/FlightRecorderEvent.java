@@ -0,0 +1,253 @@
+package org.smoc.metrics;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The FlightRecorderEvent enumeration lists the Java Flight Recorder events recorded along the send path of a
+ * missive, each of them carrying the missive id, the payload size and the algorithm of the work it times. The events
+ * are grouped under the SMOC category, so that the timeline of each missive can be followed in JDK Mission Control.
+ * <p>
+ * The event types are created at run time through the jdk.jfr.EventFactory API, which SMOC cannot link against as it
+ * runs on Java 7, and are disabled by default: they are only recorded once enabled in the settings of a recording,
+ * for instance with jcmd [pid] JFR.start settings=[file] where the file enables org.smoc.*. When the event types are
+ * disabled, or when the JVM has no flight recorder, begin returns null after a single check and commit does nothing.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public enum FlightRecorderEvent {
+
+    /**
+     * Read and parse the configuration file
+     */
+    CONFIG_LOAD("org.smoc.ConfigLoad", "SMOC Config Load", "Configuration file read and parsed"),
+
+    /**
+     * Load the sender key store or the certificate of a recipient
+     */
+    KEY_LOAD("org.smoc.KeyLoad", "SMOC Key Load", "Sender key store or recipient certificate loaded"),
+
+    /**
+     * Open the missive XML file and create the email body
+     */
+    READ("org.smoc.Read", "SMOC Missive Read", "Missive XML file opened and email body created"),
+
+    /**
+     * Sign the email body
+     */
+    SIGN("org.smoc.Sign", "SMOC Sign", "Email body of a missive signed"),
+
+    /**
+     * Compress the signed email before it is encrypted
+     */
+    COMPRESS("org.smoc.Compress", "SMOC Compress", "Signed email of a missive compressed"),
+
+    /**
+     * Encrypt the signed email for the recipient or for the sender
+     */
+    ENCRYPT("org.smoc.Encrypt", "SMOC Encrypt", "Signed email of a missive encrypted"),
+
+    /**
+     * Send the encrypted email to the recipient via SMTP
+     */
+    SEND("org.smoc.Send", "SMOC SMTP Send", "Encrypted email of a missive sent via SMTP"),
+
+    /**
+     * Append the encrypted email of the sender to the Sent Items folder via IMAP
+     */
+    APPEND("org.smoc.ImapAppend", "SMOC IMAP Append", "Encrypted email of a missive appended via IMAP");
+
+    private final String description;
+    private final String eventName;
+    private final String label;
+
+    /**
+     * FlightRecorderEvent enumeration constructor
+     * 
+     * @param eventName Name of the event type
+     * @param label Label of the event type
+     * @param description Description of the event type
+     */
+    private FlightRecorderEvent(String eventName, String label, String description) {
+        this.description = description;
+        this.eventName = eventName;
+        this.label = label;
+    }
+
+    /**
+     * Start an event of this type, if the event type is enabled in a running recording
+     * 
+     * @return Started event, to be committed once the work it times is done, or null if the event type is disabled
+     */
+    public Object begin() {
+
+        // Nothing to record without a flight recorder or while the event type is disabled
+        if (!EventTypes.AVAILABLE) {
+            return null;
+        }
+
+        try {
+
+            Object eventType = EventTypes.eventTypes[this.ordinal()];
+            if (!(Boolean) EventTypes.isEnabled.invoke(eventType)) {
+                return null;
+            }
+
+            // Start the event
+            Object event = EventTypes.newEvent.invoke(EventTypes.eventFactories[this.ordinal()]);
+            EventTypes.beginEvent.invoke(event);
+
+            return event;
+
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+
+            // Recording is best effort and never fails the missive
+            return null;
+        }
+    }
+
+    /**
+     * Commit an event started by begin, its duration ending now
+     * 
+     * @param event Event returned by begin, nothing being recorded if null
+     * @param missiveId Id of the missive, or null if the event is not tied to a missive
+     * @param payloadSize Size in bytes of the data handled, or -1 if unknown
+     * @param algorithm Algorithm, key store type or protocol used, or null
+     */
+    public static void commit(Object event, String missiveId, long payloadSize, String algorithm) {
+
+        // Nothing to do if the event type was disabled when the event would have started
+        if (null == event) {
+            return;
+        }
+
+        try {
+
+            // Fields in the order in which they are declared by the event types
+            EventTypes.setField.invoke(event, 0, missiveId);
+            EventTypes.setField.invoke(event, 1, payloadSize);
+            EventTypes.setField.invoke(event, 2, algorithm);
+
+            EventTypes.commitEvent.invoke(event);
+
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+
+            // Recording is best effort and never fails the missive
+        }
+    }
+
+    /**
+     * The EventTypes class creates the event types the first time an event is started. The event types are not
+     * created when the JVM has no jdk.jfr API, Java 7 and early Java 8 runtimes among others.
+     */
+    private static final class EventTypes {
+
+        private static final boolean AVAILABLE;
+
+        private static Method beginEvent;
+        private static Method commitEvent;
+        private static Object[] eventFactories;
+        private static Object[] eventTypes;
+        private static Method isEnabled;
+        private static Method newEvent;
+        private static Method setField;
+
+        static {
+
+            boolean available;
+
+            try {
+
+                // Event factory and event methods
+                Class<?> eventFactoryClass = Class.forName("jdk.jfr.EventFactory");
+                Class<?> eventClass = Class.forName("jdk.jfr.Event");
+                Method create = eventFactoryClass.getMethod("create", List.class, List.class);
+                Method getEventType = eventFactoryClass.getMethod("getEventType");
+
+                beginEvent = eventClass.getMethod("begin");
+                commitEvent = eventClass.getMethod("commit");
+                isEnabled = Class.forName("jdk.jfr.EventType").getMethod("isEnabled");
+                newEvent = eventFactoryClass.getMethod("newEvent");
+                setField = eventClass.getMethod("set", int.class, Object.class);
+
+                // Fields shared by every event type
+                List<Object> fields = Arrays.asList(
+                        field(String.class, "missiveId", "Missive Id", null),
+                        field(long.class, "payloadSize", "Payload Size", annotation("jdk.jfr.DataAmount", "BYTES")),
+                        field(String.class, "algorithm", "Algorithm", null));
+
+                // One event type per event, disabled and without stack traces unless a recording enables them
+                FlightRecorderEvent[] events = FlightRecorderEvent.values();
+                eventFactories = new Object[events.length];
+                eventTypes = new Object[events.length];
+
+                for (FlightRecorderEvent event : events) {
+
+                    List<Object> annotations = Arrays.asList(annotation("jdk.jfr.Name", event.eventName),
+                            annotation("jdk.jfr.Label", event.label),
+                            annotation("jdk.jfr.Description", event.description),
+                            annotation("jdk.jfr.Category", new String[] { "SMOC" }),
+                            annotation("jdk.jfr.StackTrace", false), annotation("jdk.jfr.Enabled", false));
+
+                    eventFactories[event.ordinal()] = create.invoke(null, annotations, fields);
+                    eventTypes[event.ordinal()] = getEventType.invoke(eventFactories[event.ordinal()]);
+                }
+
+                available = true;
+
+            } catch (ReflectiveOperationException | RuntimeException | LinkageError ex) {
+
+                // No flight recorder, events are never recorded
+                available = false;
+            }
+
+            AVAILABLE = available;
+        }
+
+        /**
+         * Create an annotation element of an event type or field
+         * 
+         * @param annotationClassName Fully qualified name of the annotation class
+         * @param value Value of the annotation
+         * @return Annotation element
+         * @throws ReflectiveOperationException
+         */
+        private static Object annotation(String annotationClassName, Object value)
+                throws ReflectiveOperationException {
+
+            Constructor<?> constructor = Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class,
+                    Object.class);
+
+            return constructor.newInstance(Class.forName(annotationClassName), value);
+        }
+
+        /**
+         * Create the descriptor of a field of the event types
+         * 
+         * @param type Type of the field
+         * @param fieldName Name of the field
+         * @param fieldLabel Label of the field
+         * @param extraAnnotation Annotation element of the field besides its label, or null
+         * @return Value descriptor of the field
+         * @throws ReflectiveOperationException
+         */
+        private static Object field(Class<?> type, String fieldName, String fieldLabel, Object extraAnnotation)
+                throws ReflectiveOperationException {
+
+            List<Object> annotations = new ArrayList<>();
+            annotations.add(annotation("jdk.jfr.Label", fieldLabel));
+            if (null != extraAnnotation) {
+                annotations.add(extraAnnotation);
+            }
+
+            Constructor<?> constructor = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class,
+                    String.class, List.class);
+
+            return constructor.newInstance(type, fieldName, annotations);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package org.smoc.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The LatencyHistogram class records durations in a log-linear histogram in the manner of HdrHistogram: durations are
+ * counted exactly up to 64 nanoseconds, and each power of two above that is split in 32 linear buckets, so that any
+ * duration is reported within about 3% of its value whatever its magnitude. The histogram has a fixed size and never
+ * allocates once created.
+ * <p>
+ * Durations are recorded without locking, each of them incrementing a single bucket counter, so that many threads can
+ * record in the same histogram at once. Percentiles read while durations are being recorded may miss the durations
+ * recorded concurrently.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS) * SUB_BUCKET_HALF;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong maximum;
+    private final AtomicLong total;
+    private final AtomicLong totalCount;
+
+    /**
+     * Get the number of durations recorded
+     * 
+     * @return Number of durations
+     */
+    public long getCount() {
+        return this.totalCount.get();
+    }
+
+    /**
+     * Get the longest duration recorded
+     * 
+     * @return Longest duration in nanoseconds, or 0 if no duration has been recorded
+     */
+    public long getMax() {
+        return this.maximum.get();
+    }
+
+    /**
+     * Get the mean of the durations recorded
+     * 
+     * @return Mean duration in nanoseconds, or 0 if no duration has been recorded
+     */
+    public double getMean() {
+        long count = this.totalCount.get();
+        return 0 == count ? 0 : (double) this.total.get() / count;
+    }
+
+    /**
+     * LatencyHistogram class constructor
+     */
+    public LatencyHistogram() {
+
+        // Initialise class attributes
+        this.counts = new AtomicLongArray(BUCKET_COUNT);
+        this.maximum = new AtomicLong(0);
+        this.total = new AtomicLong(0);
+        this.totalCount = new AtomicLong(0);
+    }
+
+    /**
+     * Record a duration
+     * 
+     * @param duration Duration in nanoseconds, negative durations being recorded as zero
+     */
+    public void record(long duration) {
+
+        long value = Math.max(0, duration);
+
+        // Bucket, total and count of the duration
+        this.counts.incrementAndGet(bucketOf(value));
+        this.total.addAndGet(value);
+        this.totalCount.incrementAndGet();
+
+        // Raise the maximum if the duration is longer
+        long max = this.maximum.get();
+        while (value > max && !this.maximum.compareAndSet(max, value)) {
+            max = this.maximum.get();
+        }
+    }
+
+    /**
+     * Get the duration below which the given fraction of the recorded durations fall
+     * 
+     * @param fraction Fraction of the durations, between 0 and 1, such as 0.99 for the 99th percentile
+     * @return Highest duration of the bucket holding the percentile, capped by the longest duration, in nanoseconds,
+     * or 0 if no duration has been recorded
+     */
+    public long getPercentile(double fraction) {
+
+        // Rank of the duration of the percentile
+        long count = this.totalCount.get();
+        if (0 == count) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(1, Math.max(0, fraction)) * count));
+
+        // Walk the buckets up to the one holding the duration of that rank
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += this.counts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(highestValueOf(bucket), this.maximum.get());
+            }
+        }
+
+        return this.maximum.get();
+    }
+
+    /**
+     * Clear the histogram. Durations recorded while the histogram is being cleared may be partly kept.
+     */
+    public void reset() {
+
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            this.counts.set(bucket, 0);
+        }
+
+        this.maximum.set(0);
+        this.total.set(0);
+        this.totalCount.set(0);
+    }
+
+    /**
+     * Get the bucket a duration is counted in
+     * 
+     * @param value Duration in nanoseconds, not negative
+     * @return Index of the bucket
+     */
+    private static int bucketOf(long value) {
+
+        // Short durations are counted exactly
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        // Longer durations keep their SUB_BUCKET_BITS most significant bits
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift);
+
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + subBucket - SUB_BUCKET_HALF;
+    }
+
+    /**
+     * Get the highest duration counted in a bucket
+     * 
+     * @param bucket Index of the bucket
+     * @return Highest duration in nanoseconds
+     */
+    private static long highestValueOf(int bucket) {
+
+        // Short durations are counted exactly
+        if (bucket < SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+
+        int shift = (bucket - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        long subBucket = (bucket - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,134 @@
+package org.smoc.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The LatencySnapshot class holds the figures of a latency histogram at a given point in time, in milliseconds. It is
+ * published through JMX as a composite value.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class LatencySnapshot {
+
+    private final long count;
+    private final double maxMillis;
+    private final double meanMillis;
+    private final double p50Millis;
+    private final double p90Millis;
+    private final double p99Millis;
+    private final double p999Millis;
+
+    /**
+     * Get the number of durations recorded
+     * 
+     * @return Number of durations
+     */
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * Get the longest duration recorded
+     * 
+     * @return Longest duration in milliseconds
+     */
+    public double getMaxMillis() {
+        return this.maxMillis;
+    }
+
+    /**
+     * Get the mean of the durations recorded
+     * 
+     * @return Mean duration in milliseconds
+     */
+    public double getMeanMillis() {
+        return this.meanMillis;
+    }
+
+    /**
+     * Get the median of the durations recorded
+     * 
+     * @return 50th percentile in milliseconds
+     */
+    public double getP50Millis() {
+        return this.p50Millis;
+    }
+
+    /**
+     * Get the 90th percentile of the durations recorded
+     * 
+     * @return 90th percentile in milliseconds
+     */
+    public double getP90Millis() {
+        return this.p90Millis;
+    }
+
+    /**
+     * Get the 99th percentile of the durations recorded
+     * 
+     * @return 99th percentile in milliseconds
+     */
+    public double getP99Millis() {
+        return this.p99Millis;
+    }
+
+    /**
+     * Get the 99.9th percentile of the durations recorded
+     * 
+     * @return 99.9th percentile in milliseconds
+     */
+    public double getP999Millis() {
+        return this.p999Millis;
+    }
+
+    /**
+     * LatencySnapshot class constructor
+     * 
+     * @param count Number of durations
+     * @param meanMillis Mean duration in milliseconds
+     * @param p50Millis 50th percentile in milliseconds
+     * @param p90Millis 90th percentile in milliseconds
+     * @param p99Millis 99th percentile in milliseconds
+     * @param p999Millis 99.9th percentile in milliseconds
+     * @param maxMillis Longest duration in milliseconds
+     */
+    @ConstructorProperties({ "count", "meanMillis", "p50Millis", "p90Millis", "p99Millis", "p999Millis",
+        "maxMillis" })
+    public LatencySnapshot(long count, double meanMillis, double p50Millis, double p90Millis, double p99Millis,
+            double p999Millis, double maxMillis) {
+
+        // Initialise class attributes
+        this.count = count;
+        this.maxMillis = maxMillis;
+        this.meanMillis = meanMillis;
+        this.p50Millis = p50Millis;
+        this.p90Millis = p90Millis;
+        this.p99Millis = p99Millis;
+        this.p999Millis = p999Millis;
+    }
+
+    /**
+     * Take a snapshot of a latency histogram
+     * 
+     * @param histogram Latency histogram
+     * @return Snapshot of the histogram
+     */
+    public static LatencySnapshot of(LatencyHistogram histogram) {
+        return new LatencySnapshot(histogram.getCount(), histogram.getMean() / 1e6,
+                histogram.getPercentile(0.50) / 1e6, histogram.getPercentile(0.90) / 1e6,
+                histogram.getPercentile(0.99) / 1e6, histogram.getPercentile(0.999) / 1e6, histogram.getMax() / 1e6);
+    }
+
+    /**
+     * Format the snapshot for logs
+     * 
+     * @return Count, mean, percentiles and maximum of the snapshot
+     */
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms",
+                this.count, this.meanMillis, this.p50Millis, this.p90Millis, this.p99Millis, this.p999Millis,
+                this.maxMillis);
+    }
+}
@@ -0,0 +1,355 @@
+package org.smoc.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.smoc.MissiveStage;
+
+/**
+ * The SmocMetrics class records the latency of each stage of the missives sent by a SMOC instance, the number of bytes
+ * read, compressed and sent, the time saved by compression, the missives spilled to disk and the number of failures
+ * by exception type. Durations and counters are recorded without locking so that the send threads never wait on each
+ * other to record them.
+ * <p>
+ * The metrics are published on the platform MBean server under the name org.smoc:type=SmocMetrics,name=[name] once
+ * registered, so that they can be read with JConsole or any JMX client.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class SmocMetrics implements SmocMetricsMXBean {
+
+    private static final String KEYSTORE_STAGE = "keystore";
+    private static final AtomicInteger INSTANCE_COUNT = new AtomicInteger(0);
+
+    private final AtomicLong ciphertextBytesOut;
+    private final AtomicLong compressionBytesIn;
+    private final AtomicLong compressionBytesOut;
+    private final AtomicLong compressionTimeSaved;
+    private final ConcurrentHashMap<String, AtomicLong> errorCounts;
+    private final LatencyHistogram keyStoreLatency;
+    private ObjectName objectName;
+    private final AtomicLong plaintextBytesIn;
+    private final AtomicLong spilledBytes;
+    private final AtomicLong spilledMissives;
+    private final EnumMap<MissiveStage, LatencyHistogram> stageLatencies;
+
+    /**
+     * Get the number of bytes of encrypted emails sent to the recipients
+     * 
+     * @return Number of ciphertext bytes sent
+     */
+    @Override
+    public long getCiphertextBytesOut() {
+        return this.ciphertextBytesOut.get();
+    }
+
+    /**
+     * Get the number of bytes of signed emails compressed before they were encrypted
+     * 
+     * @return Number of bytes compressed
+     */
+    @Override
+    public long getCompressionBytesIn() {
+        return this.compressionBytesIn.get();
+    }
+
+    /**
+     * Get the number of bytes of compressed emails generated from the signed emails
+     * 
+     * @return Number of compressed bytes
+     */
+    @Override
+    public long getCompressionBytesOut() {
+        return this.compressionBytesOut.get();
+    }
+
+    /**
+     * Get the overall compression ratio of the signed emails compressed before they were encrypted
+     * 
+     * @return Number of bytes compressed divided by the number of compressed bytes, or 0 if no email was compressed
+     */
+    @Override
+    public double getCompressionRatio() {
+
+        long bytesOut = this.compressionBytesOut.get();
+
+        return bytesOut > 0 ? (double) this.compressionBytesIn.get() / bytesOut : 0;
+    }
+
+    /**
+     * Get the estimated time saved by compressing the signed emails, the time spent compressing them deducted
+     * 
+     * @return Estimated time saved in milliseconds, negative if compressing took longer than it saved
+     */
+    @Override
+    public long getCompressionTimeSaved() {
+        return this.compressionTimeSaved.get() / 1000000;
+    }
+
+    /**
+     * Get the number of failures by exception type
+     * 
+     * @return Number of failures by fully qualified name of the exception class
+     */
+    @Override
+    public Map<String, Long> getErrorCounts() {
+
+        Map<String, Long> counts = new TreeMap<>();
+
+        for (Map.Entry<String, AtomicLong> entry : this.errorCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+
+        return counts;
+    }
+
+    /**
+     * Get the number of bytes of missive XML files read
+     * 
+     * @return Number of plaintext bytes read
+     */
+    @Override
+    public long getPlaintextBytesIn() {
+        return this.plaintextBytesIn.get();
+    }
+
+    /**
+     * Get the number of bytes of missive XML files whose emails were spilled to disk
+     * 
+     * @return Number of plaintext bytes of the spilled missives
+     */
+    @Override
+    public long getSpilledBytes() {
+        return this.spilledBytes.get();
+    }
+
+    /**
+     * Get the number of missives whose emails were spilled to disk because they did not fit in the memory budget
+     * 
+     * @return Number of spilled missives
+     */
+    @Override
+    public long getSpilledMissives() {
+        return this.spilledMissives.get();
+    }
+
+    /**
+     * Get the latency histogram of a stage
+     * 
+     * @param stage Missive stage
+     * @return Latency histogram of the stage
+     */
+    public LatencyHistogram getStageLatency(MissiveStage stage) {
+        return this.stageLatencies.get(stage);
+    }
+
+    /**
+     * Get the latencies of each stage: keystore for the lookup of the key material of a missive, and the setting name
+     * of each missive stage
+     * 
+     * @return Latency snapshot by stage name
+     */
+    @Override
+    public Map<String, LatencySnapshot> getStageLatencies() {
+
+        Map<String, LatencySnapshot> latencies = new TreeMap<>();
+
+        latencies.put(KEYSTORE_STAGE, LatencySnapshot.of(this.keyStoreLatency));
+        for (Map.Entry<MissiveStage, LatencyHistogram> entry : this.stageLatencies.entrySet()) {
+            latencies.put(entry.getKey().getSettingName(), LatencySnapshot.of(entry.getValue()));
+        }
+
+        return Collections.unmodifiableMap(latencies);
+    }
+
+    /**
+     * SmocMetrics class constructor
+     */
+    public SmocMetrics() {
+
+        // Initialise class attributes
+        this.ciphertextBytesOut = new AtomicLong(0);
+        this.compressionBytesIn = new AtomicLong(0);
+        this.compressionBytesOut = new AtomicLong(0);
+        this.compressionTimeSaved = new AtomicLong(0);
+        this.errorCounts = new ConcurrentHashMap<>();
+        this.keyStoreLatency = new LatencyHistogram();
+        this.plaintextBytesIn = new AtomicLong(0);
+        this.spilledBytes = new AtomicLong(0);
+        this.spilledMissives = new AtomicLong(0);
+        this.stageLatencies = new EnumMap<>(MissiveStage.class);
+
+        // One histogram per stage, created up front so that the map is never modified once shared
+        for (MissiveStage stage : MissiveStage.values()) {
+            this.stageLatencies.put(stage, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Add to the number of bytes of encrypted emails sent to the recipients
+     * 
+     * @param bytes Number of bytes sent
+     */
+    public void addCiphertextBytesOut(long bytes) {
+        if (bytes > 0) {
+            this.ciphertextBytesOut.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * Add to the number of bytes of missive XML files read
+     * 
+     * @param bytes Number of bytes read
+     */
+    public void addPlaintextBytesIn(long bytes) {
+        if (bytes > 0) {
+            this.plaintextBytesIn.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * Record the compression of the signed email of a missive, once the missive has been sent
+     * 
+     * @param bytesIn Size of the signed email in bytes
+     * @param bytesOut Size of the compressed email in bytes
+     * @param timeSaved Estimated time saved by the compression, in nanoseconds
+     */
+    public void recordCompression(long bytesIn, long bytesOut, long timeSaved) {
+        this.compressionBytesIn.addAndGet(Math.max(0, bytesIn));
+        this.compressionBytesOut.addAndGet(Math.max(0, bytesOut));
+        this.compressionTimeSaved.addAndGet(timeSaved);
+    }
+
+    /**
+     * Count a failure
+     * 
+     * @param ex Exception the failure has been reported with
+     */
+    public void recordError(Throwable ex) {
+
+        String type = ex.getClass().getName();
+        AtomicLong count = this.errorCounts.get(type);
+
+        // Create the counter of the exception type the first time it is seen
+        if (null == count) {
+            AtomicLong newCount = new AtomicLong(0);
+            count = this.errorCounts.putIfAbsent(type, newCount);
+            if (null == count) {
+                count = newCount;
+            }
+        }
+
+        count.incrementAndGet();
+    }
+
+    /**
+     * Record the time spent looking up the key material of a missive
+     * 
+     * @param startTime Value of System.nanoTime when the lookup was started
+     */
+    public void recordKeyStore(long startTime) {
+        this.keyStoreLatency.record(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Count a missive whose emails are spilled to disk
+     * 
+     * @param payloadSize Size of the missive XML file in bytes
+     */
+    public void recordSpill(long payloadSize) {
+        this.spilledMissives.incrementAndGet();
+        this.spilledBytes.addAndGet(Math.max(0, payloadSize));
+    }
+
+    /**
+     * Record the time spent by a missive in a stage
+     * 
+     * @param stage Stage the missive has gone through
+     * @param duration Time spent in the stage, in nanoseconds
+     */
+    public void recordStage(MissiveStage stage, long duration) {
+        this.stageLatencies.get(stage).record(duration);
+    }
+
+    /**
+     * Publish the metrics on the platform MBean server. The metrics are still recorded when they cannot be
+     * published, for instance when the name is already taken by another instance.
+     * 
+     * @param name Name of the metrics in the MBean server, a name being generated if null or empty
+     * @return true if the metrics have been published
+     */
+    public synchronized boolean register(String name) {
+
+        // Nothing to do if the metrics are already published
+        if (null != this.objectName) {
+            return true;
+        }
+
+        String instanceName = (null == name || name.trim().isEmpty()) ? "smoc-" + INSTANCE_COUNT.incrementAndGet()
+                : name.trim();
+
+        try {
+            ObjectName candidate = new ObjectName("org.smoc:type=SmocMetrics,name=" + ObjectName.quote(instanceName));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, candidate);
+            this.objectName = candidate;
+        } catch (JMException | SecurityException ex) {
+
+            // The metrics are only available through the getters
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Clear every histogram and counter
+     */
+    @Override
+    public void reset() {
+
+        this.ciphertextBytesOut.set(0);
+        this.compressionBytesIn.set(0);
+        this.compressionBytesOut.set(0);
+        this.compressionTimeSaved.set(0);
+        this.errorCounts.clear();
+        this.keyStoreLatency.reset();
+        this.plaintextBytesIn.set(0);
+        this.spilledBytes.set(0);
+        this.spilledMissives.set(0);
+
+        for (LatencyHistogram histogram : this.stageLatencies.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Remove the metrics from the platform MBean server
+     */
+    public synchronized void unregister() {
+
+        // Nothing to do if the metrics are not published
+        if (null == this.objectName) {
+            return;
+        }
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            server.unregisterMBean(this.objectName);
+        } catch (JMException | SecurityException ex) {
+
+            // The MBean has already been removed from the server
+        }
+
+        this.objectName = null;
+    }
+}
@@ -0,0 +1,89 @@
+package org.smoc.metrics;
+
+import java.util.Map;
+
+/**
+ * The SmocMetricsMXBean interface is the management interface of the metrics of a SMOC instance, published on the
+ * platform MBean server under the org.smoc:type=SmocMetrics domain.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public interface SmocMetricsMXBean {
+
+    /**
+     * Get the number of bytes of encrypted emails sent to the recipients
+     * 
+     * @return Number of ciphertext bytes sent
+     */
+    long getCiphertextBytesOut();
+
+    /**
+     * Get the number of bytes of signed emails compressed before they were encrypted
+     * 
+     * @return Number of bytes compressed
+     */
+    long getCompressionBytesIn();
+
+    /**
+     * Get the number of bytes of compressed emails generated from the signed emails
+     * 
+     * @return Number of compressed bytes
+     */
+    long getCompressionBytesOut();
+
+    /**
+     * Get the overall compression ratio of the signed emails compressed before they were encrypted
+     * 
+     * @return Number of bytes compressed divided by the number of compressed bytes, or 0 if no email was compressed
+     */
+    double getCompressionRatio();
+
+    /**
+     * Get the estimated time saved by compressing the signed emails, the time spent compressing them deducted
+     * 
+     * @return Estimated time saved in milliseconds, negative if compressing took longer than it saved
+     */
+    long getCompressionTimeSaved();
+
+    /**
+     * Get the number of failures by exception type
+     * 
+     * @return Number of failures by fully qualified name of the exception class
+     */
+    Map<String, Long> getErrorCounts();
+
+    /**
+     * Get the number of bytes of missive XML files read
+     * 
+     * @return Number of plaintext bytes read
+     */
+    long getPlaintextBytesIn();
+
+    /**
+     * Get the number of bytes of missive XML files whose emails were spilled to disk
+     * 
+     * @return Number of plaintext bytes of the spilled missives
+     */
+    long getSpilledBytes();
+
+    /**
+     * Get the number of missives whose emails were spilled to disk because they did not fit in the memory budget
+     * 
+     * @return Number of spilled missives
+     */
+    long getSpilledMissives();
+
+    /**
+     * Get the latencies of each stage: keystore for the lookup of the key material of a missive, and the setting name
+     * of each missive stage
+     * 
+     * @return Latency snapshot by stage name
+     */
+    Map<String, LatencySnapshot> getStageLatencies();
+
+    /**
+     * Clear every histogram and counter
+     */
+    void reset();
+}
@@ -0,0 +1,666 @@
+package org.smoc.spool;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import javax.mail.util.SharedFileInputStream;
+
+/**
+ * The MissiveSpool class keeps track on disk of the missives being sent, so that the missives interrupted by a crash
+ * can be resumed without signing, encrypting or sending again the work that was completed. Each missive has its own
+ * directory holding the signed and encrypted emails generated for it, and every change of state is appended to the
+ * journal of the spool, which is forced to disk in groups of records.
+ * <p>
+ * The emails written to a missive directory are not forced to disk one by one. Their length and checksum are recorded
+ * in the journal instead, and a missive whose emails are not found intact when the spool is opened resumes from the
+ * last state whose emails are, without ever being sent twice once it has been recorded as sent. The journal is
+ * compacted each time the spool is opened. All the public methods of this class are safe to call concurrently.
+ * <p>
+ * The files of the missives of a retained directory are recorded with the missive once it is archived, and that
+ * record is kept by the compactions of the journal for as long as the file is found at the same place, so that the
+ * caller can still tell which of its files were archived after a crash and move them away.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class MissiveSpool {
+
+    private static final String JOURNAL_FILE = "journal.log";
+    private static final String RECIPIENT_FILE = "recipient.eml";
+    private static final String SENDER_FILE = "sender.eml";
+    private static final String SIGNED_FILE = "signed.eml";
+
+    private final List<String> archivedFilenames;
+    private final File directory;
+    private final SpoolJournal journal;
+    private final List<SpoolEntry> pendingEntries;
+    private volatile File retainedDirectory;
+    private final AtomicLong sequence;
+    private final Session session;
+
+    /**
+     * Get the files of the archived missives of a retained directory that were still found at the same place when the
+     * spool was opened
+     * 
+     * @return Read only list of the paths and names of the missive XML files
+     */
+    public List<String> getArchivedFilenames() {
+        return Collections.unmodifiableList(this.archivedFilenames);
+    }
+
+    /**
+     * Get the missives that were found unfinished when the spool was opened, in the order in which they were accepted
+     * 
+     * @return Read only list of the unfinished missives
+     */
+    public List<SpoolEntry> getPendingEntries() {
+        return this.pendingEntries;
+    }
+
+    /**
+     * Set the directory whose missive XML files are recorded with their missive once it is archived
+     * 
+     * @param retainedDirectory Directory of the missive XML files or null
+     */
+    public void setRetainedDirectory(File retainedDirectory) {
+        this.retainedDirectory = retainedDirectory;
+    }
+
+    /**
+     * MissiveSpool class constructor, recovering the state of the missives left unfinished in the spool directory
+     * 
+     * @param directory Spool directory
+     * @param session Mail session used to read the emails written to the spool
+     * @throws IOException 
+     */
+    public MissiveSpool(File directory, Session session) throws IOException {
+
+        // Initialise class attributes
+        this.archivedFilenames = new ArrayList<>();
+        this.directory = directory;
+        this.sequence = new AtomicLong(0);
+        this.session = session;
+
+        // Create the spool directory
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("The spool directory " + directory.getPath() + " could not be created.");
+        }
+
+        // Recover the unfinished missives and compact the journal before it is opened for appending
+        File journalFile = new File(directory, JOURNAL_FILE);
+        this.pendingEntries = Collections.unmodifiableList(this.recover(journalFile));
+        this.journal = new SpoolJournal(journalFile);
+    }
+
+    /**
+     * Accept a missive in the spool
+     * 
+     * @param subject Subject of the missive document email
+     * @param filename Path and name of the missive XML file
+     * @param recipient Email address or BIC of the recipient or null for the configured recipient
+     * @param priority Priority of the missive or null for a normal priority
+     * @param idempotencyKey Key identifying the missive across submissions or null
+     * @return Spool entry of the missive
+     * @throws IOException 
+     */
+    public SpoolEntry accept(String subject, String filename, String recipient, String priority,
+            String idempotencyKey) throws IOException {
+
+        // Identifier of the missive, ordered by time and then by sequence
+        String id = String.format("%013d-%09d", System.currentTimeMillis(), this.sequence.incrementAndGet());
+
+        // Directory of the missive
+        File entryDirectory = new File(this.directory, id);
+        if (!entryDirectory.mkdir()) {
+            throw new IOException("The spool directory " + entryDirectory.getPath() + " could not be created.");
+        }
+
+        // Record the missive
+        SpoolEntry entry = new SpoolEntry(id, entryDirectory, subject, filename, recipient, priority,
+                idempotencyKey);
+        this.record(entry, SpoolState.ACCEPTED, encode(subject) + " " + encode(filename) + " " + encode(recipient)
+                + " " + encode(priority) + " " + encode(idempotencyKey));
+
+        return entry;
+    }
+
+    /**
+     * Write the signed email of a missive to the spool and record it as signed
+     * 
+     * @param entry Spool entry of the missive
+     * @param signedMessage Signed email
+     * @throws IOException
+     * @throws MessagingException 
+     */
+    public void saveSigned(SpoolEntry entry, MimeMessage signedMessage) throws IOException, MessagingException {
+        this.record(entry, SpoolState.SIGNED, this.write(entry, SIGNED_FILE, signedMessage));
+    }
+
+    /**
+     * Write the encrypted emails of a missive to the spool and record it as encrypted. A single email is written when
+     * the recipient and the sender share the same envelope.
+     * 
+     * @param entry Spool entry of the missive
+     * @param recipientMessage Encrypted email for the recipient
+     * @param senderMessage Encrypted email for the sender
+     * @throws IOException
+     * @throws MessagingException 
+     */
+    public void saveEncrypted(SpoolEntry entry, MimeMessage recipientMessage, MimeMessage senderMessage) throws
+            IOException, MessagingException {
+
+        // Email of the recipient
+        String details = this.write(entry, RECIPIENT_FILE, recipientMessage);
+
+        // Email of the sender, unless it is the same
+        if (senderMessage != recipientMessage) {
+            details += " " + this.write(entry, SENDER_FILE, senderMessage);
+        }
+
+        this.record(entry, SpoolState.ENCRYPTED, details);
+    }
+
+    /**
+     * Read the signed email of a missive from the spool
+     * 
+     * @param entry Spool entry of the missive
+     * @return Signed email
+     * @throws IOException
+     * @throws MessagingException 
+     */
+    public MimeMessage loadSignedMessage(SpoolEntry entry) throws IOException, MessagingException {
+        return this.read(entry, SIGNED_FILE);
+    }
+
+    /**
+     * Read the encrypted email of the recipient of a missive from the spool
+     * 
+     * @param entry Spool entry of the missive
+     * @return Encrypted email for the recipient
+     * @throws IOException
+     * @throws MessagingException 
+     */
+    public MimeMessage loadRecipientMessage(SpoolEntry entry) throws IOException, MessagingException {
+        return this.read(entry, RECIPIENT_FILE);
+    }
+
+    /**
+     * Read the encrypted email of the sender of a missive from the spool
+     * 
+     * @param entry Spool entry of the missive
+     * @return Encrypted email for the sender
+     * @throws IOException
+     * @throws MessagingException 
+     */
+    public MimeMessage loadSenderMessage(SpoolEntry entry) throws IOException, MessagingException {
+
+        // The recipient and the sender share the same email when there is no email for the sender
+        if (!entry.getArtifacts().containsKey(SENDER_FILE)) {
+            return this.read(entry, RECIPIENT_FILE);
+        }
+
+        return this.read(entry, SENDER_FILE);
+    }
+
+    /**
+     * Get the length of the signed email of a missive, as recorded in the journal
+     * 
+     * @param entry Spool entry of the missive
+     * @return Length of the signed email in bytes, or 0 if the missive has not been signed
+     */
+    public long getSignedLength(SpoolEntry entry) {
+
+        // Length and checksum of the file
+        String artifact = entry.getArtifacts().get(SIGNED_FILE);
+        if (null == artifact) {
+            return 0;
+        }
+
+        return Long.parseLong(artifact.substring(0, artifact.indexOf(':')));
+    }
+
+    /**
+     * Close the files opened to read the emails of a missive back from the spool. The emails read from the spool
+     * must not be used afterwards.
+     * 
+     * @param entry Spool entry of the missive
+     */
+    public void release(SpoolEntry entry) {
+
+        for (SharedFileInputStream stream : entry.getStreams()) {
+            try {
+                stream.close();
+            } catch (IOException ex) {
+
+                // The file is no longer read, there is nothing else to release
+            }
+        }
+
+        entry.getStreams().clear();
+    }
+
+    /**
+     * Record a missive as delivered to the recipient
+     * 
+     * @param entry Spool entry of the missive
+     * @param messageId Message-ID of the email sent to the recipient
+     * @throws IOException 
+     */
+    public void markSent(SpoolEntry entry, String messageId) throws IOException {
+        entry.setMessageId(messageId);
+        this.record(entry, SpoolState.SENT, encode(messageId));
+    }
+
+    /**
+     * Record the copy of the sender of a missive as archived and remove the missive from the spool. The file of the
+     * missive is recorded with it when it lies in the retained directory.
+     * 
+     * @param entry Spool entry of the missive
+     * @throws IOException 
+     */
+    public void markArchived(SpoolEntry entry) throws IOException {
+
+        // Check if the file of the missive lies in the retained directory
+        File retained = this.retainedDirectory;
+        File parent = new File(entry.getFilename()).getAbsoluteFile().getParentFile();
+        boolean retain = null != retained && retained.getAbsoluteFile().equals(parent);
+
+        this.record(entry, SpoolState.ARCHIVED, retain ? encode(entry.getFilename()) : null);
+        this.release(entry);
+        delete(entry.getDirectory());
+    }
+
+    /**
+     * Record a missive that failed as such and remove it from the spool, unless it was already sent, in which case it
+     * stays in the spool until its copy has been archived
+     * 
+     * @param entry Spool entry of the missive
+     * @throws IOException 
+     */
+    public void discard(SpoolEntry entry) throws IOException {
+
+        // A missive that has been delivered is never abandoned
+        if (entry.getState().compareTo(SpoolState.SENT) >= 0) {
+            return;
+        }
+
+        this.record(entry, SpoolState.FAILED, null);
+        this.release(entry);
+        delete(entry.getDirectory());
+    }
+
+    /**
+     * Close the journal of the spool
+     * 
+     * @throws IOException 
+     */
+    public void close() throws IOException {
+        this.journal.close();
+    }
+
+    /**
+     * Append a change of state of a missive to the journal and wait for it to be durable
+     * 
+     * @param entry Spool entry of the missive
+     * @param state New state of the missive
+     * @param details Details of the record or null
+     * @throws IOException 
+     */
+    private void record(SpoolEntry entry, SpoolState state, String details) throws IOException {
+
+        // Journal record
+        String record = entry.getId() + " " + state.name() + (null == details ? "" : " " + details);
+
+        // Wait for the record to be durable before moving the missive forward
+        this.journal.append(record);
+        entry.advance(state);
+    }
+
+    /**
+     * Write an email of a missive to its directory
+     * 
+     * @param entry Spool entry of the missive
+     * @param name Name of the file
+     * @param message Email to write
+     * @return Name, length and checksum of the file, as recorded in the journal
+     * @throws IOException
+     * @throws MessagingException 
+     */
+    private String write(SpoolEntry entry, String name, MimeMessage message) throws IOException, MessagingException {
+
+        // Checksum of the file
+        CRC32 checksum = new CRC32();
+        CountingOutputStream counter;
+
+        // Write the email, computing its length and checksum on the way
+        try (OutputStream out = new BufferedOutputStream(new CheckedOutputStream(new FileOutputStream(
+                new File(entry.getDirectory(), name)), checksum), 65536)) {
+            counter = new CountingOutputStream(out);
+            message.writeTo(counter);
+        }
+
+        // Length and checksum of the file
+        String artifact = counter.getCount() + ":" + Long.toHexString(checksum.getValue());
+        entry.getArtifacts().put(name, artifact);
+
+        return name + "=" + artifact;
+    }
+
+    /**
+     * Read an email of a missive from its directory. Only the headers of the email are parsed, its content being read
+     * from the file whenever it is written, so that the file stays open until the missive is released.
+     * 
+     * @param entry Spool entry of the missive
+     * @param name Name of the file
+     * @return Email read from the file
+     * @throws IOException
+     * @throws MessagingException 
+     */
+    private MimeMessage read(SpoolEntry entry, String name) throws IOException, MessagingException {
+
+        SharedFileInputStream in = new SharedFileInputStream(new File(entry.getDirectory(), name), 65536);
+        entry.getStreams().add(in);
+
+        return new MimeMessage(this.session, in);
+    }
+
+    /**
+     * Rebuild the state of the missives from the journal, remove the files of the finished missives and compact the
+     * journal
+     * 
+     * @param journalFile Journal file
+     * @return Unfinished missives, in the order in which they were accepted
+     * @throws IOException 
+     */
+    private List<SpoolEntry> recover(File journalFile) throws IOException {
+
+        // Missives of the journal, by identifier
+        Map<String, SpoolEntry> entries = new LinkedHashMap<>();
+
+        // Archive records holding the file of the missive, by identifier
+        Map<String, String> archivedRecords = new LinkedHashMap<>();
+
+        // Replay the journal
+        for (String record : SpoolJournal.read(journalFile)) {
+
+            // Identifier, state and details of the record
+            String[] fields = record.split(" ");
+            if (fields.length < 2) {
+                continue;
+            }
+
+            SpoolState state;
+            try {
+                state = SpoolState.valueOf(fields[1]);
+            } catch (IllegalArgumentException ex) {
+                continue;
+            }
+
+            // Archived missive whose file was recorded, possibly kept alone by a previous compaction
+            if (SpoolState.ARCHIVED == state && fields.length >= 3) {
+                archivedRecords.put(fields[0], record);
+            }
+
+            // Missive the record relates to
+            SpoolEntry entry = entries.get(fields[0]);
+
+            if (SpoolState.ACCEPTED == state && fields.length >= 4) {
+                entry = new SpoolEntry(fields[0], new File(this.directory, fields[0]), decode(fields[2]),
+                        decode(fields[3]), decodeOptional(fields, 4), decodeOptional(fields, 5),
+                        decodeOptional(fields, 6));
+                entries.put(fields[0], entry);
+            } else if (null == entry) {
+                continue;
+            }
+
+            // Files written for the state
+            for (int i = 2; i < fields.length; i++) {
+                int separator = fields[i].indexOf('=');
+                if (separator > 0) {
+                    entry.getArtifacts().put(fields[i].substring(0, separator), fields[i].substring(separator + 1));
+                }
+            }
+
+            // Message-ID of the email sent to the recipient
+            if (SpoolState.SENT == state && fields.length >= 3) {
+                entry.setMessageId(decode(fields[2]));
+            }
+
+            entry.getRecords().add(record);
+            entry.advance(state);
+        }
+
+        // Unfinished missives and their journal records
+        List<SpoolEntry> pending = new ArrayList<>();
+        List<String> records = new ArrayList<>();
+
+        for (SpoolEntry entry : entries.values()) {
+
+            // Finished missives leave nothing behind
+            if (entry.getState().compareTo(SpoolState.ARCHIVED) >= 0) {
+                continue;
+            }
+
+            // Resume from the last state whose files are intact
+            entry.setResumeState(this.findResumeState(entry));
+
+            pending.add(entry);
+            records.addAll(entry.getRecords());
+        }
+
+        // Keep the archive records whose file has not been moved away yet
+        for (String record : archivedRecords.values()) {
+            String filename = decode(record.split(" ")[2]);
+            if (new File(filename).isFile()) {
+                this.archivedFilenames.add(filename);
+                records.add(record);
+            }
+        }
+
+        // Remove the directories of the missives that are finished or were never recorded
+        File[] files = this.directory.listFiles();
+        if (null != files) {
+            for (File file : files) {
+                if (file.isDirectory() && !isPending(pending, file.getName())) {
+                    delete(file);
+                }
+            }
+        }
+
+        // Keep only the records of the unfinished missives and of the archived files still in place
+        SpoolJournal.rewrite(journalFile, records);
+
+        return pending;
+    }
+
+    /**
+     * Find the state from which the signing and encryption of a recovered missive resume
+     * 
+     * @param entry Spool entry of the missive
+     * @return Last state whose files are intact
+     */
+    private SpoolState findResumeState(SpoolEntry entry) {
+
+        // Whether the missive has been sent, in which case only the email of the sender is still needed
+        boolean sent = entry.getState().compareTo(SpoolState.SENT) >= 0;
+
+        // Encrypted emails
+        if (entry.getState().compareTo(SpoolState.ENCRYPTED) >= 0) {
+
+            String senderFile = entry.getArtifacts().containsKey(SENDER_FILE) ? SENDER_FILE : RECIPIENT_FILE;
+
+            if (this.isIntact(entry, senderFile) && (sent || this.isIntact(entry, RECIPIENT_FILE))) {
+                return SpoolState.ENCRYPTED;
+            }
+        }
+
+        // Signed email
+        if (entry.getState().compareTo(SpoolState.SIGNED) >= 0 && this.isIntact(entry, SIGNED_FILE)) {
+            return SpoolState.SIGNED;
+        }
+
+        return SpoolState.ACCEPTED;
+    }
+
+    /**
+     * Check that a file of a missive has the length and checksum recorded in the journal
+     * 
+     * @param entry Spool entry of the missive
+     * @param name Name of the file
+     * @return Whether the file is intact
+     */
+    private boolean isIntact(SpoolEntry entry, String name) {
+
+        // Length and checksum recorded in the journal
+        String artifact = entry.getArtifacts().get(name);
+        File file = new File(entry.getDirectory(), name);
+
+        if (null == artifact || !file.isFile()) {
+            return false;
+        }
+
+        // Checksum of the file content
+        CRC32 checksum = new CRC32();
+
+        try (InputStream in = new CheckedInputStream(new FileInputStream(file), checksum)) {
+
+            byte[] buffer = new byte[65536];
+            while (in.read(buffer) >= 0) {
+                // Read the whole file through the checksum
+            }
+
+        } catch (IOException ex) {
+            return false;
+        }
+
+        return artifact.equals(file.length() + ":" + Long.toHexString(checksum.getValue()));
+    }
+
+    /**
+     * Check if an identifier belongs to one of the unfinished missives
+     * 
+     * @param pending Unfinished missives
+     * @param id Identifier of a missive
+     * @return Whether the missive is unfinished
+     */
+    private static boolean isPending(List<SpoolEntry> pending, String id) {
+
+        for (SpoolEntry entry : pending) {
+            if (entry.getId().equals(id)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Delete the directory of a missive and the files it holds
+     * 
+     * @param directory Directory of the missive
+     */
+    private static void delete(File directory) {
+
+        // Files of the missive
+        File[] files = directory.listFiles();
+        if (null != files) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+
+        directory.delete();
+    }
+
+    /**
+     * Encode a value so that it can be stored as a single field of a journal record, a null value being stored as an
+     * empty field
+     * 
+     * @param value Value to encode or null
+     * @return Encoded value
+     * @throws UnsupportedEncodingException 
+     */
+    private static String encode(String value) throws UnsupportedEncodingException {
+        return null == value ? "" : URLEncoder.encode(value, "UTF-8");
+    }
+
+    /**
+     * Decode a field of a journal record
+     * 
+     * @param field Field to decode
+     * @return Decoded value
+     * @throws UnsupportedEncodingException 
+     */
+    private static String decode(String field) throws UnsupportedEncodingException {
+        return URLDecoder.decode(field, "UTF-8");
+    }
+
+    /**
+     * Decode an optional field of a journal record, which is missing or empty when its value is null
+     * 
+     * @param fields Fields of the journal record
+     * @param index Index of the field
+     * @return Decoded value or null
+     * @throws UnsupportedEncodingException 
+     */
+    private static String decodeOptional(String[] fields, int index) throws UnsupportedEncodingException {
+        return fields.length > index && !fields[index].isEmpty() ? decode(fields[index]) : null;
+    }
+
+    /**
+     * The CountingOutputStream class counts the bytes written through it
+     */
+    private static class CountingOutputStream extends java.io.FilterOutputStream {
+
+        private long count;
+
+        /**
+         * Get the number of bytes written
+         * 
+         * @return Number of bytes written
+         */
+        long getCount() {
+            return this.count;
+        }
+
+        /**
+         * CountingOutputStream class constructor
+         * 
+         * @param out Stream the bytes are written to
+         */
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.out.write(b);
+            this.count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.out.write(b, off, len);
+            this.count += len;
+        }
+    }
+}
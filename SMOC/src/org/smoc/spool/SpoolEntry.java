@@ -0,0 +1,218 @@
+package org.smoc.spool;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.mail.util.SharedFileInputStream;
+
+/**
+ * The SpoolEntry class is the state of a missive held in the spool: its request, the last state recorded for it in
+ * the journal, and the state from which its signing and encryption can resume given the files of the spool that were
+ * found intact.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class SpoolEntry {
+
+    private final Map<String, String> artifacts;
+    private final File directory;
+    private final String filename;
+    private final String id;
+    private final String idempotencyKey;
+    private String messageId;
+    private final String priority;
+    private final String recipient;
+    private final List<String> records;
+    private volatile SpoolState resumeState;
+    private volatile SpoolState state;
+    private final List<SharedFileInputStream> streams;
+    private final String subject;
+
+    /**
+     * Get the identifier of the missive in the spool
+     * 
+     * @return Identifier of the missive
+     */
+    public String getId() {
+        return this.id;
+    }
+
+    /**
+     * Get the path and name of the missive XML file
+     * 
+     * @return Path and name of the missive XML file
+     */
+    public String getFilename() {
+        return this.filename;
+    }
+
+    /**
+     * Get the key identifying the missive across submissions
+     * 
+     * @return Idempotency key of the missive or null if the missive does not have one
+     */
+    public String getIdempotencyKey() {
+        return this.idempotencyKey;
+    }
+
+    /**
+     * Get the Message-ID of the email sent to the recipient
+     * 
+     * @return Message-ID of the email sent to the recipient or null if the missive has not been sent
+     */
+    public String getMessageId() {
+        return this.messageId;
+    }
+
+    /**
+     * Get the priority of the missive
+     * 
+     * @return Priority of the missive or null for a normal priority
+     */
+    public String getPriority() {
+        return this.priority;
+    }
+
+    /**
+     * Get the email address or BIC of the recipient of the missive
+     * 
+     * @return Email address or BIC of the recipient, or null if the missive is sent to the configured recipient
+     */
+    public String getRecipient() {
+        return this.recipient;
+    }
+
+    /**
+     * Get the state from which the signing and encryption of the missive resume. It is behind the recorded state when
+     * the files written for the recorded state were not found intact.
+     * 
+     * @return State from which the signing and encryption resume
+     */
+    public SpoolState getResumeState() {
+        return this.resumeState;
+    }
+
+    /**
+     * Get the last state recorded for the missive in the journal
+     * 
+     * @return Last recorded state
+     */
+    public SpoolState getState() {
+        return this.state;
+    }
+
+    /**
+     * Get the subject of the missive document email
+     * 
+     * @return Subject of the missive document email
+     */
+    public String getSubject() {
+        return this.subject;
+    }
+
+    /**
+     * SpoolEntry class constructor
+     * 
+     * @param id Identifier of the missive
+     * @param directory Directory holding the files of the missive
+     * @param subject Subject of the missive document email
+     * @param filename Path and name of the missive XML file
+     * @param recipient Email address or BIC of the recipient or null for the configured recipient
+     * @param priority Priority of the missive or null for a normal priority
+     * @param idempotencyKey Key identifying the missive across submissions or null
+     */
+    SpoolEntry(String id, File directory, String subject, String filename, String recipient, String priority,
+            String idempotencyKey) {
+
+        // Initialise class attributes
+        this.artifacts = new HashMap<>();
+        this.directory = directory;
+        this.filename = filename;
+        this.id = id;
+        this.idempotencyKey = idempotencyKey;
+        this.priority = priority;
+        this.recipient = recipient;
+        this.records = new ArrayList<>();
+        this.resumeState = SpoolState.ACCEPTED;
+        this.state = SpoolState.ACCEPTED;
+        this.streams = new ArrayList<>();
+        this.subject = subject;
+    }
+
+    /**
+     * Get the lengths and checksums of the files written for the missive, by file name
+     * 
+     * @return Length and checksum of each file
+     */
+    Map<String, String> getArtifacts() {
+        return this.artifacts;
+    }
+
+    /**
+     * Get the directory holding the files of the missive
+     * 
+     * @return Directory of the missive
+     */
+    File getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * Get the journal records of the missive, in the order in which they were appended
+     * 
+     * @return Journal records of the missive
+     */
+    List<String> getRecords() {
+        return this.records;
+    }
+
+    /**
+     * Get the files of the missive opened to read its emails back from the spool, which stay open for as long as the
+     * emails are used
+     * 
+     * @return Open files of the missive
+     */
+    List<SharedFileInputStream> getStreams() {
+        return this.streams;
+    }
+
+    /**
+     * Set the Message-ID of the email sent to the recipient
+     * 
+     * @param messageId Message-ID of the email sent to the recipient
+     */
+    void setMessageId(String messageId) {
+        this.messageId = messageId;
+    }
+
+    /**
+     * Set the state from which the signing and encryption of the missive resume
+     * 
+     * @param resumeState State from which the signing and encryption resume
+     */
+    void setResumeState(SpoolState resumeState) {
+        this.resumeState = resumeState;
+    }
+
+    /**
+     * Move the missive forward to the given state. States never move backwards, a missive whose files are generated
+     * again after it was sent remains sent.
+     * 
+     * @param state Recorded state
+     */
+    void advance(SpoolState state) {
+
+        // Recorded state
+        if (state.compareTo(this.state) > 0) {
+            this.state = state;
+        }
+
+        // State from which the signing and encryption resume
+        if (state.compareTo(this.resumeState) > 0) {
+            this.resumeState = state;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package org.smoc.spool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The SpoolJournal class appends records to the journal file of a spool, one record per line. A record is only
+ * acknowledged once it has been forced to disk, but records appended concurrently are forced together: the first
+ * thread to find no flush in progress writes and forces every record appended so far, while the other threads wait
+ * for it. Durability therefore costs one fsync per group of records rather than one per record.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+class SpoolJournal {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private long appendedCount;
+    private long durableCount;
+    private IOException failure;
+    private boolean flushing;
+    private final Object lock;
+    private final FileOutputStream out;
+    private ByteArrayOutputStream pendingRecords;
+
+    /**
+     * SpoolJournal class constructor, opening the journal file for appending
+     * 
+     * @param file Journal file
+     * @throws IOException 
+     */
+    SpoolJournal(File file) throws IOException {
+
+        // Initialise class attributes
+        this.appendedCount = 0;
+        this.durableCount = 0;
+        this.flushing = false;
+        this.lock = new Object();
+        this.out = new FileOutputStream(file, true);
+        this.pendingRecords = new ByteArrayOutputStream();
+    }
+
+    /**
+     * Read the records of a journal file. A last record that was only partly written is ignored.
+     * 
+     * @param file Journal file
+     * @return Records of the journal, in the order in which they were appended
+     * @throws IOException 
+     */
+    static List<String> read(File file) throws IOException {
+
+        // Records of the journal
+        List<String> records = new ArrayList<>();
+
+        // Check if the journal has been created
+        if (!file.isFile()) {
+            return records;
+        }
+
+        // Journal content
+        byte[] content = Files.readAllBytes(file.toPath());
+
+        // Only the records followed by a line feed were completely written
+        int completeLength = content.length;
+        while (completeLength > 0 && content[completeLength - 1] != '\n') {
+            completeLength--;
+        }
+
+        for (String line : new String(content, 0, completeLength, UTF8).split("\n")) {
+            if (!line.isEmpty()) {
+                records.add(line);
+            }
+        }
+
+        return records;
+    }
+
+    /**
+     * Replace a journal file with the given records, writing them to a temporary file that is forced to disk and
+     * then renamed over the journal, the rename being forced to disk as well
+     * 
+     * @param file Journal file
+     * @param records Records of the new journal
+     * @throws IOException 
+     */
+    static void rewrite(File file, Collection<String> records) throws IOException {
+
+        // New journal written next to the current one
+        File temporaryFile = new File(file.getPath() + ".tmp");
+
+        try (FileOutputStream out = new FileOutputStream(temporaryFile)) {
+
+            for (String record : records) {
+                out.write((record + "\n").getBytes(UTF8));
+            }
+
+            out.getFD().sync();
+        }
+
+        // Replace the journal in one step
+        Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(file.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * Append a record to the journal and wait until it has been forced to disk. An interruption of the calling thread
+     * is only delivered once the record is durable.
+     * 
+     * @param record Record, without line feed
+     * @throws IOException 
+     */
+    void append(String record) throws IOException {
+
+        // Whether the thread was interrupted while waiting for another thread's flush
+        boolean interrupted = false;
+
+        try {
+
+            // Position of the record in the journal
+            long sequence;
+
+            synchronized (this.lock) {
+
+                // Check that the journal can still be written
+                this.checkFailure();
+
+                // Queue the record for the next flush
+                byte[] bytes = (record + "\n").getBytes(UTF8);
+                this.pendingRecords.write(bytes, 0, bytes.length);
+                sequence = ++this.appendedCount;
+            }
+
+            while (true) {
+
+                // Records flushed by the current thread
+                ByteArrayOutputStream records;
+                long flushedCount;
+
+                synchronized (this.lock) {
+
+                    // Wait until the record is durable or nobody is flushing
+                    while (true) {
+
+                        if (this.durableCount >= sequence) {
+                            return;
+                        }
+
+                        this.checkFailure();
+
+                        if (!this.flushing) {
+                            break;
+                        }
+
+                        interrupted |= this.awaitFlush();
+                    }
+
+                    // Take every pending record, including the ones appended by the waiting threads
+                    records = this.pendingRecords;
+                    flushedCount = this.appendedCount;
+                    this.pendingRecords = new ByteArrayOutputStream();
+                    this.flushing = true;
+                }
+
+                // Outcome of the flush
+                IOException flushFailure = null;
+
+                try {
+
+                    // Write the records and force them to disk, without holding the lock. The stream is used rather
+                    // than a file channel, which an interruption of the thread would close for every other thread
+                    records.writeTo(this.out);
+                    this.out.getFD().sync();
+
+                } catch (IOException ex) {
+                    flushFailure = ex;
+                }
+
+                synchronized (this.lock) {
+
+                    // Publish the outcome of the flush and wake the waiting threads
+                    this.flushing = false;
+                    if (null == flushFailure) {
+                        this.durableCount = flushedCount;
+                    } else {
+                        this.failure = flushFailure;
+                    }
+                    this.lock.notifyAll();
+                }
+            }
+
+        } finally {
+
+            // Deliver the interruption held back while the record was being made durable
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Close the journal file
+     * 
+     * @throws IOException 
+     */
+    void close() throws IOException {
+        this.out.close();
+    }
+
+    /**
+     * Wait for the thread flushing the journal. Must be called while holding the lock.
+     * 
+     * @return Whether the current thread was interrupted while waiting, its interrupted status being cleared
+     */
+    private boolean awaitFlush() {
+
+        try {
+            this.lock.wait();
+        } catch (InterruptedException ex) {
+
+            // The record must be durable before the caller goes on, the interruption is delivered afterwards
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Check that no flush of the journal has failed, since the records that follow a failed flush would not be
+     * durable. Must be called while holding the lock.
+     * 
+     * @throws IOException 
+     */
+    private void checkFailure() throws IOException {
+        if (null != this.failure) {
+            throw new IOException("The spool journal could not be written.", this.failure);
+        }
+    }
+
+    /**
+     * Flush the entries of the spool directory to disk, so that a power loss cannot bring back the journal that was
+     * replaced
+     * 
+     * @param directory Spool directory
+     * @throws IOException
+     */
+    private static void syncDirectory(File directory) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException ex) {
+
+            // Directories cannot be opened on Windows, where the file system journals the rename itself
+        }
+    }
+}
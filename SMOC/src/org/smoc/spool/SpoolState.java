@@ -0,0 +1,41 @@
+package org.smoc.spool;
+
+/**
+ * The SpoolState enumeration lists the states recorded in the spool journal for a missive, in the order in which a
+ * missive goes through them. ARCHIVED and FAILED are final states.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public enum SpoolState {
+
+    /**
+     * The missive has been accepted, its subject and file are known
+     */
+    ACCEPTED,
+
+    /**
+     * The email of the missive has been signed and the signed email written to the spool
+     */
+    SIGNED,
+
+    /**
+     * The signed email has been encrypted and the encrypted emails written to the spool
+     */
+    ENCRYPTED,
+
+    /**
+     * The encrypted email has been delivered to the recipient via SMTP
+     */
+    SENT,
+
+    /**
+     * The copy of the sender has been appended to the Sent Items folder, or written to the archive queue
+     */
+    ARCHIVED,
+
+    /**
+     * The missive failed before it was sent and the failure was reported to the caller
+     */
+    FAILED
+}
@@ -0,0 +1,112 @@
+package org.smoc.utils;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import javax.activation.DataSource;
+
+/**
+ * The FileChannelDataSource class exposes the content of a file to JavaMail as a data source. Each reader gets its own
+ * stream over a file channel, so the file is read in small chunks straight from the file system and its content is
+ * never held in memory as a whole.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class FileChannelDataSource implements DataSource {
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private String contentType;
+    private File file;
+
+    /**
+     * Get the file read by this data source
+     * 
+     * @return File read by this data source
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * FileChannelDataSource class constructor
+     * 
+     * @param filename Path and name of the file
+     * @param contentType MIME content type of the file
+     * @throws FileNotFoundException
+     */
+    public FileChannelDataSource(String filename, String contentType) throws FileNotFoundException {
+
+        // Initialise class attributes
+        this.contentType = contentType;
+        this.file = new File(filename);
+
+        // Check if file exists
+        if (!this.file.isFile()) {
+
+            // File could not be found
+            throw new FileNotFoundException(filename);
+        }
+    }
+
+    /**
+     * Get the MIME content type of the file
+     * 
+     * @return MIME content type of the file
+     */
+    @Override
+    public String getContentType() {
+        return this.contentType;
+    }
+
+    /**
+     * Get a new stream over the content of the file
+     * 
+     * @return Stream over the content of the file
+     * @throws IOException
+     */
+    @Override
+    public InputStream getInputStream() throws IOException {
+
+        // Buffer the channel stream so that byte by byte readers do not hit the channel for every byte
+        return new BufferedInputStream(Channels.newInputStream(FileChannel.open(this.file.toPath(),
+                StandardOpenOption.READ)), BUFFER_SIZE);
+    }
+
+    /**
+     * Get the name of the file
+     * 
+     * @return Name of the file
+     */
+    @Override
+    public String getName() {
+        return this.file.getName();
+    }
+
+    /**
+     * The file is read only
+     * 
+     * @return Never returns
+     * @throws IOException
+     */
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        throw new IOException("The file " + this.file.getPath() + " is read only.");
+    }
+
+    /**
+     * Get the size of the file
+     * 
+     * @return Size of the file in bytes
+     */
+    public long getSize() {
+        return this.file.length();
+    }
+}
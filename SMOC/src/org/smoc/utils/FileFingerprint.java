@@ -0,0 +1,88 @@
+package org.smoc.utils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * The FileFingerprint class records the modification time, the size and the SHA-256 digest of a file at a given point
+ * in time so that changes made to the file afterwards can be detected.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class FileFingerprint {
+
+    private final byte[] digest;
+    private final long lastModified;
+    private final long length;
+
+    /**
+     * FileFingerprint class constructor
+     * 
+     * @param lastModified Modification time of the file
+     * @param length Size of the file in bytes
+     * @param digest SHA-256 digest of the content of the file
+     */
+    private FileFingerprint(long lastModified, long length, byte[] digest) {
+
+        // Initialise class attributes
+        this.digest = digest;
+        this.lastModified = lastModified;
+        this.length = length;
+    }
+
+    /**
+     * Compute the fingerprint of the specified file
+     * 
+     * @param filename Path and name of the file
+     * @return Fingerprint of the file
+     * @throws FileNotFoundException
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    public static FileFingerprint of(String filename) throws FileNotFoundException, IOException,
+            NoSuchAlgorithmException {
+
+        // File object instance
+        File file = new File(filename);
+
+        // Check if file exists
+        if (!file.exists()) {
+            throw new FileNotFoundException(filename);
+        }
+
+        // Read the file attributes before the content so that a concurrent write is caught on the next check
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        return new FileFingerprint(lastModified, length, SmocFileUtils.digest(filename));
+    }
+
+    /**
+     * Check whether the modification time and the size of the specified file still match this fingerprint. This check
+     * does not read the content of the file.
+     * 
+     * @param filename Path and name of the file
+     * @return Whether the file attributes still match this fingerprint
+     */
+    public boolean matches(String filename) {
+
+        // File object instance
+        File file = new File(filename);
+
+        return file.exists() && file.lastModified() == this.lastModified && file.length() == this.length;
+    }
+
+    /**
+     * Check whether the given fingerprint was computed over the same file content as this fingerprint
+     * 
+     * @param fingerprint Fingerprint to compare with
+     * @return Whether both fingerprints have the same digest
+     */
+    public boolean hasSameContent(FileFingerprint fingerprint) {
+        return Arrays.equals(this.digest, fingerprint.digest);
+    }
+}
@@ -0,0 +1,75 @@
+package org.smoc.utils;
+
+/**
+ * The MemoryBudget class bounds the number of bytes of emails the missives in flight hold on the heap. A missive
+ * reserves its estimated footprint before it is signed and runs in memory if the reservation fits in the budget; it
+ * spills its emails to disk otherwise. The reservation is given back once the missive has been archived or has
+ * failed.
+ * <p>
+ * Thread safety: reservations and releases are synchronized on the budget.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class MemoryBudget {
+
+    private final long capacity;
+    private long reserved;
+
+    /**
+     * Get the number of bytes the missives in flight may hold on the heap
+     * 
+     * @return Capacity of the budget in bytes
+     */
+    public long getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Get the number of bytes currently reserved by the missives in flight
+     * 
+     * @return Reserved bytes
+     */
+    public synchronized long getReserved() {
+        return this.reserved;
+    }
+
+    /**
+     * MemoryBudget class constructor
+     * 
+     * @param capacity Number of bytes the missives in flight may hold on the heap
+     */
+    public MemoryBudget(long capacity) {
+
+        // Initialise class attributes
+        this.capacity = capacity;
+        this.reserved = 0;
+    }
+
+    /**
+     * Reserve bytes of the budget if they fit in what is left of it
+     * 
+     * @param bytes Number of bytes to reserve
+     * @return Whether the bytes have been reserved, in which case they must be released afterwards
+     */
+    public synchronized boolean tryReserve(long bytes) {
+
+        // Check that the reservation fits in the budget
+        if (bytes > this.capacity - this.reserved) {
+            return false;
+        }
+
+        this.reserved += bytes;
+
+        return true;
+    }
+
+    /**
+     * Give back bytes reserved with tryReserve
+     * 
+     * @param bytes Number of bytes reserved
+     */
+    public synchronized void release(long bytes) {
+        this.reserved = Math.max(0, this.reserved - bytes);
+    }
+}
@@ -0,0 +1,211 @@
+package org.smoc.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import javax.activation.DataSource;
+import javax.mail.util.SharedFileInputStream;
+
+/**
+ * The MessageBuffer class is an output stream holding the serialized bytes of an email, either in memory or in a
+ * temporary file of a spill directory, whose content can be read back as a shared input stream. A MIME message parsed
+ * from the shared input stream of a file buffer only keeps the offsets of its content in the file, so that a very
+ * large email is never held on the heap.
+ * <p>
+ * A file buffer keeps its file open once it has been read back, until the spill files it was created by are released.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class MessageBuffer extends OutputStream {
+
+    private final File file;
+    private OutputStream fileOut;
+    private SharedFileInputStream fileIn;
+    private final SharedByteArrayOutputStream memory;
+    private long size;
+
+    /**
+     * Get the buffer holding the bytes written so far by an in-memory buffer, without copying it. Only the first
+     * size() bytes of the buffer are meaningful.
+     * 
+     * @return Buffer of the output stream
+     * @throws IllegalStateException if the bytes were written to a file
+     */
+    public byte[] getBuffer() {
+
+        // The bytes of a file buffer are only available through its input stream
+        if (null == this.memory) {
+            throw new IllegalStateException("The message buffer has been spilled to " + this.file);
+        }
+
+        return this.memory.getBuffer();
+    }
+
+    /**
+     * Check whether the bytes are written to a temporary file rather than kept in memory
+     * 
+     * @return Whether the buffer is backed by a file
+     */
+    public boolean isSpilled() {
+        return null != this.file;
+    }
+
+    /**
+     * Get the number of bytes written so far
+     * 
+     * @return Number of bytes written
+     */
+    public long size() {
+        return this.size;
+    }
+
+    /**
+     * MessageBuffer class constructor for a buffer held in memory
+     * 
+     * @param size Initial size of the buffer in bytes
+     */
+    public MessageBuffer(int size) {
+
+        // Initialise class attributes
+        this.file = null;
+        this.memory = new SharedByteArrayOutputStream(size);
+        this.size = 0;
+    }
+
+    /**
+     * MessageBuffer class constructor for a buffer written to a temporary file
+     * 
+     * @param file Temporary file the bytes are written to
+     * @throws IOException
+     */
+    MessageBuffer(File file) throws IOException {
+
+        // Initialise class attributes
+        this.file = file;
+        this.fileOut = new BufferedOutputStream(new FileOutputStream(file), 65536);
+        this.memory = null;
+        this.size = 0;
+    }
+
+    /**
+     * Create a message buffer, in memory unless spill files are given
+     * 
+     * @param spillFiles Spill files of the missive the email belongs to, or null to keep the email in memory
+     * @param size Estimated size of the email in bytes, used as the initial size of an in-memory buffer
+     * @return Message buffer
+     * @throws IOException if the temporary file cannot be created
+     */
+    public static MessageBuffer create(SpillFiles spillFiles, int size) throws IOException {
+        return null == spillFiles ? new MessageBuffer(size) : spillFiles.newBuffer();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.target().write(b);
+        this.size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        this.target().write(b, off, len);
+        this.size += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.target().flush();
+    }
+
+    /**
+     * Get a shared input stream over the bytes written so far. Nothing must be written to this output stream
+     * afterwards, the bytes being shared with the returned stream.
+     * 
+     * @return Shared input stream over the bytes written so far
+     * @throws IOException
+     */
+    public synchronized InputStream toSharedInputStream() throws IOException {
+
+        // Bytes held in memory
+        if (null == this.file) {
+            return this.memory.toSharedInputStream();
+        }
+
+        // Complete the file and open it once, every stream read from it sharing the same file handle
+        if (null == this.fileIn) {
+            this.fileOut.close();
+            this.fileIn = new SharedFileInputStream(this.file);
+        }
+
+        return this.fileIn.newStream(0, -1);
+    }
+
+    /**
+     * Get a data source over the bytes written so far, each of its input streams reading them from the start
+     * 
+     * @param contentType Content type of the data source
+     * @return Data source over the bytes written so far
+     */
+    public DataSource toDataSource(final String contentType) {
+
+        return new DataSource() {
+
+            @Override
+            public String getContentType() {
+                return contentType;
+            }
+
+            @Override
+            public InputStream getInputStream() throws IOException {
+                return null == MessageBuffer.this.file
+                        ? new ByteArrayInputStream(MessageBuffer.this.getBuffer(), 0, (int) MessageBuffer.this.size)
+                        : MessageBuffer.this.toSharedInputStream();
+            }
+
+            @Override
+            public String getName() {
+                return null == MessageBuffer.this.file ? "" : MessageBuffer.this.file.getName();
+            }
+
+            @Override
+            public OutputStream getOutputStream() throws IOException {
+                throw new IOException("A message buffer data source is read only");
+            }
+        };
+    }
+
+    /**
+     * Close the file of a file buffer and delete it. The emails parsed from the buffer must not be used afterwards.
+     */
+    synchronized void release() {
+
+        try {
+            if (null != this.fileIn) {
+                this.fileIn.close();
+            } else if (null != this.fileOut) {
+                this.fileOut.close();
+            }
+        } catch (IOException ex) {
+
+            // The file is deleted whether or not it could be closed cleanly
+        }
+
+        // Delete the file, or at the latest when the JVM exits if it is still open elsewhere
+        if (null != this.file && !this.file.delete() && this.file.exists()) {
+            this.file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Get the stream the bytes are written to
+     * 
+     * @return In-memory buffer or buffered file output stream
+     */
+    private OutputStream target() {
+        return null == this.file ? this.memory : this.fileOut;
+    }
+}
@@ -0,0 +1,341 @@
+package org.smoc.utils;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.smoc.exceptions.InvalidMissiveException;
+
+/**
+ * The MissiveHeader class holds the routing metadata of a SEPAmail missive XML document: the identifier, type, order
+ * and priority of the missive and the BIC and IBAN of its sender and receiver. The header is read with a streaming
+ * parser that stops as soon as the MsvHdr element is closed, so that only the first few hundred bytes of the document
+ * are parsed whatever its size.
+ * <p>
+ * Elements are matched by local name so that every version of the SEPAmail schema is supported. Values set to the
+ * #NA placeholder of the missive templates are reported as missing.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class MissiveHeader {
+
+    private static final String BODY_ELEMENT = "MsvBdy";
+    private static final String HEADER_ELEMENT = "MsvHdr";
+    private static final String MISSIVE_ELEMENT = "sepamail_missive_001";
+    private static final String NOT_AVAILABLE = "#NA";
+    private static final String RECEIVER_ELEMENT = "Rcv";
+    private static final String SENDER_ELEMENT = "Snd";
+
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private String id;
+    private String order;
+    private String priority;
+    private String receiverBic;
+    private String receiverIban;
+    private String sendDateTime;
+    private String senderBic;
+    private String senderIban;
+    private String type;
+
+    /**
+     * Get the identifier of the missive, given by the MsvId element
+     * 
+     * @return Identifier of the missive or null if it is not set
+     */
+    public String getId() {
+        return this.id;
+    }
+
+    /**
+     * Get the order of the missive, given by the MsvOrd element
+     * 
+     * @return Order of the missive or null if it is not set
+     */
+    public String getOrder() {
+        return this.order;
+    }
+
+    /**
+     * Get the priority of the missive, given by the MsvPri element
+     * 
+     * @return Priority of the missive, such as NORMAL, or null if it is not set
+     */
+    public String getPriority() {
+        return this.priority;
+    }
+
+    /**
+     * Get the BIC of the receiver of the missive, given by the Rcv/BIC element
+     * 
+     * @return BIC of the receiver or null if it is not set
+     */
+    public String getReceiverBic() {
+        return this.receiverBic;
+    }
+
+    /**
+     * Get the IBAN of the receiver of the missive, given by the Rcv/IBAN element
+     * 
+     * @return IBAN of the receiver or null if it is not set
+     */
+    public String getReceiverIban() {
+        return this.receiverIban;
+    }
+
+    /**
+     * Get the date and time at which the missive was sent, given by the SndDtTm element
+     * 
+     * @return Date and time at which the missive was sent or null if it is not set
+     */
+    public String getSendDateTime() {
+        return this.sendDateTime;
+    }
+
+    /**
+     * Get the BIC of the sender of the missive, given by the Snd/BIC element
+     * 
+     * @return BIC of the sender or null if it is not set
+     */
+    public String getSenderBic() {
+        return this.senderBic;
+    }
+
+    /**
+     * Get the IBAN of the sender of the missive, given by the Snd/IBAN element
+     * 
+     * @return IBAN of the sender or null if it is not set
+     */
+    public String getSenderIban() {
+        return this.senderIban;
+    }
+
+    /**
+     * Get the type of the missive, given by the MsvTyp element
+     * 
+     * @return Type of the missive or null if it is not set
+     */
+    public String getType() {
+        return this.type;
+    }
+
+    /**
+     * MissiveHeader class constructor
+     */
+    private MissiveHeader() {
+    }
+
+    /**
+     * Read the header of the specified missive XML file
+     * 
+     * @param filename Path and name of the missive XML file
+     * @return Header of the missive
+     * @throws FileNotFoundException
+     * @throws IOException
+     * @throws InvalidMissiveException
+     */
+    public static MissiveHeader read(String filename) throws FileNotFoundException, IOException,
+            InvalidMissiveException {
+
+        try (InputStream inputStream = new FileInputStream(filename)) {
+            return read(filename, inputStream);
+        }
+    }
+
+    /**
+     * Read the header of a missive XML document from the given stream. Only the beginning of the stream is read
+     * and the stream is not closed.
+     * 
+     * @param filename Path and name of the missive XML file, used in error messages
+     * @param inputStream Stream of the missive XML document
+     * @return Header of the missive
+     * @throws InvalidMissiveException
+     */
+    public static MissiveHeader read(String filename, InputStream inputStream) throws InvalidMissiveException {
+
+        // Header being read
+        MissiveHeader header = new MissiveHeader();
+
+        try {
+
+            // Streaming parser of the document
+            XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(inputStream);
+
+            try {
+
+                // Names of the elements enclosing the current element
+                Deque<String> path = new ArrayDeque<>();
+
+                while (reader.hasNext()) {
+
+                    int event = reader.next();
+
+                    if (XMLStreamConstants.START_ELEMENT == event) {
+
+                        // The missive header comes before the missive body
+                        String name = reader.getLocalName();
+                        if (BODY_ELEMENT.equals(name)) {
+                            break;
+                        }
+
+                        // Read the value of a header element, which also consumes its end tag
+                        if (header.readValue(path.peek(), name, reader)) {
+                            continue;
+                        }
+
+                        path.push(name);
+
+                    } else if (XMLStreamConstants.END_ELEMENT == event) {
+
+                        // The rest of the document is not needed once the missive header is closed
+                        if (HEADER_ELEMENT.equals(path.pop())) {
+                            return header;
+                        }
+                    }
+                }
+
+            } finally {
+                reader.close();
+            }
+
+        } catch (XMLStreamException ex) {
+            throw new InvalidMissiveException(filename, ex);
+        }
+
+        throw new InvalidMissiveException(filename, "the missive does not have a " + HEADER_ELEMENT + " element.");
+    }
+
+    /**
+     * Format the given pattern with the fields of this header. The {MsvId}, {MsvTyp}, {MsvOrd}, {MsvPri}, {SndBIC}
+     * and {RcvBIC} placeholders are replaced with the matching fields, missing fields being replaced with an empty
+     * string.
+     * 
+     * @param pattern Pattern to format
+     * @return Formatted pattern, with the leading and trailing spaces removed
+     */
+    public String format(String pattern) {
+
+        // Replace each placeholder with its field
+        String formatted = pattern.replace("{MsvId}", valueOf(this.id))
+                .replace("{MsvTyp}", valueOf(this.type))
+                .replace("{MsvOrd}", valueOf(this.order))
+                .replace("{MsvPri}", valueOf(this.priority))
+                .replace("{SndBIC}", valueOf(this.senderBic))
+                .replace("{RcvBIC}", valueOf(this.receiverBic));
+
+        return formatted.trim();
+    }
+
+    /**
+     * Read the value of an element if it is one of the fields of the header
+     * 
+     * @param parent Local name of the parent element, or null for the root element
+     * @param name Local name of the element
+     * @param reader Reader positioned on the start tag of the element
+     * @return Whether the element was a field of the header and has been read up to its end tag
+     * @throws XMLStreamException
+     */
+    private boolean readValue(String parent, String name, XMLStreamReader reader) throws XMLStreamException {
+
+        if (MISSIVE_ELEMENT.equals(parent)) {
+
+            // Fields of the missive
+            switch (name) {
+                case "MsvId":
+                    this.id = getValue(reader);
+                    return true;
+                case "MsvTyp":
+                    this.type = getValue(reader);
+                    return true;
+                case "MsvOrd":
+                    this.order = getValue(reader);
+                    return true;
+                case "MsvPri":
+                    this.priority = getValue(reader);
+                    return true;
+                default:
+                    return false;
+            }
+
+        } else if (HEADER_ELEMENT.equals(parent) && "SndDtTm".equals(name)) {
+
+            // Date and time at which the missive was sent
+            this.sendDateTime = getValue(reader);
+            return true;
+
+        } else if (SENDER_ELEMENT.equals(parent) || RECEIVER_ELEMENT.equals(parent)) {
+
+            // BIC and IBAN of the sender and the receiver
+            boolean sender = SENDER_ELEMENT.equals(parent);
+            switch (name) {
+                case "BIC":
+                    if (sender) {
+                        this.senderBic = getValue(reader);
+                    } else {
+                        this.receiverBic = getValue(reader);
+                    }
+                    return true;
+                case "IBAN":
+                    if (sender) {
+                        this.senderIban = getValue(reader);
+                    } else {
+                        this.receiverIban = getValue(reader);
+                    }
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Read the text of an element, an empty text or the #NA placeholder being reported as missing
+     * 
+     * @param reader Reader positioned on the start tag of the element
+     * @return Trimmed text of the element or null if it is not set
+     * @throws XMLStreamException
+     */
+    private static String getValue(XMLStreamReader reader) throws XMLStreamException {
+
+        // Text of the element
+        String value = reader.getElementText().trim();
+
+        return value.isEmpty() || NOT_AVAILABLE.equals(value) ? null : value;
+    }
+
+    /**
+     * Get the text a field is replaced with in a formatted pattern
+     * 
+     * @param value Value of the field
+     * @return Value of the field or an empty string if it is not set
+     */
+    private static String valueOf(String value) {
+        return null == value ? "" : value;
+    }
+
+    /**
+     * Create the factory of the streaming parsers reading missive headers. Document type definitions and external
+     * entities are not supported, so that reading a missive never opens another file or a network connection.
+     * 
+     * @return Streaming parser factory
+     */
+    private static XMLInputFactory createInputFactory() {
+
+        // Streaming parser factory, shared by every thread once configured
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+
+        return factory;
+    }
+}
@@ -0,0 +1,151 @@
+package org.smoc.utils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import javax.xml.XMLConstants;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+import org.smoc.exceptions.InvalidMissiveException;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * The MissiveSchema class validates missive XML files against the SEPAmail missive XML schema. The schema is compiled
+ * once and shared by every thread, each thread validating with its own validator, which is created on the first
+ * missive it validates and reused afterwards. Missive files are streamed through the validator and are never loaded
+ * in memory.
+ * <p>
+ * The schema may include or import other schema files found next to it, but missives cannot reference external
+ * document type definitions.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class MissiveSchema {
+
+    private static final String ACCESS_EXTERNAL_DTD = "http://javax.xml.XMLConstants/property/accessExternalDTD";
+    private static final String ACCESS_EXTERNAL_SCHEMA =
+            "http://javax.xml.XMLConstants/property/accessExternalSchema";
+
+    private final Schema schema;
+    private final String schemaFilename;
+    private final ThreadLocal<Validator> validators;
+
+    /**
+     * Get the path and name of the missive XML schema file
+     * 
+     * @return Path and name of the schema file
+     */
+    public String getSchemaFilename() {
+        return this.schemaFilename;
+    }
+
+    /**
+     * MissiveSchema class constructor, compiling the missive XML schema
+     * 
+     * @param schemaFilename Path and name of the missive XML schema file
+     * @throws FileNotFoundException
+     * @throws SAXException
+     */
+    public MissiveSchema(String schemaFilename) throws FileNotFoundException, SAXException {
+
+        // Schema file object instance
+        File schemaFile = new File(schemaFilename);
+
+        // Check if schema file exists
+        if (!schemaFile.isFile()) {
+            throw new FileNotFoundException(schemaFilename);
+        }
+
+        // Schemas are only loaded from local files, the schema files included or imported being next to the schema
+        SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+        factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        setProperty(factory, ACCESS_EXTERNAL_SCHEMA, "file");
+        setProperty(factory, ACCESS_EXTERNAL_DTD, "");
+
+        // Initialise class attributes
+        this.schema = factory.newSchema(schemaFile);
+        this.schemaFilename = schemaFilename;
+        this.validators = new ThreadLocal<Validator>() {
+
+            @Override
+            protected Validator initialValue() {
+                return MissiveSchema.this.createValidator();
+            }
+        };
+    }
+
+    /**
+     * Validate the specified missive XML file against the schema with the validator of the current thread
+     * 
+     * @param filename Path and name of the missive XML file
+     * @throws FileNotFoundException
+     * @throws IOException
+     * @throws InvalidMissiveException
+     */
+    public void validate(String filename) throws FileNotFoundException, IOException, InvalidMissiveException {
+
+        // File object instance
+        File file = new File(filename);
+
+        // Check if file exists
+        if (!file.isFile()) {
+            throw new FileNotFoundException(filename);
+        }
+
+        try {
+
+            // Stream the missive through the validator, which stops on the first error
+            this.validators.get().validate(new StreamSource(file));
+
+        } catch (SAXParseException ex) {
+
+            // Report the position of the error in the missive
+            throw new InvalidMissiveException(filename, "line " + ex.getLineNumber() + ", column "
+                    + ex.getColumnNumber() + ": " + ex.getMessage());
+
+        } catch (SAXException ex) {
+            throw new InvalidMissiveException(filename, ex);
+        }
+    }
+
+    /**
+     * Create the validator of a thread, which does not load any external document type definition
+     * 
+     * @return Validator of the schema
+     */
+    private Validator createValidator() {
+
+        // Validator of the compiled schema
+        Validator validator = this.schema.newValidator();
+
+        try {
+            validator.setProperty(ACCESS_EXTERNAL_DTD, "");
+        } catch (SAXException ex) {
+
+            // The validator does not support restricting external access and keeps its default behaviour
+        }
+
+        return validator;
+    }
+
+    /**
+     * Set an external access property of the schema factory, if the factory supports it
+     * 
+     * @param factory Schema factory
+     * @param name Name of the property
+     * @param value Protocols allowed, or an empty string to deny all external access
+     */
+    private static void setProperty(SchemaFactory factory, String name, String value) {
+
+        try {
+            factory.setProperty(name, value);
+        } catch (SAXException ex) {
+
+            // The factory does not support restricting external access and keeps its default behaviour
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.smoc.utils;
+
+import java.io.ByteArrayOutputStream;
+import javax.mail.util.SharedByteArrayInputStream;
+
+/**
+ * The SharedByteArrayOutputStream class is a byte array output stream whose content can be read back as a shared
+ * input stream without copying the underlying buffer. A MIME message parsed from such a stream keeps references to
+ * the buffer instead of copying its content.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class SharedByteArrayOutputStream extends ByteArrayOutputStream {
+
+    /**
+     * SharedByteArrayOutputStream class constructor
+     * 
+     * @param size Initial size of the buffer in bytes
+     */
+    public SharedByteArrayOutputStream(int size) {
+
+        // Initialise the parent class
+        super(Math.max(32, size));
+    }
+
+    /**
+     * Get the buffer holding the bytes written so far, without copying it. Only the first size() bytes of the buffer
+     * are meaningful, and nothing must be written to this output stream while the buffer is in use.
+     * 
+     * @return Buffer of the output stream
+     */
+    public synchronized byte[] getBuffer() {
+        return this.buf;
+    }
+
+    /**
+     * Get a shared input stream over the bytes written so far. The buffer is shared with the returned stream, so
+     * nothing must be written to this output stream afterwards.
+     * 
+     * @return Shared input stream over the bytes written so far
+     */
+    public synchronized SharedByteArrayInputStream toSharedInputStream() {
+        return new SharedByteArrayInputStream(this.buf, 0, this.count);
+    }
+}
@@ -0,0 +1,65 @@
+package org.smoc.utils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SmocExecutors is a class which groups static methods creating the executors used by the SMOC module to run missives
+ * in the background.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class SmocExecutors {
+
+    /**
+     * Create a fixed size pool of daemon platform threads
+     * 
+     * @param name Prefix of the names of the threads
+     * @param threads Number of threads of the pool
+     * @return Executor running tasks on the pool
+     */
+    public static ExecutorService newPlatformThreadPool(final String name, int threads) {
+
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+
+                // Threads of the pool must not keep the JVM alive if the pool is never shut down
+                Thread thread = new Thread(runnable, name + "-" + this.count.incrementAndGet());
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Create an executor starting a new virtual thread for each task. Virtual threads are only available from Java 21,
+     * the executor is therefore looked up at runtime.
+     * 
+     * @return Executor running each task on its own virtual thread or null if the JVM has no virtual threads
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+
+        try {
+
+            // Executors.newVirtualThreadPerTaskExecutor exists from Java 21
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+
+            return (ExecutorService) factory.invoke(null);
+
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException ex) {
+
+            // The JVM does not support virtual threads
+            return null;
+        }
+    }
+}
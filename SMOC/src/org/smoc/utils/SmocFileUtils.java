@@ -4,6 +4,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import org.apache.commons.io.IOUtils;
 
 /**
@@ -50,4 +53,34 @@ public class SmocFileUtils {
         
         return content;
     }
+
+    /**
+     * Compute the SHA-256 digest of the content of the specified file
+     * 
+     * @param filename Path and name of file that needs to be digested
+     * @return SHA-256 digest of the file content
+     * @throws FileNotFoundException
+     * @throws IOException
+     * @throws NoSuchAlgorithmException 
+     */
+    public static byte[] digest(String filename) throws FileNotFoundException, IOException,
+            NoSuchAlgorithmException {
+
+        // Message digest instance
+        MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+
+        // Read buffer
+        byte[] buffer = new byte[8192];
+
+        // Feed the content of the file to the digest
+        try (InputStream in = new FileInputStream(filename)) {
+
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                messageDigest.update(buffer, 0, count);
+            }
+        }
+
+        return messageDigest.digest();
+    }
 }
@@ -0,0 +1,203 @@
+package org.smoc.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The SpillDirectory class is the spill directory set by spill.directory, as used by one SMOC instance. The instance
+ * holds a lock file in the directory for as long as it runs, and the temporary files of its missives are named after
+ * that lock file, so that several instances, in the same JVM or not, can share the directory.
+ * <p>
+ * When the directory is opened, the temporary files whose lock file is missing or is no longer locked were left by an
+ * instance that was stopped before releasing them, for instance because the JVM was killed, and are deleted. The
+ * files of the instances still running are left alone. The lock files held by the instances of this JVM are never
+ * opened by another instance, since closing any channel of a file releases the locks the JVM holds on it.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class SpillDirectory {
+
+    private static final String FILE_PREFIX = "smoc-";
+    private static final String LOCK_SUFFIX = ".lock";
+
+    private static final Set<String> HELD_LOCKS = new HashSet<>();
+
+    private final File directory;
+    private final FileChannel lockChannel;
+    private final File lockFile;
+    private final String lockPath;
+    private final String prefix;
+
+    /**
+     * Get the directory the temporary files are created in
+     * 
+     * @return Spill directory
+     */
+    public File getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * SpillDirectory class constructor, deleting the temporary files left by the instances that are no longer running
+     * and locking the directory for this instance
+     * 
+     * @param directory Spill directory
+     * @throws IOException if the lock file of this instance cannot be created
+     */
+    public SpillDirectory(File directory) throws IOException {
+
+        // Initialise class attributes
+        this.directory = directory;
+
+        File file;
+        FileChannel channel;
+
+        // The instances of this JVM open their spill directories one after the other
+        synchronized (HELD_LOCKS) {
+
+            // Files left by the instances that were stopped before releasing them
+            deleteStaleFiles(directory);
+
+            // Lock file of this instance, whose name prefixes the temporary files of the instance. A lock file is
+            // only deleted by another process while that process holds its lock, a lock file that is still there
+            // once locked is therefore kept until this instance is closed.
+            while (true) {
+
+                file = File.createTempFile(FILE_PREFIX, LOCK_SUFFIX, directory);
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+                channel.lock();
+
+                if (file.isFile()) {
+                    break;
+                }
+
+                // The lock file was taken for a stale one by another process before it could be locked
+                channel.close();
+            }
+
+            HELD_LOCKS.add(file.getCanonicalPath());
+        }
+
+        this.lockChannel = channel;
+        this.lockFile = file;
+        this.lockPath = file.getCanonicalPath();
+
+        String name = this.lockFile.getName();
+        this.prefix = name.substring(0, name.length() - LOCK_SUFFIX.length()) + "-";
+    }
+
+    /**
+     * Create the spill files of a missive, in the directory of this instance
+     * 
+     * @return Spill files of the missive
+     */
+    public SpillFiles newSpillFiles() {
+        return new SpillFiles(this.directory, this.prefix);
+    }
+
+    /**
+     * Release the lock of this instance on the directory. The missives of this instance must have released their
+     * spill files beforehand, the files left being deleted by the next instance that opens the directory.
+     */
+    public void close() {
+
+        synchronized (HELD_LOCKS) {
+
+            try {
+                this.lockChannel.close();
+            } catch (IOException ex) {
+
+                // Closing the channel releases the lock, there is nothing else to release
+            }
+
+            this.lockFile.delete();
+            HELD_LOCKS.remove(this.lockPath);
+        }
+    }
+
+    /**
+     * Delete the lock files of the instances of a spill directory that are no longer running, then the temporary files
+     * whose lock file is missing. Must be called while holding the lock of the held lock files.
+     * 
+     * @param directory Spill directory
+     */
+    private static void deleteStaleFiles(File directory) {
+
+        File[] files = directory.listFiles();
+        if (null == files) {
+            return;
+        }
+
+        // Lock files of the instances that are no longer running
+        for (File file : files) {
+            if (file.getName().startsWith(FILE_PREFIX) && file.getName().endsWith(LOCK_SUFFIX)) {
+                deleteUnlocked(file);
+            }
+        }
+
+        for (File file : files) {
+
+            // Temporary files of the instances
+            if (!file.getName().startsWith(FILE_PREFIX) || !file.getName().endsWith(SpillFiles.FILE_SUFFIX)) {
+                continue;
+            }
+
+            // Lock file of the instance the file belongs to, files created before the directory was locked having
+            // none
+            String name = file.getName().substring(FILE_PREFIX.length());
+            int separator = name.indexOf('-');
+
+            if (separator < 0 || !new File(directory, FILE_PREFIX + name.substring(0, separator) + LOCK_SUFFIX)
+                    .isFile()) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Delete the lock file of an instance if the instance no longer holds its lock, the file being deleted while the
+     * lock is held so that an instance locking it meanwhile finds it gone. Must be called while holding the lock of
+     * the held lock files.
+     * 
+     * @param lock Lock file
+     */
+    private static void deleteUnlocked(File lock) {
+
+        try {
+
+            // Lock file of an instance of this JVM, which must not be opened
+            if (HELD_LOCKS.contains(lock.getCanonicalPath())) {
+                return;
+            }
+
+        } catch (IOException ex) {
+
+            // The lock file cannot be checked, its files are left alone
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(lock.toPath(), StandardOpenOption.WRITE)) {
+
+            // The lock can only be taken once the instance holding it has stopped
+            FileLock fileLock = channel.tryLock();
+            if (null != fileLock) {
+                lock.delete();
+                fileLock.release();
+            }
+
+        } catch (OverlappingFileLockException ex) {
+
+            // The lock is held by this JVM
+        } catch (IOException ex) {
+
+            // The lock file was deleted meanwhile or cannot be checked, its files are left alone
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.smoc.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The SpillFiles class creates the temporary files a missive spilled to disk writes its signed, compressed and
+ * encrypted emails to, and deletes them once the missive no longer needs them. The files are created in the spill
+ * directory set by spill.directory, under the prefix of the SMOC instance given by its SpillDirectory.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class SpillFiles {
+
+    static final String FILE_SUFFIX = ".spill";
+
+    private final List<MessageBuffer> buffers;
+    private final File directory;
+    private final String prefix;
+
+    /**
+     * Get the directory the temporary files are created in
+     * 
+     * @return Spill directory
+     */
+    public File getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * SpillFiles class constructor
+     * 
+     * @param directory Directory the temporary files are created in
+     * @param prefix Prefix of the names of the temporary files, naming the SMOC instance they belong to
+     */
+    SpillFiles(File directory, String prefix) {
+
+        // Initialise class attributes
+        this.buffers = new ArrayList<>();
+        this.directory = directory;
+        this.prefix = prefix;
+    }
+
+    /**
+     * Create a message buffer written to a new temporary file
+     * 
+     * @return Message buffer backed by a temporary file
+     * @throws IOException if the temporary file cannot be created
+     */
+    public synchronized MessageBuffer newBuffer() throws IOException {
+
+        MessageBuffer buffer = new MessageBuffer(File.createTempFile(this.prefix, FILE_SUFFIX, this.directory));
+        this.buffers.add(buffer);
+
+        return buffer;
+    }
+
+    /**
+     * Close and delete every temporary file created so far. The emails parsed from the files must not be used
+     * afterwards, while new files can still be created.
+     */
+    public synchronized void release() {
+
+        for (MessageBuffer buffer : this.buffers) {
+            buffer.release();
+        }
+
+        this.buffers.clear();
+    }
+}
@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.net.URLDecoder;
+import org.smoc.DropFolderWatcher;
 import org.smoc.Smoc;
 import org.smoc.exceptions.ConfigurationFileNotFoundException;
 import org.smoc.exceptions.InvalidConfigurationException;
@@ -43,6 +44,37 @@ public class SmocTest {
                 // Send missive file by email
                 smoc.sendMissive("Test missive enveloppe SMIME", args[0]);
 
+            } else if (args.length == 2 && args[0].equals("-watch")) {
+
+                // Smoc class initialisation, shared by all the missives dropped in the folder
+                final Smoc watcherSmoc = new Smoc(conf);
+
+                // Watch the folder and send the missive files dropped in it until the application is stopped
+                final DropFolderWatcher watcher = new DropFolderWatcher(watcherSmoc, new File(args[1]),
+                        "Test missive enveloppe SMIME");
+
+                // Finish the missives already claimed when the application is stopped
+                Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+
+                    @Override
+                    public void run() {
+
+                        try {
+                            watcher.stop();
+                        } catch (InterruptedException ex) {
+
+                            // The claimed files left unfinished are resumed on the next run
+                        }
+
+                        watcherSmoc.close();
+
+                        System.out.println(watcher.getSentCount() + " missive(s) envoyée(s), "
+                                + watcher.getFailedCount() + " en erreur");
+                    }
+                }));
+
+                watcher.run();
+
             } else {
 
                 // Display application usage
@@ -94,5 +126,6 @@ public class SmocTest {
     private static void showUsage() {
 
         System.out.println("java -jar SMOCTest.jar <fichier à convertir>");
+        System.out.println("java -jar SMOCTest.jar -watch <dossier de dépôt>");
     }
 }
@@ -0,0 +1,133 @@
+package org.smoc.test.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.smoc.MissiveReceipt;
+import org.smoc.MissiveRequest;
+import org.smoc.MissiveStage;
+import org.smoc.Smoc;
+import org.smoc.utils.SmocExecutors;
+
+/**
+ * The AsyncModeBenchmark class is a command line application that sends the same missive many times with
+ * Smoc.sendMissiveAsync, first on a pool of platform threads and then on virtual threads, and compares the throughput,
+ * the number of platform threads and the time spent in each stage of both execution modes.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class AsyncModeBenchmark {
+
+    /**
+     * Benchmark entry point
+     * 
+     * @param args Configuration file, missive XML file, number of missives and size of the platform thread pool
+     * @throws Exception 
+     */
+    public static void main(String[] args) throws Exception {
+
+        // Check parameter count
+        if (args.length < 3) {
+            System.out.println("java -cp SMOCTest.jar org.smoc.test.bench.AsyncModeBenchmark "
+                    + "<smoc.properties> <fichier missive> <nombre de missives> [threads plateforme]");
+            return;
+        }
+
+        // Benchmark parameters
+        String conf = args[0];
+        String filename = args[1];
+        int count = Integer.parseInt(args[2]);
+        int platformThreads = args.length > 3 ? Integer.parseInt(args[3]) : 2 * Runtime.getRuntime()
+                .availableProcessors();
+
+        // Platform thread pool, owned by the benchmark
+        Smoc smoc = new Smoc(conf);
+        ExecutorService pool = SmocExecutors.newPlatformThreadPool("bench-platform", platformThreads);
+        smoc.setAsyncExecutor(pool);
+
+        try {
+            run("platform(" + platformThreads + ")", smoc, filename, count);
+        } finally {
+            pool.shutdown();
+            smoc.close();
+        }
+
+        // Virtual threads, with signing and encryption on the CPU pool of Smoc
+        if (null == SmocExecutors.newVirtualThreadPerTaskExecutor()) {
+            System.out.println("virtual: not supported by this JVM (Java 21 or later required)");
+            return;
+        }
+
+        smoc = new Smoc(conf);
+        smoc.setAsyncVirtualThreads(true);
+
+        try {
+            run("virtual", smoc, filename, count);
+        } finally {
+            smoc.close();
+        }
+    }
+
+    /**
+     * Send a warm up missive and then the given number of missives at once, and print the results
+     * 
+     * @param mode Name of the execution mode
+     * @param smoc SMOC instance set up for the execution mode
+     * @param filename Path and name of the missive XML file
+     * @param count Number of missives
+     * @throws Exception 
+     */
+    private static void run(String mode, Smoc smoc, String filename, int count) throws Exception {
+
+        // Warm up the key material, the signers and the connections
+        smoc.sendMissiveAsync("Benchmark warm up", filename).get();
+
+        // Platform threads started by the run
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+
+        // Submit every missive at once
+        long startTime = System.nanoTime();
+        List<Future<MissiveReceipt>> futures = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            futures.add(smoc.sendMissiveAsync(new MissiveRequest("Benchmark " + i, filename), null));
+        }
+
+        // Wait for every missive and add up the time spent in each stage
+        int sent = 0;
+        EnumMap<MissiveStage, Long> stageTimes = new EnumMap<>(MissiveStage.class);
+        for (Future<MissiveReceipt> future : futures) {
+
+            MissiveReceipt receipt = future.get();
+
+            if (receipt.isSent()) {
+                sent++;
+            }
+
+            for (MissiveStage stage : MissiveStage.values()) {
+                if (receipt.getStageTime(stage) >= 0) {
+                    Long total = stageTimes.get(stage);
+                    stageTimes.put(stage, (null == total ? 0 : total) + receipt.getStageTime(stage));
+                }
+            }
+        }
+
+        long elapsed = System.nanoTime() - startTime;
+
+        // Print the results of the run
+        StringBuilder stages = new StringBuilder();
+        for (MissiveStage stage : stageTimes.keySet()) {
+            stages.append(String.format(" %s=%.1fms", stage.getSettingName(),
+                    stageTimes.get(stage) / 1e6 / Math.max(1, sent)));
+        }
+
+        System.out.println(String.format("%s: %d/%d sent in %d ms, %.1f missives/s, peak platform threads %d,"
+                + " mean stage times%s", mode, sent, count, elapsed / 1000000, count * 1e9 / elapsed,
+                threads.getPeakThreadCount(), stages));
+    }
+}
@@ -0,0 +1,203 @@
+package org.smoc.test.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.Properties;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.smime.SMIMECapabilityVector;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openssl.PEMWriter;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.smoc.cryptograhy.RecipientKeyStore;
+import org.smoc.cryptograhy.SenderKeyStore;
+
+/**
+ * The BenchmarkKeys class generates throwaway key pairs and self-signed certificates for the sender and the recipient
+ * of the benchmarks. The keys are written to a PKCS12 key store and a PEM certificate file of a temporary directory,
+ * and loaded back through SenderKeyStore and RecipientKeyStore so that the benchmarks use the same key material
+ * classes as Smoc. Both certificates advertise AES-GCM and AES-CBC in their sMIMECapabilities extension.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class BenchmarkKeys {
+
+    private static final String PASSWORD = "benchmark";
+    private static final String PROVIDER = "BC";
+    private static final String SENDER_ALIAS = "sender";
+
+    private final String keyAlgorithm;
+    private final File recipientCertificateFile;
+    private final RecipientKeyStore recipientKeyStore;
+    private final PrivateKey recipientPrivateKey;
+    private final File senderKeyStoreFile;
+    private final SenderKeyStore senderKeyStore;
+
+    /**
+     * Get the algorithm of the generated key pairs
+     * 
+     * @return RSA or EC
+     */
+    public String getKeyAlgorithm() {
+        return this.keyAlgorithm;
+    }
+
+    /**
+     * Get the SHA-256 signature algorithm matching the generated key pairs
+     * 
+     * @return SHA256withECDSA for EC keys or SHA256withRSA for RSA keys
+     */
+    public String getSignAlgorithm() {
+        return getSignAlgorithm(this.keyAlgorithm);
+    }
+
+    /**
+     * Get the key store of the recipient, holding its generated certificate
+     * 
+     * @return Recipient key store
+     */
+    public RecipientKeyStore getRecipientKeyStore() {
+        return this.recipientKeyStore;
+    }
+
+    /**
+     * Get the private key of the recipient, which decrypts the emails delivered to the recipient
+     * 
+     * @return Private key of the recipient
+     */
+    public PrivateKey getRecipientPrivateKey() {
+        return this.recipientPrivateKey;
+    }
+
+    /**
+     * Get the key store of the sender, holding its generated private key and certificate
+     * 
+     * @return Sender key store
+     */
+    public SenderKeyStore getSenderKeyStore() {
+        return this.senderKeyStore;
+    }
+
+    /**
+     * BenchmarkKeys class constructor, generating the key pairs and the certificates of the sender and the recipient
+     * 
+     * @param directory Directory the key store and the certificate file are written to
+     * @param keyAlgorithm Algorithm of the key pairs, RSA for 2048 bit RSA keys or EC for P-256 keys
+     * @throws Exception
+     */
+    public BenchmarkKeys(File directory, String keyAlgorithm) throws Exception {
+
+        // Register the BouncyCastle provider used by the key stores
+        if (null == Security.getProvider(PROVIDER)) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+
+        // Key pairs of the sender and the recipient
+        KeyPairGenerator generator = KeyPairGenerator.getInstance(keyAlgorithm, PROVIDER);
+        generator.initialize("EC".equals(keyAlgorithm) ? 256 : 2048);
+        KeyPair senderKeyPair = generator.generateKeyPair();
+        KeyPair recipientKeyPair = generator.generateKeyPair();
+
+        // Sender key store
+        File keyStoreFile = new File(directory, "sender-" + keyAlgorithm + ".p12");
+        KeyStore keyStore = KeyStore.getInstance("PKCS12", PROVIDER);
+        keyStore.load(null, null);
+        keyStore.setKeyEntry(SENDER_ALIAS, senderKeyPair.getPrivate(), PASSWORD.toCharArray(), new Certificate[] {
+            createCertificate(senderKeyPair, "SMOC Benchmark Sender", keyAlgorithm) });
+
+        try (OutputStream out = new FileOutputStream(keyStoreFile)) {
+            keyStore.store(out, PASSWORD.toCharArray());
+        }
+
+        // Recipient certificate file
+        File certificateFile = new File(directory, "recipient-" + keyAlgorithm + ".pem");
+        try (PEMWriter writer = new PEMWriter(new FileWriter(certificateFile))) {
+            writer.writeObject(createCertificate(recipientKeyPair, "SMOC Benchmark Recipient", keyAlgorithm));
+        }
+
+        // Initialise class attributes
+        this.keyAlgorithm = keyAlgorithm;
+        this.recipientCertificateFile = certificateFile;
+        this.recipientPrivateKey = recipientKeyPair.getPrivate();
+        this.senderKeyStoreFile = keyStoreFile;
+        this.recipientKeyStore = new RecipientKeyStore(certificateFile.getPath());
+        this.senderKeyStore = new SenderKeyStore(keyStoreFile.getPath(), SENDER_ALIAS, PROVIDER, "PKCS12", PASSWORD);
+    }
+
+    /**
+     * Add the settings of the generated key material to the given SMOC configuration settings
+     * 
+     * @param settings SMOC configuration settings
+     */
+    public void addSettings(Properties settings) {
+
+        // Sender key store and recipient certificate file
+        settings.setProperty("sender.keystore.file", this.senderKeyStoreFile.getAbsolutePath());
+        settings.setProperty("sender.keystore.alias", SENDER_ALIAS);
+        settings.setProperty("sender.keystore.provider", PROVIDER);
+        settings.setProperty("sender.keystore.type", "PKCS12");
+        settings.setProperty("sender.keystore.password", PASSWORD);
+        settings.setProperty("recipient.key.file", this.recipientCertificateFile.getAbsolutePath());
+    }
+
+    /**
+     * Create a self-signed certificate valid for one day
+     * 
+     * @param keyPair Key pair of the certificate
+     * @param commonName Common name of the subject of the certificate
+     * @param keyAlgorithm Algorithm of the key pair
+     * @return Self-signed certificate
+     * @throws Exception
+     */
+    private static X509Certificate createCertificate(KeyPair keyPair, String commonName, String keyAlgorithm)
+            throws Exception {
+
+        // Subject and issuer of the certificate
+        X500Name name = new X500Name("CN=" + commonName);
+
+        // Certificate valid from yesterday until tomorrow
+        long now = System.currentTimeMillis();
+        JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(name, BigInteger.valueOf(now),
+                new Date(now - 86400000L), new Date(now + 86400000L), name, keyPair.getPublic());
+
+        // Encryption algorithms the owner of the certificate can decrypt
+        SMIMECapabilityVector capabilities = new SMIMECapabilityVector();
+        capabilities.addCapability(NISTObjectIdentifiers.id_aes256_GCM);
+        capabilities.addCapability(NISTObjectIdentifiers.id_aes128_GCM);
+        capabilities.addCapability(NISTObjectIdentifiers.id_aes256_CBC);
+        capabilities.addCapability(NISTObjectIdentifiers.id_aes128_CBC);
+        builder.addExtension(PKCSObjectIdentifiers.pkcs_9_at_smimeCapabilities, false,
+                new DERSequence(capabilities.toASN1EncodableVector()));
+
+        // Sign the certificate with its own key
+        return new JcaX509CertificateConverter().setProvider(PROVIDER).getCertificate(builder.build(
+                new JcaContentSignerBuilder(getSignAlgorithm(keyAlgorithm)).setProvider(PROVIDER).build(
+                keyPair.getPrivate())));
+    }
+
+    /**
+     * Get the SHA-256 signature algorithm matching a key algorithm
+     * 
+     * @param keyAlgorithm Algorithm of the key pairs
+     * @return SHA256withECDSA for EC keys or SHA256withRSA for RSA keys
+     */
+    private static String getSignAlgorithm(String keyAlgorithm) {
+        return "EC".equals(keyAlgorithm) ? "SHA256withECDSA" : "SHA256withRSA";
+    }
+}
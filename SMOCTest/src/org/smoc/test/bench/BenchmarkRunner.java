@@ -0,0 +1,197 @@
+package org.smoc.test.bench;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * The BenchmarkRunner class times an operation on the current thread: the operation is first run for a warm up period
+ * so that the JIT compiler has optimised it, and then for a measurement period over which the throughput, the bytes
+ * allocated by the thread and the garbage collections are recorded. Allocations are read from the HotSpot thread
+ * bean, which counts every byte allocated by the thread, and are reported as unavailable on other JVMs.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class BenchmarkRunner {
+
+    private final int minIterations;
+    private final long measurementNanos;
+    private final long warmupNanos;
+
+    /**
+     * BenchmarkRunner class constructor
+     * 
+     * @param warmupMillis Duration of the warm up period in milliseconds
+     * @param measurementMillis Duration of the measurement period in milliseconds
+     * @param minIterations Minimum number of times the operation is run in each period
+     */
+    public BenchmarkRunner(long warmupMillis, long measurementMillis, int minIterations) {
+
+        // Initialise class attributes
+        this.minIterations = minIterations;
+        this.measurementNanos = measurementMillis * 1000000L;
+        this.warmupNanos = warmupMillis * 1000000L;
+    }
+
+    /**
+     * Print the header of the result table
+     */
+    public static void printHeader() {
+        System.out.println(String.format("%-36s %9s %10s %10s %12s %12s %6s %8s", "benchmark", "payload", "ops/s",
+                "MB/s", "alloc MB/op", "alloc MB/s", "gc", "gc ms"));
+    }
+
+    /**
+     * Warm up and measure an operation, and print its results
+     * 
+     * @param name Name of the benchmark
+     * @param payloadSize Size of the payload processed by each run of the operation, in bytes
+     * @param operation Operation to measure
+     * @throws Exception
+     */
+    public void run(String name, long payloadSize, Operation operation) throws Exception {
+
+        // Warm up
+        this.iterate(operation, this.warmupNanos);
+
+        // Garbage collections and allocations before the measurement
+        long gcCount = getGcCount();
+        long gcTime = getGcTime();
+        long allocated = getAllocatedBytes();
+
+        // Measure
+        long startTime = System.nanoTime();
+        long iterations = this.iterate(operation, this.measurementNanos);
+        long elapsed = System.nanoTime() - startTime;
+
+        // Results of the measurement
+        double seconds = elapsed / 1e9;
+        double opsPerSecond = iterations / seconds;
+        double allocatedMegabytes = allocated < 0 ? -1 : (getAllocatedBytes() - allocated) / 1048576.0;
+
+        System.out.println(String.format("%-36s %9s %10.1f %10.1f %12s %12s %6d %8d", name,
+                formatSize(payloadSize), opsPerSecond, opsPerSecond * payloadSize / 1048576.0,
+                allocatedMegabytes < 0 ? "n/a" : String.format("%.2f", allocatedMegabytes / iterations),
+                allocatedMegabytes < 0 ? "n/a" : String.format("%.1f", allocatedMegabytes / seconds),
+                getGcCount() - gcCount, getGcTime() - gcTime));
+    }
+
+    /**
+     * Format a payload size in bytes, kilobytes or megabytes
+     * 
+     * @param size Payload size in bytes
+     * @return Formatted payload size
+     */
+    public static String formatSize(long size) {
+
+        if (size >= 1048576 && size % 1048576 == 0) {
+            return size / 1048576 + "MB";
+        } else if (size >= 1024 && size % 1024 == 0) {
+            return size / 1024 + "KB";
+        }
+
+        return size + "B";
+    }
+
+    /**
+     * Parse a payload size given in bytes or with a k or m suffix
+     * 
+     * @param size Payload size such as 4k or 50m
+     * @return Payload size in bytes
+     */
+    public static long parseSize(String size) {
+
+        // Unit of the size
+        String value = size.trim().toLowerCase();
+        long unit = 1;
+        if (value.endsWith("k")) {
+            unit = 1024;
+        } else if (value.endsWith("m")) {
+            unit = 1048576;
+        }
+
+        return Long.parseLong(1 == unit ? value : value.substring(0, value.length() - 1)) * unit;
+    }
+
+    /**
+     * Run an operation for the given duration and at least the minimum number of iterations
+     * 
+     * @param operation Operation to run
+     * @param durationNanos Duration in nanoseconds
+     * @return Number of times the operation was run
+     * @throws Exception
+     */
+    private long iterate(Operation operation, long durationNanos) throws Exception {
+
+        long iterations = 0;
+        long endTime = System.nanoTime() + durationNanos;
+
+        while (iterations < this.minIterations || System.nanoTime() < endTime) {
+            operation.run();
+            iterations++;
+        }
+
+        return iterations;
+    }
+
+    /**
+     * Get the number of bytes allocated by the current thread so far
+     * 
+     * @return Number of bytes allocated or -1 if the JVM does not count them
+     */
+    private static long getAllocatedBytes() {
+
+        // Allocations are only counted by the HotSpot thread bean
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+
+        return -1;
+    }
+
+    /**
+     * Get the number of garbage collections run so far by every collector
+     * 
+     * @return Number of garbage collections
+     */
+    private static long getGcCount() {
+
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+
+        return count;
+    }
+
+    /**
+     * Get the time spent so far in garbage collections by every collector
+     * 
+     * @return Garbage collection time in milliseconds
+     */
+    private static long getGcTime() {
+
+        long time = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, collector.getCollectionTime());
+        }
+
+        return time;
+    }
+
+    /**
+     * The Operation interface is the operation measured by a benchmark
+     */
+    public interface Operation {
+
+        /**
+         * Run the operation once
+         * 
+         * @throws Exception
+         */
+        void run() throws Exception;
+    }
+}
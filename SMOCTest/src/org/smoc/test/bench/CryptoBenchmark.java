@@ -0,0 +1,309 @@
+package org.smoc.test.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import javax.activation.DataHandler;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.smoc.cryptograhy.SmocSigner;
+import org.smoc.cryptograhy.Smime;
+import org.smoc.utils.FileChannelDataSource;
+
+/**
+ * The CryptoBenchmark class is a command line application measuring the hot paths of a missive for payload sizes from
+ * a few kilobytes to tens of megabytes: SmocSigner.sign for every signature algorithm of the generated RSA and EC
+ * keys, Smime.encryptForRecipient for every CMS algorithm accepted by the sign.algorithm and smime.cms.algorithm
+ * settings, and the MIME serialization and parsing of the emails. Throwaway keys and certificates are generated at
+ * start up, so the benchmark does not need any configuration file.
+ * <p>
+ * Each benchmark is warmed up before being measured on the current thread, and its throughput, allocation rate and
+ * garbage collections are printed. The warm up and measurement durations are set in milliseconds by the
+ * smoc.bench.warmup and smoc.bench.time system properties. Large payloads need a heap of several times their size.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class CryptoBenchmark {
+
+    private static final String[] CMS_ALGORITHMS = { "AES128_CBC", "AES128_GCM", "AES128_WRAP", "AES192_CBC",
+        "AES192_GCM", "AES192_WRAP", "AES256_CBC", "AES256_GCM", "AES256_WRAP", "CAMELLIA128_CBC", "CAMELLIA128_WRAP",
+        "CAMELLIA192_CBC", "CAMELLIA192_WRAP", "CAMELLIA256_CBC", "CAMELLIA256_WRAP", "CAST5_CBC", "DES_EDE3_CBC",
+        "DES_EDE3_WRAP", "ECDH_SHA1KDF", "ECMQV_SHA1KDF", "GOST3411", "IDEA_CBC", "MD5", "RC2_CBC", "RIPEMD128",
+        "RIPEMD160", "RIPEMD256", "SEED_CBC", "SEED_WRAP", "SHA1", "SHA224", "SHA256", "SHA384", "SHA512" };
+    private static final String[] EC_SIGN_ALGORITHMS = { "SHA1withECDSA", "SHA224withECDSA", "SHA256withECDSA",
+        "SHA384withECDSA", "SHA512withECDSA" };
+    private static final String[] RSA_SIGN_ALGORITHMS = { "MD5withRSA", "SHA1withRSA", "SHA224withRSA",
+        "SHA256withRSA", "SHA384withRSA", "SHA512withRSA", "RIPEMD160withRSA" };
+
+    private static final String DEFAULT_SIZES = "4k,64k,1m,10m,50m";
+    private static final String ENVELOPE_SIGN_ALGORITHM = "SHA256withRSA";
+
+    /**
+     * Benchmark entry point
+     * 
+     * @param args Comma separated payload sizes and the group of benchmarks to run: sign, encrypt, mime or all
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+
+        // Check parameters
+        if (args.length > 2 || (args.length > 0 && args[0].startsWith("-"))) {
+            System.out.println("java -Xmx2g -cp SMOCTest.jar org.smoc.test.bench.CryptoBenchmark "
+                    + "[tailles, par défaut " + DEFAULT_SIZES + "] [sign|encrypt|mime|all]");
+            return;
+        }
+
+        // Benchmark parameters
+        List<Long> sizes = new ArrayList<>();
+        for (String size : (args.length > 0 ? args[0] : DEFAULT_SIZES).split(",")) {
+            sizes.add(BenchmarkRunner.parseSize(size));
+        }
+        String group = args.length > 1 ? args[1] : "all";
+        BenchmarkRunner runner = new BenchmarkRunner(Long.getLong("smoc.bench.warmup", 500),
+                Long.getLong("smoc.bench.time", 1000), 3);
+
+        // Throwaway key material, written to a temporary directory
+        File directory = Files.createTempDirectory("smoc-bench").toFile();
+
+        try {
+
+            BenchmarkKeys rsaKeys = new BenchmarkKeys(directory, "RSA");
+            BenchmarkKeys ecKeys = new BenchmarkKeys(directory, "EC");
+            Session session = Session.getInstance(new Properties());
+
+            BenchmarkRunner.printHeader();
+
+            for (long size : sizes) {
+
+                // Email body streaming a generated missive of the payload size
+                File payload = createPayload(directory, size);
+                MimeMessage body = createBody(session, payload);
+
+                // Signature of the body with each algorithm of each key type
+                if ("all".equals(group) || "sign".equals(group)) {
+                    runSign(runner, session, body, size, rsaKeys, RSA_SIGN_ALGORITHMS);
+                    runSign(runner, session, body, size, ecKeys, EC_SIGN_ALGORITHMS);
+                }
+
+                // Signed email encrypted for the recipient and the MIME serialization of the emails
+                if (!"sign".equals(group)) {
+
+                    MimeMessage signedMessage = new SmocSigner(rsaKeys.getSenderKeyStore(),
+                            ENVELOPE_SIGN_ALGORITHM).sign(body, session);
+
+                    if ("all".equals(group) || "encrypt".equals(group)) {
+                        runEncrypt(runner, session, body, signedMessage, size, rsaKeys);
+                    }
+
+                    if ("all".equals(group) || "mime".equals(group)) {
+                        runMime(runner, session, body, signedMessage, size);
+                    }
+                }
+
+                // The payload of the next size replaces this one
+                body = null;
+                payload.delete();
+            }
+
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    /**
+     * Measure the signature of the body with each of the given algorithms
+     * 
+     * @param runner Benchmark runner
+     * @param session Mail session
+     * @param body Email body to sign
+     * @param size Payload size
+     * @param keys Key material of the sender
+     * @param signAlgorithms Signature algorithms matching the key type of the sender
+     * @throws Exception
+     */
+    private static void runSign(BenchmarkRunner runner, final Session session, final MimeMessage body, long size,
+            BenchmarkKeys keys, String[] signAlgorithms) throws Exception {
+
+        for (String signAlgorithm : signAlgorithms) {
+
+            // Signer built once, as in the signer pool of Smoc
+            final SmocSigner signer;
+            try {
+                signer = new SmocSigner(keys.getSenderKeyStore(), signAlgorithm);
+                signer.sign(body, session);
+            } catch (Exception ex) {
+                printUnsupported("sign " + signAlgorithm, size, ex);
+                continue;
+            }
+
+            runner.run("sign " + signAlgorithm, size, new BenchmarkRunner.Operation() {
+
+                @Override
+                public void run() throws Exception {
+                    signer.sign(body, session);
+                }
+            });
+        }
+    }
+
+    /**
+     * Measure the encryption of the signed email for the recipient with each CMS algorithm
+     * 
+     * @param runner Benchmark runner
+     * @param session Mail session
+     * @param body Email body the headers of the envelope are copied from
+     * @param signedMessage Signed email to encrypt
+     * @param size Payload size
+     * @param keys Key material of the sender and the recipient
+     * @throws Exception
+     */
+    private static void runEncrypt(BenchmarkRunner runner, final Session session, final MimeMessage body,
+            final MimeMessage signedMessage, long size, BenchmarkKeys keys) throws Exception {
+
+        // Envelopes for the recipient of the key material
+        final Smime smime = new Smime(keys.getRecipientKeyStore(), keys.getSenderKeyStore());
+
+        for (final String cmsAlgorithm : CMS_ALGORITHMS) {
+
+            // Only the algorithms that can encrypt content are measured
+            try {
+                smime.encryptForRecipient(signedMessage, body, session, cmsAlgorithm);
+            } catch (Exception ex) {
+                printUnsupported("encrypt " + cmsAlgorithm, size, ex);
+                continue;
+            }
+
+            runner.run("encrypt " + cmsAlgorithm, size, new BenchmarkRunner.Operation() {
+
+                @Override
+                public void run() throws Exception {
+                    smime.encryptForRecipient(signedMessage, body, session, cmsAlgorithm);
+                }
+            });
+        }
+    }
+
+    /**
+     * Measure the MIME serialization of the body and the signed email, and the parsing of the signed email
+     * 
+     * @param runner Benchmark runner
+     * @param session Mail session
+     * @param body Email body streaming the payload
+     * @param signedMessage Signed email
+     * @param size Payload size
+     * @throws Exception
+     */
+    private static void runMime(BenchmarkRunner runner, final Session session, final MimeMessage body,
+            final MimeMessage signedMessage, long size) throws Exception {
+
+        // Bytes of the signed email, parsed by the parse benchmark
+        ByteArrayOutputStream signedBytes = new ByteArrayOutputStream();
+        signedMessage.writeTo(signedBytes);
+        final byte[] signed = signedBytes.toByteArray();
+        signedBytes = null;
+
+        runner.run("mime write body", size, new BenchmarkRunner.Operation() {
+
+            @Override
+            public void run() throws Exception {
+                body.writeTo(NullOutputStream.NULL_OUTPUT_STREAM);
+            }
+        });
+
+        runner.run("mime write signed", size, new BenchmarkRunner.Operation() {
+
+            @Override
+            public void run() throws Exception {
+                signedMessage.writeTo(NullOutputStream.NULL_OUTPUT_STREAM);
+            }
+        });
+
+        runner.run("mime parse signed", size, new BenchmarkRunner.Operation() {
+
+            @Override
+            public void run() throws Exception {
+                new MimeMessage(session, new ByteArrayInputStream(signed)).getContent();
+            }
+        });
+    }
+
+    /**
+     * Write a missive XML file of the given size, made of a missive header followed by repeated requests
+     * 
+     * @param directory Directory of the file
+     * @param size Size of the file in bytes
+     * @return Missive XML file
+     * @throws Exception
+     */
+    private static File createPayload(File directory, long size) throws Exception {
+
+        // Missive header and request repeated until the payload size is reached
+        Charset utf8 = Charset.forName("UTF-8");
+        byte[] header = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<sem:Missive xmlns:sem=\"http://www.sepamail.eu/xsd/current/\">\n"
+                + "  <sem:sepamail_missive_001>\n    <sem:MsvId>BENCH</sem:MsvId>\n"
+                + "    <sem:MsvTyp>Nominal</sem:MsvTyp>\n    <sem:MsvOrd>1</sem:MsvOrd>\n"
+                + "    <sem:MsvPri>NORMAL</sem:MsvPri>\n").getBytes(utf8);
+        byte[] request = ("    <sem:Request>\n      <sem:MsgId>BENCH-0001</sem:MsgId>\n"
+                + "      <sem:CreDtTm>2012-01-31T20:00:00</sem:CreDtTm>\n"
+                + "      <sem:Nm>Créancier XXX</sem:Nm>\n"
+                + "      <sem:IBAN>QX87BICVERT1XXXTEST000000000000001</sem:IBAN>\n"
+                + "      <sem:InstdAmt Ccy=\"EUR\">1234.56</sem:InstdAmt>\n    </sem:Request>\n").getBytes(utf8);
+
+        File payload = new File(directory, "missive-" + size + ".xml");
+        try (OutputStream out = new FileOutputStream(payload)) {
+
+            long written = Math.min(size, header.length);
+            out.write(header, 0, (int) written);
+
+            while (written < size) {
+                int length = (int) Math.min(request.length, size - written);
+                out.write(request, 0, length);
+                written += length;
+            }
+        }
+
+        return payload;
+    }
+
+    /**
+     * Create an email body streaming its content from the payload file, as Smoc does for missive files
+     * 
+     * @param session Mail session
+     * @param payload Payload file
+     * @return Email body
+     * @throws Exception
+     */
+    private static MimeMessage createBody(Session session, File payload) throws Exception {
+
+        MimeMessage body = new MimeMessage(session);
+        body.setSubject("Benchmark missive");
+        body.setDataHandler(new DataHandler(new FileChannelDataSource(payload.getPath(),
+                "text/plain; charset=utf-8")));
+        body.saveChanges();
+
+        return body;
+    }
+
+    /**
+     * Print a benchmark that cannot run with the generated key material
+     * 
+     * @param name Name of the benchmark
+     * @param size Payload size
+     * @param ex Exception raised by the first run of the benchmark
+     */
+    private static void printUnsupported(String name, long size, Exception ex) {
+        System.out.println(String.format("%-36s %9s not supported: %s", name, BenchmarkRunner.formatSize(size),
+                ex.getClass().getSimpleName() + (null == ex.getMessage() ? "" : " " + ex.getMessage())));
+    }
+}
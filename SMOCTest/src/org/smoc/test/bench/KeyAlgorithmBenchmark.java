@@ -0,0 +1,180 @@
+package org.smoc.test.bench;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import javax.activation.DataHandler;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import javax.mail.util.ByteArrayDataSource;
+import org.apache.commons.io.FileUtils;
+import org.smoc.cryptograhy.Smime;
+import org.smoc.cryptograhy.SmocSigner;
+
+/**
+ * The KeyAlgorithmBenchmark class is a command line application comparing the number of missives per second SMOC can
+ * sign and encrypt with RSA 2048 identities, signed with SHA256withRSA and enveloped with RSA key transport, and with
+ * elliptic curve P-256 identities, signed with SHA256withECDSA and enveloped with ephemeral ECDH key agreement.
+ * <p>
+ * For each key algorithm and payload size, the signature, the two envelopes of a missive, for the recipient and for
+ * the Sent Items folder of the sender, and the whole missive are measured on the current thread, the throughput of
+ * the whole missive being its number of missives per second. The providers of the signatures and of the envelopes can
+ * be given, as by the sign.provider and smime.cms.provider settings, to compare BouncyCastle with the providers of the
+ * JDK.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class KeyAlgorithmBenchmark {
+
+    private static final String CMS_ALGORITHM = "AES128_CBC";
+    private static final String DEFAULT_PROVIDER = "default";
+    private static final String DEFAULT_SIZES = "4k,64k";
+    private static final String[] KEY_ALGORITHMS = { "RSA", "EC" };
+
+    /**
+     * Benchmark entry point
+     * 
+     * @param args Comma separated payload sizes, provider of the signatures and provider of the envelopes
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+
+        // Check parameters
+        if (args.length > 3 || (args.length > 0 && args[0].startsWith("-"))) {
+            System.out.println("java -cp SMOCTest.jar org.smoc.test.bench.KeyAlgorithmBenchmark "
+                    + "[tailles, par défaut " + DEFAULT_SIZES + "] [fournisseur de signature] "
+                    + "[fournisseur de chiffrage]");
+            return;
+        }
+
+        // Benchmark parameters, the providers of the key store being used unless others are given
+        List<Long> sizes = new ArrayList<>();
+        for (String size : (args.length > 0 ? args[0] : DEFAULT_SIZES).split(",")) {
+            sizes.add(BenchmarkRunner.parseSize(size));
+        }
+        String signProvider = args.length > 1 ? args[1] : null;
+        String encryptProvider = args.length > 2 ? args[2] : null;
+        BenchmarkRunner runner = new BenchmarkRunner(Long.getLong("smoc.bench.warmup", 500),
+                Long.getLong("smoc.bench.time", 1000), 3);
+
+        // Throwaway key material, written to a temporary directory
+        File directory = Files.createTempDirectory("smoc-bench").toFile();
+
+        try {
+
+            Session session = Session.getInstance(new Properties());
+
+            BenchmarkRunner.printHeader();
+
+            for (String keyAlgorithm : KEY_ALGORITHMS) {
+
+                BenchmarkKeys keys = new BenchmarkKeys(directory, keyAlgorithm);
+
+                for (long size : sizes) {
+                    run(runner, session, keys, size, signProvider, encryptProvider);
+                }
+            }
+
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    /**
+     * Measure the signature, the envelopes and the whole missive for a key algorithm and a payload size
+     * 
+     * @param runner Benchmark runner
+     * @param session Mail session
+     * @param keys Key material of the sender and the recipient
+     * @param size Payload size
+     * @param signProvider Provider of the signatures, default for the JCA default, or null for the key store provider
+     * @param encryptProvider Provider of the envelopes, default for the JCA default, or null for the key store
+     * provider
+     * @throws Exception
+     */
+    private static void run(BenchmarkRunner runner, final Session session, BenchmarkKeys keys, long size,
+            String signProvider, String encryptProvider) throws Exception {
+
+        // Signer and envelope generator built once, as Smoc does
+        final SmocSigner signer = new SmocSigner(keys.getSenderKeyStore(), keys.getSignAlgorithm(),
+                getProvider(signProvider, keys));
+        final Smime smime = new Smime(keys.getRecipientKeyStore(), keys.getSenderKeyStore(),
+                getProvider(encryptProvider, keys));
+
+        // Email body and signed email of the payload size
+        final MimeMessage body = createBody(session, size);
+        final MimeMessage signedMessage = signer.sign(body, session);
+        String prefix = keys.getKeyAlgorithm() + " ";
+
+        runner.run(prefix + "sign " + keys.getSignAlgorithm(), size, new BenchmarkRunner.Operation() {
+
+            @Override
+            public void run() throws Exception {
+                signer.sign(body, session);
+            }
+        });
+
+        runner.run(prefix + "envelopes " + CMS_ALGORITHM, size, new BenchmarkRunner.Operation() {
+
+            @Override
+            public void run() throws Exception {
+                smime.encryptForRecipient(signedMessage, body, session, CMS_ALGORITHM);
+                smime.encryptForSender(signedMessage, body, session, CMS_ALGORITHM);
+            }
+        });
+
+        // Missives per second: signature followed by both envelopes
+        runner.run(prefix + "missive", size, new BenchmarkRunner.Operation() {
+
+            @Override
+            public void run() throws Exception {
+                MimeMessage signed = signer.sign(body, session);
+                smime.encryptForRecipient(signed, body, session, CMS_ALGORITHM);
+                smime.encryptForSender(signed, body, session, CMS_ALGORITHM);
+            }
+        });
+    }
+
+    /**
+     * Get the name of the provider to use
+     * 
+     * @param provider Provider given on the command line, default for the JCA default, or null
+     * @param keys Key material whose key store provider is used if none is given
+     * @return Name of the provider, or null for the JCA default
+     */
+    private static String getProvider(String provider, BenchmarkKeys keys) {
+
+        if (null == provider) {
+            return keys.getSenderKeyStore().getKeyStoreProvider();
+        }
+
+        return DEFAULT_PROVIDER.equals(provider) ? null : provider;
+    }
+
+    /**
+     * Create an email body holding a payload of the given size
+     * 
+     * @param session Mail session
+     * @param size Payload size in bytes
+     * @return Email body
+     * @throws Exception
+     */
+    private static MimeMessage createBody(Session session, long size) throws Exception {
+
+        // Printable payload, as a missive XML document
+        byte[] payload = new byte[(int) size];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) (0 == (i + 1) % 80 ? '\n' : 'a' + i % 26);
+        }
+
+        MimeMessage body = new MimeMessage(session);
+        body.setSubject("Benchmark missive");
+        body.setDataHandler(new DataHandler(new ByteArrayDataSource(payload, "text/plain; charset=utf-8")));
+        body.saveChanges();
+
+        return body;
+    }
+}
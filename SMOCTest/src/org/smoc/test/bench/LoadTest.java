@@ -0,0 +1,394 @@
+package org.smoc.test.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import org.apache.commons.io.FileUtils;
+import org.smoc.MissiveCallback;
+import org.smoc.MissiveReceipt;
+import org.smoc.MissiveRequest;
+import org.smoc.Smoc;
+import org.smoc.metrics.LatencySnapshot;
+import org.smoc.metrics.SmocMetrics;
+import org.smoc.test.mail.LocalImapServer;
+import org.smoc.test.mail.LocalMailServer;
+import org.smoc.test.mail.LocalSmtpServer;
+import org.smoc.test.mail.SmimeMessageReader;
+
+/**
+ * The LoadTest class is a command line application pushing thousands of missives through Smoc.sendMissiveAsync to
+ * in-process SMTP and IMAP servers, so that the whole send path can be load tested without a mail server. Throwaway
+ * keys are generated, RSA unless the smoc.load.keys system property is set to EC, every missive is a copy of the
+ * given missive file made unique by a trailing comment, and at most the given number of missives are in flight at the
+ * same time. Latency and errors can be injected in the servers.
+ * <p>
+ * Once every missive has been processed, the end-to-end throughput and the p50, p99 and maximum latencies of the
+ * missives are printed along with the latency of each stage recorded by the metrics of the instance, and each email
+ * received by the servers is decrypted and its signature checked: the emails delivered to the recipient and the
+ * copies archived in the Sent Items folder must match the missives reported as sent and archived, exactly once and
+ * with the content of their missive file.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class LoadTest {
+
+    private static final String FOLDER = "Sent";
+    private static final String SUBJECT = "Load test ";
+
+    /**
+     * Load test entry point
+     * 
+     * @param args Missive XML file, number of missives, latency of the servers in milliseconds, error rate of the
+     * servers, maximum number of missives in flight and an optional file of additional SMOC settings
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+
+        // Check parameter count, at least one missive being needed for the latency percentiles
+        if (args.length < 2 || Integer.parseInt(args[1]) < 1) {
+            System.out.println("java -cp SMOCTest.jar org.smoc.test.bench.LoadTest <fichier missive> "
+                    + "<nombre de missives> [latence ms] [taux d'erreur] [missives en parallèle] "
+                    + "[réglages supplémentaires]");
+            return;
+        }
+
+        // Load test parameters
+        String template = args[0];
+        int count = Integer.parseInt(args[1]);
+        long latency = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        double errorRate = args.length > 3 ? Double.parseDouble(args[3]) : 0;
+        int inFlight = args.length > 4 ? Integer.parseInt(args[4]) : 64;
+        String extraSettings = args.length > 5 ? args[5] : null;
+
+        // Mail servers standing in for the SMTP and IMAP servers of the configuration
+        File directory = Files.createTempDirectory("smoc-load").toFile();
+        LocalSmtpServer smtpServer = new LocalSmtpServer();
+        LocalImapServer imapServer = new LocalImapServer(FOLDER);
+
+        try {
+
+            smtpServer.start();
+            smtpServer.setLatency(latency);
+            smtpServer.setErrorRate(errorRate);
+            imapServer.start();
+            imapServer.setLatency(latency);
+            imapServer.setErrorRate(errorRate);
+
+            // Key material, configuration and missives of the load test
+            BenchmarkKeys keys = new BenchmarkKeys(directory, System.getProperty("smoc.load.keys", "RSA"));
+            String conf = writeSettings(directory, keys, smtpServer, imapServer, extraSettings);
+            List<File> missives = createMissives(directory, template, count);
+
+            // Send every missive, the archive queue being drained when Smoc is closed
+            MissiveReceipt[] receipts = new MissiveReceipt[count];
+            long[] latencies = new long[count];
+            long elapsed;
+
+            Smoc smoc = new Smoc(conf);
+            try {
+                elapsed = run(smoc, missives, inFlight, receipts, latencies);
+            } finally {
+                smoc.close();
+            }
+
+            // Throughput and latency of the missives
+            Arrays.sort(latencies);
+            System.out.println(String.format("load: %d missives in %d ms, %.1f missives/s, latency p50 %.1f ms, "
+                    + "p99 %.1f ms, max %.1f ms (latency %d ms, error rate %.3f, %d in flight)", count,
+                    elapsed / 1000000, count * 1e9 / elapsed, percentile(latencies, 0.50) / 1e6,
+                    percentile(latencies, 0.99) / 1e6, latencies[count - 1] / 1e6, latency, errorRate, inFlight));
+
+            // Latency of each stage, bytes and errors recorded by the metrics of the instance
+            SmocMetrics metrics = smoc.getMetrics();
+            for (Map.Entry<String, LatencySnapshot> stage : metrics.getStageLatencies().entrySet()) {
+                System.out.println(String.format("stage %s: %s", stage.getKey(), stage.getValue()));
+            }
+            System.out.println(String.format("metrics: %d plaintext bytes in, %d ciphertext bytes out, errors %s",
+                    metrics.getPlaintextBytesIn(), metrics.getCiphertextBytesOut(), metrics.getErrorCounts()));
+            System.out.println(String.format("compression: ratio %.2f, %d ms saved; spilled: %d missives, %d bytes",
+                    metrics.getCompressionRatio(), metrics.getCompressionTimeSaved(), metrics.getSpilledMissives(),
+                    metrics.getSpilledBytes()));
+
+            // Outcome reported by the receipts
+            Map<String, Integer> sent = new HashMap<>();
+            Map<String, Integer> archived = new HashMap<>();
+            Map<String, Integer> sendErrors = new TreeMap<>();
+            Map<String, Integer> archiveErrors = new TreeMap<>();
+
+            for (int i = 0; i < count; i++) {
+
+                MissiveReceipt receipt = receipts[i];
+
+                if (!receipt.isSent()) {
+                    increment(sendErrors, receipt.getException().getClass().getSimpleName());
+                    continue;
+                }
+
+                sent.put(receipt.getRequest().getSubject(), i);
+
+                if (receipt.isArchived() || receipt.isArchiveQueued()) {
+                    archived.put(receipt.getRequest().getSubject(), i);
+                } else {
+                    increment(archiveErrors, receipt.getArchiveException().getClass().getSimpleName());
+                }
+            }
+
+            System.out.println(String.format("receipts: %d sent, %d failed %s, %d archived or queued, "
+                    + "%d not archived %s", sent.size(), count - sent.size(), sendErrors, archived.size(),
+                    sent.size() - archived.size(), archiveErrors));
+
+            // Emails received by the servers
+            verify("delivered", smtpServer, new SmimeMessageReader(keys.getRecipientPrivateKey()), sent, missives);
+            verify("archived", imapServer, new SmimeMessageReader(keys.getSenderKeyStore().getPrivateKey()),
+                    archived, missives);
+
+        } finally {
+            smtpServer.close();
+            imapServer.close();
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    /**
+     * Send the missives asynchronously, keeping at most the given number of missives in flight, and wait for all of
+     * them
+     * 
+     * @param smoc SMOC instance
+     * @param missives Missive XML files
+     * @param inFlight Maximum number of missives in flight
+     * @param receipts Receipts of the missives, filled in as the missives complete
+     * @param latencies Latencies of the missives in nanoseconds, filled in as the missives complete
+     * @return Time taken to process every missive in nanoseconds
+     * @throws Exception
+     */
+    private static long run(Smoc smoc, List<File> missives, int inFlight, final MissiveReceipt[] receipts,
+            final long[] latencies) throws Exception {
+
+        // Slots of the missives in flight and missives left to complete
+        final Semaphore slots = new Semaphore(inFlight);
+        final CountDownLatch completed = new CountDownLatch(missives.size());
+
+        long startTime = System.nanoTime();
+
+        for (int i = 0; i < missives.size(); i++) {
+
+            // Wait for a missive in flight to complete
+            slots.acquire();
+
+            final int index = i;
+            final long submitTime = System.nanoTime();
+
+            smoc.sendMissiveAsync(new MissiveRequest(SUBJECT + i, missives.get(i).getPath()), new MissiveCallback() {
+
+                @Override
+                public void completed(MissiveReceipt receipt) {
+                    latencies[index] = System.nanoTime() - submitTime;
+                    receipts[index] = receipt;
+                    slots.release();
+                    completed.countDown();
+                }
+            });
+        }
+
+        completed.await();
+
+        return System.nanoTime() - startTime;
+    }
+
+    /**
+     * Decrypt and check every email received by a server against the missives it should have received, and print
+     * the results
+     * 
+     * @param name Name of the emails
+     * @param server Server that received the emails
+     * @param reader Reader decrypting the emails
+     * @param expected Index of the missive of each expected email, by subject
+     * @param missives Missive XML files
+     * @throws Exception
+     */
+    private static void verify(String name, LocalMailServer server, SmimeMessageReader reader,
+            Map<String, Integer> expected, List<File> missives) throws Exception {
+
+        Session session = Session.getInstance(new Properties());
+        Set<String> received = new HashSet<>();
+        int correct = 0;
+        int corrupted = 0;
+        int duplicated = 0;
+        int unexpected = 0;
+
+        for (byte[] raw : server.getMessages()) {
+
+            // Missive of the email
+            MimeMessage message = new MimeMessage(session, new ByteArrayInputStream(raw));
+            Integer index = expected.get(message.getSubject());
+
+            if (null == index) {
+                unexpected++;
+                continue;
+            }
+
+            if (!received.add(message.getSubject())) {
+                duplicated++;
+                continue;
+            }
+
+            // Signed content must be the missive file, whatever the line terminators
+            try {
+                byte[] content = reader.readContent(message);
+                if (Arrays.equals(stripCarriageReturns(content), stripCarriageReturns(Files.readAllBytes(
+                        missives.get(index).toPath())))) {
+                    correct++;
+                } else {
+                    corrupted++;
+                }
+            } catch (Exception ex) {
+                corrupted++;
+            }
+        }
+
+        System.out.println(String.format("%s: %d received over %d connections, %d injected errors, %d correct, "
+                + "%d corrupted, %d duplicated, %d unexpected, %d missing", name, server.getMessages().size(),
+                server.getConnectionCount(), server.getInjectedErrors(), correct, corrupted, duplicated, unexpected,
+                expected.size() - received.size()));
+    }
+
+    /**
+     * Write the SMOC configuration file of the load test
+     * 
+     * @param directory Directory of the load test
+     * @param keys Key material of the sender and the recipient
+     * @param smtpServer SMTP server
+     * @param imapServer IMAP server
+     * @param extraSettings File of additional settings overriding the generated ones, or null
+     * @return Path and name of the configuration file
+     * @throws Exception
+     */
+    private static String writeSettings(File directory, BenchmarkKeys keys, LocalSmtpServer smtpServer,
+            LocalImapServer imapServer, String extraSettings) throws Exception {
+
+        // Settings of the key material and of the mail servers
+        Properties settings = new Properties();
+        keys.addSettings(settings);
+        settings.setProperty("sign.algorithm", keys.getSignAlgorithm());
+        settings.setProperty("smime.cms.algorithm", "AES128_CBC");
+        settings.setProperty("sender.name", "SMOC Load Test");
+        settings.setProperty("sender.address", "sender@localhost");
+        settings.setProperty("recipient.address", "recipient@localhost");
+        settings.setProperty("smtp.host", smtpServer.getHost());
+        settings.setProperty("smtp.port", String.valueOf(smtpServer.getPort()));
+        settings.setProperty("smtp.username", "smoc");
+        settings.setProperty("smtp.password", "smoc");
+        settings.setProperty("imap.protocol", "imap");
+        settings.setProperty("imap.host", imapServer.getHost());
+        settings.setProperty("imap.port", String.valueOf(imapServer.getPort()));
+        settings.setProperty("imap.username", "smoc");
+        settings.setProperty("imap.password", "smoc");
+        settings.setProperty("imap.folder", FOLDER);
+
+        // Additional settings, such as the pool sizes or the archive queue
+        if (null != extraSettings) {
+            try (InputStream in = new FileInputStream(extraSettings)) {
+                settings.load(in);
+            }
+        }
+
+        File conf = new File(directory, "smoc.properties");
+        try (OutputStream out = new FileOutputStream(conf)) {
+            settings.store(out, "SMOC load test");
+        }
+
+        return conf.getPath();
+    }
+
+    /**
+     * Write the missive files of the load test, each of them being a copy of the template followed by a comment
+     * holding its number
+     * 
+     * @param directory Directory of the load test
+     * @param template Missive XML file the missives are copied from
+     * @param count Number of missives
+     * @return Missive XML files
+     * @throws Exception
+     */
+    private static List<File> createMissives(File directory, String template, int count) throws Exception {
+
+        // Content of the template
+        byte[] content = Files.readAllBytes(new File(template).toPath());
+        File missiveDirectory = new File(directory, "missives");
+        missiveDirectory.mkdir();
+
+        List<File> missives = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+
+            File missive = new File(missiveDirectory, String.format("missive-%06d.xml", i));
+            try (OutputStream out = new FileOutputStream(missive)) {
+                out.write(content);
+                out.write(("\n<!-- SMOC load test missive " + i + " -->\n").getBytes(Charset.forName("UTF-8")));
+            }
+
+            missives.add(missive);
+        }
+
+        return missives;
+    }
+
+    /**
+     * Get a percentile of sorted latencies
+     * 
+     * @param latencies Sorted latencies
+     * @param percentile Percentile between 0 and 1
+     * @return Latency of the percentile
+     */
+    private static long percentile(long[] latencies, double percentile) {
+        return latencies[(int) Math.min(latencies.length - 1, Math.ceil(percentile * latencies.length) - 1)];
+    }
+
+    /**
+     * Add one to the counter of the given key
+     * 
+     * @param counters Counters by key
+     * @param key Key of the counter
+     */
+    private static void increment(Map<String, Integer> counters, String key) {
+        Integer counter = counters.get(key);
+        counters.put(key, null == counter ? 1 : counter + 1);
+    }
+
+    /**
+     * Remove the carriage returns of a content, so that contents differing only by their line terminators are equal
+     * 
+     * @param content Content
+     * @return Content without carriage returns
+     */
+    private static byte[] stripCarriageReturns(byte[] content) {
+
+        ByteArrayOutputStream stripped = new ByteArrayOutputStream(content.length);
+        for (byte b : content) {
+            if ('\r' != b) {
+                stripped.write(b);
+            }
+        }
+
+        return stripped.toByteArray();
+    }
+}
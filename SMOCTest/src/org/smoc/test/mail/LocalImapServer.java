@@ -0,0 +1,137 @@
+package org.smoc.test.mail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The LocalImapServer class is an in-process IMAP server accepting the copies of the sent emails appended by
+ * IMAPSynchronizer. It has a single folder, the Sent Items folder, and supports the CAPABILITY, LOGIN, LIST, APPEND,
+ * NOOP and LOGOUT commands, accepting any credentials and keeping the content of each appended message. Injected
+ * errors are reported with a NO reply to APPEND, the message being discarded.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class LocalImapServer extends LocalMailServer {
+
+    private static final Pattern LITERAL = Pattern.compile("\\{(\\d+)\\+?\\}$");
+
+    private final String folder;
+
+    /**
+     * LocalImapServer class constructor
+     * 
+     * @param folder Name of the Sent Items folder
+     */
+    public LocalImapServer(String folder) {
+
+        super("imap-standin");
+
+        // Initialise class attributes
+        this.folder = folder;
+    }
+
+    /**
+     * Serve an IMAP session
+     * 
+     * @param in Stream of the commands sent by the client
+     * @param out Stream of the replies of the server
+     * @throws IOException
+     */
+    @Override
+    protected void serve(InputStream in, OutputStream out) throws IOException {
+
+        writeLine(out, "* OK [CAPABILITY IMAP4rev1] SMOC stand-in IMAP server ready");
+
+        byte[] line;
+        while ((line = readLine(in)) != null) {
+
+            // Tag, name and arguments of the command
+            String[] command = new String(line, ASCII).split(" ", 3);
+            String tag = command[0];
+            String name = command.length > 1 ? command[1].toUpperCase() : "";
+            String arguments = command.length > 2 ? command[2] : "";
+
+            switch (name) {
+                case "CAPABILITY":
+                    writeLine(out, "* CAPABILITY IMAP4rev1");
+                    writeLine(out, tag + " OK CAPABILITY completed");
+                    break;
+                case "LOGIN":
+                    writeLine(out, tag + " OK LOGIN completed");
+                    break;
+                case "LIST":
+
+                    // Only the Sent Items folder exists
+                    if (arguments.endsWith(" " + this.folder) || arguments.endsWith("\"" + this.folder + "\"")) {
+                        writeLine(out, "* LIST () \"/\" \"" + this.folder + "\"");
+                    }
+                    writeLine(out, tag + " OK LIST completed");
+                    break;
+                case "APPEND":
+                    if (!this.append(tag, arguments, in, out)) {
+                        return;
+                    }
+                    break;
+                case "NOOP":
+                    writeLine(out, tag + " OK NOOP completed");
+                    break;
+                case "LOGOUT":
+                    writeLine(out, "* BYE Logging out");
+                    writeLine(out, tag + " OK LOGOUT completed");
+                    return;
+                default:
+                    writeLine(out, tag + " BAD Command not supported");
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Run an APPEND command, reading the message sent as a literal
+     * 
+     * @param tag Tag of the command
+     * @param arguments Arguments of the command, ending with the size of the literal
+     * @param in Stream of the client
+     * @param out Stream of the replies of the server
+     * @return Whether the session goes on
+     * @throws IOException
+     */
+    private boolean append(String tag, String arguments, InputStream in, OutputStream out) throws IOException {
+
+        // Size of the message
+        Matcher literal = LITERAL.matcher(arguments);
+        if (!literal.find()) {
+            writeLine(out, tag + " BAD Missing message literal");
+            return true;
+        }
+
+        // Read the message and the end of the command line, a non-synchronizing literal being sent right away
+        if (!literal.group().endsWith("+}")) {
+            writeLine(out, "+ Ready for literal data");
+        }
+        byte[] message = new byte[Integer.parseInt(literal.group(1))];
+        int offset = 0;
+        while (offset < message.length) {
+            int read = in.read(message, offset, message.length - offset);
+            if (read < 0) {
+                return false;
+            }
+            offset += read;
+        }
+        readLine(in);
+
+        // Keep the message unless an error is injected
+        if (this.injectFault()) {
+            writeLine(out, tag + " NO [UNAVAILABLE] Injected failure, message not appended");
+        } else {
+            this.store(message);
+            writeLine(out, tag + " OK APPEND completed");
+        }
+
+        return true;
+    }
+}
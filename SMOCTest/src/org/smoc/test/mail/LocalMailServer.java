@@ -0,0 +1,315 @@
+package org.smoc.test.mail;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The LocalMailServer class is the base of the in-process mail servers standing in for the SMTP and IMAP servers of
+ * SMOC during load tests. The server listens on an ephemeral port of the loopback interface and serves each connection
+ * on its own daemon thread, keeping every message it accepts in memory so that the test can check them afterwards.
+ * <p>
+ * Latency and errors can be injected on the commands carrying a message: each of them is delayed by the configured
+ * latency and then fails with the configured probability, the failed messages being discarded.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public abstract class LocalMailServer {
+
+    /**
+     * Character set of the protocol lines
+     */
+    protected static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final AtomicInteger connectionCount;
+    private final Set<Socket> connections;
+    private volatile double errorRate;
+    private final AtomicInteger injectedErrors;
+    private volatile long latency;
+    private final ConcurrentLinkedQueue<byte[]> messages;
+    private final String name;
+    private ServerSocket serverSocket;
+
+    /**
+     * Get the number of connections accepted so far
+     * 
+     * @return Number of connections
+     */
+    public int getConnectionCount() {
+        return this.connectionCount.get();
+    }
+
+    /**
+     * Set the probability that a command carrying a message fails
+     * 
+     * @param errorRate Probability between 0 and 1
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = Math.max(0, Math.min(1, errorRate));
+    }
+
+    /**
+     * Get the address the server listens on
+     * 
+     * @return Loopback address
+     */
+    public String getHost() {
+        return this.serverSocket.getInetAddress().getHostAddress();
+    }
+
+    /**
+     * Get the number of commands that failed because of an injected error
+     * 
+     * @return Number of injected errors
+     */
+    public int getInjectedErrors() {
+        return this.injectedErrors.get();
+    }
+
+    /**
+     * Set the time each command carrying a message is delayed by before being answered
+     * 
+     * @param latency Latency in milliseconds
+     */
+    public void setLatency(long latency) {
+        this.latency = Math.max(0, latency);
+    }
+
+    /**
+     * Get the messages accepted so far, in the order they were accepted
+     * 
+     * @return Raw content of the messages
+     */
+    public List<byte[]> getMessages() {
+        return new ArrayList<>(this.messages);
+    }
+
+    /**
+     * Get the port the server listens on
+     * 
+     * @return Port of the server
+     */
+    public int getPort() {
+        return this.serverSocket.getLocalPort();
+    }
+
+    /**
+     * LocalMailServer class constructor
+     * 
+     * @param name Name of the server, used to name its threads
+     */
+    protected LocalMailServer(String name) {
+
+        // Initialise class attributes
+        this.connectionCount = new AtomicInteger(0);
+        this.connections = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+        this.errorRate = 0;
+        this.injectedErrors = new AtomicInteger(0);
+        this.latency = 0;
+        this.messages = new ConcurrentLinkedQueue<>();
+        this.name = name;
+    }
+
+    /**
+     * Start listening on an ephemeral port of the loopback interface
+     * 
+     * @throws IOException
+     */
+    public synchronized void start() throws IOException {
+
+        // Listening socket of the server
+        this.serverSocket = new ServerSocket(0, 128, InetAddress.getByName("127.0.0.1"));
+
+        Thread acceptor = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                accept();
+            }
+        }, this.name + "-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Stop listening and close the open connections. The messages accepted so far remain available.
+     */
+    public synchronized void close() {
+
+        try {
+            if (null != this.serverSocket) {
+                this.serverSocket.close();
+            }
+        } catch (IOException ex) {
+
+            // The socket is released anyway
+        }
+
+        // Close the connections still open, which stops their threads
+        for (Socket socket : this.connections) {
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Serve a connection until the client leaves or the connection is closed
+     * 
+     * @param in Stream of the commands sent by the client
+     * @param out Stream of the replies of the server
+     * @throws IOException
+     */
+    protected abstract void serve(InputStream in, OutputStream out) throws IOException;
+
+    /**
+     * Delay the current command by the configured latency and decide whether it fails
+     * 
+     * @return Whether an error is injected in the command
+     */
+    protected boolean injectFault() {
+
+        // Latency of the command
+        if (this.latency > 0) {
+            try {
+                Thread.sleep(this.latency);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Error of the command
+        if (this.errorRate > 0 && ThreadLocalRandom.current().nextDouble() < this.errorRate) {
+            this.injectedErrors.incrementAndGet();
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Keep a message accepted by the server
+     * 
+     * @param message Raw content of the message
+     */
+    protected void store(byte[] message) {
+        this.messages.add(message);
+    }
+
+    /**
+     * Read a line sent by the client, without its line terminator
+     * 
+     * @param in Stream of the client
+     * @return Bytes of the line, or null if the client closed the connection
+     * @throws IOException
+     */
+    protected static byte[] readLine(InputStream in) throws IOException {
+
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+
+        while ((b = in.read()) != '\n') {
+
+            // Connection closed by the client
+            if (b < 0) {
+                return line.size() > 0 ? line.toByteArray() : null;
+            }
+
+            line.write(b);
+        }
+
+        // Drop the carriage return of the line terminator
+        byte[] bytes = line.toByteArray();
+        if (bytes.length > 0 && '\r' == bytes[bytes.length - 1]) {
+            byte[] trimmed = new byte[bytes.length - 1];
+            System.arraycopy(bytes, 0, trimmed, 0, trimmed.length);
+            return trimmed;
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Send a reply line to the client
+     * 
+     * @param out Stream of the client
+     * @param line Reply without its line terminator
+     * @throws IOException
+     */
+    protected static void writeLine(OutputStream out, String line) throws IOException {
+        out.write((line + "\r\n").getBytes(ASCII));
+        out.flush();
+    }
+
+    /**
+     * Accept connections until the server is closed, serving each of them on its own thread
+     */
+    private void accept() {
+
+        while (!this.serverSocket.isClosed()) {
+
+            final Socket socket;
+            try {
+                socket = this.serverSocket.accept();
+            } catch (IOException ex) {
+
+                // The server has been closed
+                return;
+            }
+
+            this.connectionCount.incrementAndGet();
+            this.connections.add(socket);
+
+            Thread thread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        serve(new BufferedInputStream(socket.getInputStream()),
+                                new BufferedOutputStream(socket.getOutputStream()));
+                    } catch (SocketException ex) {
+
+                        // The connection was closed by the client or by close
+                    } catch (IOException ex) {
+                        System.err.println(LocalMailServer.this.name + ": " + ex.getMessage());
+                    } finally {
+                        LocalMailServer.this.connections.remove(socket);
+                        closeQuietly(socket);
+                    }
+                }
+            }, this.name + "-" + this.connectionCount.get());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Close a socket, ignoring errors
+     * 
+     * @param socket Socket to close
+     */
+    private static void closeQuietly(Socket socket) {
+
+        try {
+            socket.close();
+        } catch (IOException ex) {
+
+            // The socket is released anyway
+        }
+    }
+}
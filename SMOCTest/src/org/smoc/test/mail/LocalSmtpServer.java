@@ -0,0 +1,128 @@
+package org.smoc.test.mail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The LocalSmtpServer class is an in-process SMTP server accepting the emails sent by SMTPMailer. It supports the
+ * EHLO, HELO, AUTH PLAIN, AUTH LOGIN, MAIL, RCPT, DATA, RSET, NOOP and QUIT commands, accepts any credentials and keeps
+ * the content of each email received with DATA. Injected errors are reported with a transient 451 reply to DATA, the
+ * email being discarded.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class LocalSmtpServer extends LocalMailServer {
+
+    /**
+     * LocalSmtpServer class constructor
+     */
+    public LocalSmtpServer() {
+        super("smtp-standin");
+    }
+
+    /**
+     * Serve an SMTP session
+     * 
+     * @param in Stream of the commands sent by the client
+     * @param out Stream of the replies of the server
+     * @throws IOException
+     */
+    @Override
+    protected void serve(InputStream in, OutputStream out) throws IOException {
+
+        writeLine(out, "220 localhost SMOC stand-in ESMTP ready");
+
+        byte[] line;
+        while ((line = readLine(in)) != null) {
+
+            // Verb of the command
+            String command = new String(line, ASCII).trim();
+            String verb = command.toUpperCase();
+
+            if (verb.startsWith("EHLO")) {
+                writeLine(out, "250-localhost");
+                writeLine(out, "250-AUTH PLAIN LOGIN");
+                writeLine(out, "250-8BITMIME");
+                writeLine(out, "250 PIPELINING");
+            } else if (verb.startsWith("HELO")) {
+                writeLine(out, "250 localhost");
+            } else if (verb.startsWith("AUTH PLAIN")) {
+
+                // Credentials sent with the command or on the next line
+                if (command.split(" ").length < 3) {
+                    writeLine(out, "334 ");
+                    readLine(in);
+                }
+                writeLine(out, "235 2.7.0 Authentication successful");
+
+            } else if (verb.startsWith("AUTH LOGIN")) {
+
+                // User name, unless sent with the command, and password
+                if (command.split(" ").length < 3) {
+                    writeLine(out, "334 VXNlcm5hbWU6");
+                    readLine(in);
+                }
+                writeLine(out, "334 UGFzc3dvcmQ6");
+                readLine(in);
+                writeLine(out, "235 2.7.0 Authentication successful");
+
+            } else if (verb.startsWith("DATA")) {
+
+                writeLine(out, "354 End data with <CR><LF>.<CR><LF>");
+                byte[] message = readData(in);
+                if (null == message) {
+                    return;
+                }
+
+                // Keep the email unless an error is injected
+                if (this.injectFault()) {
+                    writeLine(out, "451 4.3.0 Injected failure, message not accepted");
+                } else {
+                    this.store(message);
+                    writeLine(out, "250 2.0.0 Message accepted");
+                }
+
+            } else if (verb.startsWith("QUIT")) {
+                writeLine(out, "221 2.0.0 Bye");
+                return;
+            } else if (verb.startsWith("MAIL") || verb.startsWith("RCPT") || verb.startsWith("RSET")
+                    || verb.startsWith("NOOP")) {
+                writeLine(out, "250 2.0.0 OK");
+            } else {
+                writeLine(out, "502 5.5.1 Command not implemented");
+            }
+        }
+    }
+
+    /**
+     * Read the content of an email sent with DATA, up to the line holding a single dot
+     * 
+     * @param in Stream of the client
+     * @return Content of the email with CRLF line terminators, or null if the client closed the connection
+     * @throws IOException
+     */
+    private static byte[] readData(InputStream in) throws IOException {
+
+        ByteArrayOutputStream message = new ByteArrayOutputStream(16384);
+
+        byte[] line;
+        while ((line = readLine(in)) != null) {
+
+            // End of the email
+            if (1 == line.length && '.' == line[0]) {
+                return message.toByteArray();
+            }
+
+            // Remove the dot added in front of the lines starting with a dot
+            int offset = line.length > 0 && '.' == line[0] ? 1 : 0;
+            message.write(line, offset, line.length - offset);
+            message.write('\r');
+            message.write('\n');
+        }
+
+        return null;
+    }
+}
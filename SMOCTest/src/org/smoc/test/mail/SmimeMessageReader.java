@@ -0,0 +1,166 @@
+package org.smoc.test.mail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.PrivateKey;
+import java.util.Collection;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.KeyAgreeRecipientInformation;
+import org.bouncycastle.cms.RecipientInformation;
+import org.bouncycastle.cms.SignerInformation;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoVerifierBuilder;
+import org.bouncycastle.cms.jcajce.JceKeyAgreeEnvelopedRecipient;
+import org.bouncycastle.cms.jcajce.JceKeyTransEnvelopedRecipient;
+import org.bouncycastle.cms.jcajce.ZlibExpanderProvider;
+import org.bouncycastle.mail.smime.SMIMECompressed;
+import org.bouncycastle.mail.smime.SMIMEEnveloped;
+import org.bouncycastle.mail.smime.SMIMESigned;
+import org.bouncycastle.mail.smime.SMIMEUtil;
+import org.smoc.cryptograhy.AuthEnvelopedDataReader;
+
+/**
+ * The SmimeMessageReader class opens the encrypted and signed emails generated by SMOC the way their recipient does:
+ * the envelope, enveloped or AES-GCM authenticated enveloped data, is decrypted with the RSA or elliptic curve private
+ * key of the reader, the compressed-data layer, if any, is expanded, the signature is checked against the certificate
+ * carried by the email and the signed content is returned.
+ * 
+ * @author Bishan Kumar Madhoo <bishan.madhoo@idsoft.mu>
+ * @version 1.0
+ */
+public class SmimeMessageReader {
+
+    private static final String PROVIDER = "BC";
+
+    private final PrivateKey privateKey;
+
+    /**
+     * SmimeMessageReader class constructor
+     * 
+     * @param privateKey Private key of the recipient of the envelopes
+     */
+    public SmimeMessageReader(PrivateKey privateKey) {
+
+        // Initialise class attributes
+        this.privateKey = privateKey;
+    }
+
+    /**
+     * Decrypt an email, check its signature and get the signed content
+     * 
+     * @param message Encrypted and signed email
+     * @return Decoded bytes of the signed content
+     * @throws CMSException if the email cannot be decrypted with the private key
+     * @throws SecurityException if the signature of the email is not valid
+     * @throws Exception
+     */
+    public byte[] readContent(MimeMessage message) throws Exception {
+
+        // Authenticated envelopes are decrypted and authenticated by SMOC itself
+        if (message.getContentType().contains("authEnveloped-data")) {
+            return this.verify(new MimeBodyPart(new ByteArrayInputStream(new AuthEnvelopedDataReader(
+                    readAll(message.getInputStream())).getContent(this.privateKey, PROVIDER))));
+        }
+
+        // Decrypt the envelope with the first recipient info matching the private key
+        SMIMEEnveloped enveloped = new SMIMEEnveloped(message);
+        MimeBodyPart signedPart = null;
+        CMSException failure = null;
+
+        for (Object recipient : enveloped.getRecipientInfos().getRecipients()) {
+            try {
+                signedPart = SMIMEUtil.toMimeBodyPart(((RecipientInformation) recipient).getContent(
+                        recipient instanceof KeyAgreeRecipientInformation
+                        ? new JceKeyAgreeEnvelopedRecipient(this.privateKey).setProvider(PROVIDER)
+                        : new JceKeyTransEnvelopedRecipient(this.privateKey).setProvider(PROVIDER)));
+                break;
+            } catch (CMSException ex) {
+                failure = ex;
+            } catch (RuntimeException ex) {
+
+                // Key of another party, rejected by the provider while unwrapping
+                failure = new CMSException("Cannot unwrap content encryption key: " + ex.getMessage(), ex);
+            }
+        }
+
+        if (null == signedPart) {
+            throw null == failure ? new CMSException("The envelope has no recipient info") : failure;
+        }
+
+        return this.verify(signedPart);
+    }
+
+    /**
+     * Check the signature of a decrypted signed body part and get the signed content, the body part being expanded
+     * first if it is a compressed-data body part
+     * 
+     * @param signedPart Decrypted signed or compressed body part
+     * @return Decoded bytes of the signed content
+     * @throws SecurityException if the signature of the email is not valid
+     * @throws Exception
+     */
+    private byte[] verify(MimeBodyPart signedPart) throws Exception {
+
+        // Expand the signed body part wrapped by the compress stage
+        if (signedPart.getContentType().contains("compressed-data")) {
+            signedPart = SMIMEUtil.toMimeBodyPart(new SMIMECompressed(signedPart).getContent(
+                    new ZlibExpanderProvider()));
+        }
+
+        // Check the signature of every signer against its certificate
+        SMIMESigned signed = new SMIMESigned((MimeMultipart) signedPart.getContent());
+
+        for (Object signer : signed.getSignerInfos().getSigners()) {
+
+            SignerInformation information = (SignerInformation) signer;
+            Collection<?> certificates = signed.getCertificates().getMatches(information.getSID());
+
+            if (certificates.isEmpty() || !information.verify(new JcaSimpleSignerInfoVerifierBuilder()
+                    .setProvider(PROVIDER).build((X509CertificateHolder) certificates.iterator().next()))) {
+                throw new SecurityException("The signature of the email is not valid");
+            }
+        }
+
+        return readAll(signed.getContent());
+    }
+
+    /**
+     * Read the decoded content of a body part
+     * 
+     * @param part Body part
+     * @return Decoded content of the body part
+     * @throws IOException
+     * @throws MessagingException
+     */
+    private static byte[] readAll(MimeBodyPart part) throws IOException, MessagingException {
+        return readAll(part.getInputStream());
+    }
+
+    /**
+     * Read a stream to its end and close it
+     * 
+     * @param input Input stream
+     * @return Bytes read from the stream
+     * @throws IOException
+     */
+    private static byte[] readAll(InputStream input) throws IOException {
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+
+        try (InputStream in = input) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                content.write(buffer, 0, read);
+            }
+        }
+
+        return content.toByteArray();
+    }
+}